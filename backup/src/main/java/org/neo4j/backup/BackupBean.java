@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.com.IoThrottle;
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.management.Backup;
+
+@Service.Implementation(ManagementBeanProvider.class)
+public final class BackupBean extends ManagementBeanProvider
+{
+    public BackupBean()
+    {
+        super( Backup.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management )
+            throws NotCompliantMBeanException
+    {
+        IoThrottle throttle = throttle( management );
+        return throttle == null ? null : new OnlineBackupImpl( management, throttle, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management )
+            throws NotCompliantMBeanException
+    {
+        IoThrottle throttle = throttle( management );
+        return throttle == null ? null : new OnlineBackupImpl( management, throttle );
+    }
+
+    /**
+     * @return the throttle of the online backup extension, or {@code null} if the
+     * database runs without it.
+     */
+    private static IoThrottle throttle( ManagementData management )
+    {
+        try
+        {
+            return management.getKernelData().graphDatabase().getDependencyResolver()
+                    .resolveDependency( OnlineBackupKernelExtension.class ).getThrottle();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return null;
+        }
+    }
+
+    private static class OnlineBackupImpl extends Neo4jMBean implements Backup
+    {
+        private final IoThrottle throttle;
+
+        protected OnlineBackupImpl( ManagementData management, IoThrottle throttle )
+                throws NotCompliantMBeanException
+        {
+            super( management );
+            this.throttle = throttle;
+        }
+
+        protected OnlineBackupImpl( ManagementData management, IoThrottle throttle, boolean isMXBean )
+        {
+            super( management, isMXBean );
+            this.throttle = throttle;
+        }
+
+        @Override
+        public long getMaxBytesPerSecond()
+        {
+            return throttle.getBytesPerSecond();
+        }
+
+        @Override
+        public void setMaxBytesPerSecond( long bytesPerSecond )
+        {
+            throttle.setBytesPerSecond( bytesPerSecond );
+        }
+
+        @Override
+        public long getThrottledMillis()
+        {
+            return throttle.getThrottledMillis();
+        }
+    }
+}
@@ -20,6 +20,7 @@
 
 package org.neo4j.backup;
 
+import org.neo4j.com.IoThrottle;
 import org.neo4j.com.ServerUtil;
 import org.neo4j.com.Response;
 import org.neo4j.com.RequestContext;
@@ -30,15 +31,26 @@ import org.neo4j.kernel.GraphDatabaseAPI;
 class BackupImpl implements TheBackupInterface
 {
     private final GraphDatabaseAPI graphDb;
+    private final IoThrottle throttle;
 
     public BackupImpl( GraphDatabaseAPI graphDb )
+    {
+        this( graphDb, new IoThrottle( 0 ) );
+    }
+
+    /**
+     * @param throttle limits the rate at which store files are read, and thereby sent,
+     * during a full backup.
+     */
+    public BackupImpl( GraphDatabaseAPI graphDb, IoThrottle throttle )
     {
         this.graphDb = graphDb;
+        this.throttle = throttle;
     }
     
     public Response<Void> fullBackup( StoreWriter writer )
     {
-        RequestContext context = ServerUtil.rotateLogsAndStreamStoreFiles( graphDb, false, writer );
+        RequestContext context = ServerUtil.rotateLogsAndStreamStoreFiles( graphDb, false, writer, throttle );
         writer.done();
         return packResponse( context );
     }
@@ -20,6 +20,7 @@
 
 package org.neo4j.backup;
 
+import org.neo4j.com.IoThrottle;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.lifecycle.Lifecycle;
@@ -31,11 +32,22 @@ public class OnlineBackupKernelExtension implements Lifecycle
     private Config config;
     private GraphDatabaseAPI graphDatabaseAPI;
     private BackupServer server;
+    private final IoThrottle throttle;
 
     public OnlineBackupKernelExtension( Config config, GraphDatabaseAPI graphDatabaseAPI )
     {
         this.config = config;
         this.graphDatabaseAPI = graphDatabaseAPI;
+        this.throttle = new IoThrottle( config.get( OnlineBackupSettings.online_backup_max_bytes_per_second ) );
+    }
+
+    /**
+     * @return the rate limit of full backups, which can be changed at runtime
+     * through the online backup management bean.
+     */
+    public IoThrottle getThrottle()
+    {
+        return throttle;
     }
 
     @Override
@@ -48,7 +60,7 @@ public class OnlineBackupKernelExtension implements Lifecycle
     {
         if ( config.<Boolean>get( OnlineBackupSettings.online_backup_enabled ) )
         {
-            TheBackupInterface backup = new BackupImpl( graphDatabaseAPI );
+            TheBackupInterface backup = new BackupImpl( graphDatabaseAPI, throttle );
             try
             {
                 server = new BackupServer( backup,
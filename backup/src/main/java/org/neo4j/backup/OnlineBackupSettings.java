@@ -39,4 +39,11 @@ public class OnlineBackupSettings
     @Default("6362")
     public static final GraphDatabaseSetting.PortSetting online_backup_port =
             new GraphDatabaseSetting.PortSetting( "online_backup_port" );
+
+    @Description( "The maximum rate, in bytes per second, at which store files are read and sent during a " +
+            "full backup. 0 means unlimited. Examples: 20M or 500k. It can be changed at runtime through " +
+            "the Online Backup management bean" )
+    @Default("0")
+    public static final GraphDatabaseSetting<Long> online_backup_max_bytes_per_second =
+            new GraphDatabaseSetting.NumberOfBytesSetting( "online_backup_max_bytes_per_second" );
 }
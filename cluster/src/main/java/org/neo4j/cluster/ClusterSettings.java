@@ -22,10 +22,12 @@ package org.neo4j.cluster;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.ANY;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.FALSE;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.HostnamePortSetting;
+import static org.neo4j.graphdb.factory.GraphDatabaseSetting.NumberOfBytesSetting;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.TRUE;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.TimeSpanSetting;
 
 import org.neo4j.graphdb.factory.Default;
+import org.neo4j.graphdb.factory.Description;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.BooleanSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.IntegerSetting;
@@ -65,4 +67,41 @@ public class ClusterSettings
 
     public static final StringSetting cluster_discovery_url = new StringSetting( "ha.discovery.url", ANY,
             "Must be a valid URL" );
-}
\ No newline at end of file
+
+    @Description("The maximum number of broadcast values a cluster member proposes together in one Paxos instance")
+    @Default("64")
+    public static final IntegerSetting paxos_batch_max_values = new IntegerSetting( "ha.paxos_batch_max_values",
+            "Must be a valid number of values", 1, null );
+
+    @Description("The maximum total size of the broadcast values a cluster member proposes together in one " +
+            "Paxos instance. A single larger value is still proposed, on its own")
+    @Default("64k")
+    public static final GraphDatabaseSetting<Long> paxos_batch_max_bytes =
+            new NumberOfBytesSetting( "ha.paxos_batch_max_bytes" );
+
+    @Description("The maximum number of Paxos instances a cluster member has open at the same time. A larger " +
+            "window gives more broadcast throughput on high latency networks")
+    @Default("10")
+    public static final IntegerSetting paxos_max_concurrent_instances = new IntegerSetting(
+            "ha.paxos_max_concurrent_instances", "Must be a valid number of instances", 1, null );
+
+    @Description("The maximum number of broadcast values waiting for a free Paxos instance. Values beyond " +
+            "this are rejected, which their broadcaster is told about, and sent again by it after a timeout")
+    @Default("1000")
+    public static final IntegerSetting paxos_max_pending_values = new IntegerSetting(
+            "ha.paxos_max_pending_values", "Must be a valid number of values", 1, null );
+
+    @Description("The suspicion level, phi, at which a cluster member that has stopped sending heartbeats is " +
+            "suspected to have failed. The level grows faster for members whose heartbeats usually arrive on " +
+            "time. Set to 0 to suspect members after a fixed timeout instead")
+    @Default("8")
+    public static final IntegerSetting heartbeat_phi_threshold = new IntegerSetting(
+            "ha.heartbeat_phi_threshold", "Must be a valid suspicion level", 0, null );
+
+    @Description("Detect failed cluster members by gossip instead of heartbeats between all members. Each " +
+            "member then probes one other member per heartbeat interval and passes suspicions on with the " +
+            "probes, so the cost per member stays the same as the cluster grows. All members of a cluster " +
+            "should use the same setting")
+    @Default(FALSE)
+    public static final BooleanSetting heartbeat_gossip_enabled = new BooleanSetting( "ha.heartbeat_gossip_enabled" );
+}
@@ -29,6 +29,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
@@ -45,7 +49,13 @@ import org.slf4j.LoggerFactory;
  * Combines a set of state machines into one. This will
  * typically receive messages from the network and then delegate
  * to the correct state machine based on what type of message comes in.
- * Only one message at a time can be processed.
+ *
+ * Each state machine belongs to a lane, which has a mailbox and handles one
+ * message at a time. Different lanes handle messages concurrently, so a busy
+ * state machine doesn't hold up the ones in other lanes. State machines that
+ * share context without synchronization have to be put in the same lane.
+ * There are no threads of their own; a message is handled by the thread
+ * delivering it, or, if its lane is busy, by the thread keeping the lane busy.
  */
 public class ConnectedStateMachines
         implements MessageProcessor, MessageSource
@@ -57,9 +67,12 @@ public class ConnectedStateMachines
     private Timeouts timeouts;
     private final Map<Class<? extends MessageType>, StateMachine> stateMachines = new LinkedHashMap<Class<? extends
             MessageType>, StateMachine>();
+    private final Map<Class<? extends MessageType>, Lane> lanes = new ConcurrentHashMap<Class<? extends
+            MessageType>, Lane>();
 
-    private final List<MessageProcessor> outgoingProcessors = new ArrayList<MessageProcessor>();
+    private final List<MessageProcessor> outgoingProcessors = new CopyOnWriteArrayList<MessageProcessor>();
     private final OutgoingMessageProcessor outgoing;
+    private final ThreadLocal<Cascade> currentCascade = new ThreadLocal<Cascade>();
 
     public ConnectedStateMachines( MessageSource source,
                                    final MessageProcessor sender,
@@ -79,14 +92,34 @@ public class ConnectedStateMachines
         return timeouts;
     }
 
+    /**
+     * Adds a state machine in a lane of its own.
+     */
     public synchronized void addStateMachine( StateMachine stateMachine )
     {
         stateMachines.put( stateMachine.getMessageType(), stateMachine );
+        lanes.put( stateMachine.getMessageType(), new Lane() );
+    }
+
+    /**
+     * Adds a state machine in the same lane as another one, for state machines sharing context.
+     */
+    public synchronized void addStateMachine( StateMachine stateMachine, StateMachine sameLaneAs )
+    {
+        Lane lane = lanes.get( sameLaneAs.getMessageType() );
+        if ( lane == null )
+        {
+            throw new IllegalArgumentException( "State machine for " + sameLaneAs.getMessageType().getSimpleName()
+                    + " has not been added" );
+        }
+        stateMachines.put( stateMachine.getMessageType(), stateMachine );
+        lanes.put( stateMachine.getMessageType(), lane );
     }
 
     public synchronized void removeStateMachine( StateMachine stateMachine )
     {
         stateMachines.remove( stateMachine.getMessageType() );
+        lanes.remove( stateMachine.getMessageType() );
     }
 
     public Iterable<StateMachine> getStateMachines()
@@ -106,73 +139,15 @@ public class ConnectedStateMachines
     }
 
     @Override
-    public synchronized void process( Message<? extends MessageType> message )
+    public void process( Message<? extends MessageType> message )
     {
-        // Lock timeouts while we are processing the message
-        synchronized ( timeouts )
+        Lane lane = lanes.get( message.getMessageType().getClass() );
+        if ( lane == null )
         {
-            StateMachine stateMachine = stateMachines.get( message.getMessageType().getClass() );
-            if ( stateMachine == null )
-            {
-                return; // No StateMachine registered for this MessageType type - Ignore this
-            }
-
-            stateMachine.handle( message, outgoing );
-
-            // Process and send messages
-            // Allow state machines to send messages to each other as well in this loop
-            Message<? extends MessageType> outgoingMessage;
-            try
-            {
-                while ( (outgoingMessage = outgoing.nextOutgoingMessage()) != null )
-                {
-                    message.copyHeadersTo( outgoingMessage, CONVERSATION_ID, CREATED_BY );
-
-                    for ( MessageProcessor outgoingProcessor : outgoingProcessors )
-                    {
-                        try
-                        {
-                            outgoingProcessor.process( outgoingMessage );
-                        }
-                        catch ( Throwable e )
-                        {
-                            logger.warn( "Outgoing message processor threw exception", e );
-                        }
-                    }
-
-                    if ( outgoingMessage.hasHeader( Message.TO ) )
-                    {
-                        try
-                        {
-                            sender.process( outgoingMessage );
-                        }
-                        catch ( Throwable e )
-                        {
-                            logger.warn( "Message sending threw exception", e );
-                        }
-                    }
-                    else
-                    {
-                        // Deliver internally if possible
-                        StateMachine internalStatemachine = stateMachines.get( outgoingMessage.getMessageType()
-                                .getClass() );
-                        //                if (internalStatemachine != null && stateMachine != internalStatemachine )
-                        if ( internalStatemachine != null )
-                        {
-                            internalStatemachine.handle( (Message) outgoingMessage, outgoing );
-                        }
-                    }
-                }
-            }
-            catch ( Exception e )
-            {
-                logger.warn( "Error processing message " + message, e );
-            }
+            return; // No StateMachine registered for this MessageType type - Ignore this
         }
 
-        // Before returning, process delayed executions so that they are done before returning
-        // This will effectively trigger all notifications created by contexts
-        executor.drain();
+        lane.deliver( message );
     }
 
     public void addStateTransitionListener( StateTransitionListener stateTransitionListener )
@@ -208,21 +183,172 @@ public class ConnectedStateMachines
         return stateMachines.get( messageType );
     }
 
-    private class OutgoingMessageProcessor
+    private void send( Message<? extends MessageType> message )
+    {
+        for ( MessageProcessor outgoingProcessor : outgoingProcessors )
+        {
+            try
+            {
+                outgoingProcessor.process( message );
+            }
+            catch ( Throwable e )
+            {
+                logger.warn( "Outgoing message processor threw exception", e );
+            }
+        }
+
+        if ( message.hasHeader( Message.TO ) )
+        {
+            try
+            {
+                sender.process( message );
+            }
+            catch ( Throwable e )
+            {
+                logger.warn( "Message sending threw exception", e );
+            }
+        }
+    }
+
+    /**
+     * Mailbox of one or more state machines, handling one message at a time.
+     */
+    private class Lane
+    {
+        private final Queue<Message<? extends MessageType>> mailbox =
+                new ConcurrentLinkedQueue<Message<? extends MessageType>>();
+        private final AtomicBoolean busy = new AtomicBoolean();
+
+        void deliver( Message<? extends MessageType> message )
+        {
+            mailbox.offer( message );
+
+            // Whoever makes the lane busy handles everything in the mailbox. Check again after letting go,
+            // in case a message came in just before that
+            while ( !mailbox.isEmpty() && busy.compareAndSet( false, true ) )
+            {
+                try
+                {
+                    Message<? extends MessageType> next;
+                    while ( (next = mailbox.poll()) != null )
+                    {
+                        new Cascade( this, next ).run();
+                    }
+                }
+                finally
+                {
+                    busy.set( false );
+                }
+
+                // Before letting the calling thread go, process delayed executions
+                // This will effectively trigger all notifications created by contexts
+                executor.drain();
+            }
+        }
+    }
+
+    /**
+     * A message and all the internal messages it leads to in the same lane, handled in one go
+     * like they used to be.
+     */
+    private class Cascade
             implements MessageProcessor
     {
-        private Queue<Message<? extends MessageType>> outgoingMessages = new LinkedList<Message<? extends
-                MessageType>>();
+        private final Lane lane;
+        private final Message<? extends MessageType> message;
+        private final Queue<Message<? extends MessageType>> outgoingMessages =
+                new LinkedList<Message<? extends MessageType>>();
+
+        Cascade( Lane lane, Message<? extends MessageType> message )
+        {
+            this.lane = lane;
+            this.message = message;
+        }
 
         @Override
-        public synchronized void process( Message<? extends MessageType> message )
+        public void process( Message<? extends MessageType> outgoingMessage )
+        {
+            outgoingMessages.offer( outgoingMessage );
+        }
+
+        void run()
         {
-            outgoingMessages.offer( message );
+            Cascade outer = currentCascade.get();
+            currentCascade.set( this );
+            try
+            {
+                StateMachine stateMachine = stateMachines.get( message.getMessageType().getClass() );
+                if ( stateMachine == null )
+                {
+                    return;
+                }
+
+                stateMachine.handle( message, this );
+
+                // Process and send messages
+                // Allow state machines to send messages to each other as well in this loop
+                Message<? extends MessageType> outgoingMessage;
+                while ( (outgoingMessage = outgoingMessages.poll()) != null )
+                {
+                    // Messages that already belong to a conversation, like values unpacked from a batch,
+                    // keep it
+                    if ( !outgoingMessage.hasHeader( CONVERSATION_ID ) )
+                    {
+                        message.copyHeadersTo( outgoingMessage, CONVERSATION_ID, CREATED_BY );
+                    }
+
+                    send( outgoingMessage );
+
+                    if ( !outgoingMessage.hasHeader( Message.TO ) )
+                    {
+                        // Deliver internally if possible, right away in this lane, through the mailbox in others
+                        Class<? extends MessageType> type = outgoingMessage.getMessageType().getClass();
+                        Lane internalLane = lanes.get( type );
+                        if ( internalLane == lane )
+                        {
+                            stateMachines.get( type ).handle( (Message) outgoingMessage, this );
+                        }
+                        else if ( internalLane != null )
+                        {
+                            internalLane.deliver( outgoingMessage );
+                        }
+                    }
+                }
+            }
+            catch ( Throwable e )
+            {
+                logger.warn( "Error processing message " + message, e );
+            }
+            finally
+            {
+                currentCascade.set( outer );
+            }
         }
+    }
 
-        public synchronized Message<? extends MessageType> nextOutgoingMessage()
+    /**
+     * Messages given to this while a state machine handles a message, for example by state transition
+     * listeners, become part of its cascade. Others are sent or delivered right away.
+     */
+    private class OutgoingMessageProcessor
+            implements MessageProcessor
+    {
+        @Override
+        public void process( Message<? extends MessageType> message )
         {
-            return outgoingMessages.poll();
+            Cascade cascade = currentCascade.get();
+            if ( cascade != null )
+            {
+                cascade.process( message );
+            }
+            else if ( message.hasHeader( Message.TO ) )
+            {
+                send( message );
+            }
+            else
+            {
+                ConnectedStateMachines.this.process( message );
+            }
         }
     }
 }
@@ -65,15 +65,19 @@ public class DelayedDirectExecutor
     }
 
     @Override
-    public void execute( Runnable command )
+    public synchronized void execute( Runnable command )
     {
         runnables.add( command );
     }
 
     public void drain()
     {
-        List<Runnable> current = runnables;
-        runnables = new ArrayList<Runnable>();
+        List<Runnable> current;
+        synchronized ( this )
+        {
+            current = runnables;
+            runnables = new ArrayList<Runnable>();
+        }
         for ( Runnable runnable : current )
         {
             try
@@ -37,6 +37,7 @@ import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerContext;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerState;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.MultiPaxosContext;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.PaxosInstanceStore;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerMessage;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerState;
@@ -59,6 +60,7 @@ import org.neo4j.cluster.protocol.heartbeat.HeartbeatJoinListener;
 import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
 import org.neo4j.cluster.protocol.heartbeat.HeartbeatRefreshProcessor;
 import org.neo4j.cluster.protocol.heartbeat.HeartbeatState;
+import org.neo4j.cluster.protocol.heartbeat.PhiAccrualFailureDetector;
 import org.neo4j.cluster.protocol.snapshot.SnapshotContext;
 import org.neo4j.cluster.protocol.snapshot.SnapshotMessage;
 import org.neo4j.cluster.protocol.snapshot.SnapshotState;
@@ -79,11 +81,55 @@ public class MultiPaxosServerFactory
 {
     private final ClusterConfiguration initialConfig;
     private final Logging logging;
+    private final int maxBatchValues;
+    private final int maxBatchBytes;
+    private final int maxConcurrentInstances;
+    private final int maxPendingValues;
+    private final double heartbeatPhiThreshold;
+    private final boolean heartbeatGossip;
 
     public MultiPaxosServerFactory( ClusterConfiguration initialConfig, Logging logging )
+    {
+        this( initialConfig, logging, ProposerContext.DEFAULT_MAX_BATCH_VALUES,
+                ProposerContext.DEFAULT_MAX_BATCH_BYTES, ProposerContext.DEFAULT_MAX_CONCURRENT_INSTANCES,
+                ProposerContext.DEFAULT_MAX_PENDING_VALUES );
+    }
+
+    public MultiPaxosServerFactory( ClusterConfiguration initialConfig, Logging logging, int maxBatchValues,
+                                    int maxBatchBytes, int maxConcurrentInstances, int maxPendingValues )
+    {
+        this( initialConfig, logging, maxBatchValues, maxBatchBytes, maxConcurrentInstances, maxPendingValues,
+                PhiAccrualFailureDetector.DEFAULT_THRESHOLD );
+    }
+
+    /**
+     * @param heartbeatPhiThreshold suspicion level at which members are suspected, or 0 to suspect them on fixed
+     * heartbeat timeouts
+     */
+    public MultiPaxosServerFactory( ClusterConfiguration initialConfig, Logging logging, int maxBatchValues,
+                                    int maxBatchBytes, int maxConcurrentInstances, int maxPendingValues,
+                                    double heartbeatPhiThreshold )
+    {
+        this( initialConfig, logging, maxBatchValues, maxBatchBytes, maxConcurrentInstances, maxPendingValues,
+                heartbeatPhiThreshold, false );
+    }
+
+    /**
+     * @param heartbeatGossip whether members are probed one at a time and suspicions are gossiped, instead of
+     * every member heartbeating every other member
+     */
+    public MultiPaxosServerFactory( ClusterConfiguration initialConfig, Logging logging, int maxBatchValues,
+                                    int maxBatchBytes, int maxConcurrentInstances, int maxPendingValues,
+                                    double heartbeatPhiThreshold, boolean heartbeatGossip )
     {
         this.initialConfig = initialConfig;
         this.logging = logging;
+        this.maxBatchValues = maxBatchValues;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxConcurrentInstances = maxConcurrentInstances;
+        this.maxPendingValues = maxPendingValues;
+        this.heartbeatPhiThreshold = heartbeatPhiThreshold;
+        this.heartbeatGossip = heartbeatGossip;
     }
 
     @Override
@@ -104,39 +150,54 @@ public class MultiPaxosServerFactory
 
         AcceptorContext acceptorContext = new AcceptorContext( logging, acceptorInstanceStore );
         LearnerContext learnerContext = new LearnerContext();
-        ProposerContext proposerContext = new ProposerContext();
+        ProposerContext proposerContext = new ProposerContext( maxBatchValues, maxBatchBytes, maxConcurrentInstances,
+                maxPendingValues );
         final ClusterContext clusterContext = new ClusterContext( proposerContext, learnerContext,
                 new ClusterConfiguration( initialConfig.getName(), initialConfig.getMembers() ), timeouts, executor,
                 logging );
-        final HeartbeatContext heartbeatContext = new HeartbeatContext( clusterContext, learnerContext, executor );
+        long heartbeatInterval = timeoutStrategy.timeoutFor( internal( HeartbeatMessage.sendHeartbeat ) );
+        PhiAccrualFailureDetector failureDetector = null;
+        if ( heartbeatPhiThreshold > 0 )
+        {
+            failureDetector = new PhiAccrualFailureDetector( heartbeatPhiThreshold,
+                    PhiAccrualFailureDetector.DEFAULT_MAX_SAMPLES, Math.max( 1, heartbeatInterval / 10 ),
+                    heartbeatInterval );
+        }
+        final HeartbeatContext heartbeatContext = new HeartbeatContext( clusterContext, learnerContext, executor,
+                failureDetector, heartbeatGossip ? heartbeatInterval : 0 );
         final MultiPaxosContext context = new MultiPaxosContext( clusterContext, proposerContext, learnerContext,
-                heartbeatContext, timeouts );
+                heartbeatContext, timeouts, acceptorInstanceStore, new PaxosInstanceStore( Math.max(
+                PaxosInstanceStore.DEFAULT_CAPACITY, maxConcurrentInstances * 8 ) ) );
         ElectionContext electionContext = new ElectionContext( Iterables.iterable( new ElectionRole(
                 ClusterConfiguration
                         .COORDINATOR ) ), clusterContext, heartbeatContext );
         SnapshotContext snapshotContext = new SnapshotContext( clusterContext, learnerContext );
         AtomicBroadcastContext atomicBroadcastContext = new AtomicBroadcastContext( clusterContext, executor );
 
-        connectedStateMachines.addStateMachine( new StateMachine( atomicBroadcastContext,
-                AtomicBroadcastMessage.class, AtomicBroadcastState.start ) );
+        // Heartbeats run in a lane of their own, so that they are not held up by Paxos work. The other state
+        // machines share contexts and run in one lane
+        StateMachine atomicBroadcast = new StateMachine( atomicBroadcastContext, AtomicBroadcastMessage.class,
+                AtomicBroadcastState.start );
+        connectedStateMachines.addStateMachine( atomicBroadcast );
         connectedStateMachines.addStateMachine( new StateMachine( acceptorContext, AcceptorMessage.class,
-                AcceptorState.start ) );
+                AcceptorState.start ), atomicBroadcast );
         connectedStateMachines.addStateMachine( new StateMachine( context, ProposerMessage.class,
-                ProposerState.start ) );
-        connectedStateMachines.addStateMachine( new StateMachine( context, LearnerMessage.class, LearnerState.start ) );
+                ProposerState.start ), atomicBroadcast );
+        connectedStateMachines.addStateMachine( new StateMachine( context, LearnerMessage.class,
+                LearnerState.start ), atomicBroadcast );
         connectedStateMachines.addStateMachine( new StateMachine( heartbeatContext, HeartbeatMessage.class,
                 HeartbeatState.start ) );
         connectedStateMachines.addStateMachine( new StateMachine( electionContext, ElectionMessage.class,
-                ElectionState.start ) );
+                ElectionState.start ), atomicBroadcast );
         connectedStateMachines.addStateMachine( new StateMachine( snapshotContext, SnapshotMessage.class,
-                SnapshotState.start ) );
+                SnapshotState.start ), atomicBroadcast );
 
         final ProtocolServer server = new ProtocolServer( connectedStateMachines, logging.getLogger( Loggers.CLUSTER
         ) );
 
         StateMachine cluster = new StateMachine( clusterContext, ClusterMessage.class, ClusterState.start );
 
-        connectedStateMachines.addStateMachine( cluster );
+        connectedStateMachines.addStateMachine( cluster, atomicBroadcast );
 
         server.addBindingListener( new BindingListener()
         {
@@ -148,7 +209,7 @@ public class MultiPaxosServerFactory
         } );
 
         connectedStateMachines.addMessageProcessor( new HeartbeatRefreshProcessor( connectedStateMachines.getOutgoing
-                () ) );
+                (), clusterContext ) );
         input.addMessageProcessor( new HeartbeatIAmAliveProcessor( connectedStateMachines.getOutgoing() ) );
 
         server.newClient( Cluster.class ).addClusterListener( new HeartbeatJoinListener( connectedStateMachines
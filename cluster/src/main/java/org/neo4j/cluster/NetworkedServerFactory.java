@@ -27,6 +27,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.neo4j.cluster.com.NetworkInstance;
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AcceptorInstanceStore;
+import org.neo4j.cluster.protocol.cluster.Cluster;
 import org.neo4j.cluster.protocol.election.ElectionCredentialsProvider;
 import org.neo4j.cluster.statemachine.StateTransitionLogger;
 import org.neo4j.cluster.timeout.TimeoutStrategy;
@@ -87,6 +88,7 @@ public class NetworkedServerFactory
 
         final ProtocolServer protocolServer = protocolServerFactory.newProtocolServer( timeoutStrategy, node, node,
                 acceptorInstanceStore, electionCredentialsProvider );
+        protocolServer.newClient( Cluster.class ).addClusterListener( node );
         node.addNetworkChannelsListener( new NetworkInstance.NetworkChannelsListener()
         {
             @Override
@@ -147,7 +147,8 @@ public class ProtocolServer
     private class FromHeaderMessageProcessor
             implements MessageProcessor, BindingListener
     {
-        private String me;
+        // Read by every lane that sends
+        private volatile String me;
 
         @Override
         public void listeningAt( URI me )
@@ -83,6 +83,18 @@ public class ClusterClient extends LifecycleAdapter implements Cluster, AtomicBr
         String getDiscoveryUrl();
 
         String getClusterName();
+
+        int getPaxosBatchMaxValues();
+
+        int getPaxosBatchMaxBytes();
+
+        int getPaxosMaxConcurrentInstances();
+
+        int getPaxosMaxPendingValues();
+
+        int getHeartbeatPhiThreshold();
+
+        boolean isHeartbeatGossipEnabled();
     }
 
     public static Configuration adapt( final Config config,
@@ -144,6 +156,42 @@ public class ClusterClient extends LifecycleAdapter implements Cluster, AtomicBr
             {
                 return ClusterSettings.cluster_server.getAddress( config.getParams() );
             }
+
+            @Override
+            public int getPaxosBatchMaxValues()
+            {
+                return config.get( ClusterSettings.paxos_batch_max_values );
+            }
+
+            @Override
+            public int getPaxosBatchMaxBytes()
+            {
+                return (int) Math.min( Integer.MAX_VALUE, config.get( ClusterSettings.paxos_batch_max_bytes ) );
+            }
+
+            @Override
+            public int getPaxosMaxConcurrentInstances()
+            {
+                return config.get( ClusterSettings.paxos_max_concurrent_instances );
+            }
+
+            @Override
+            public int getPaxosMaxPendingValues()
+            {
+                return config.get( ClusterSettings.paxos_max_pending_values );
+            }
+
+            @Override
+            public int getHeartbeatPhiThreshold()
+            {
+                return config.get( ClusterSettings.heartbeat_phi_threshold );
+            }
+
+            @Override
+            public boolean isHeartbeatGossipEnabled()
+            {
+                return config.get( ClusterSettings.heartbeat_gossip_enabled );
+            }
         };
     }
 
@@ -155,7 +203,9 @@ public class ClusterClient extends LifecycleAdapter implements Cluster, AtomicBr
                         HeartbeatMessage.timed_out, HeartbeatMessage.sendHeartbeat, config.getHeartbeatInterval() );
 
         MultiPaxosServerFactory protocolServerFactory = new MultiPaxosServerFactory( new ClusterConfiguration(
-                "neo4j.ha" ), logging );
+                "neo4j.ha" ), logging, config.getPaxosBatchMaxValues(), config.getPaxosBatchMaxBytes(),
+                config.getPaxosMaxConcurrentInstances(), config.getPaxosMaxPendingValues(),
+                config.getHeartbeatPhiThreshold(), config.isHeartbeatGossipEnabled() );
 
         InMemoryAcceptorInstanceStore acceptorInstanceStore = new InMemoryAcceptorInstanceStore();
         ElectionCredentialsProvider electionCredentialsProvider = config.getElectionCredentialsProvider();
@@ -268,6 +318,7 @@ public class ClusterClient extends LifecycleAdapter implements Cluster, AtomicBr
         }, server, logging ) );
         
         cluster = server.newClient( Cluster.class );
+        cluster.addClusterListener( networkNodeTCP );
         broadcast = server.newClient( AtomicBroadcast.class );
         heartbeat = server.newClient( Heartbeat.class );
     }
@@ -0,0 +1,621 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.com;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AcceptorMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AtomicBroadcastMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InstanceId;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ValueBatch;
+import org.neo4j.cluster.protocol.cluster.ClusterMessage;
+import org.neo4j.cluster.protocol.election.ElectionMessage;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
+import org.neo4j.cluster.protocol.omega.OmegaMessage;
+import org.neo4j.cluster.protocol.snapshot.SnapshotMessage;
+
+/**
+ * Binary format of {@link Message messages} sent between cluster instances.
+ *
+ * A message starts with a version byte, followed by its type, its headers and
+ * its payload. Message types of the known protocols and the standard header
+ * names are written as table indexes, everything else by name. Payloads
+ * common on the Paxos and heartbeat paths have their own encodings. Other
+ * payloads, like cluster configuration changes, fall back to Java
+ * serialization.
+ *
+ * Table order and payload tags are part of the format. Changing them, or the
+ * order of the constants of a listed message type, requires a new
+ * {@link #VERSION}.
+ */
+public class MessageCodec
+{
+    public static final byte VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final List<Class<? extends MessageType>> MESSAGE_TYPES = Arrays.<Class<? extends MessageType>>asList(
+            AcceptorMessage.class, ProposerMessage.class, LearnerMessage.class, AtomicBroadcastMessage.class,
+            ClusterMessage.class, HeartbeatMessage.class, ElectionMessage.class, SnapshotMessage.class,
+            OmegaMessage.class );
+
+    private static final List<String> HEADERS = Arrays.asList( Message.CONVERSATION_ID, Message.CREATED_BY,
+            Message.FROM, Message.TO, InstanceId.INSTANCE, "last-learned", "delays" );
+
+    private static final int UNKNOWN = 0xFF;
+
+    // Payload tags
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte URI_VALUE = 2;
+    private static final byte INSTANCE_ID = 3;
+    private static final byte LONG = 4;
+    private static final byte INTEGER = 5;
+    private static final byte PAYLOAD = 6;
+    private static final byte PREPARE = 7;
+    private static final byte ACCEPT = 8;
+    private static final byte PROMISE = 9;
+    private static final byte REJECT_PREPARE = 10;
+    private static final byte REJECT_ACCEPT = 11;
+    private static final byte ACCEPTED = 12;
+    private static final byte LEARN = 13;
+    private static final byte LEARN_REQUEST = 14;
+    private static final byte LEARN_FAILED = 15;
+    private static final byte I_AM_ALIVE = 16;
+    private static final byte SUSPICIONS = 17;
+    private static final byte BATCH = 18;
+    private static final byte LEARN_RANGE_REQUEST = 19;
+    private static final byte LEARN_RANGE = 20;
+    private static final byte LEARN_RANGE_FAILED = 21;
+    private static final byte SNAPSHOT_REQUEST = 22;
+    private static final byte SNAPSHOT_CHUNK = 23;
+    private static final byte GOSSIP = 24;
+    private static final byte SERIALIZED = 127;
+
+    private final ClassLoader classLoader;
+
+    public MessageCodec( ClassLoader classLoader )
+    {
+        this.classLoader = classLoader;
+    }
+
+    public void encode( Message<?> message, ChannelBuffer buffer ) throws IOException
+    {
+        buffer.writeByte( VERSION );
+        writeMessageType( message.getMessageType(), buffer );
+
+        Map<String, String> headers = message.getHeaders();
+        writeVarInt( headers.size(), buffer );
+        for ( Map.Entry<String, String> header : headers.entrySet() )
+        {
+            int index = HEADERS.indexOf( header.getKey() );
+            if ( index == -1 )
+            {
+                buffer.writeByte( UNKNOWN );
+                writeString( header.getKey(), buffer );
+            }
+            else
+            {
+                buffer.writeByte( index );
+            }
+            writeString( header.getValue(), buffer );
+        }
+
+        writePayload( message.getPayload(), buffer );
+    }
+
+    public Message<?> decode( ChannelBuffer buffer ) throws IOException
+    {
+        byte version = buffer.readByte();
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported cluster message format version " + version + ", expected " +
+                    VERSION );
+        }
+        MessageType messageType = readMessageType( buffer );
+
+        int headerCount = readVarInt( buffer );
+        String[] headers = new String[headerCount * 2];
+        for ( int i = 0; i < headerCount; i++ )
+        {
+            int index = buffer.readUnsignedByte();
+            headers[i * 2] = index == UNKNOWN ? readString( buffer ) : HEADERS.get( index );
+            headers[i * 2 + 1] = readString( buffer );
+        }
+
+        Message<?> message = Message.internal( messageType, readPayload( buffer ) );
+        for ( int i = 0; i < headers.length; i += 2 )
+        {
+            message.setHeader( headers[i], headers[i + 1] );
+        }
+        return message;
+    }
+
+    private void writeMessageType( MessageType messageType, ChannelBuffer buffer )
+    {
+        Enum<?> type = (Enum<?>) messageType;
+        int index = MESSAGE_TYPES.indexOf( type.getDeclaringClass() );
+        if ( index == -1 )
+        {
+            buffer.writeByte( UNKNOWN );
+            writeString( type.getDeclaringClass().getName(), buffer );
+            writeString( type.name(), buffer );
+        }
+        else
+        {
+            buffer.writeByte( index );
+            writeVarInt( type.ordinal(), buffer );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private MessageType readMessageType( ChannelBuffer buffer ) throws IOException
+    {
+        int index = buffer.readUnsignedByte();
+        if ( index == UNKNOWN )
+        {
+            String className = readString( buffer );
+            String name = readString( buffer );
+            try
+            {
+                return (MessageType) Enum.valueOf( (Class<Enum>) Class.forName( className, true, classLoader ),
+                        name );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                throw new IOException( "Unknown message type " + className + "." + name, e );
+            }
+        }
+        return MESSAGE_TYPES.get( index ).getEnumConstants()[readVarInt( buffer )];
+    }
+
+    private void writePayload( Object payload, ChannelBuffer buffer ) throws IOException
+    {
+        Class<?> type = payload == null ? null : payload.getClass();
+        if ( type == null )
+        {
+            buffer.writeByte( NULL );
+        }
+        else if ( type == String.class )
+        {
+            buffer.writeByte( STRING );
+            writeString( (String) payload, buffer );
+        }
+        else if ( type == URI.class )
+        {
+            buffer.writeByte( URI_VALUE );
+            writeString( payload.toString(), buffer );
+        }
+        else if ( type == InstanceId.class )
+        {
+            buffer.writeByte( INSTANCE_ID );
+            writeVarLong( ((InstanceId) payload).getId(), buffer );
+        }
+        else if ( type == Long.class )
+        {
+            buffer.writeByte( LONG );
+            buffer.writeLong( (Long) payload );
+        }
+        else if ( type == Integer.class )
+        {
+            buffer.writeByte( INTEGER );
+            buffer.writeInt( (Integer) payload );
+        }
+        else if ( type == Payload.class )
+        {
+            Payload value = (Payload) payload;
+            buffer.writeByte( PAYLOAD );
+            writeVarInt( value.getLen(), buffer );
+            buffer.writeBytes( value.getBuf(), 0, value.getLen() );
+        }
+        else if ( type == AcceptorMessage.PrepareState.class )
+        {
+            buffer.writeByte( PREPARE );
+            writeVarLong( ((AcceptorMessage.PrepareState) payload).getBallot(), buffer );
+        }
+        else if ( type == AcceptorMessage.AcceptState.class )
+        {
+            AcceptorMessage.AcceptState state = (AcceptorMessage.AcceptState) payload;
+            buffer.writeByte( ACCEPT );
+            writeVarLong( state.getBallot(), buffer );
+            writePayload( state.getValue(), buffer );
+        }
+        else if ( type == ProposerMessage.PromiseState.class )
+        {
+            ProposerMessage.PromiseState state = (ProposerMessage.PromiseState) payload;
+            buffer.writeByte( PROMISE );
+            writeVarLong( state.getBallot(), buffer );
+            writePayload( state.getValue(), buffer );
+        }
+        else if ( type == ProposerMessage.RejectPrepare.class )
+        {
+            buffer.writeByte( REJECT_PREPARE );
+            writeVarLong( ((ProposerMessage.RejectPrepare) payload).getBallot(), buffer );
+        }
+        else if ( type == ProposerMessage.RejectAcceptState.class )
+        {
+            buffer.writeByte( REJECT_ACCEPT );
+        }
+        else if ( type == ProposerMessage.AcceptedState.class )
+        {
+            buffer.writeByte( ACCEPTED );
+        }
+        else if ( type == LearnerMessage.LearnState.class )
+        {
+            buffer.writeByte( LEARN );
+            writePayload( ((LearnerMessage.LearnState) payload).getValue(), buffer );
+        }
+        else if ( type == LearnerMessage.LearnRequestState.class )
+        {
+            buffer.writeByte( LEARN_REQUEST );
+        }
+        else if ( type == LearnerMessage.LearnFailedState.class )
+        {
+            buffer.writeByte( LEARN_FAILED );
+        }
+        else if ( type == LearnerMessage.LearnRangeRequestState.class )
+        {
+            LearnerMessage.LearnRangeRequestState state = (LearnerMessage.LearnRangeRequestState) payload;
+            buffer.writeByte( LEARN_RANGE_REQUEST );
+            writeVarLong( state.getFrom(), buffer );
+            writeVarLong( state.getTo(), buffer );
+        }
+        else if ( type == LearnerMessage.LearnRangeState.class )
+        {
+            LearnerMessage.LearnRangeState state = (LearnerMessage.LearnRangeState) payload;
+            buffer.writeByte( LEARN_RANGE );
+            writeVarLong( state.getFirstInstanceId(), buffer );
+            writeVarInt( state.getValues().size(), buffer );
+            for ( Object value : state.getValues() )
+            {
+                writePayload( value, buffer );
+            }
+        }
+        else if ( type == LearnerMessage.LearnRangeFailedState.class )
+        {
+            LearnerMessage.LearnRangeFailedState state = (LearnerMessage.LearnRangeFailedState) payload;
+            buffer.writeByte( LEARN_RANGE_FAILED );
+            writeVarLong( state.getFrom(), buffer );
+            writeVarLong( state.getTo(), buffer );
+            buffer.writeByte( state.isTruncated() ? 1 : 0 );
+        }
+        else if ( type == SnapshotMessage.SnapshotRequestState.class )
+        {
+            buffer.writeByte( SNAPSHOT_REQUEST );
+            writeVarLong( ((SnapshotMessage.SnapshotRequestState) payload).getVersion(), buffer );
+        }
+        else if ( type == SnapshotMessage.SnapshotChunkState.class )
+        {
+            SnapshotMessage.SnapshotChunkState chunk = (SnapshotMessage.SnapshotChunkState) payload;
+            buffer.writeByte( SNAPSHOT_CHUNK );
+            writeVarLong( chunk.getLastDeliveredInstanceId(), buffer );
+            writeVarInt( chunk.getSequence(), buffer );
+            buffer.writeByte( chunk.isLast() ? 1 : 0 );
+            writeVarInt( chunk.getBytes().length, buffer );
+            buffer.writeBytes( chunk.getBytes() );
+        }
+        else if ( type == HeartbeatMessage.IAmAliveState.class )
+        {
+            buffer.writeByte( I_AM_ALIVE );
+            writeString( ((HeartbeatMessage.IAmAliveState) payload).getServer().toString(), buffer );
+        }
+        else if ( type == HeartbeatMessage.SuspicionsState.class )
+        {
+            Set<URI> suspicions = ((HeartbeatMessage.SuspicionsState) payload).getSuspicions();
+            buffer.writeByte( SUSPICIONS );
+            writeVarInt( suspicions.size(), buffer );
+            for ( URI suspicion : suspicions )
+            {
+                writeString( suspicion.toString(), buffer );
+            }
+        }
+        else if ( type == HeartbeatMessage.GossipState.class )
+        {
+            HeartbeatMessage.GossipState state = (HeartbeatMessage.GossipState) payload;
+            buffer.writeByte( GOSSIP );
+            writeString( state.getTarget().toString(), buffer );
+            writeVarLong( state.getSequence(), buffer );
+            buffer.writeByte( state.getRequester() == null ? 0 : 1 );
+            if ( state.getRequester() != null )
+            {
+                writeString( state.getRequester().toString(), buffer );
+            }
+            writeVarInt( state.getUpdates().size(), buffer );
+            for ( HeartbeatMessage.SuspicionsUpdate update : state.getUpdates() )
+            {
+                writeString( update.getOrigin().toString(), buffer );
+                writeVarLong( update.getVersion(), buffer );
+                writeVarInt( update.getSuspicions().size(), buffer );
+                for ( URI suspicion : update.getSuspicions() )
+                {
+                    writeString( suspicion.toString(), buffer );
+                }
+            }
+        }
+        else if ( type == ValueBatch.class )
+        {
+            ValueBatch batch = (ValueBatch) payload;
+            buffer.writeByte( BATCH );
+            writeVarInt( batch.size(), buffer );
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                String conversationId = batch.getConversationId( i );
+                buffer.writeByte( conversationId == null ? 0 : 1 );
+                if ( conversationId != null )
+                {
+                    writeString( conversationId, buffer );
+                }
+                writePayload( batch.getValue( i ), buffer );
+            }
+        }
+        else
+        {
+            buffer.writeByte( SERIALIZED );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( bytes );
+            out.writeObject( payload );
+            out.close();
+            writeVarInt( bytes.size(), buffer );
+            buffer.writeBytes( bytes.toByteArray() );
+        }
+    }
+
+    private Object readPayload( ChannelBuffer buffer ) throws IOException
+    {
+        byte tag = buffer.readByte();
+        switch ( tag )
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return readString( buffer );
+            case URI_VALUE:
+                return readUri( buffer );
+            case INSTANCE_ID:
+                return new InstanceId( readVarLong( buffer ) );
+            case LONG:
+                return buffer.readLong();
+            case INTEGER:
+                return buffer.readInt();
+            case PAYLOAD:
+            {
+                byte[] bytes = new byte[readVarInt( buffer )];
+                buffer.readBytes( bytes );
+                return new Payload( bytes, bytes.length );
+            }
+            case PREPARE:
+                return new AcceptorMessage.PrepareState( readVarLong( buffer ) );
+            case ACCEPT:
+                return new AcceptorMessage.AcceptState( readVarLong( buffer ), readPayload( buffer ) );
+            case PROMISE:
+                return new ProposerMessage.PromiseState( readVarLong( buffer ), readPayload( buffer ) );
+            case REJECT_PREPARE:
+                return new ProposerMessage.RejectPrepare( readVarLong( buffer ) );
+            case REJECT_ACCEPT:
+                return new ProposerMessage.RejectAcceptState();
+            case ACCEPTED:
+                return new ProposerMessage.AcceptedState();
+            case LEARN:
+                return new LearnerMessage.LearnState( readPayload( buffer ) );
+            case LEARN_REQUEST:
+                return new LearnerMessage.LearnRequestState();
+            case LEARN_FAILED:
+                return new LearnerMessage.LearnFailedState();
+            case LEARN_RANGE_REQUEST:
+                return new LearnerMessage.LearnRangeRequestState( readVarLong( buffer ), readVarLong( buffer ) );
+            case LEARN_RANGE:
+            {
+                long firstInstanceId = readVarLong( buffer );
+                int count = readVarInt( buffer );
+                List<Object> values = new ArrayList<Object>( count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    values.add( readPayload( buffer ) );
+                }
+                return new LearnerMessage.LearnRangeState( firstInstanceId, values );
+            }
+            case LEARN_RANGE_FAILED:
+                return new LearnerMessage.LearnRangeFailedState( readVarLong( buffer ), readVarLong( buffer ),
+                        buffer.readByte() != 0 );
+            case SNAPSHOT_REQUEST:
+                return new SnapshotMessage.SnapshotRequestState( readVarLong( buffer ) );
+            case SNAPSHOT_CHUNK:
+            {
+                long lastDeliveredInstanceId = readVarLong( buffer );
+                int sequence = readVarInt( buffer );
+                boolean last = buffer.readByte() != 0;
+                byte[] bytes = new byte[readVarInt( buffer )];
+                buffer.readBytes( bytes );
+                return new SnapshotMessage.SnapshotChunkState( lastDeliveredInstanceId, sequence, bytes, last );
+            }
+            case I_AM_ALIVE:
+                return new HeartbeatMessage.IAmAliveState( readUri( buffer ) );
+            case SUSPICIONS:
+            {
+                int count = readVarInt( buffer );
+                Set<URI> suspicions = new HashSet<URI>();
+                for ( int i = 0; i < count; i++ )
+                {
+                    suspicions.add( readUri( buffer ) );
+                }
+                return new HeartbeatMessage.SuspicionsState( suspicions );
+            }
+            case GOSSIP:
+            {
+                URI target = readUri( buffer );
+                long sequence = readVarLong( buffer );
+                URI requester = buffer.readByte() == 0 ? null : readUri( buffer );
+                int count = readVarInt( buffer );
+                List<HeartbeatMessage.SuspicionsUpdate> updates = new ArrayList<HeartbeatMessage.SuspicionsUpdate>(
+                        count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    URI origin = readUri( buffer );
+                    long version = readVarLong( buffer );
+                    int suspicionCount = readVarInt( buffer );
+                    Set<URI> suspicions = new HashSet<URI>();
+                    for ( int j = 0; j < suspicionCount; j++ )
+                    {
+                        suspicions.add( readUri( buffer ) );
+                    }
+                    updates.add( new HeartbeatMessage.SuspicionsUpdate( origin, version, suspicions ) );
+                }
+                return new HeartbeatMessage.GossipState( target, sequence, requester, updates );
+            }
+            case BATCH:
+            {
+                int count = readVarInt( buffer );
+                ValueBatch batch = new ValueBatch();
+                for ( int i = 0; i < count; i++ )
+                {
+                    String conversationId = buffer.readByte() == 0 ? null : readString( buffer );
+                    batch.add( readPayload( buffer ), conversationId );
+                }
+                return batch;
+            }
+            case SERIALIZED:
+            {
+                byte[] bytes = new byte[readVarInt( buffer )];
+                buffer.readBytes( bytes );
+                ObjectInputStream in = new ClassLoaderObjectInputStream( new ByteArrayInputStream( bytes ) );
+                try
+                {
+                    return in.readObject();
+                }
+                catch ( ClassNotFoundException e )
+                {
+                    throw new IOException( "Unable to deserialize message payload", e );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            default:
+                throw new IOException( "Unknown payload tag " + tag );
+        }
+    }
+
+    private static void writeString( String string, ChannelBuffer buffer )
+    {
+        byte[] bytes = string.getBytes( UTF8 );
+        writeVarInt( bytes.length, buffer );
+        buffer.writeBytes( bytes );
+    }
+
+    private static String readString( ChannelBuffer buffer )
+    {
+        byte[] bytes = new byte[readVarInt( buffer )];
+        buffer.readBytes( bytes );
+        return new String( bytes, UTF8 );
+    }
+
+    private static URI readUri( ChannelBuffer buffer ) throws IOException
+    {
+        String uri = readString( buffer );
+        try
+        {
+            return new URI( uri );
+        }
+        catch ( URISyntaxException e )
+        {
+            throw new IOException( "Invalid URI " + uri, e );
+        }
+    }
+
+    static void writeVarInt( int value, ChannelBuffer buffer )
+    {
+        writeVarLong( value & 0xFFFFFFFFL, buffer );
+    }
+
+    static int readVarInt( ChannelBuffer buffer )
+    {
+        return (int) readVarLong( buffer );
+    }
+
+    /**
+     * Seven bits per byte, least significant first, high bit set on all but the last byte.
+     */
+    static void writeVarLong( long value, ChannelBuffer buffer )
+    {
+        while ( (value & ~0x7FL) != 0 )
+        {
+            buffer.writeByte( (int) ((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        buffer.writeByte( (int) value );
+    }
+
+    static long readVarLong( ChannelBuffer buffer )
+    {
+        long value = 0;
+        for ( int shift = 0; ; shift += 7 )
+        {
+            byte b = buffer.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 )
+            {
+                return value;
+            }
+        }
+    }
+
+    private class ClassLoaderObjectInputStream extends ObjectInputStream
+    {
+        ClassLoaderObjectInputStream( InputStream in ) throws IOException
+        {
+            super( in );
+        }
+
+        @Override
+        protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName( desc.getName(), false, classLoader );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                return super.resolveClass( desc );
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@
 
 package org.neo4j.cluster.com;
 
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -27,17 +28,24 @@ import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -51,8 +59,10 @@ import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.serialization.ObjectDecoder;
-import org.jboss.netty.handler.codec.serialization.ObjectEncoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.jboss.netty.handler.logging.LoggingHandler;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
@@ -60,6 +70,8 @@ import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
 import org.neo4j.cluster.com.message.MessageSource;
 import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.protocol.cluster.ClusterListener;
 import org.neo4j.helpers.Listeners;
 import org.neo4j.helpers.NamedThreadFactory;
 import org.neo4j.kernel.impl.util.StringLogger;
@@ -69,9 +81,16 @@ import org.neo4j.kernel.lifecycle.Lifecycle;
  * TCP version of a Networked Instance. This handles receiving messages to be consumed by local statemachines and
  * sending
  * outgoing messages
+ * <p/>
+ * Outgoing messages go through a peer per destination, which connects asynchronously and queues a bounded
+ * number of messages until the connection is up, so that an unreachable instance never holds up messages to the
+ * others.
+ * <p/>
+ * Broadcasts go to the members of the cluster, as learnt through {@link ClusterListener} callbacks. They are
+ * encoded once and the same buffer is written to the connection of every member other than this instance.
  */
 public class NetworkInstance
-        implements MessageProcessor, MessageSource, Lifecycle
+        implements MessageProcessor, MessageSource, Lifecycle, ClusterListener
 {
     public interface Configuration
     {
@@ -91,6 +110,9 @@ public class NetworkInstance
 
     public static final String URI_PROTOCOL = "cluster";
 
+    public static final int DEFAULT_MAX_QUEUED_MESSAGES = 1000;
+    public static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
     private ChannelGroup channels;
 
     // Receiving
@@ -106,14 +128,30 @@ public class NetworkInstance
     private Configuration config;
     private StringLogger msgLog;
     private URI me;
+    private InetSocketAddress meAddress;
+
+    private final int maxQueuedMessages;
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<String, Peer>();
+    private volatile Set<URI> others = new CopyOnWriteArraySet<URI>();
+    private final MessageCodec codec = new MessageCodec( NetworkInstance.class.getClassLoader() );
 
     private Map<URI, Channel> connections = new ConcurrentHashMap<URI, Channel>();
     private Iterable<NetworkChannelsListener> listeners = Listeners.newListeners();
 
     public NetworkInstance( Configuration config, StringLogger logger )
+    {
+        this( config, logger, DEFAULT_MAX_QUEUED_MESSAGES );
+    }
+
+    /**
+     * @param maxQueuedMessages how many messages to keep per instance while a connection to it is being opened,
+     * beyond which the oldest are dropped
+     */
+    public NetworkInstance( Configuration config, StringLogger logger, int maxQueuedMessages )
     {
         this.config = config;
         this.msgLog = logger;
+        this.maxQueuedMessages = maxQueuedMessages;
     }
 
     @Override
@@ -147,6 +185,7 @@ public class NetworkInstance
                 Executors.newCachedThreadPool( new NamedThreadFactory( "Cluster client boss" ) ),
                 Executors.newFixedThreadPool( 10, new NamedThreadFactory( "Cluster client worker" ) ) ) );
         clientBootstrap.setPipelineFactory( new NetworkNodePipelineFactory() );
+        clientBootstrap.setOption( "connectTimeoutMillis", CONNECT_TIMEOUT_MILLIS );
 
         // Try all ports in the given range
         listen( minPort, maxPort );
@@ -157,6 +196,7 @@ public class NetworkInstance
             throws Throwable
     {
         channels.close().awaitUninterruptibly();
+        peers.clear();
         nioChannelFactory.releaseExternalResources();
         clientBootstrap.releaseExternalResources();
 
@@ -195,6 +235,7 @@ public class NetworkInstance
                 InetSocketAddress localAddress = new InetSocketAddress( host, checkPort );
 
                 Channel listenChannel = serverBootstrap.bind( localAddress );
+                meAddress = (InetSocketAddress) listenChannel.getLocalAddress();
                 listeningAt( (getURI( (InetSocketAddress) listenChannel.getLocalAddress() )) );
 
                 channels.add( listenChannel );
@@ -281,61 +322,96 @@ public class NetworkInstance
 
     private void broadcast( Message message )
     {
-        for ( int i = 1234; i < 1234 + 2; i++ )
+        ChannelBuffer encoded = ChannelBuffers.dynamicBuffer( 256 );
+        try
+        {
+            codec.encode( message, encoded );
+        }
+        catch ( IOException e )
         {
-            String to = URI_PROTOCOL + "://127.0.0.1:" + i;
+            msgLog.error( "Could not encode broadcast " + message, e );
+            return;
+        }
 
-            if ( !to.equals( me.toString() ) )
-            {
-                message.setHeader( Message.TO, to );
-                send( message );
-            }
+        if ( msgLog.isDebugEnabled() )
+        {
+            msgLog.debug( "Broadcasting to " + others + ": " + message );
+        }
+
+        for ( URI member : others )
+        {
+            // Duplicates share the encoded bytes but have their own read position
+            peer( member.toString() ).send( encoded.duplicate() );
         }
     }
 
-    private synchronized void send( Message message )
+    /**
+     * Members may be configured by host name while this instance knows itself by the address it is bound
+     * to, so compare resolved addresses and ports rather than the URIs themselves.
+     */
+    private boolean isMe( URI member )
     {
-        URI to = null;
+        if ( member.equals( me ) )
+        {
+            return true;
+        }
+        if ( meAddress == null || member.getHost() == null || member.getPort() != meAddress.getPort() )
+        {
+            return false;
+        }
         try
         {
-            to = new URI( message.getHeader( Message.TO ) );
+            return InetAddress.getByName( member.getHost() ).equals( meAddress.getAddress() );
         }
-        catch ( URISyntaxException e )
+        catch ( UnknownHostException e )
         {
-            msgLog.error( "Not valid URI:" + message.getHeader( Message.TO ) );
-            return;
+            return false;
         }
+    }
 
-        Channel channel = getChannel( to );
-
-        try
+    private Set<URI> othersOf( Iterable<URI> members )
+    {
+        Set<URI> result = new CopyOnWriteArraySet<URI>();
+        for ( URI member : members )
         {
-            if ( channel == null )
+            if ( !isMe( member ) )
             {
-                channel = openChannel( to );
-                openedChannel( to, channel );
+                result.add( member );
             }
         }
-        catch ( Exception e )
+        return result;
+    }
+
+    private void send( Message message )
+    {
+        String to = message.getHeader( Message.TO );
+        Peer peer;
+        try
+        {
+            peer = peer( to );
+        }
+        catch ( IllegalArgumentException e )
         {
-//            msgLog.error("Could not connect to:" + to, true);
+            msgLog.error( "Not valid URI:" + to );
             return;
         }
 
-        try
+        peer.send( message );
+    }
+
+    private Peer peer( String to )
+    {
+        Peer peer = peers.get( to );
+        if ( peer == null )
         {
-            if ( msgLog.isDebugEnabled() )
+            peer = new Peer( URI.create( to ) );
+            Peer existing = peers.putIfAbsent( to, peer );
+            if ( existing != null )
             {
-                msgLog.debug( "Sending to " + to + ": " + message );
+                peer = existing;
             }
-            channel.write( message );
-        }
-        catch ( Exception e )
-        {
-            e.printStackTrace();
-            channel.close();
-            closedChannel( to );
         }
+        return peer;
     }
 
     protected void openedChannel( final URI uri, Channel ctxChannel )
@@ -370,6 +446,40 @@ public class NetworkInstance
         } );
     }
 
+    // ClusterListener implementation
+    @Override
+    public void enteredCluster( ClusterConfiguration clusterConfiguration )
+    {
+        // Replace the set as a whole, so that a concurrent broadcast never sees it half filled
+        others = othersOf( clusterConfiguration.getMembers() );
+    }
+
+    @Override
+    public void leftCluster()
+    {
+        others = new CopyOnWriteArraySet<URI>();
+    }
+
+    @Override
+    public void joinedCluster( URI member )
+    {
+        if ( !isMe( member ) )
+        {
+            others.add( member );
+        }
+    }
+
+    @Override
+    public void leftCluster( URI member )
+    {
+        others.remove( member );
+    }
+
+    @Override
+    public void elected( String role, URI electedMember )
+    {
+    }
+
     public URI getMe()
     {
         return me;
@@ -390,28 +500,128 @@ public class NetworkInstance
         listeners = Listeners.removeListener( listener, listeners );
     }
 
-    private Channel openChannel( URI clusterUri )
+    /**
+     * Opens a connection to another instance without waiting for it to complete.
+     */
+    protected ChannelFuture connect( SocketAddress address )
     {
-        SocketAddress address = new InetSocketAddress( clusterUri.getHost(), clusterUri.getPort() );
+        return clientBootstrap.connect( address );
+    }
 
-        ChannelFuture channelFuture = clientBootstrap.connect( address );
-//            channelFuture.awaitUninterruptibly( 5, TimeUnit.SECONDS );
+    /**
+     * The outgoing side of the connection to another instance. Messages are written straight to the channel
+     * once it is connected, and queued up to a limit while it is being opened. All writes happen under the lock of
+     * this peer only, which keeps messages to it in order without ever waiting on the network.
+     */
+    private class Peer
+            implements ChannelFutureListener
+    {
+        private final URI uri;
+        private SocketAddress address;
 
-        try
+        private final Queue<Object> queued = new LinkedList<Object>();
+        private Channel channel;
+        private boolean connecting;
+        private long dropped;
+
+        Peer( URI uri )
+        {
+            this.uri = uri;
+        }
+
+        /**
+         * @param message a {@link Message}, or a buffer with an already encoded one
+         */
+        void send( Object message )
         {
-            if ( channelFuture.await( 5, TimeUnit.SECONDS ) && channelFuture.getChannel().isConnected() )
+            SocketAddress connectTo = null;
+            synchronized ( this )
             {
-                msgLog.info( me + " opened a new channel to " + address );
-                return channelFuture.getChannel();
+                if ( channel != null )
+                {
+                    write( message );
+                    return;
+                }
+
+                if ( queued.size() >= maxQueuedMessages )
+                {
+                    queued.poll();
+                    if ( dropped++ % maxQueuedMessages == 0 )
+                    {
+                        msgLog.warn( "Not connected to " + uri + ", dropped " + dropped + " messages to it so far" );
+                    }
+                }
+                queued.offer( message );
+
+                if ( !connecting )
+                {
+                    connecting = true;
+                    if ( address == null )
+                    {
+                        address = new InetSocketAddress( uri.getHost(), uri.getPort() );
+                    }
+                    connectTo = address;
+                }
             }
 
-            String msg = "Client could not connect to " + address;
-            throw new ChannelOpenFailedException( msg );
+            if ( connectTo != null )
+            {
+                connect( connectTo ).addListener( this );
+            }
         }
-        catch ( InterruptedException e )
+
+        @Override
+        public void operationComplete( ChannelFuture future ) throws Exception
         {
-            msgLog.warn( "Interrupted", e );
-            throw new ChannelOpenFailedException( e );
+            if ( !future.isSuccess() || !future.getChannel().isConnected() )
+            {
+                synchronized ( this )
+                {
+                    // Try again with the next message, queued messages stay until then
+                    connecting = false;
+                }
+                return;
+            }
+
+            final Channel connected = future.getChannel();
+            synchronized ( this )
+            {
+                channel = connected;
+                connecting = false;
+                for ( Object message : queued )
+                {
+                    write( message );
+                }
+                queued.clear();
+            }
+
+            connected.getCloseFuture().addListener( new ChannelFutureListener()
+            {
+                @Override
+                public void operationComplete( ChannelFuture future ) throws Exception
+                {
+                    synchronized ( Peer.this )
+                    {
+                        if ( channel == connected )
+                        {
+                            channel = null;
+                        }
+                    }
+                }
+            } );
+
+            msgLog.info( me + " opened a new channel to " + address );
+            openedChannel( uri, connected );
+        }
+
+        private void write( Object message )
+        {
+            if ( message instanceof Message && msgLog.isDebugEnabled() )
+            {
+                msgLog.debug( "Sending to " + uri + ": " + message );
+            }
+
+            channel.write( message ).addListener( ChannelFutureListener.CLOSE_ON_FAILURE );
         }
     }
 
@@ -430,9 +640,55 @@ public class NetworkInstance
 
         private void addSerialization( ChannelPipeline pipeline, int frameLength )
         {
-            pipeline.addLast( "frameDecoder",
-                    new ObjectDecoder( 1024 * 1000, NetworkNodePipelineFactory.this.getClass().getClassLoader() ) );
-            pipeline.addLast( "frameEncoder", new ObjectEncoder( 2048 ) );
+            MessageCodec codec = new MessageCodec( NetworkNodePipelineFactory.this.getClass().getClassLoader() );
+            pipeline.addLast( "frameDecoder", new LengthFieldBasedFrameDecoder( frameLength, 0, 4, 0, 4 ) );
+            pipeline.addLast( "frameEncoder", new LengthFieldPrepender( 4 ) );
+            pipeline.addLast( "messageDecoder", new MessageDecoder( codec ) );
+            pipeline.addLast( "messageEncoder", new MessageEncoder( codec ) );
+        }
+    }
+
+    private static class MessageEncoder
+            extends OneToOneEncoder
+    {
+        private final MessageCodec codec;
+
+        MessageEncoder( MessageCodec codec )
+        {
+            this.codec = codec;
+        }
+
+        @Override
+        protected Object encode( ChannelHandlerContext ctx, Channel channel, Object msg ) throws Exception
+        {
+            if ( !(msg instanceof Message) )
+            {
+                return msg;
+            }
+            ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( 256 );
+            codec.encode( (Message<?>) msg, buffer );
+            return buffer;
+        }
+    }
+
+    private static class MessageDecoder
+            extends OneToOneDecoder
+    {
+        private final MessageCodec codec;
+
+        MessageDecoder( MessageCodec codec )
+        {
+            this.codec = codec;
+        }
+
+        @Override
+        protected Object decode( ChannelHandlerContext ctx, Channel channel, Object msg ) throws Exception
+        {
+            if ( !(msg instanceof ChannelBuffer) )
+            {
+                return msg;
+            }
+            return codec.decode( (ChannelBuffer) msg );
         }
     }
 
@@ -21,6 +21,7 @@
 package org.neo4j.cluster.com.message;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -138,6 +139,11 @@ public class Message<MESSAGETYPE extends MessageType>
         return value;
     }
 
+    public Map<String, String> getHeaders()
+    {
+        return Collections.unmodifiableMap( headers );
+    }
+
     public <MESSAGETYPE extends MessageType> Message<MESSAGETYPE> copyHeadersTo( Message<MESSAGETYPE> message, String... names )
     {
         if (names.length == 0)
@@ -26,12 +26,14 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.neo4j.cluster.protocol.snapshot.IncrementalSnapshotProvider;
 import org.neo4j.cluster.protocol.snapshot.Snapshot;
-import org.neo4j.cluster.protocol.snapshot.SnapshotProvider;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -42,27 +44,114 @@ public class AtomicBroadcastMap<K,V>
 {
     private Map<K,V> map = new ConcurrentHashMap<K, V>(  );
     private AtomicBroadcast atomicBroadcast;
+
+    // Snapshot versions. The version counts the commands applied, and is handed over with snapshots, so it is the
+    // same at all members with the same state. For each key the version that last put or removed it is kept, so
+    // that snapshots can be limited to what has changed since a given version. Versions of removed keys are kept
+    // up to a limit, after which changes can only be had since the last one forgotten
+    private static final int MAX_REMOVED_VERSIONS = 10000;
+    private final Map<Object, Long> versions = new HashMap<Object, Long>();
+    private long version;
+    private long oldestDeltaVersion;
+
     private volatile MapCommand lastCommand;
     protected final AtomicBroadcastListener atomicBroadcastListener;
     private final AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
 
     public AtomicBroadcastMap( AtomicBroadcast atomicBroadcast, Snapshot snapshot )
     {
-        snapshot.setSnapshotProvider( new SnapshotProvider()
+        snapshot.setSnapshotProvider( new IncrementalSnapshotProvider()
         {
+            @Override
+            public long getVersion()
+            {
+                synchronized ( versions )
+                {
+                    return version;
+                }
+            }
+
             @Override
             public void getState( ObjectOutputStream output )
                 throws IOException
             {
-                output.writeObject( new HashMap( map) );
+                getStateSince( -1, output );
+            }
+
+            @Override
+            public void getStateSince( long since, ObjectOutputStream output )
+                throws IOException
+            {
+                synchronized ( versions )
+                {
+                    output.writeLong( version );
+                    if ( since >= oldestDeltaVersion && since <= version )
+                    {
+                        // Only what was put or removed since
+                        Map<Object, Object> puts = new HashMap<Object, Object>();
+                        Set<Object> removes = new HashSet<Object>();
+                        for ( Entry<Object, Long> entry : versions.entrySet() )
+                        {
+                            if ( entry.getValue() > since )
+                            {
+                                Object key = entry.getKey();
+                                if ( map.containsKey( key ) )
+                                {
+                                    puts.put( key, map.get( key ) );
+                                }
+                                else
+                                {
+                                    removes.add( key );
+                                }
+                            }
+                        }
+                        output.writeBoolean( true );
+                        output.writeObject( puts );
+                        output.writeObject( removes );
+                    }
+                    else
+                    {
+                        output.writeBoolean( false );
+                        output.writeObject( new HashMap( map ) );
+                    }
+                }
             }
 
             @Override
             public void setState( ObjectInputStream input )
                 throws IOException, ClassNotFoundException
             {
-                map = new ConcurrentHashMap((Map<K, V>) input.readObject());
-                LoggerFactory.getLogger( getClass() ).info( "Updated snapshot state:" + map );
+                synchronized ( versions )
+                {
+                    long snapshotVersion = input.readLong();
+                    if ( input.readBoolean() )
+                    {
+                        Map<K, V> puts = (Map<K, V>) input.readObject();
+                        Set<Object> removes = (Set<Object>) input.readObject();
+                        map.putAll( puts );
+                        for ( Object key : removes )
+                        {
+                            map.remove( key );
+                        }
+                        for ( Object key : puts.keySet() )
+                        {
+                            changed( key, snapshotVersion );
+                        }
+                        for ( Object key : removes )
+                        {
+                            changed( key, snapshotVersion );
+                        }
+                    }
+                    else
+                    {
+                        map = new ConcurrentHashMap( (Map<K, V>) input.readObject() );
+                        versions.clear();
+                        oldestDeltaVersion = snapshotVersion;
+                    }
+                    version = snapshotVersion;
+                }
+                LoggerFactory.getLogger( getClass() ).info( "Updated snapshot state to version " + version + ":" +
+                        map );
             }
         } );
 
@@ -75,7 +164,11 @@ public class AtomicBroadcastMap<K,V>
                 try
                 {
                     MapCommand command = (MapCommand) serializer.receive( value);
-                    command.execute( map );
+                    synchronized ( versions )
+                    {
+                        command.execute( map );
+                        changed( command, ++version );
+                    }
 
 //                LoggerFactory.getLogger( getClass() ).info(  "Map:"+map );
 
@@ -101,6 +194,50 @@ public class AtomicBroadcastMap<K,V>
         atomicBroadcast.addAtomicBroadcastListener( atomicBroadcastListener );
     }
 
+    private void changed( MapCommand command, long version )
+    {
+        if ( command instanceof Put )
+        {
+            changed( ((Put) command).key, version );
+        }
+        else if ( command instanceof Remove )
+        {
+            changed( ((Remove) command).key, version );
+        }
+        else if ( command instanceof PutAll )
+        {
+            for ( Object key : ((PutAll) command).map.keySet() )
+            {
+                changed( key, version );
+            }
+        }
+        else
+        {
+            // Cleared, or changed in ways that aren't known. Whoever is older gets the whole map
+            versions.clear();
+            oldestDeltaVersion = version;
+        }
+    }
+
+    private void changed( Object key, long version )
+    {
+        versions.put( key, version );
+        if ( versions.size() > map.size() + MAX_REMOVED_VERSIONS )
+        {
+            // Too many removed keys are remembered, forget about them
+            Iterator<Entry<Object, Long>> entries = versions.entrySet().iterator();
+            while ( entries.hasNext() )
+            {
+                Entry<Object, Long> entry = entries.next();
+                if ( !map.containsKey( entry.getKey() ) )
+                {
+                    oldestDeltaVersion = Math.max( oldestDeltaVersion, entry.getValue() );
+                    entries.remove();
+                }
+            }
+        }
+    }
+
     @Override
     public int size()
     {
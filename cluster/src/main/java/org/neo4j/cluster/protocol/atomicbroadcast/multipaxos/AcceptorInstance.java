@@ -25,6 +25,12 @@ package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
  */
 public class AcceptorInstance
 {
+    /**
+     * Ballot of instances an acceptor can't take part in, because it has let go of their state. No prepare can
+     * beat it, so such instances never hand out promises without the value they may have accepted.
+     */
+    public static final long CLOSED_BALLOT = Long.MAX_VALUE;
+
     private long ballot = -1;
     private Object value;
 
@@ -47,4 +53,10 @@ public class AcceptorInstance
     {
         this.value = value;
     }
+
+    public void clear()
+    {
+        ballot = -1;
+        value = null;
+    }
 }
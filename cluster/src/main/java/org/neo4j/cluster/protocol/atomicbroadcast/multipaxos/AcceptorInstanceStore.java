@@ -31,5 +31,11 @@ public interface AcceptorInstanceStore
 
     void accept( AcceptorInstance instance, Object value );
 
+    /**
+     * Tells the store that all instances up to and including the given one have been delivered by this member,
+     * so that their state can be let go of.
+     */
+    void lastDelivered( InstanceId instanceId );
+
     void clear();
 }
@@ -97,8 +97,14 @@ public enum AcceptorState
                             InstanceId instanceId = new InstanceId( message );
                             AcceptorInstance instance = context.getAcceptorInstance( instanceId );
 
-                            if ( acceptState.getBallot() == instance.getBallot() )
+                            // An accept can overtake the prepare of the same ballot, so anything not below
+                            // what was promised is taken, and counts as a promise of that ballot
+                            if ( acceptState.getBallot() >= instance.getBallot() )
                             {
+                                if ( acceptState.getBallot() > instance.getBallot() )
+                                {
+                                    context.promise( instance, acceptState.getBallot() );
+                                }
                                 context.accept( instance, acceptState.getValue() );
                                 instance.accept( acceptState.getValue() );
 
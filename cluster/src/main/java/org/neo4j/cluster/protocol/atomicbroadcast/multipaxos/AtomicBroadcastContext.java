@@ -21,6 +21,9 @@
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
 import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastListener;
@@ -39,6 +42,10 @@ public class AtomicBroadcastContext
 
     private Iterable<AtomicBroadcastListener> listeners = Listeners.newListeners();
 
+    // Values broadcast by me which wait for an instance at the coordinator, by conversation id
+    private final Map<String, Object> waitingValues = new HashMap<String, Object>();
+    private URI waitingAt;
+
     public AtomicBroadcastContext( ClusterContext context, Executor executor )
     {
         this.context = context;
@@ -67,6 +74,47 @@ public class AtomicBroadcastContext
         } );
     }
 
+    /**
+     * Holds on to a broadcast value until the proposer says that it has an instance, or that it was rejected.
+     * Values which wait are not timed out, since they would only be sent again to wait behind themselves.
+     */
+    public void waiting( String conversationId, Object value, URI coordinator )
+    {
+        waitingValues.put( conversationId, value );
+        waitingAt = coordinator;
+    }
+
+    /**
+     * @return the value of the broadcast, if it was still waiting, {@code null} otherwise.
+     */
+    public Object notWaiting( String conversationId )
+    {
+        return waitingValues.remove( conversationId );
+    }
+
+    /**
+     * The values waiting at a coordinator which has since been replaced are lost with its queue.
+     *
+     * @return those values by conversation id, which should be broadcast again.
+     */
+    public Map<String, Object> lostWaitingValues( URI coordinator )
+    {
+        if ( waitingAt == null || waitingAt.equals( coordinator ) || waitingValues.isEmpty() )
+        {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> lost = new HashMap<String, Object>( waitingValues );
+        waitingValues.clear();
+        waitingAt = coordinator;
+        return lost;
+    }
+
+    public void leave()
+    {
+        waitingValues.clear();
+        waitingAt = null;
+    }
+
     public URI getCoordinator()
     {
         return context.getConfiguration().getElected( ClusterConfiguration.COORDINATOR );
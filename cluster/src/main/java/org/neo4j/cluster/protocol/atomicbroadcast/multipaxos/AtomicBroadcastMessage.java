@@ -35,5 +35,6 @@ public enum AtomicBroadcastMessage
 
     // Protocol implementation messages
     entered, join, leave, // Group management
-    broadcastResponse, broadcastTimeout, failed; // Internal message created by implementation
+    broadcastResponse, broadcastTimeout, failed, // Internal message created by implementation
+    broadcastProposed, broadcastRejected; // Sent by the proposer to the broadcaster of a value
 }
@@ -25,6 +25,8 @@ import static org.neo4j.cluster.com.message.Message.timeout;
 import static org.neo4j.cluster.com.message.Message.to;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
 import org.neo4j.cluster.com.message.Message;
@@ -132,12 +134,19 @@ public enum AtomicBroadcastState
                         case broadcast:
                         {
                             URI coordinator = context.getCoordinator();
+                            for ( Map.Entry<String, Object> lost : context.lostWaitingValues( coordinator )
+                                    .entrySet() )
+                            {
+                                outgoing.process( internal( AtomicBroadcastMessage.broadcast, lost.getValue() )
+                                        .setHeader( Message.CONVERSATION_ID, lost.getKey() ) );
+                            }
+
+                            // The value isn't timed out until the proposer says that it has an instance
+                            context.waiting( message.getHeader( Message.CONVERSATION_ID ), message.getPayload(),
+                                    coordinator );
                             if ( coordinator != null )
                             {
                                 outgoing.process( to( ProposerMessage.propose, coordinator, message.getPayload() ) );
-                                context.getClusterContext().timeouts.setTimeout( "broadcast-" + message.getHeader(
-                                        Message.CONVERSATION_ID ), timeout( AtomicBroadcastMessage.broadcastTimeout,
-                                        message, message.getPayload() ) );
                             }
                             else
                             {
@@ -146,8 +155,34 @@ public enum AtomicBroadcastState
                             break;
                         }
 
+                        case broadcastProposed:
+                        case broadcastRejected:
+                        {
+                            // Once a value has an instance it's sent again unless it is delivered in time. A
+                            // rejected value is sent again after the same time, to back off from a busy proposer
+                            for ( String conversationId : message.<List<String>>getPayload() )
+                            {
+                                Object value = context.notWaiting( conversationId );
+                                if ( value == null )
+                                {
+                                    // Delivered already
+                                    continue;
+                                }
+                                if ( message.getMessageType() == AtomicBroadcastMessage.broadcastRejected )
+                                {
+                                    context.getClusterContext().getLogger().debug( "Broadcast " + conversationId +
+                                            " was rejected by the proposer, sending it again later" );
+                                }
+                                context.getClusterContext().timeouts.setTimeout( "broadcast-" + conversationId,
+                                        timeout( AtomicBroadcastMessage.broadcastTimeout, message, value )
+                                                .setHeader( Message.CONVERSATION_ID, conversationId ) );
+                            }
+                            break;
+                        }
+
                         case broadcastResponse:
                         {
+                            context.notWaiting( message.getHeader( Message.CONVERSATION_ID ) );
                             context.getClusterContext().timeouts.cancelTimeout( "broadcast-" + message.getHeader(
                                     Message.CONVERSATION_ID ) );
 
@@ -174,6 +209,7 @@ public enum AtomicBroadcastState
 
                         case leave:
                         {
+                            context.leave();
                             return start;
                         }
 
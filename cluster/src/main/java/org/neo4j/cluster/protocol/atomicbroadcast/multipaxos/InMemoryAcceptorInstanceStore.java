@@ -17,32 +17,78 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * In memory version of an acceptor instance store.
+ * In memory version of an acceptor instance store. Instances are kept in a
+ * fixed size ring indexed by instance id, so memory use does not grow with the
+ * number of broadcasts. Ballot and value of an instance are kept until its slot
+ * is needed by the instance a full ring later, and the slot is only given up
+ * once this member has delivered the older instance.
+ *
+ * Proposers may still run phase 1 for an instance after its state is gone, when
+ * they retry after a coordinator change or lag behind. Answering those with an
+ * empty promise could get a different value chosen for an instance that was
+ * already decided, so instances whose state was let go of, and instances that
+ * can't be stored yet because their slot holds an undelivered instance, are
+ * handed out closed, with a ballot no prepare can beat.
  */
 public class InMemoryAcceptorInstanceStore
         implements AcceptorInstanceStore
 {
-    // TODO Add mechanism to purge these
-    Map<InstanceId, AcceptorInstance> instances = new HashMap<InstanceId, AcceptorInstance>();
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final long[] ids;
+    private final AcceptorInstance[] instances;
+    private long lastDelivered = -1;
+    // Highest instance whose state has been let go of
+    private long forgotten = -1;
+
+    public InMemoryAcceptorInstanceStore()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    public InMemoryAcceptorInstanceStore( int capacity )
+    {
+        ids = new long[capacity];
+        instances = new AcceptorInstance[capacity];
+        for ( int i = 0; i < capacity; i++ )
+        {
+            instances[i] = new AcceptorInstance();
+        }
+        clear();
+    }
 
     @Override
     public AcceptorInstance getAcceptorInstance( InstanceId instanceId )
     {
-        AcceptorInstance instance = instances.get( instanceId );
-        if ( instance == null )
+        long id = instanceId.getId();
+        int slot = slot( id );
+        if ( ids[slot] == id )
+        {
+            return instances[slot];
+        }
+
+        if ( id <= forgotten )
         {
-            instance = new AcceptorInstance();
-            instances.put( instanceId, instance );
+            return closed();
         }
 
-        return instance;
+        if ( ids[slot] != -1 )
+        {
+            if ( ids[slot] > id || ids[slot] > lastDelivered )
+            {
+                // The slot holds a later instance, or one that is still needed
+                return closed();
+            }
+            forgotten = Math.max( forgotten, ids[slot] );
+        }
+        ids[slot] = id;
+        instances[slot].clear();
+        return instances[slot];
     }
 
     @Override
@@ -57,9 +103,34 @@ public class InMemoryAcceptorInstanceStore
         instance.accept( value );
     }
 
+    @Override
+    public void lastDelivered( InstanceId instanceId )
+    {
+        // Delivered instances keep their state until their slot is needed, see getAcceptorInstance
+        lastDelivered = Math.max( lastDelivered, instanceId.getId() );
+    }
+
     @Override
     public void clear()
     {
-        instances.clear();
+        Arrays.fill( ids, -1 );
+        for ( AcceptorInstance instance : instances )
+        {
+            instance.clear();
+        }
+        lastDelivered = -1;
+        forgotten = -1;
+    }
+
+    private AcceptorInstance closed()
+    {
+        AcceptorInstance closed = new AcceptorInstance();
+        closed.promise( AcceptorInstance.CLOSED_BALLOT );
+        return closed;
+    }
+
+    private int slot( long instanceId )
+    {
+        return (int) (instanceId % ids.length);
     }
 }
@@ -20,15 +20,33 @@
 
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Context for the Learner Paxos state machine.
  */
 public class LearnerContext
 {
+    /**
+     * Most instances, and bytes of learned values, sent in one answer to a range request. Values are
+     * counted by the size of their payloads, so the bytes limit is kept well below the largest frame.
+     */
+    public static final int MAX_RANGE_CHUNK_INSTANCES = 64;
+    public static final int MAX_RANGE_CHUNK_BYTES = 512 * 1024;
+
     // Learner state
-    private long lastDeliveredInstanceId = -1;
-    private long lastLearnedInstanceId = -1;
-    private long lastKnownLearnedInstanceInCluster = -1;
+    // Read by the heartbeat state machine, which runs in a lane of its own
+    private volatile long lastDeliveredInstanceId = -1;
+    private volatile long lastLearnedInstanceId = -1;
+    private volatile long lastKnownLearnedInstanceInCluster = -1;
+
+    // Last learned instance each member has reported in its heartbeats, read by the snapshot state machine
+    private final Map<URI, Long> lastLearnedByMember = new ConcurrentHashMap<URI, Long>();
+
+    // Highest instance that missing values have been requested up to, since the last learn timeout
+    private long lastRequestedInstanceId = -1;
 
     public long getLastDeliveredInstanceId()
     {
@@ -64,6 +82,30 @@ public class LearnerContext
         }
     }
 
+    public void memberLearned( URI member, long instanceId )
+    {
+        lastLearnedByMember.put( member, instanceId );
+    }
+
+    /**
+     * @return the last learned instance {@code member} has reported, or -1 if it hasn't reported any
+     */
+    public long getLastLearnedInstanceId( URI member )
+    {
+        Long instanceId = lastLearnedByMember.get( member );
+        return instanceId == null ? -1 : instanceId;
+    }
+
+    public long getLastRequestedInstanceId()
+    {
+        return lastRequestedInstanceId;
+    }
+
+    public void setLastRequestedInstanceId( long lastRequestedInstanceId )
+    {
+        this.lastRequestedInstanceId = lastRequestedInstanceId;
+    }
+
     public boolean hasDeliveredAllKnownInstances()
     {
         return lastDeliveredInstanceId == lastKnownLearnedInstanceInCluster;
@@ -74,5 +116,7 @@ public class LearnerContext
         lastDeliveredInstanceId = -1;
         lastLearnedInstanceId = -1;
         lastKnownLearnedInstanceInCluster = -1;
+        lastRequestedInstanceId = -1;
+        lastLearnedByMember.clear();
     }
 }
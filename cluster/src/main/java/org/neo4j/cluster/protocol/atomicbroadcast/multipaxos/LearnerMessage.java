@@ -21,6 +21,7 @@
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
 import java.io.Serializable;
+import java.util.List;
 
 import org.neo4j.cluster.com.message.MessageType;
 
@@ -31,7 +32,8 @@ public enum LearnerMessage
         implements MessageType
 {
     join, leave,
-    learn, learnRequest, learnFailed, learnTimedout, catchUp;
+    learn, learnRequest, learnFailed, learnTimedout, catchUp,
+    learnRangeRequest, learnRange, learnRangeFailed;
 
     public static class LearnState
             implements Serializable
@@ -82,4 +84,112 @@ public enum LearnerMessage
             return "Learn failed";
         }
     }
+
+    /**
+     * Request for the learned values of all instances from {@code from} up to
+     * and including {@code to}.
+     */
+    public static class LearnRangeRequestState
+            implements Serializable
+    {
+        private final long from;
+        private final long to;
+
+        public LearnRangeRequestState( long from, long to )
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        public long getFrom()
+        {
+            return from;
+        }
+
+        public long getTo()
+        {
+            return to;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Learn range request " + from + "-" + to;
+        }
+    }
+
+    /**
+     * Learned values of consecutive instances, starting at {@code firstInstanceId}.
+     * A range request is answered with as many of these as it takes.
+     */
+    public static class LearnRangeState
+            implements Serializable
+    {
+        private final long firstInstanceId;
+        private final List<Object> values;
+
+        public LearnRangeState( long firstInstanceId, List<Object> values )
+        {
+            this.firstInstanceId = firstInstanceId;
+            this.values = values;
+        }
+
+        public long getFirstInstanceId()
+        {
+            return firstInstanceId;
+        }
+
+        public List<Object> getValues()
+        {
+            return values;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Learn range " + firstInstanceId + "-" + (firstInstanceId + values.size() - 1);
+        }
+    }
+
+    /**
+     * The part of a range request, from {@code from} up to and including
+     * {@code to}, that could not be answered. If the values had been pushed
+     * out of the instance store they are {@code truncated}, and can only be
+     * had through a snapshot.
+     */
+    public static class LearnRangeFailedState
+            implements Serializable
+    {
+        private final long from;
+        private final long to;
+        private final boolean truncated;
+
+        public LearnRangeFailedState( long from, long to, boolean truncated )
+        {
+            this.from = from;
+            this.to = to;
+            this.truncated = truncated;
+        }
+
+        public long getFrom()
+        {
+            return from;
+        }
+
+        public long getTo()
+        {
+            return to;
+        }
+
+        public boolean isTruncated()
+        {
+            return truncated;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Learn range failed " + from + "-" + to + (truncated ? ", truncated" : "");
+        }
+    }
 }
@@ -21,10 +21,13 @@
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.snapshot.SnapshotMessage;
 import org.neo4j.cluster.statemachine.State;
 
 /**
@@ -68,93 +71,20 @@ public enum LearnerState
                         case learn:
                         {
                             LearnerMessage.LearnState learnState = message.getPayload();
-                            InstanceId instanceId = new InstanceId( message );
-                            PaxosInstance instance = context.getPaxosInstances().getPaxosInstance( instanceId );
-
-                            // Skip if we already know about this
-                            if ( instanceId.getId() <= context.learnerContext
-                                    .getLastDeliveredInstanceId() )
+                            if ( !learn( context, outgoing, new InstanceId( message ), learnState.getValue() ) )
                             {
-                                break;
-                            }
-
-                            context.learnerContext.learnedInstanceId( instanceId.getId() );
-
-                            instance.closed( learnState.getValue() );
-
-                            // If this is the next instance to be learned, then do so and check if we have anything
-                            // pending to be learnt
-                            if ( instanceId.getId() == context.learnerContext.getLastDeliveredInstanceId() + 1 )
-                            {
-                                instance.delivered();
-                                outgoing.process( Message.internal( AtomicBroadcastMessage.broadcastResponse,
-                                        learnState.getValue() ) );
-                                context.learnerContext.setLastDeliveredInstanceId( instanceId.getId() );
-
-                                long checkInstanceId = instanceId.getId() + 1;
-                                while ( (instance = context.getPaxosInstances().getPaxosInstance( new InstanceId(
-                                        checkInstanceId ) )).isState( PaxosInstance.State.closed ) )
-                                {
-                                    instance.delivered();
-                                    context.learnerContext.setLastDeliveredInstanceId( checkInstanceId );
-                                    outgoing.process( Message.internal( AtomicBroadcastMessage.broadcastResponse,
-                                            instance.value_2 ) );
-
-                                    checkInstanceId++;
-                                }
-
-                                if ( checkInstanceId == context.learnerContext.getLastKnownLearnedInstanceInCluster()
-                                        + 1 )
-                                {
-                                    // No hole - all is ok
-                                    // Cancel potential timeout, if one is active
-                                    context.timeouts.cancelTimeout( "learn" );
-                                }
-                                else
-                                {
-                                    // Found hole - we're waiting for this to be filled, i.e. timeout already set
-                                    context.clusterContext.getLogger().debug( "*** HOLE! WAITING FOR " +
-                                            instanceId );
-                                }
-                            }
-                            else
-                            {
-                                outgoing.process( Message.internal( LearnerMessage.learnTimedout ) );
+                                learnMissing( context, message, outgoing );
                             }
                             break;
                         }
 
                         case learnTimedout:
                         {
-                            // Timed out waiting for learned values - send explicit request to someone
+                            // Timed out waiting for learned values - request whatever is still missing again
                             if ( !context.learnerContext.hasDeliveredAllKnownInstances() )
                             {
-                                for ( long instanceId = context.learnerContext.getLastDeliveredInstanceId() + 1;
-                                      instanceId < context.learnerContext.getLastKnownLearnedInstanceInCluster();
-                                      instanceId++ )
-                                {
-                                    InstanceId id = new InstanceId( instanceId );
-                                    PaxosInstance instance = context.getPaxosInstances().getPaxosInstance( id );
-                                    if ( !instance.isState( PaxosInstance.State.closed ) && !instance.isState(
-                                            PaxosInstance.State.delivered ) )
-                                    {
-                                        for ( URI node : context.heartbeatContext.getAlive() )
-                                        {
-                                            if ( !node.equals( context.clusterContext.getMe() ) )
-                                            {
-                                                outgoing.process( Message.to( LearnerMessage.learnRequest, node,
-                                                        new LearnerMessage.LearnRequestState() ).setHeader(
-                                                        InstanceId.INSTANCE,
-                                                        id.toString() ) );
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-
-                                // Set another timeout
-                                context.timeouts.setTimeout( "learn", Message.timeout( LearnerMessage.learnTimedout,
-                                        message ) );
+                                context.learnerContext.setLastRequestedInstanceId( -1 );
+                                learnMissing( context, message, outgoing );
                             }
                             break;
                         }
@@ -213,31 +143,124 @@ public enum LearnerState
                             if ( context.learnerContext.getLastKnownLearnedInstanceInCluster() < catchUpTo )
                             {
                                 context.proposerContext.lastInstanceId = catchUpTo + 1;
+                                context.learnerContext.setLastKnownLearnedInstanceInCluster( catchUpTo );
 
                                 // Try to get up to date
-                                for ( long instanceId = context.learnerContext.getLastLearnedInstanceId() + 1;
-                                      instanceId <= catchUpTo; instanceId++ )
+                                learnMissing( context, message, outgoing );
+                            }
+                            break;
+                        }
+
+                        case learnRangeRequest:
+                        {
+                            // Someone wants to learn a range of values. Stream what we have, in order, until the
+                            // first value we don't have
+                            LearnerMessage.LearnRangeRequestState request = message.getPayload();
+                            PaxosInstanceStore instances = context.getPaxosInstances();
+                            long to = Math.min( request.getTo(), context.learnerContext.getLastLearnedInstanceId() );
+                            long instanceId = request.getFrom();
+                            boolean truncated = false;
+                            List<Object> values = new ArrayList<Object>();
+                            long bytes = 0;
+                            for ( ; instanceId <= to; instanceId++ )
+                            {
+                                InstanceId id = new InstanceId( instanceId );
+                                if ( instances.isPushedOut( id ) )
+                                {
+                                    truncated = true;
+                                    break;
+                                }
+                                if ( !instances.isLearned( id ) )
                                 {
-                                    InstanceId id = new InstanceId( instanceId );
-                                    PaxosInstance instance = context.getPaxosInstances().getPaxosInstance( id );
-                                    if ( !instance.isState( PaxosInstance.State.closed ) && !instance.isState(
-                                            PaxosInstance.State.delivered ) )
-                                    {
-                                        for ( URI node : context.heartbeatContext.getAlive() )
-                                        {
-                                            if ( !node.equals( context.clusterContext.getMe() ) )
-                                            {
-                                                outgoing.process( Message.to( LearnerMessage.learnRequest, node,
-                                                        new LearnerMessage.LearnRequestState() ).setHeader(
-                                                        InstanceId.INSTANCE,
-                                                        id.toString() ) );
-                                                break;
-                                            }
-                                        }
-                                    }
+                                    break;
                                 }
 
-                                context.learnerContext.setLastKnownLearnedInstanceInCluster( catchUpTo );
+                                Object value = instances.getPaxosInstance( id ).value_2;
+                                int size = sizeOf( value );
+                                if ( !values.isEmpty() && (values.size() >= LearnerContext.MAX_RANGE_CHUNK_INSTANCES
+                                        || bytes + size > LearnerContext.MAX_RANGE_CHUNK_BYTES) )
+                                {
+                                    outgoing.process( Message.respond( LearnerMessage.learnRange, message,
+                                            new LearnerMessage.LearnRangeState( instanceId - values.size(),
+                                                    values ) ) );
+                                    values = new ArrayList<Object>();
+                                    bytes = 0;
+                                }
+                                values.add( value );
+                                bytes += size;
+                            }
+
+                            if ( !values.isEmpty() )
+                            {
+                                outgoing.process( Message.respond( LearnerMessage.learnRange, message,
+                                        new LearnerMessage.LearnRangeState( instanceId - values.size(), values ) ) );
+                            }
+                            if ( instanceId <= request.getTo() )
+                            {
+                                context.clusterContext.getLogger().debug( "Did not have learned values for " +
+                                        "instances " + instanceId + "-" + request.getTo() +
+                                        (truncated ? ", they have been pushed out" : "") );
+                                outgoing.process( Message.respond( LearnerMessage.learnRangeFailed, message,
+                                        new LearnerMessage.LearnRangeFailedState( instanceId, request.getTo(),
+                                                truncated ) ) );
+                            }
+                            break;
+                        }
+
+                        case learnRange:
+                        {
+                            LearnerMessage.LearnRangeState range = message.getPayload();
+                            boolean hole = false;
+                            for ( int i = 0; i < range.getValues().size(); i++ )
+                            {
+                                hole |= !learn( context, outgoing, new InstanceId( range.getFirstInstanceId() + i ),
+                                        range.getValues().get( i ) );
+                            }
+                            if ( hole )
+                            {
+                                learnMissing( context, message, outgoing );
+                            }
+                            break;
+                        }
+
+                        case learnRangeFailed:
+                        {
+                            LearnerMessage.LearnRangeFailedState state = message.getPayload();
+                            URI learnDeniedNode = new URI( message.getHeader( Message.FROM ) );
+                            long from = Math.max( state.getFrom(), context.learnerContext
+                                    .getLastDeliveredInstanceId() + 1 );
+                            if ( from > state.getTo() )
+                            {
+                                break;
+                            }
+
+                            if ( state.isTruncated() )
+                            {
+                                // The values are gone from the instance store, so get a snapshot instead
+                                context.clusterContext.getLogger().info( "Instances " + from + "-" + state
+                                        .getTo() + " are no longer kept by " + learnDeniedNode + ", refreshing " +
+                                        "snapshot" );
+                                outgoing.process( Message.internal( SnapshotMessage.refreshSnapshot,
+                                        learnDeniedNode ) );
+                            }
+                            else
+                            {
+                                // Ask the next member, until all have been asked. After that the learn timeout
+                                // starts over
+                                List<URI> nodes = context.clusterContext.getConfiguration().getMembers();
+                                URI learnerNode = learnDeniedNode;
+                                do
+                                {
+                                    learnerNode = nodes.get( (nodes.indexOf( learnerNode ) + 1) % nodes.size() );
+                                }
+                                while ( context.clusterContext.isMe( learnerNode ) );
+
+                                if ( !learnerNode.equals( learnDeniedNode ) && !learnerNode.equals(
+                                        firstOtherAlive( context ) ) )
+                                {
+                                    outgoing.process( Message.to( LearnerMessage.learnRangeRequest, learnerNode,
+                                            new LearnerMessage.LearnRangeRequestState( from, state.getTo() ) ) );
+                                }
                             }
                             break;
                         }
@@ -251,5 +274,169 @@ public enum LearnerState
 
                     return this;
                 }
+            };
+
+    /**
+     * Closes an instance with its learned value, and delivers it along with any closed instances following it,
+     * if it is the next one to be delivered.
+     *
+     * @return false if there are instances missing before it, true otherwise
+     */
+    private static boolean learn( MultiPaxosContext context, MessageProcessor outgoing, InstanceId instanceId,
+                                  Object value )
+    {
+        // Skip if we already know about this
+        if ( instanceId.getId() <= context.learnerContext.getLastDeliveredInstanceId() )
+        {
+            return true;
+        }
+
+        PaxosInstance instance = context.getPaxosInstances().getPaxosInstance( instanceId );
+        context.learnerContext.learnedInstanceId( instanceId.getId() );
+
+        instance.closed( value );
+
+        // If this is the next instance to be learned, then do so and check if we have anything
+        // pending to be learnt
+        if ( instanceId.getId() != context.learnerContext.getLastDeliveredInstanceId() + 1 )
+        {
+            return false;
+        }
+
+        instance.delivered();
+        deliver( outgoing, value );
+        context.learnerContext.setLastDeliveredInstanceId( instanceId.getId() );
+
+        long checkInstanceId = instanceId.getId() + 1;
+        while ( (instance = context.getPaxosInstances().getPaxosInstance( new InstanceId(
+                checkInstanceId ) )).isState( PaxosInstance.State.closed ) )
+        {
+            instance.delivered();
+            context.learnerContext.setLastDeliveredInstanceId( checkInstanceId );
+            deliver( outgoing, instance.value_2 );
+
+            checkInstanceId++;
+        }
+        context.acceptorInstances.lastDelivered( new InstanceId( context.learnerContext
+                .getLastDeliveredInstanceId() ) );
+
+        if ( checkInstanceId == context.learnerContext.getLastKnownLearnedInstanceInCluster() + 1 )
+        {
+            // No hole - all is ok
+            // Cancel potential timeout, if one is active
+            context.timeouts.cancelTimeout( "learn" );
+        }
+        else
+        {
+            // Found hole - we're waiting for this to be filled, i.e. timeout already set
+            context.clusterContext.getLogger().debug( "*** HOLE! WAITING FOR " + checkInstanceId );
+        }
+        return true;
+    }
+
+    /**
+     * Requests the values of instances, up to the last one known to be learned in the cluster, that are neither
+     * learned here nor already requested. Each run of consecutive missing instances is asked for with one range
+     * request, and a learn timeout makes sure that lost requests are made again.
+     */
+    private static void learnMissing( MultiPaxosContext context, Message<LearnerMessage> message,
+                                      MessageProcessor outgoing )
+    {
+        LearnerContext learnerContext = context.learnerContext;
+        long from = Math.max( learnerContext.getLastDeliveredInstanceId(),
+                learnerContext.getLastRequestedInstanceId() ) + 1;
+        long to = learnerContext.getLastKnownLearnedInstanceInCluster();
+        URI node = firstOtherAlive( context );
+        if ( from <= to && node != null )
+        {
+            long runStart = -1;
+            for ( long instanceId = from; instanceId <= to; instanceId++ )
+            {
+                if ( !context.getPaxosInstances().isLearned( new InstanceId( instanceId ) ) )
+                {
+                    if ( runStart == -1 )
+                    {
+                        runStart = instanceId;
+                    }
+                }
+                else if ( runStart != -1 )
+                {
+                    outgoing.process( Message.to( LearnerMessage.learnRangeRequest, node,
+                            new LearnerMessage.LearnRangeRequestState( runStart, instanceId - 1 ) ) );
+                    runStart = -1;
+                }
+            }
+            if ( runStart != -1 )
+            {
+                outgoing.process( Message.to( LearnerMessage.learnRangeRequest, node,
+                        new LearnerMessage.LearnRangeRequestState( runStart, to ) ) );
+            }
+            learnerContext.setLastRequestedInstanceId( to );
+        }
+
+        if ( context.timeouts.getTimeoutMessage( "learn" ) == null )
+        {
+            context.timeouts.setTimeout( "learn", Message.timeout( LearnerMessage.learnTimedout, message ) );
+        }
+    }
+
+    private static URI firstOtherAlive( MultiPaxosContext context )
+    {
+        for ( URI node : context.heartbeatContext.getAlive() )
+        {
+            if ( !node.equals( context.clusterContext.getMe() ) )
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Size of a learned value, as counted against {@link LearnerContext#MAX_RANGE_CHUNK_BYTES}.
+     */
+    private static int sizeOf( Object value )
+    {
+        if ( value instanceof Payload )
+        {
+            return ((Payload) value).getLen();
+        }
+        else if ( value instanceof ValueBatch )
+        {
+            ValueBatch batch = (ValueBatch) value;
+            int size = 0;
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                size += sizeOf( batch.getValue( i ) );
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    /**
+     * Hands a learned value over for delivery. The values of a {@link ValueBatch} are delivered one at a
+     * time, in the order they were proposed.
+     */
+    private static void deliver( MessageProcessor outgoing, Object value )
+    {
+        if ( value instanceof ValueBatch )
+        {
+            ValueBatch batch = (ValueBatch) value;
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                Message<AtomicBroadcastMessage> message = Message.internal( AtomicBroadcastMessage
+                        .broadcastResponse, batch.getValue( i ) );
+                if ( batch.getConversationId( i ) != null )
+                {
+                    message.setHeader( Message.CONVERSATION_ID, batch.getConversationId( i ) );
+                }
+                outgoing.process( message );
             }
+        }
+        else
+        {
+            outgoing.process( Message.internal( AtomicBroadcastMessage.broadcastResponse, value ) );
+        }
+    }
 }
@@ -40,14 +40,17 @@ public class MultiPaxosContext
     LearnerContext learnerContext;
     HeartbeatContext heartbeatContext;
     Timeouts timeouts;
+    AcceptorInstanceStore acceptorInstances;
 
-    PaxosInstanceStore paxosInstances = new PaxosInstanceStore();
+    PaxosInstanceStore paxosInstances;
 
     public MultiPaxosContext( ClusterContext clusterContext,
                               ProposerContext proposerContext,
                               LearnerContext learnerContext,
                               HeartbeatContext heartbeatContext,
-                              Timeouts timeouts
+                              Timeouts timeouts,
+                              AcceptorInstanceStore acceptorInstances,
+                              PaxosInstanceStore paxosInstances
     )
     {
         this.clusterContext = clusterContext;
@@ -55,6 +58,8 @@ public class MultiPaxosContext
         this.learnerContext = learnerContext;
         this.heartbeatContext = heartbeatContext;
         this.timeouts = timeouts;
+        this.acceptorInstances = acceptorInstances;
+        this.paxosInstances = paxosInstances;
     }
 
     public int getServerId()
@@ -57,6 +57,23 @@ public class PaxosInstance
         this.id = instanceId;
     }
 
+    /**
+     * Makes this object the record of another instance, with no state.
+     */
+    void reset( InstanceId instanceId )
+    {
+        id = instanceId;
+        state = State.empty;
+        ballot = 0;
+        acceptors = null;
+        promises.clear();
+        accepts.clear();
+        value_1 = null;
+        phase1Ballot = 0;
+        value_2 = null;
+        clientValue = false;
+    }
+
     public boolean isState( State s )
     {
         return state.equals( s );
@@ -137,7 +154,6 @@ public class PaxosInstance
     public void delivered()
     {
         state = State.delivered;
-        store.delivered( id );
     }
 
     public List<URI> getAcceptors()
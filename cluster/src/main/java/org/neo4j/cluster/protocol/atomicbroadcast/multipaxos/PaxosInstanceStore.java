@@ -20,21 +20,32 @@
 
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
-
 /**
- * Store of Paxos instances, from a proposer perspective
+ * Store of Paxos instances, from a proposer perspective. Instances are kept in
+ * a fixed size ring indexed by instance id modulo capacity, and the
+ * {@link PaxosInstance} objects are reused, so opening an instance allocates
+ * nothing. An instance is pushed out by the one a full ring later, but only
+ * once it has been delivered. Delivered instances stay around, to answer learn
+ * requests, until then. Until the instance in its slot is delivered, a later
+ * instance is handed out without being stored, like one that was pushed out,
+ * so the capacity has to be well above the number of instances open at the
+ * same time.
  */
 public class PaxosInstanceStore
 {
-    private static final int MAX_STORED = 100;
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final PaxosInstance[] instances;
+
+    public PaxosInstanceStore()
+    {
+        this( DEFAULT_CAPACITY );
+    }
 
-    private int queued = 0;
-    private Queue<InstanceId> delivered = new LinkedList<InstanceId>();
-    private Map<InstanceId, PaxosInstance> instances = new HashMap<InstanceId, PaxosInstance>();
+    public PaxosInstanceStore( int capacity )
+    {
+        instances = new PaxosInstance[capacity];
+    }
 
     public PaxosInstance getPaxosInstance( InstanceId instanceId )
     {
@@ -43,32 +54,51 @@ public class PaxosInstanceStore
             throw new NullPointerException( "InstanceId may not be null" );
         }
 
-        PaxosInstance instance = instances.get( instanceId );
+        int slot = (int) (instanceId.getId() % instances.length);
+        PaxosInstance instance = instances[slot];
         if ( instance == null )
         {
             instance = new PaxosInstance( this, instanceId );
-            instances.put( instanceId, instance );
+            instances[slot] = instance;
+        }
+        else if ( instance.id.getId() != instanceId.getId() )
+        {
+            if ( instance.id.getId() > instanceId.getId() || !instance.isState( PaxosInstance.State.delivered ) )
+            {
+                // Either pushed out of the ring long ago, or the slot is still used by an earlier instance
+                return new PaxosInstance( this, instanceId );
+            }
+            instance.reset( instanceId );
         }
         return instance;
     }
 
-    public void delivered( InstanceId instanceId )
+    /**
+     * Checks if an instance has been learned, without opening it if the ring
+     * doesn't hold it.
+     */
+    public boolean isLearned( InstanceId instanceId )
     {
-        queued++;
-        delivered.offer( instanceId );
+        PaxosInstance instance = instances[(int) (instanceId.getId() % instances.length)];
+        return instance != null && instance.id.getId() == instanceId.getId() &&
+                (instance.isState( PaxosInstance.State.closed ) || instance.isState( PaxosInstance.State.delivered ));
+    }
 
-        if ( queued > MAX_STORED )
-        {
-            InstanceId removeInstanceId = delivered.poll();
-            instances.remove( removeInstanceId );
-            queued--;
-        }
+    /**
+     * Checks if an instance has been pushed out of the ring by a later one,
+     * so that its value, if it was ever learned, isn't kept anymore.
+     */
+    public boolean isPushedOut( InstanceId instanceId )
+    {
+        PaxosInstance instance = instances[(int) (instanceId.getId() % instances.length)];
+        return instance != null && instance.id.getId() > instanceId.getId();
     }
 
     public void leave()
     {
-        queued = 0;
-        delivered.clear();
-        instances.clear();
+        for ( int i = 0; i < instances.length; i++ )
+        {
+            instances[i] = null;
+        }
     }
 }
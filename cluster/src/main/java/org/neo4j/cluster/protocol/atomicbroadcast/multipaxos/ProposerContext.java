@@ -20,22 +20,57 @@
 
 package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
+import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+
 /**
  * Context used by {@link ProposerState} state machine.
  */
 public class ProposerContext
 {
+    public static final int DEFAULT_MAX_BATCH_VALUES = 64;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_CONCURRENT_INSTANCES = 10;
+    public static final int DEFAULT_MAX_PENDING_VALUES = 1000;
+
     // Proposer/coordinator state
-    Deque<Object> pendingValues = new LinkedList<Object>();
+    Deque<Message<ProposerMessage>> pendingValues = new LinkedList<Message<ProposerMessage>>();
     Map<InstanceId, Object> bookedInstances = new HashMap<InstanceId, Object>();
 
     public long lastInstanceId = 0;
 
+    private final int maxBatchValues;
+    private final int maxBatchBytes;
+    private final int maxConcurrentInstances;
+    private final int maxPendingValues;
+
+    public ProposerContext()
+    {
+        this( DEFAULT_MAX_BATCH_VALUES, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_CONCURRENT_INSTANCES,
+                DEFAULT_MAX_PENDING_VALUES );
+    }
+
+    /**
+     * @param maxConcurrentInstances the size of the pipeline, i.e. how many instances this proposer keeps
+     * open at the same time.
+     * @param maxPendingValues how many values may wait for a free instance before new ones are rejected,
+     * which their broadcaster is told about.
+     */
+    public ProposerContext( int maxBatchValues, int maxBatchBytes, int maxConcurrentInstances,
+                            int maxPendingValues )
+    {
+        this.maxBatchValues = maxBatchValues;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxConcurrentInstances = maxConcurrentInstances;
+        this.maxPendingValues = maxPendingValues;
+    }
+
     public InstanceId newInstanceId( long lastLearnedInstanceId )
     {
         // Never propose something lower than last received instance id
@@ -47,6 +82,101 @@ public class ProposerContext
         return new InstanceId( lastInstanceId++ );
     }
 
+    /**
+     * Queues the value of a propose message until there's an instance free for it.
+     *
+     * @return {@code false} if the value was rejected because too many values are waiting already.
+     */
+    public boolean pendingValue( Message<ProposerMessage> message )
+    {
+        if ( pendingValues.size() >= maxPendingValues )
+        {
+            return false;
+        }
+        pendingValues.offer( message );
+        return true;
+    }
+
+    /**
+     * Puts back a value which lost its instance, to be proposed before anything else.
+     */
+    public void pendingValueFirst( Object value )
+    {
+        pendingValues.offerFirst( Message.internal( ProposerMessage.propose, value ) );
+    }
+
+    public boolean hasPendingValues()
+    {
+        return !pendingValues.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if the window of concurrently open instances has room for another one.
+     */
+    public boolean canBookInstance()
+    {
+        return bookedInstances.size() < maxConcurrentInstances;
+    }
+
+    /**
+     * Takes the next value to propose. Broadcast payloads waiting in a row are
+     * packed into one {@link ValueBatch}, up to the maximum number of values and
+     * bytes, so that they are all decided by one instance. Other values, like
+     * configuration changes and batches that have already been proposed once,
+     * are returned as they are.
+     */
+    public Object nextPendingValue()
+    {
+        return nextPendingValue( null );
+    }
+
+    /**
+     * Like {@link #nextPendingValue()}, and adds the propose messages the value was made
+     * from to {@code taken}, so that their broadcasters can be told that their values now
+     * have an instance.
+     */
+    public Object nextPendingValue( Collection<Message<ProposerMessage>> taken )
+    {
+        Message<ProposerMessage> message = pendingValues.poll();
+        if ( message != null && taken != null )
+        {
+            taken.add( message );
+        }
+        if ( message == null || !isBatchable( message.getPayload() ) )
+        {
+            return message == null ? null : message.getPayload();
+        }
+
+        ValueBatch batch = new ValueBatch();
+        int bytes = 0;
+        do
+        {
+            Payload value = message.getPayload();
+            batch.add( value, message.hasHeader( Message.CONVERSATION_ID ) ?
+                    message.getHeader( Message.CONVERSATION_ID ) : null );
+            bytes += value.getLen();
+
+            message = pendingValues.peek();
+            if ( message == null || !isBatchable( message.getPayload() ) || batch.size() >= maxBatchValues ||
+                    bytes + message.<Payload>getPayload().getLen() > maxBatchBytes )
+            {
+                break;
+            }
+            pendingValues.poll();
+            if ( taken != null )
+            {
+                taken.add( message );
+            }
+        }
+        while ( true );
+        return batch;
+    }
+
+    private boolean isBatchable( Object value )
+    {
+        return value instanceof Payload;
+    }
+
     public void leave()
     {
         pendingValues.clear();
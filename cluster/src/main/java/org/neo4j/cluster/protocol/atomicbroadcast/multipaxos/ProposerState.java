@@ -22,7 +22,9 @@ package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
@@ -87,7 +89,26 @@ public enum ProposerState
                             }
                             else
                             {
-                                propose( context, message, outgoing, payload, context.getAcceptors() );
+                                // Broadcast values wait for a free instance, and are then proposed together
+                                // with whatever else is pending at that time
+                                if ( context.proposerContext.pendingValue( message ) )
+                                {
+                                    proposePending( context, message, outgoing );
+                                }
+                                else
+                                {
+                                    // Pipeline and backlog are full. Tell the broadcaster, which holds on to the
+                                    // value and sends it again after a while
+                                    context.clusterContext.getLogger().debug( "Rejecting " + payload + " booked:"
+                                            + context.proposerContext.bookedInstances.size() );
+                                    if ( message.hasHeader( Message.CONVERSATION_ID ) )
+                                    {
+                                        ArrayList<String> rejected = new ArrayList<String>();
+                                        rejected.add( message.getHeader( Message.CONVERSATION_ID ) );
+                                        outgoing.process( toBroadcaster( AtomicBroadcastMessage.broadcastRejected,
+                                                message, rejected ) );
+                                    }
+                                }
                             }
 
                             break;
@@ -99,6 +120,12 @@ public enum ProposerState
                             ProposerMessage.RejectPrepare rejectPropose = message.getPayload();
                             InstanceId instanceId = new InstanceId( message );
                             PaxosInstance instance = context.getPaxosInstances().getPaxosInstance( instanceId );
+                            if ( rejectPropose.getBallot() == AcceptorInstance.CLOSED_BALLOT )
+                            {
+                                // That acceptor can't take part in this instance. No ballot beats it, so wait for
+                                // the others and let the phase 1 timeout retry or give up
+                                break;
+                            }
                             if ( instance.isState( PaxosInstance.State.p1_pending ) )
                             {
                                 long ballot = instance.ballot;
@@ -138,7 +165,8 @@ public enum ProposerState
                                 {
                                     // Fail this propose
                                     outgoing.process( Message.internal( AtomicBroadcastMessage.failed,
-                                            context.proposerContext.bookedInstances.get( instance.id ) ) );
+                                            context.proposerContext.bookedInstances.remove( instance.id ) ) );
+                                    proposePending( context, message, outgoing );
                                 }
                                 else
                                 {
@@ -191,7 +219,7 @@ public enum ProposerState
                                         {
                                             // Another value was already associated with this instance. Push value
                                             // back onto pending list
-                                            context.proposerContext.pendingValues.offerFirst( context.proposerContext
+                                            context.proposerContext.pendingValueFirst( context.proposerContext
                                                     .bookedInstances.remove( instance.id ) );
 
                                             instance.ready( instance.value_1, false );
@@ -206,7 +234,7 @@ public enum ProposerState
                                         {
                                             // Another value was already associated with this instance. Push value
                                             // back onto pending list
-                                            context.proposerContext.pendingValues.offerFirst( context.proposerContext
+                                            context.proposerContext.pendingValueFirst( context.proposerContext
                                                     .bookedInstances.remove( instance.id ) );
 
                                             instance.ready( instance.value_1, false );
@@ -215,7 +243,7 @@ public enum ProposerState
                                         {
                                             // Another value was already associated with this instance. Push value
                                             // back onto pending list
-                                            context.proposerContext.pendingValues.offerFirst( context.proposerContext
+                                            context.proposerContext.pendingValueFirst( context.proposerContext
                                                     .bookedInstances.remove( instance.id ) );
                                             instance.ready( instance.value_1, false );
                                         }
@@ -253,6 +281,7 @@ public enum ProposerState
                             {
                                 if ( instance.clientValue )
                                 {
+                                    context.proposerContext.bookedInstances.remove( instanceId );
                                     propose( context, message, outgoing, instance.value_2, instance.getAcceptors() );
                                 }
 
@@ -330,27 +359,20 @@ public enum ProposerState
                                     }
                                     else
                                     {
-                                        // Tell learners
-                                        for ( URI learner : context.getLearners() )
-                                        {
-                                            outgoing.process( message.copyHeadersTo( Message.to( LearnerMessage
-                                                    .learn, learner,
-                                                    new LearnerMessage.LearnState( instance.value_2 ) ),
-                                                    InstanceId.INSTANCE ) );
-                                        }
+                                        // Tell learners. The other members get one broadcast, which is encoded
+                                        // once for all of them, and I learn directly
+                                        LearnerMessage.LearnState learnState = new LearnerMessage.LearnState(
+                                                instance.value_2 );
+                                        outgoing.process( message.copyHeadersTo( Message.broadcast( LearnerMessage
+                                                .learn, learnState ), InstanceId.INSTANCE ) );
+                                        outgoing.process( message.copyHeadersTo( Message.internal( LearnerMessage
+                                                .learn, learnState ), InstanceId.INSTANCE ) );
                                     }
 
                                     context.proposerContext.bookedInstances.remove( instance.id );
 
                                     // Check if we have anything pending - try to start process for it
-                                    if ( !context.proposerContext.pendingValues.isEmpty() && context.proposerContext
-                                            .bookedInstances.size() < MAX_CONCURRENT_INSTANCES )
-                                    {
-                                        Object value = context.proposerContext.pendingValues.remove();
-                                        context.clusterContext.getLogger().debug( "Restarting " + value + " booked:"
-                                                + context.proposerContext.bookedInstances.size() );
-                                        outgoing.process( Message.internal( ProposerMessage.propose, value ) );
-                                    }
+                                    proposePending( context, message, outgoing );
                                 }
                             }
                             break;
@@ -369,7 +391,70 @@ public enum ProposerState
 
             };
 
-    public final int MAX_CONCURRENT_INSTANCES = 10;
+    /**
+     * Opens instances for pending values until the window of concurrent instances is full. Instances are
+     * decided independently of each other, learners deliver them in instance order.
+     */
+    private static void proposePending( MultiPaxosContext context, Message message, MessageProcessor outgoing )
+    {
+        List<Message<ProposerMessage>> taken = new ArrayList<Message<ProposerMessage>>();
+        while ( context.proposerContext.hasPendingValues() && context.proposerContext.canBookInstance() )
+        {
+            Object value = context.proposerContext.nextPendingValue( taken );
+            context.clusterContext.getLogger().debug( "Proposing " + value + " booked:"
+                    + context.proposerContext.bookedInstances.size() );
+            if ( value instanceof ClusterMessage.ConfigurationChangeState )
+            {
+                // Go through propose again so that a leaving node is not asked to accept it
+                outgoing.process( Message.internal( ProposerMessage.propose, value ) );
+            }
+            else
+            {
+                propose( context, message, outgoing, value, context.getAcceptors() );
+            }
+        }
+        notifyProposed( taken, outgoing );
+    }
+
+    /**
+     * Tells the broadcasters of values which just got an instance, with one message per broadcaster,
+     * so that they can start timing out their broadcasts. Values waiting for an instance are not timed
+     * out, since they would only be sent again to wait behind themselves.
+     */
+    private static void notifyProposed( List<Message<ProposerMessage>> taken, MessageProcessor outgoing )
+    {
+        Map<String, Message<ProposerMessage>> broadcasters = new LinkedHashMap<String, Message<ProposerMessage>>();
+        Map<String, ArrayList<String>> conversations = new LinkedHashMap<String, ArrayList<String>>();
+        for ( Message<ProposerMessage> proposal : taken )
+        {
+            if ( !proposal.hasHeader( Message.CONVERSATION_ID ) )
+            {
+                continue;
+            }
+            String from = proposal.hasHeader( Message.FROM ) ? proposal.getHeader( Message.FROM ) : "";
+            ArrayList<String> conversationIds = conversations.get( from );
+            if ( conversationIds == null )
+            {
+                conversationIds = new ArrayList<String>();
+                conversations.put( from, conversationIds );
+                broadcasters.put( from, proposal );
+            }
+            conversationIds.add( proposal.getHeader( Message.CONVERSATION_ID ) );
+        }
+        for ( Map.Entry<String, ArrayList<String>> conversationIds : conversations.entrySet() )
+        {
+            outgoing.process( toBroadcaster( AtomicBroadcastMessage.broadcastProposed,
+                    broadcasters.get( conversationIds.getKey() ), conversationIds.getValue() ) );
+        }
+    }
+
+    private static Message<AtomicBroadcastMessage> toBroadcaster( AtomicBroadcastMessage type,
+                                                                  Message<ProposerMessage> proposal,
+                                                                  ArrayList<String> conversationIds )
+    {
+        return proposal.hasHeader( Message.FROM ) ? Message.respond( type, proposal, conversationIds ) :
+                Message.internal( type, conversationIds );
+    }
 
     private static void propose( MultiPaxosContext context, Message message, MessageProcessor outgoing,
                                  Object payload, List<URI> acceptors )
@@ -399,7 +484,8 @@ public enum ProposerState
         else
         {
             // Wait with this value - we have our hands full right now
-            context.proposerContext.pendingValues.offerFirst( payload );
+            context.proposerContext.bookedInstances.remove( instanceId );
+            context.proposerContext.pendingValueFirst( payload );
         }
     }
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several broadcast values decided in one Paxos instance. Learners deliver
+ * them one by one, in order, each with the conversation id of the broadcast
+ * it came from.
+ */
+public class ValueBatch
+        implements Serializable
+{
+    private final List<Object> values = new ArrayList<Object>();
+    private final List<String> conversationIds = new ArrayList<String>();
+
+    public void add( Object value, String conversationId )
+    {
+        values.add( value );
+        conversationIds.add( conversationId );
+    }
+
+    public int size()
+    {
+        return values.size();
+    }
+
+    public Object getValue( int index )
+    {
+        return values.get( index );
+    }
+
+    /**
+     * @return the conversation id of the broadcast of value {@code index}, or
+     * {@code null} if it isn't known.
+     */
+    public String getConversationId( int index )
+    {
+        return conversationIds.get( index );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Batch" + values;
+    }
+}
@@ -42,7 +42,7 @@ public class ClusterConfiguration
     public static final String SLAVE = "slave";
 
     private final String name;
-    private List<URI> members;
+    private volatile List<URI> members;
     private Map<String, URI> roles = new HashMap<String, URI>();
     private int allowedFailures = 1;
 
@@ -83,14 +83,17 @@ public class ClusterConfiguration
             return;
         }
 
-        this.members = new ArrayList<URI>( members );
-        members.add( nodeUrl );
+        // Copy on write, members are read from other lanes
+        List<URI> newMembers = new ArrayList<URI>( members );
+        newMembers.add( nodeUrl );
+        this.members = newMembers;
     }
 
     public void left( URI nodeUrl )
     {
-        this.members = new ArrayList<URI>( members );
-        members.remove( nodeUrl );
+        List<URI> newMembers = new ArrayList<URI>( members );
+        newMembers.remove( nodeUrl );
+        this.members = newMembers;
 
         // Remove any roles that this node had
         Iterator<Map.Entry<String, URI>> entries = roles.entrySet().iterator();
@@ -114,11 +117,12 @@ public class ClusterConfiguration
 
     public void setMembers( Iterable<URI> members )
     {
-        this.members = new ArrayList<URI>();
+        List<URI> newMembers = new ArrayList<URI>();
         for ( URI node : members )
         {
-            this.members.add( node );
+            newMembers.add( node );
         }
+        this.members = newMembers;
     }
 
     public void setRoles( Map<String, URI> roles )
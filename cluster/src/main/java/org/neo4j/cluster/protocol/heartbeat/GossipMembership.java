@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.heartbeat;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Bookkeeping of the gossip based failure detection, in the style of SWIM by Das, Gupta and Motivala. Each probe
+ * interval a member pings one other member, going through all members in a random order that is shuffled again
+ * every round. If the ping is not acknowledged in time, a few other members are asked to ping it too, and only if
+ * no acknowledgement arrives at all in the interval is the member suspected.
+ * <p/>
+ * Suspicions are not sent to every member when they change. Instead each member's set of suspicions is versioned
+ * and piggybacked on the pings and acknowledgements for a number of transmissions that grows with the logarithm of
+ * the cluster size, which is enough for it to reach everyone with high probability. That keeps the messages, and
+ * the timeouts, per member and interval constant no matter how large the cluster is.
+ * <p/>
+ * Versions start from the incarnation of the member, the time it started gossiping, in the high bits. A member
+ * that restarts and gossips again therefore always supersedes the suspicions the others still have from its
+ * previous incarnation, instead of having its updates dropped as old until its version caught up again.
+ */
+public class GossipMembership
+{
+    public static final int INDIRECT_PROBES = 3;
+    public static final int MAX_PIGGYBACKED_UPDATES = 6;
+    private static final int TRANSMISSION_MULTIPLIER = 3;
+    // Leaves room for a million suspicion changes per incarnation, and millisecond incarnations for centuries
+    private static final int INCARNATION_SHIFT = 20;
+
+    private final Random random;
+
+    private final List<URI> probeOrder = new ArrayList<URI>();
+    private int probeIndex;
+    private final Set<URI> urgentProbes = new LinkedHashSet<URI>();
+
+    private URI probeTarget;
+    private long probeSequence;
+    private boolean acknowledged = true;
+
+    private final Map<URI, HeartbeatMessage.SuspicionsUpdate> updates =
+            new HashMap<URI, HeartbeatMessage.SuspicionsUpdate>();
+    private final Map<URI, Integer> transmissions = new HashMap<URI, Integer>();
+    private long version;
+
+    /**
+     * @param incarnation when this member started gossiping, in milliseconds. Must be larger after a restart.
+     */
+    public GossipMembership( Random random, long incarnation )
+    {
+        this.random = random;
+        this.version = incarnation << INCARNATION_SHIFT;
+    }
+
+    /**
+     * Start a new probe. Members that have been asked to be probed urgently go first, then the next member of the
+     * current round.
+     *
+     * @return the member to ping, or null if there are no other members
+     */
+    public URI nextProbe( URI me, List<URI> members )
+    {
+        URI target = null;
+        Iterator<URI> urgent = urgentProbes.iterator();
+        while ( target == null && urgent.hasNext() )
+        {
+            URI member = urgent.next();
+            urgent.remove();
+            if ( members.contains( member ) && !member.equals( me ) )
+            {
+                target = member;
+            }
+        }
+
+        for ( int tries = 0; target == null && tries < 2; tries++ )
+        {
+            if ( probeIndex >= probeOrder.size() )
+            {
+                // New round, new order
+                probeOrder.clear();
+                for ( URI member : members )
+                {
+                    if ( !member.equals( me ) )
+                    {
+                        probeOrder.add( member );
+                    }
+                }
+                Collections.shuffle( probeOrder, random );
+                probeIndex = 0;
+            }
+
+            while ( target == null && probeIndex < probeOrder.size() )
+            {
+                URI member = probeOrder.get( probeIndex++ );
+                if ( members.contains( member ) )
+                {
+                    target = member;
+                }
+            }
+        }
+
+        if ( target != null )
+        {
+            probeTarget = target;
+            probeSequence++;
+            acknowledged = false;
+        }
+        return target;
+    }
+
+    /**
+     * @return the member of the current probe if it has not been acknowledged, or null
+     */
+    public URI getUnacknowledgedProbe()
+    {
+        return acknowledged ? null : probeTarget;
+    }
+
+    public long getProbeSequence()
+    {
+        return probeSequence;
+    }
+
+    /**
+     * @return whether this acknowledged the current probe
+     */
+    public boolean acknowledged( URI target, long sequence )
+    {
+        if ( !acknowledged && sequence == probeSequence && target.equals( probeTarget ) )
+        {
+            acknowledged = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Probe the given member as soon as possible, typically because someone else suspects it.
+     */
+    public void probeUrgently( URI member )
+    {
+        if ( !member.equals( probeTarget ) || acknowledged )
+        {
+            urgentProbes.add( member );
+        }
+    }
+
+    /**
+     * @return up to {@link #INDIRECT_PROBES} random members, other than ourselves and the target, to probe the
+     * target on our behalf
+     */
+    public List<URI> indirectProbers( URI me, URI target, Iterable<URI> alive )
+    {
+        List<URI> candidates = new ArrayList<URI>();
+        for ( URI member : alive )
+        {
+            if ( !member.equals( me ) && !member.equals( target ) )
+            {
+                candidates.add( member );
+            }
+        }
+        Collections.shuffle( candidates, random );
+        return candidates.subList( 0, Math.min( INDIRECT_PROBES, candidates.size() ) );
+    }
+
+    /**
+     * Our own suspicions changed, gossip the new set.
+     */
+    public void suspicionsChanged( URI me, Set<URI> suspicions )
+    {
+        update( new HeartbeatMessage.SuspicionsUpdate( me, ++version, new HashSet<URI>( suspicions ) ) );
+    }
+
+    /**
+     * @return whether the update is newer than what we knew of its origin, in which case it is gossiped further
+     */
+    public boolean update( HeartbeatMessage.SuspicionsUpdate update )
+    {
+        HeartbeatMessage.SuspicionsUpdate known = updates.get( update.getOrigin() );
+        if ( known != null && known.getVersion() >= update.getVersion() )
+        {
+            return false;
+        }
+        updates.put( update.getOrigin(), update );
+        transmissions.put( update.getOrigin(), 0 );
+        return true;
+    }
+
+    /**
+     * @return the updates to piggyback on the next message, the least transmitted first
+     */
+    public List<HeartbeatMessage.SuspicionsUpdate> piggyback( int clusterSize )
+    {
+        if ( transmissions.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        int maxTransmissions = TRANSMISSION_MULTIPLIER *
+                (32 - Integer.numberOfLeadingZeros( Math.max( 1, clusterSize ) ));
+        List<Map.Entry<URI, Integer>> pending = new ArrayList<Map.Entry<URI, Integer>>( transmissions.entrySet() );
+        Collections.sort( pending, new Comparator<Map.Entry<URI, Integer>>()
+        {
+            @Override
+            public int compare( Map.Entry<URI, Integer> first, Map.Entry<URI, Integer> second )
+            {
+                return first.getValue().compareTo( second.getValue() );
+            }
+        } );
+
+        List<HeartbeatMessage.SuspicionsUpdate> piggybacked = new ArrayList<HeartbeatMessage.SuspicionsUpdate>();
+        for ( Map.Entry<URI, Integer> entry : pending.subList( 0, Math.min( MAX_PIGGYBACKED_UPDATES,
+                pending.size() ) ) )
+        {
+            URI origin = entry.getKey();
+            piggybacked.add( updates.get( origin ) );
+            int transmitted = entry.getValue() + 1;
+            if ( transmitted >= maxTransmissions )
+            {
+                transmissions.remove( origin );
+            }
+            else
+            {
+                transmissions.put( origin, transmitted );
+            }
+        }
+        return piggybacked;
+    }
+
+    /**
+     * The member left the cluster, forget about it.
+     */
+    public void remove( URI member )
+    {
+        urgentProbes.remove( member );
+        updates.remove( member );
+        transmissions.remove( member );
+        if ( member.equals( probeTarget ) )
+        {
+            acknowledged = true;
+        }
+    }
+}
@@ -24,11 +24,14 @@ import static org.neo4j.cluster.com.message.Message.timeout;
 
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 
 import org.neo4j.cluster.com.message.Message;
@@ -46,17 +49,44 @@ public class HeartbeatContext
     private ClusterContext clusterContext;
     private LearnerContext learnerContext;
     private Executor executor;
-    List<URI> failed = new ArrayList<URI>();
+    // The heartbeat state machine runs in a lane of its own, but failures and suspicions are read from others
+    List<URI> failed = new CopyOnWriteArrayList<URI>();
 
-    Map<URI, Set<URI>> nodeSuspicions = new HashMap<URI, Set<URI>>();
+    ConcurrentMap<URI, Set<URI>> nodeSuspicions = new ConcurrentHashMap<URI, Set<URI>>();
 
-    Iterable<HeartbeatListener> listeners = Listeners.newListeners();
+    volatile Iterable<HeartbeatListener> listeners = Listeners.newListeners();
+
+    // Null if members are failed on fixed timeouts only
+    private final PhiAccrualFailureDetector failureDetector;
+
+    // 0 if every member heartbeats every other member directly
+    private final long gossipInterval;
+    // Only used from the heartbeat lane, and only while in the gossip state
+    private GossipMembership gossip;
 
     public HeartbeatContext( ClusterContext clusterContext, LearnerContext learnerContext, Executor executor )
+    {
+        this( clusterContext, learnerContext, executor, null );
+    }
+
+    public HeartbeatContext( ClusterContext clusterContext, LearnerContext learnerContext, Executor executor,
+                             PhiAccrualFailureDetector failureDetector )
+    {
+        this( clusterContext, learnerContext, executor, failureDetector, 0 );
+    }
+
+    /**
+     * @param gossipInterval how often to probe a member when failures are detected by gossip, or 0 to heartbeat
+     * every member directly
+     */
+    public HeartbeatContext( ClusterContext clusterContext, LearnerContext learnerContext, Executor executor,
+                             PhiAccrualFailureDetector failureDetector, long gossipInterval )
     {
         this.clusterContext = clusterContext;
         this.learnerContext = learnerContext;
         this.executor = executor;
+        this.failureDetector = failureDetector;
+        this.gossipInterval = gossipInterval;
     }
 
     public void started()
@@ -68,6 +98,10 @@ public class HeartbeatContext
     {
         Set<URI> serverSuspicions = getSuspicionsFor( clusterContext.getMe() );
         boolean suspected = serverSuspicions.remove( node );
+        if ( suspected && gossip != null )
+        {
+            gossip.suspicionsChanged( clusterContext.getMe(), serverSuspicions );
+        }
 
         if ( !isFailed( node ) && failed.remove( node ) )
         {
@@ -84,10 +118,73 @@ public class HeartbeatContext
         return suspected;
     }
 
+    /**
+     * Record that the given member is alive, either through a heartbeat or because some other message arrived
+     * from it.
+     */
+    public void heartbeat( URI node, boolean regularHeartbeat )
+    {
+        if ( failureDetector != null )
+        {
+            long now = clusterContext.timeouts.getCurrentTime();
+            if ( regularHeartbeat )
+            {
+                failureDetector.heartbeat( node, now );
+            }
+            else
+            {
+                failureDetector.signOfLife( node, now );
+            }
+        }
+    }
+
+    /**
+     * @return the suspicion level of the given member, or 0 if it is not known or failure detection is not adaptive
+     */
+    public double getPhi( URI node )
+    {
+        return failureDetector == null ? 0 : failureDetector.phi( node, clusterContext.timeouts.getCurrentTime() );
+    }
+
+    /**
+     * @return whether the silence of the given member is long enough to suspect it. Always true with fixed timeouts
+     * or if nothing has been heard from it yet, since then the fixed timeout is what got us here.
+     */
+    public boolean isSuspicious( URI node )
+    {
+        return failureDetector == null || failureDetector.timeUntilSuspected( node,
+                clusterContext.timeouts.getCurrentTime() ) <= 0;
+    }
+
+    /**
+     * Set the timeout that checks on the given member. It triggers when the failure detector would start
+     * suspecting it, or after the fixed heartbeat timeout if that can't be told yet.
+     */
+    public void setFailureTimeout( URI node, Message<?> causedBy )
+    {
+        String timeoutName = HeartbeatMessage.i_am_alive + "-" + node;
+        Message<HeartbeatMessage> timedOut = timeout( HeartbeatMessage.timed_out, causedBy, node );
+
+        clusterContext.timeouts.cancelTimeout( timeoutName );
+        long timeUntilSuspected = failureDetector == null ? -1 : failureDetector.timeUntilSuspected( node,
+                clusterContext.timeouts.getCurrentTime() );
+        if ( timeUntilSuspected < 0 )
+        {
+            clusterContext.timeouts.setTimeout( timeoutName, timedOut );
+        }
+        else
+        {
+            clusterContext.timeouts.setTimeout( timeoutName, timedOut, timeUntilSuspected );
+        }
+    }
+
     public void suspect( final URI node )
     {
         Set<URI> serverSuspicions = getSuspicionsFor( clusterContext.getMe() );
-        serverSuspicions.add( node );
+        if ( serverSuspicions.add( node ) && gossip != null )
+        {
+            gossip.suspicionsChanged( clusterContext.getMe(), serverSuspicions );
+        }
 
         if ( isFailed( node ) && !failed.contains( node ) )
         {
@@ -178,9 +275,100 @@ public class HeartbeatContext
         }
     }
 
+    public boolean isGossipEnabled()
+    {
+        return gossipInterval > 0;
+    }
+
+    public GossipMembership getGossip()
+    {
+        return gossip;
+    }
+
+    public long getGossipInterval()
+    {
+        return gossipInterval;
+    }
+
+    /**
+     * @return how long to wait for a direct ping to be acknowledged before asking others to ping the member
+     */
+    public long getPingTimeout()
+    {
+        return Math.max( 1, gossipInterval / 3 );
+    }
+
+    public void startGossip( Message<?> message )
+    {
+        // Seeded with our own address, so members go through the others in different orders but runs repeat.
+        // Started at the current time, so what we gossip now supersedes what we gossiped before a restart
+        gossip = new GossipMembership( new Random( clusterContext.getMe().hashCode() ),
+                clusterContext.timeouts.getCurrentTime() );
+        gossip.suspicionsChanged( clusterContext.getMe(), getSuspicionsFor( clusterContext.getMe() ) );
+        clusterContext.timeouts.setTimeout( HeartbeatMessage.probe.name(), timeout( HeartbeatMessage.probe,
+                message ), gossipInterval );
+    }
+
+    public void stopGossip()
+    {
+        clusterContext.timeouts.cancelTimeout( HeartbeatMessage.probe.name() );
+        clusterContext.timeouts.cancelTimeout( HeartbeatMessage.pingTimedout.name() );
+        gossip = null;
+    }
+
+    /**
+     * Apply the suspicions updates that were piggybacked on a gossip message. Members that others suspect but we
+     * don't, or that we consider failed but others no longer suspect, are probed next instead of taking the word of
+     * others for it, so failures are still decided by a majority of members that checked for themselves.
+     */
+    public void gossiped( List<HeartbeatMessage.SuspicionsUpdate> updates )
+    {
+        URI me = clusterContext.getMe();
+        List<URI> members = clusterContext.getConfiguration().getMembers();
+        Set<URI> mySuspicions = getSuspicionsFor( me );
+        for ( HeartbeatMessage.SuspicionsUpdate update : updates )
+        {
+            URI origin = update.getOrigin();
+            if ( origin.equals( me ) || !members.contains( origin ) || !gossip.update( update ) )
+            {
+                continue;
+            }
+
+            suspicions( origin, update.getSuspicions() );
+            for ( URI suspected : update.getSuspicions() )
+            {
+                if ( !suspected.equals( me ) && !mySuspicions.contains( suspected ) )
+                {
+                    gossip.probeUrgently( suspected );
+                }
+            }
+            for ( URI failedMember : failed )
+            {
+                if ( !update.getSuspicions().contains( failedMember ) )
+                {
+                    gossip.probeUrgently( failedMember );
+                }
+            }
+        }
+    }
+
+    public HeartbeatMessage.GossipState gossipState( URI target, long sequence, URI requester )
+    {
+        return new HeartbeatMessage.GossipState( target, sequence, requester,
+                gossip.piggyback( clusterContext.getConfiguration().getMembers().size() ) );
+    }
+
     public void serverLeftCluster( URI node )
     {
         failed.remove( node );
+        if ( gossip != null )
+        {
+            gossip.remove( node );
+        }
+        if ( failureDetector != null )
+        {
+            failureDetector.remove( node );
+        }
         for ( Set<URI> uris : nodeSuspicions.values() )
         {
             uris.remove( node );
@@ -213,8 +401,12 @@ public class HeartbeatContext
         Set<URI> serverSuspicions = nodeSuspicions.get( uri );
         if ( serverSuspicions == null )
         {
-            serverSuspicions = new HashSet<URI>();
-            nodeSuspicions.put( uri, serverSuspicions );
+            Set<URI> newSuspicions = Collections.newSetFromMap( new ConcurrentHashMap<URI, Boolean>() );
+            serverSuspicions = nodeSuspicions.putIfAbsent( uri, newSuspicions );
+            if ( serverSuspicions == null )
+            {
+                serverSuspicions = newSuspicions;
+            }
         }
         return serverSuspicions;
     }
@@ -43,7 +43,7 @@ public class HeartbeatIAmAliveProcessor
     @Override
     public void process( Message<? extends MessageType> message )
     {
-        if (!message.isInternal() && !message.isBroadcast() && !message.getMessageType().equals( HeartbeatMessage.i_am_alive ))
+        if (!message.isInternal() && !message.getMessageType().equals( HeartbeatMessage.i_am_alive ))
         {
             try
             {
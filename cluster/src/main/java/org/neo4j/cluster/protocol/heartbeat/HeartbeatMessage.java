@@ -22,6 +22,7 @@ package org.neo4j.cluster.protocol.heartbeat;
 
 import java.io.Serializable;
 import java.net.URI;
+import java.util.List;
 import java.util.Set;
 
 import org.neo4j.cluster.com.message.MessageType;
@@ -37,7 +38,10 @@ public enum HeartbeatMessage
 
     // Protocol messages
     join, leave,
-    i_am_alive, timed_out, sendHeartbeat, reset_send_heartbeat, suspicions;
+    i_am_alive, timed_out, sendHeartbeat, reset_send_heartbeat, suspicions,
+
+    // Gossip protocol messages
+    probe, ping, ack, pingRequest, pingTimedout;
 
     public static class IAmAliveState
             implements Serializable
@@ -70,4 +74,78 @@ public enum HeartbeatMessage
             return suspicions;
         }
     }
+
+    public static class SuspicionsUpdate
+            implements Serializable
+    {
+        private URI origin;
+        private long version;
+        private Set<URI> suspicions;
+
+        public SuspicionsUpdate( URI origin, long version, Set<URI> suspicions )
+        {
+            this.origin = origin;
+            this.version = version;
+            this.suspicions = suspicions;
+        }
+
+        public URI getOrigin()
+        {
+            return origin;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public Set<URI> getSuspicions()
+        {
+            return suspicions;
+        }
+    }
+
+    /**
+     * Payload of the gossip messages. Says which member is probed, by which probe, and for an indirect probe,
+     * which member asked for it. Also carries the suspicions updates that are being gossiped.
+     */
+    public static class GossipState
+            implements Serializable
+    {
+        private URI target;
+        private long sequence;
+        private URI requester;
+        private List<SuspicionsUpdate> updates;
+
+        public GossipState( URI target, long sequence, URI requester, List<SuspicionsUpdate> updates )
+        {
+            this.target = target;
+            this.sequence = sequence;
+            this.requester = requester;
+            this.updates = updates;
+        }
+
+        public URI getTarget()
+        {
+            return target;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * @return the member that asked for this probe to be done on its behalf, or null for a direct probe
+         */
+        public URI getRequester()
+        {
+            return requester;
+        }
+
+        public List<SuspicionsUpdate> getUpdates()
+        {
+            return updates;
+        }
+    }
 }
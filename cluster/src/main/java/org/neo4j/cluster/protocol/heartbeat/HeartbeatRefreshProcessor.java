@@ -26,26 +26,41 @@ import java.net.URISyntaxException;
 import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
 import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.cluster.ClusterContext;
 
 /**
  * When a message is sent out, reset the timeout for sending heartbeat to the TO host, since we only have to send i_am_alive if
- * nothing else is going on.
+ * nothing else is going on. A broadcast reaches every other member of the cluster, so it resets the timeouts of all of them.
  */
 public class HeartbeatRefreshProcessor
     implements MessageProcessor
 {
     private MessageProcessor outgoing;
+    private ClusterContext clusterContext;
 
-    public HeartbeatRefreshProcessor(MessageProcessor outgoing )
+    public HeartbeatRefreshProcessor( MessageProcessor outgoing, ClusterContext clusterContext )
     {
         this.outgoing = outgoing;
+        this.clusterContext = clusterContext;
     }
 
     @Override
     public void process( Message<? extends MessageType> message )
     {
-        if (!message.isInternal() && !message.isBroadcast() && !message.getMessageType().equals( HeartbeatMessage.i_am_alive ))
+        if (!message.isInternal() && !message.getMessageType().equals( HeartbeatMessage.i_am_alive ))
         {
+            if ( message.isBroadcast() )
+            {
+                for ( URI member : clusterContext.getConfiguration().getMembers() )
+                {
+                    if ( !clusterContext.isMe( member ) )
+                    {
+                        outgoing.process( Message.internal( HeartbeatMessage.reset_send_heartbeat, member ) );
+                    }
+                }
+                return;
+            }
+
             try
             {
                 String to = message.getHeader( Message.TO );
@@ -21,6 +21,7 @@
 package org.neo4j.cluster.protocol.heartbeat;
 
 import static org.neo4j.cluster.com.message.Message.internal;
+import static org.neo4j.cluster.com.message.Message.respond;
 import static org.neo4j.cluster.com.message.Message.timeout;
 import static org.neo4j.cluster.com.message.Message.to;
 
@@ -62,6 +63,12 @@ public enum HeartbeatState
 
                         case join:
                         {
+                            if ( context.isGossipEnabled() )
+                            {
+                                context.startGossip( message );
+                                return gossip;
+                            }
+
                             // Setup heartbeat timeouts
                             context.startHeartbeatTimers( message );
                             return heartbeat;
@@ -101,24 +108,19 @@ public enum HeartbeatState
                                                         .getMe() ) ) ) );
                                     }
                                 }
-                            }
-
-                            context.getClusterContext().timeouts.cancelTimeout( HeartbeatMessage.i_am_alive + "-" +
-                                    state.getServer() );
-                            context.getClusterContext().timeouts.setTimeout( HeartbeatMessage.i_am_alive + "-" +
-                                    state.getServer(), timeout( HeartbeatMessage.timed_out, message, state
-                                    .getServer() ) );
 
-                            // Check if this server knows something that we don't
-                            if ( message.hasHeader( "last-learned" ) )
-                            {
-                                long lastLearned = Long.parseLong( message.getHeader( "last-learned" ) );
-                                if ( lastLearned > context.getLearnerContext().getLastKnownLearnedInstanceInCluster() )
-                                {
-                                    outgoing.process( internal( LearnerMessage.catchUp, lastLearned ) );
-                                }
+                                // It may have missed values while it was cut off. Tell it how far we are now,
+                                // rather than on our next heartbeat, so that it can start catching up at once
+                                outgoing.process( lastLearned( context, to( HeartbeatMessage.i_am_alive,
+                                        state.getServer(), new HeartbeatMessage.IAmAliveState( context
+                                        .getClusterContext().getMe() ) ) ) );
                             }
 
+                            // Other messages from the server are turned into internal i_am_alive messages
+                            context.heartbeat( state.getServer(), !message.isInternal() );
+                            context.setFailureTimeout( state.getServer(), message );
+
+                            catchUp( context, state.getServer(), message, outgoing );
                             break;
                         }
 
@@ -128,6 +130,13 @@ public enum HeartbeatState
                             // Check if this node is no longer a part of the cluster
                             if ( context.getClusterContext().getConfiguration().getMembers().contains( server ) )
                             {
+                                if ( !context.isSuspicious( server ) )
+                                {
+                                    // A heartbeat was late, but not yet by enough given how it usually arrives
+                                    context.setFailureTimeout( server, message );
+                                    break;
+                                }
+
                                 context.suspect( server );
 
                                 context.getClusterContext().timeouts.setTimeout( HeartbeatMessage.i_am_alive + "-" +
@@ -200,5 +209,159 @@ public enum HeartbeatState
 
                     return this;
                 }
+            },
+
+    /**
+     * Failure detection by gossip, see {@link GossipMembership}. Members are probed one per interval, and
+     * suspicions travel on the probes instead of being sent to everyone.
+     */
+    gossip
+            {
+                @Override
+                public HeartbeatState handle( HeartbeatContext context,
+                                              Message<HeartbeatMessage> message,
+                                              MessageProcessor outgoing
+                )
+                        throws Throwable
+                {
+                    URI me = context.getClusterContext().getMe();
+                    switch ( message.getMessageType() )
+                    {
+                        case i_am_alive:
+                        {
+                            // Any message from a member shows it is alive, but only missed probes make it suspected
+                            HeartbeatMessage.IAmAliveState state = message.getPayload();
+                            context.alive( state.getServer() );
+                            catchUp( context, state.getServer(), message, outgoing );
+                            break;
+                        }
+
+                        case probe:
+                        {
+                            GossipMembership membership = context.getGossip();
+                            URI missed = membership.getUnacknowledgedProbe();
+                            if ( missed != null )
+                            {
+                                if ( context.getClusterContext().getConfiguration().getMembers().contains( missed ) )
+                                {
+                                    context.suspect( missed );
+                                }
+                                else
+                                {
+                                    context.serverLeftCluster( missed );
+                                }
+                            }
+
+                            URI target = membership.nextProbe( me, context.getClusterContext().getConfiguration()
+                                    .getMembers() );
+                            if ( target != null )
+                            {
+                                outgoing.process( lastLearned( context, to( HeartbeatMessage.ping, target,
+                                        context.gossipState( target, membership.getProbeSequence(), null ) ) ) );
+                                context.getClusterContext().timeouts.setTimeout( HeartbeatMessage.pingTimedout
+                                        .name(), timeout( HeartbeatMessage.pingTimedout, message, target ),
+                                        context.getPingTimeout() );
+                            }
+
+                            context.getClusterContext().timeouts.setTimeout( HeartbeatMessage.probe.name(),
+                                    timeout( HeartbeatMessage.probe, message ), context.getGossipInterval() );
+                            break;
+                        }
+
+                        case ping:
+                        {
+                            HeartbeatMessage.GossipState state = message.getPayload();
+                            context.gossiped( state.getUpdates() );
+                            outgoing.process( lastLearned( context, respond( HeartbeatMessage.ack, message,
+                                    context.gossipState( me, state.getSequence(), state.getRequester() ) ) ) );
+                            break;
+                        }
+
+                        case ack:
+                        {
+                            HeartbeatMessage.GossipState state = message.getPayload();
+                            context.gossiped( state.getUpdates() );
+                            context.alive( state.getTarget() );
+
+                            URI requester = state.getRequester();
+                            if ( requester != null && !requester.equals( me ) )
+                            {
+                                // We probed on behalf of someone else, pass it on
+                                outgoing.process( to( HeartbeatMessage.ack, requester,
+                                        context.gossipState( state.getTarget(), state.getSequence(), requester ) ) );
+                            }
+                            else if ( context.getGossip().acknowledged( state.getTarget(), state.getSequence() ) )
+                            {
+                                context.getClusterContext().timeouts.cancelTimeout( HeartbeatMessage.pingTimedout
+                                        .name() );
+                            }
+                            break;
+                        }
+
+                        case pingRequest:
+                        {
+                            HeartbeatMessage.GossipState state = message.getPayload();
+                            context.gossiped( state.getUpdates() );
+                            outgoing.process( to( HeartbeatMessage.ping, state.getTarget(),
+                                    context.gossipState( state.getTarget(), state.getSequence(),
+                                            new URI( message.getHeader( Message.FROM ) ) ) ) );
+                            break;
+                        }
+
+                        case pingTimedout:
+                        {
+                            URI target = message.getPayload();
+                            GossipMembership membership = context.getGossip();
+                            if ( target.equals( membership.getUnacknowledgedProbe() ) )
+                            {
+                                for ( URI prober : membership.indirectProbers( me, target, context.getAlive() ) )
+                                {
+                                    outgoing.process( to( HeartbeatMessage.pingRequest, prober,
+                                            context.gossipState( target, membership.getProbeSequence(), null ) ) );
+                                }
+                            }
+                            break;
+                        }
+
+                        case suspicions:
+                        {
+                            // From members that heartbeat directly
+                            HeartbeatMessage.SuspicionsState suspicions = message.getPayload();
+                            URI from = new URI( message.getHeader( Message.FROM ) );
+                            context.suspicions( from, suspicions.getSuspicions() );
+                            break;
+                        }
+
+                        case leave:
+                        {
+                            context.stopGossip();
+                            return start;
+                        }
+                    }
+
+                    return this;
+                }
+            };
+
+    /**
+     * Check if the sender has learned more than we know of, and catch up if so.
+     */
+    private static void catchUp( HeartbeatContext context, URI server, Message<HeartbeatMessage> message,
+                                 MessageProcessor outgoing )
+    {
+        if ( message.hasHeader( "last-learned" ) )
+        {
+            long lastLearned = Long.parseLong( message.getHeader( "last-learned" ) );
+            context.getLearnerContext().memberLearned( server, lastLearned );
+            if ( lastLearned > context.getLearnerContext().getLastKnownLearnedInstanceInCluster() )
+            {
+                outgoing.process( internal( LearnerMessage.catchUp, lastLearned ) );
             }
+        }
+    }
+
+    private static Message<HeartbeatMessage> lastLearned( HeartbeatContext context, Message<HeartbeatMessage> message )
+    {
+        return message.setHeader( "last-learned", context.getLearnerContext().getLastLearnedInstanceId() + "" );
+    }
 }
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.heartbeat;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Phi accrual failure detector, as described by Hayashibara et al. For each member it keeps a window of recent
+ * heartbeat inter-arrival times, and turns the time since the last heartbeat into a suspicion level phi, the
+ * negated base 10 logarithm of the probability that a heartbeat still arrives later than now. Inter-arrival times
+ * are assumed to be normally distributed, so members with steady heartbeats are suspected soon after they
+ * stop while members with jittery ones, like hosts that pause for GC, get more slack.
+ * <p/>
+ * Members only send heartbeats when they have sent nothing else for a heartbeat interval, so other messages restart
+ * the clock but only the time up to a heartbeat is taken as a sample.
+ */
+public class PhiAccrualFailureDetector
+{
+    public static final double DEFAULT_THRESHOLD = 8;
+    public static final int DEFAULT_MAX_SAMPLES = 200;
+
+    private final double threshold;
+    private final int maxSamples;
+    private final long minStdDeviation;
+    private final long firstHeartbeatEstimate;
+
+    private final ConcurrentMap<URI, History> histories = new ConcurrentHashMap<URI, History>();
+
+    /**
+     * @param firstHeartbeatEstimate the expected heartbeat interval, used until actual intervals are known
+     */
+    public PhiAccrualFailureDetector( long firstHeartbeatEstimate )
+    {
+        this( DEFAULT_THRESHOLD, DEFAULT_MAX_SAMPLES, Math.max( 1, firstHeartbeatEstimate / 10 ),
+                firstHeartbeatEstimate );
+    }
+
+    /**
+     * @param threshold the phi above which a member is suspected. 8 means about one false suspicion per hundred
+     * million heartbeats, if intervals really are normally distributed
+     * @param maxSamples how many inter-arrival times to remember per member
+     * @param minStdDeviation lower bound on the deviation, so that very regular heartbeats don't make the
+     * slightest delay suspicious
+     * @param firstHeartbeatEstimate the expected heartbeat interval, used until actual intervals are known
+     */
+    public PhiAccrualFailureDetector( double threshold, int maxSamples, long minStdDeviation,
+                                      long firstHeartbeatEstimate )
+    {
+        this.threshold = threshold;
+        this.maxSamples = maxSamples;
+        this.minStdDeviation = minStdDeviation;
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+    }
+
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * A heartbeat arrived, the time since the last sign of life is sampled.
+     */
+    public void heartbeat( URI member, long now )
+    {
+        history( member ).arrived( now, true );
+    }
+
+    /**
+     * Some other message arrived, which shows the member is alive but says nothing about heartbeat timing.
+     */
+    public void signOfLife( URI member, long now )
+    {
+        history( member ).arrived( now, false );
+    }
+
+    private History history( URI member )
+    {
+        History history = histories.get( member );
+        if ( history == null )
+        {
+            history = new History();
+            History existing = histories.putIfAbsent( member, history );
+            if ( existing != null )
+            {
+                history = existing;
+            }
+        }
+        return history;
+    }
+
+    /**
+     * @return the suspicion level of the member, or 0 if nothing has been heard from it yet
+     */
+    public double phi( URI member, long now )
+    {
+        History history = histories.get( member );
+        return history == null ? 0 : history.phi( now );
+    }
+
+    public boolean isSuspected( URI member, long now )
+    {
+        return phi( member, now ) >= threshold;
+    }
+
+    /**
+     * @return the time from now until the member becomes suspected if no heartbeat arrives, or -1 if nothing has
+     * been heard from it yet
+     */
+    public long timeUntilSuspected( URI member, long now )
+    {
+        History history = histories.get( member );
+        return history == null ? -1 : history.timeUntilSuspected( now );
+    }
+
+    public void remove( URI member )
+    {
+        histories.remove( member );
+    }
+
+    /**
+     * Approximates the normal distribution with a logistic function, which is within 1e-4 of it and much cheaper.
+     */
+    static double phi( long timeSinceLastHeartbeat, double mean, double stdDeviation )
+    {
+        double y = (timeSinceLastHeartbeat - mean) / stdDeviation;
+        double e = Math.exp( -y * (1.5976 + 0.070566 * y * y) );
+        if ( timeSinceLastHeartbeat > mean )
+        {
+            return -Math.log10( e / (1.0 + e) );
+        }
+        else
+        {
+            return -Math.log10( 1.0 - 1.0 / (1.0 + e) );
+        }
+    }
+
+    private class History
+    {
+        private final long[] intervals = new long[maxSamples];
+        private int count;
+        private int next;
+        private long sum;
+        private double sumOfSquares;
+        private long lastHeartbeat = -1;
+
+        synchronized void arrived( long now, boolean sample )
+        {
+            if ( lastHeartbeat == -1 )
+            {
+                // Start out from the estimate, with a generous deviation, until we know better
+                long deviation = firstHeartbeatEstimate / 4;
+                add( firstHeartbeatEstimate - deviation );
+                add( firstHeartbeatEstimate + deviation );
+            }
+            else if ( sample && now > lastHeartbeat )
+            {
+                add( now - lastHeartbeat );
+            }
+            lastHeartbeat = Math.max( lastHeartbeat, now );
+        }
+
+        synchronized double phi( long now )
+        {
+            if ( lastHeartbeat == -1 )
+            {
+                return 0;
+            }
+            return PhiAccrualFailureDetector.phi( now - lastHeartbeat, mean(), stdDeviation() );
+        }
+
+        synchronized long timeUntilSuspected( long now )
+        {
+            if ( lastHeartbeat == -1 )
+            {
+                return -1;
+            }
+
+            // Phi grows with time, so search for the first millisecond where it reaches the threshold
+            double mean = mean();
+            double stdDeviation = stdDeviation();
+            long low = 0;
+            long high = (long) (mean + 50 * stdDeviation) + 1;
+            while ( low < high )
+            {
+                long middle = (low + high) >>> 1;
+                if ( PhiAccrualFailureDetector.phi( middle, mean, stdDeviation ) >= threshold )
+                {
+                    high = middle;
+                }
+                else
+                {
+                    low = middle + 1;
+                }
+            }
+            return Math.max( 0, low - (now - lastHeartbeat) );
+        }
+
+        private void add( long interval )
+        {
+            if ( count == intervals.length )
+            {
+                long oldest = intervals[next];
+                sum -= oldest;
+                sumOfSquares -= (double) oldest * oldest;
+            }
+            else
+            {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        private double mean()
+        {
+            return (double) sum / count;
+        }
+
+        private double stdDeviation()
+        {
+            double mean = mean();
+            double variance = Math.max( 0, sumOfSquares / count - mean * mean );
+            return Math.max( Math.sqrt( variance ), minStdDeviation );
+        }
+    }
+}
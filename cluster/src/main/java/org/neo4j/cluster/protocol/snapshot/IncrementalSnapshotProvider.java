@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.snapshot;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * A {@link SnapshotProvider} that can hand out only what has changed since an earlier version of its state, so
+ * that members that already have most of it don't get all of it again.
+ * <p/>
+ * Versions are for the provider to define, but have to mean the same at every member. Counting the broadcasts
+ * applied to the state does, since all members deliver the same broadcasts in the same order, as long as the
+ * version is handed over along with the state in snapshots.
+ */
+public interface IncrementalSnapshotProvider
+    extends SnapshotProvider
+{
+    long getVersion();
+
+    /**
+     * Writes what has changed since the given version, or the whole state if that isn't known anymore, in a form
+     * that {@link #setState(java.io.ObjectInputStream)} reads.
+     */
+    void getStateSince( long version, ObjectOutputStream output )
+        throws IOException;
+}
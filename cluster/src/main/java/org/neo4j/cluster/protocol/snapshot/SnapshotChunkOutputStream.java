@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+
+/**
+ * Stream that hands what is written to it on as {@link SnapshotMessage#snapshotChunk snapshot chunks} in answer
+ * to a snapshot request, as soon as a chunk fills up, so that no message gets bigger than a chunk. There is no
+ * flow control: the chunks queue up in the lane handling the request until the snapshot has been written, so the
+ * sender holds the whole snapshot in memory, as chunks, while answering. Closing the stream sends the last chunk.
+ */
+public class SnapshotChunkOutputStream
+    extends OutputStream
+{
+    private final MessageProcessor outgoing;
+    private final Message<?> request;
+    private final long lastDeliveredInstanceId;
+    private final byte[] chunk;
+    private int position;
+    private int sequence;
+    private boolean closed;
+
+    public SnapshotChunkOutputStream( MessageProcessor outgoing, Message<?> request, long lastDeliveredInstanceId,
+                                      int chunkSize )
+    {
+        this.outgoing = outgoing;
+        this.request = request;
+        this.lastDeliveredInstanceId = lastDeliveredInstanceId;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write( int b )
+        throws IOException
+    {
+        if ( position == chunk.length )
+        {
+            send( false );
+        }
+        chunk[position++] = (byte) b;
+    }
+
+    @Override
+    public void write( byte[] bytes, int offset, int length )
+        throws IOException
+    {
+        while ( length > 0 )
+        {
+            if ( position == chunk.length )
+            {
+                send( false );
+            }
+            int count = Math.min( length, chunk.length - position );
+            System.arraycopy( bytes, offset, chunk, position, count );
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        if ( !closed )
+        {
+            closed = true;
+            send( true );
+        }
+    }
+
+    /**
+     * @return the number of chunks sent so far
+     */
+    public int getChunks()
+    {
+        return sequence;
+    }
+
+    private void send( boolean last )
+    {
+        outgoing.process( Message.respond( SnapshotMessage.snapshotChunk, request,
+                new SnapshotMessage.SnapshotChunkState( lastDeliveredInstanceId, sequence++,
+                        Arrays.copyOf( chunk, position ), last ) ) );
+        position = 0;
+    }
+}
@@ -17,21 +17,39 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.neo4j.cluster.protocol.snapshot;
 
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerContext;
 import org.neo4j.cluster.protocol.cluster.ClusterContext;
 
 /**
- * TODO
+ * Context for the snapshot state machine. Keeps track of which member a snapshot is being refreshed from,
+ * and of the chunks of it received so far.
  */
 public class SnapshotContext
 {
+    /**
+     * Largest chunk a snapshot is streamed in, kept well below the largest frame.
+     */
+    public static final int MAX_CHUNK_BYTES = 512 * 1024;
+
     private SnapshotProvider snapshotProvider;
     private ClusterContext clusterContext;
     private LearnerContext learnerContext;
 
+    // Snapshot being refreshed
+    private URI source;
+    private long requestedVersion = -1;
+    private final Set<URI> triedSources = new HashSet<URI>();
+    private int nextChunk;
+    private ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+
     public SnapshotContext( ClusterContext clusterContext, LearnerContext learnerContext )
     {
         this.clusterContext = clusterContext;
@@ -57,4 +75,106 @@ public class SnapshotContext
     {
         return snapshotProvider;
     }
+
+    /**
+     * @return the version of the state of the snapshot provider, or -1 if it only hands out whole snapshots
+     */
+    public long getSnapshotVersion()
+    {
+        return snapshotProvider instanceof IncrementalSnapshotProvider ?
+                ((IncrementalSnapshotProvider) snapshotProvider).getVersion() : -1;
+    }
+
+    /**
+     * Picks the next member to refresh a snapshot from: the one which has reported the highest learned
+     * instance in its heartbeats, among those not yet tried for this refresh, so that the snapshot is as up to
+     * date as possible and little has to be learned after it. Members which haven't reported anything are
+     * tried last, starting with the one after this member in the cluster configuration, so that members
+     * joining together don't all ask the same one. Once all have been tried it starts over.
+     *
+     * @return the member to ask, or null if there are no other members
+     */
+    public URI nextSnapshotSource()
+    {
+        URI source = mostUpToDateUntriedMember();
+        if ( source == null && !triedSources.isEmpty() )
+        {
+            triedSources.clear();
+            source = mostUpToDateUntriedMember();
+        }
+        if ( source != null )
+        {
+            triedSources.add( source );
+        }
+        return source;
+    }
+
+    private URI mostUpToDateUntriedMember()
+    {
+        List<URI> members = clusterContext.getConfiguration().getMembers();
+        int index = members.indexOf( clusterContext.getMe() );
+        URI best = null;
+        long bestLearned = -1;
+        for ( int i = 1; i <= members.size(); i++ )
+        {
+            URI member = members.get( (index + i) % members.size() );
+            if ( clusterContext.isMe( member ) || triedSources.contains( member ) )
+            {
+                continue;
+            }
+            long learned = learnerContext.getLastLearnedInstanceId( member );
+            if ( best == null || learned > bestLearned )
+            {
+                best = member;
+                bestLearned = learned;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Starts refreshing a snapshot from a member, dropping any chunks received from another.
+     *
+     * @param requestedVersion the version changes are asked for since, or -1 for the whole state
+     */
+    public void refreshingFrom( URI source, long requestedVersion )
+    {
+        this.source = source;
+        this.requestedVersion = requestedVersion;
+        nextChunk = 0;
+        chunks = new ByteArrayOutputStream();
+    }
+
+    public long getRequestedVersion()
+    {
+        return requestedVersion;
+    }
+
+    /**
+     * Adds a chunk of the snapshot being refreshed.
+     *
+     * @return false if it is not the next chunk from the member being refreshed from
+     */
+    public boolean chunk( URI from, SnapshotMessage.SnapshotChunkState chunk )
+    {
+        if ( !from.equals( source ) || chunk.getSequence() != nextChunk )
+        {
+            return false;
+        }
+        chunks.write( chunk.getBytes(), 0, chunk.getBytes().length );
+        nextChunk++;
+        return true;
+    }
+
+    /**
+     * @return the chunks received, and forgets about them
+     */
+    public byte[] refreshed()
+    {
+        byte[] snapshot = chunks.toByteArray();
+        source = null;
+        triedSources.clear();
+        chunks = new ByteArrayOutputStream();
+        return snapshot;
+    }
 }
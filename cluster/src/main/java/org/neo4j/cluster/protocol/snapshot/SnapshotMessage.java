@@ -39,9 +39,85 @@ public enum SnapshotMessage
     join,leave,
     setSnapshotProvider,
     refreshSnapshot,
-    sendSnapshot, snapshot;
+    sendSnapshot, snapshot,
+    snapshotChunk, refreshTimedout;
 
-    // TODO This needs to be replaced with something that can handle bigger snapshots
+    /**
+     * Request for a snapshot. If the snapshot provider is an {@link IncrementalSnapshotProvider}, the version of the
+     * state of the requester is given, so that only what has changed since is sent.
+     */
+    public static class SnapshotRequestState
+        implements Serializable
+    {
+        private final long version;
+
+        public SnapshotRequestState( long version )
+        {
+            this.version = version;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Snapshot request since version " + version;
+        }
+    }
+
+    /**
+     * One chunk of a snapshot. A snapshot is streamed as consecutive chunks of at most
+     * {@link SnapshotContext#MAX_CHUNK_BYTES}, numbered from 0, the last of which is marked as such.
+     */
+    public static class SnapshotChunkState
+        implements Serializable
+    {
+        private final long lastDeliveredInstanceId;
+        private final int sequence;
+        private final byte[] bytes;
+        private final boolean last;
+
+        public SnapshotChunkState( long lastDeliveredInstanceId, int sequence, byte[] bytes, boolean last )
+        {
+            this.lastDeliveredInstanceId = lastDeliveredInstanceId;
+            this.sequence = sequence;
+            this.bytes = bytes;
+            this.last = last;
+        }
+
+        public long getLastDeliveredInstanceId()
+        {
+            return lastDeliveredInstanceId;
+        }
+
+        public int getSequence()
+        {
+            return sequence;
+        }
+
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        public boolean isLast()
+        {
+            return last;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Snapshot chunk " + sequence + (last ? " (last)" : "") + ", " + bytes.length + " bytes";
+        }
+    }
+
+    /**
+     * A whole snapshot in one message. Only answered to, for members that don't stream snapshots in chunks yet.
+     */
     public static class SnapshotState
         implements Serializable
     {
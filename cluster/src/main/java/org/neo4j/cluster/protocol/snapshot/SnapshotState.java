@@ -17,17 +17,23 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.neo4j.cluster.protocol.snapshot;
 
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URI;
 
 import org.neo4j.cluster.com.message.Message;
 import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerContext;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
 import org.neo4j.cluster.statemachine.State;
 
 /**
- * State machine for the snapshot API
+ * State machine for the snapshot API. Snapshots are streamed in chunks from another member, starting with the
+ * one which has reported the highest learned instance, see {@link SnapshotContext#nextSnapshotSource()}, and if
+ * the snapshot provider supports it they only contain what has changed since the state this member already has.
  */
 public enum SnapshotState
         implements State<SnapshotContext, SnapshotMessage>
@@ -52,9 +58,12 @@ public enum SnapshotState
 
                         case refreshSnapshot:
                         {
-                            URI coordinator = context.getClusterContext().getConfiguration().getMembers().get( 0 );
-                            outgoing.process( Message.to( SnapshotMessage.sendSnapshot, coordinator ) );
-                            return refreshing;
+                            if ( refresh( context, message, outgoing, message.<URI>getPayload(),
+                                    context.getSnapshotVersion() ) )
+                            {
+                                return refreshing;
+                            }
+                            break;
                         }
 
                         case join:
@@ -66,9 +75,9 @@ public enum SnapshotState
                             }
                             else
                             {
-                                URI coordinator = context.getClusterContext().getConfiguration().getMembers().get( 0 );
-                                outgoing.process( Message.to( SnapshotMessage.sendSnapshot, coordinator ) );
-                                return refreshing;
+                                // Whatever state there is has not been kept in step with the cluster, so ask for
+                                // all of it
+                                return refresh( context, message, outgoing, null, -1 ) ? refreshing : ready;
                             }
                         }
                     }
@@ -90,11 +99,60 @@ public enum SnapshotState
                         case snapshot:
                         {
                             SnapshotMessage.SnapshotState state = message.getPayload();
-                            state.setState( context.getSnapshotProvider() );
-                            context.getLearnerContext().setLastDeliveredInstanceId( state.getLastDeliveredInstanceId
-                                    () );
+                            if ( isNewer( context, state.getLastDeliveredInstanceId() ) )
+                            {
+                                state.setState( context.getSnapshotProvider() );
+                                delivered( context, outgoing, state.getLastDeliveredInstanceId() );
+                            }
+                            context.getClusterContext().timeouts.cancelTimeout( "snapshot" );
+                            context.refreshed();
+                            return ready;
+                        }
+
+                        case snapshotChunk:
+                        {
+                            SnapshotMessage.SnapshotChunkState chunk = message.getPayload();
+                            if ( !context.chunk( new URI( message.getHeader( Message.FROM ) ), chunk ) )
+                            {
+                                // From an earlier attempt, or out of order. Wait for the refresh to time out
+                                break;
+                            }
+
+                            if ( !chunk.isLast() )
+                            {
+                                context.getClusterContext().timeouts.setTimeout( "snapshot", Message.timeout(
+                                        SnapshotMessage.refreshTimedout, message ) );
+                                break;
+                            }
+
+                            byte[] snapshot = context.refreshed();
+                            if ( isNewer( context, chunk.getLastDeliveredInstanceId() ) )
+                            {
+                                ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream(
+                                        snapshot ) );
+                                try
+                                {
+                                    context.getSnapshotProvider().setState( input );
+                                }
+                                finally
+                                {
+                                    input.close();
+                                }
+                                delivered( context, outgoing, chunk.getLastDeliveredInstanceId() );
+                            }
+                            context.getClusterContext().timeouts.cancelTimeout( "snapshot" );
                             return ready;
                         }
+
+                        case refreshTimedout:
+                        {
+                            // Try the next member
+                            if ( !refresh( context, message, outgoing, null, context.getRequestedVersion() ) )
+                            {
+                                return ready;
+                            }
+                            break;
+                        }
                     }
 
                     return this;
@@ -114,7 +172,51 @@ public enum SnapshotState
                     {
                         case sendSnapshot:
                         {
-                            outgoing.process( Message.respond( SnapshotMessage.snapshot, message, new SnapshotMessage.SnapshotState( context.getLearnerContext().getLastDeliveredInstanceId(), context.getSnapshotProvider() ) ) );
+                            SnapshotProvider provider = context.getSnapshotProvider();
+                            if ( provider == null )
+                            {
+                                // Nothing to send, the requester will try someone else
+                                break;
+                            }
+
+                            long lastDelivered = context.getLearnerContext().getLastDeliveredInstanceId();
+                            SnapshotMessage.SnapshotRequestState request = message.getPayload();
+                            if ( request == null )
+                            {
+                                // Asked by a member that doesn't take chunks
+                                outgoing.process( Message.respond( SnapshotMessage.snapshot, message,
+                                        new SnapshotMessage.SnapshotState( lastDelivered, provider ) ) );
+                                break;
+                            }
+
+                            SnapshotChunkOutputStream chunks = new SnapshotChunkOutputStream( outgoing, message,
+                                    lastDelivered, SnapshotContext.MAX_CHUNK_BYTES );
+                            ObjectOutputStream output = new ObjectOutputStream( chunks );
+                            if ( request.getVersion() >= 0 && provider instanceof IncrementalSnapshotProvider )
+                            {
+                                ((IncrementalSnapshotProvider) provider).getStateSince( request.getVersion(),
+                                        output );
+                            }
+                            else
+                            {
+                                provider.getState( output );
+                            }
+                            output.close();
+                            context.getClusterContext().getLogger().debug( "Sent snapshot to " + message
+                                    .getHeader( Message.FROM ) + " in " + chunks.getChunks() + " chunks" );
+                            break;
+                        }
+
+                        case refreshSnapshot:
+                        {
+                            // Asked for by the learner when the values it is missing are no longer kept, in
+                            // which case the member that no longer has them is given
+                            if ( context.getSnapshotProvider() != null &&
+                                    refresh( context, message, outgoing, message.<URI>getPayload(),
+                                            context.getSnapshotVersion() ) )
+                            {
+                                return refreshing;
+                            }
                             break;
                         }
 
@@ -126,6 +228,53 @@ public enum SnapshotState
 
                     return this;
                 }
+            };
+
+    /**
+     * Asks a member for a snapshot, and sets a timeout for trying another member if it doesn't come through.
+     *
+     * @param from the member to ask, or null for the next one in line
+     * @param version the version of the state to only get changes since, or -1 for all of it
+     * @return false if there is no member to ask
+     */
+    private static boolean refresh( SnapshotContext context, Message<SnapshotMessage> message,
+                                    MessageProcessor outgoing, URI from, long version )
+    {
+        if ( from == null )
+        {
+            from = context.nextSnapshotSource();
+            if ( from == null )
+            {
+                return false;
             }
+        }
+
+        context.refreshingFrom( from, version );
+        outgoing.process( Message.to( SnapshotMessage.sendSnapshot, from,
+                new SnapshotMessage.SnapshotRequestState( version ) ) );
+        context.getClusterContext().timeouts.setTimeout( "snapshot", Message.timeout(
+                SnapshotMessage.refreshTimedout, message ) );
+        return true;
+    }
+
+    /**
+     * A snapshot refreshed to catch up may be older than what has been delivered meanwhile.
+     */
+    private static boolean isNewer( SnapshotContext context, long lastDeliveredInstanceId )
+    {
+        return lastDeliveredInstanceId > context.getLearnerContext().getLastDeliveredInstanceId();
+    }
+
+    private static void delivered( SnapshotContext context, MessageProcessor outgoing, long lastDeliveredInstanceId )
+    {
+        LearnerContext learnerContext = context.getLearnerContext();
+        learnerContext.setLastDeliveredInstanceId( lastDeliveredInstanceId );
+        learnerContext.learnedInstanceId( lastDeliveredInstanceId );
 
+        // Learn whatever has happened since the snapshot was taken
+        if ( !learnerContext.hasDeliveredAllKnownInstances() )
+        {
+            outgoing.process( Message.internal( LearnerMessage.learnTimedout ) );
+        }
+    }
 }
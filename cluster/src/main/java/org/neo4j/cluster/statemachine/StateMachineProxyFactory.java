@@ -129,7 +129,7 @@ public class StateMachineProxyFactory
     {
         if ( !responseFutureMap.isEmpty() )
         {
-            if ( !message.hasHeader( Message.TO ) )
+            if ( !message.hasHeader( Message.TO ) && message.hasHeader( Message.CONVERSATION_ID ) )
             {
                 String conversationId = message.getHeader( Message.CONVERSATION_ID );
                 ResponseFuture future = responseFutureMap.get( conversationId );
@@ -59,6 +59,12 @@ public class LatencyCalculator
             @Override
             public void process( Message<? extends MessageType> message )
             {
+                // Messages sent by listeners outside of any state machine cascade are not part of a conversation
+                if ( !message.hasHeader( Message.CONVERSATION_ID ) )
+                {
+                    return;
+                }
+
                 synchronized(LatencyCalculator.this)
                 {
                     Long sent = conversations.get( message.getHeader( Message.CONVERSATION_ID ) );
@@ -98,10 +104,16 @@ public class LatencyCalculator
         } );
     }
 
+    /**
+     * Outgoing messages are processed from every lane of the state machines at the same time, so this shares the
+     * lock the incoming side uses.
+     */
     @Override
-    public void process( Message<? extends MessageType> message )
+    public synchronized void process( Message<? extends MessageType> message )
     {
-        if (!message.isInternal() && !message.getHeader( Message.TO ).equals( message.getHeader( Message.CREATED_BY ) ))
+        if (!message.isInternal() && message.hasHeader( Message.CONVERSATION_ID ) &&
+                message.hasHeader( Message.CREATED_BY ) &&
+                !message.getHeader( Message.TO ).equals( message.getHeader( Message.CREATED_BY ) ))
         {
             conversations.put( message.getHeader( Message.CONVERSATION_ID ), now );
         }
@@ -21,6 +21,7 @@
 package org.neo4j.cluster.timeout;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,16 +34,30 @@ import org.neo4j.cluster.com.message.MessageType;
  * Timeout management for state machines. First call setTimeout to setup a timeout.
  * Then either the timeout will trigger or cancelTimeout will have been called with
  * the key used to create the timeout.
+ * <p/>
+ * Pending timeouts are kept in a hierarchical timing wheel with millisecond resolution, so that setting
+ * and cancelling a timeout is constant time and a tick only does work for the slots that time has passed
+ * and the timeouts that actually expire, regardless of how many timeouts are pending.
  */
 public class Timeouts
 {
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
     private long now = 0;
 
     private MessageProcessor receiver;
     private TimeoutStrategy timeoutStrategy;
 
     private Map<Object, Timeout> timeouts = new HashMap<Object, Timeout>();
-    private List<Map.Entry<Object, Timeout>> triggeredTimeouts = new ArrayList<Map.Entry<Object, Timeout>>();
+
+    // wheel[level][slot] is the head of a doubly linked list of timeouts. Level n has slots that
+    // are 2^(8n) ms wide, and timeouts move down a level each time the wheel below it wraps around
+    private final Timeout[][] wheel = new Timeout[LEVELS][SLOTS];
+    private final int[] levelCounts = new int[LEVELS];
 
     public Timeouts( MessageProcessor receiver, TimeoutStrategy timeoutStrategy )
     {
@@ -57,10 +72,29 @@ public class Timeouts
      * @param key
      * @param timeoutMessage
      */
-    public void setTimeout( Object key, Message<? extends MessageType> timeoutMessage )
+    public synchronized void setTimeout( Object key, Message<? extends MessageType> timeoutMessage )
     {
-        long timeoutAt = now + timeoutStrategy.timeoutFor( timeoutMessage );
-        timeouts.put( key, new Timeout( timeoutAt, timeoutMessage ) );
+        setTimeout( key, timeoutMessage, timeoutStrategy.timeoutFor( timeoutMessage ) );
+    }
+
+    /**
+     * Add a new timeout that triggers after the given time, instead of what the {@link TimeoutStrategy}
+     * would decide.
+     *
+     * @param key
+     * @param timeoutMessage
+     * @param millis
+     */
+    public synchronized void setTimeout( Object key, Message<? extends MessageType> timeoutMessage, long millis )
+    {
+        long timeoutAt = now + millis;
+        Timeout timeout = new Timeout( key, timeoutAt, timeoutMessage );
+        Timeout previous = timeouts.put( key, timeout );
+        if ( previous != null )
+        {
+            unlink( previous );
+        }
+        schedule( timeout );
     }
 
     /**
@@ -69,11 +103,12 @@ public class Timeouts
      *
      * @param key
      */
-    public void cancelTimeout( Object key )
+    public synchronized void cancelTimeout( Object key )
     {
         Timeout timeout = timeouts.remove( key );
         if ( timeout != null )
         {
+            unlink( timeout );
             timeoutStrategy.timeoutCancelled( timeout.timeoutMessage );
         }
     }
@@ -81,13 +116,26 @@ public class Timeouts
     /**
      * Cancel all current timeouts. This is typically used when shutting down.
      */
-    public void cancelAllTimeouts()
+    public synchronized void cancelAllTimeouts()
     {
         for ( Timeout timeout : timeouts.values() )
         {
             timeoutStrategy.timeoutCancelled( timeout.getTimeoutMessage() );
         }
         timeouts.clear();
+        for ( int level = 0; level < LEVELS; level++ )
+        {
+            Arrays.fill( wheel[level], null );
+            levelCounts[level] = 0;
+        }
+    }
+
+    /**
+     * @return the time of the last tick
+     */
+    public synchronized long getCurrentTime()
+    {
+        return now;
     }
 
     public Map<Object, Timeout> getTimeouts()
@@ -95,7 +143,7 @@ public class Timeouts
         return timeouts;
     }
 
-    public Message<? extends MessageType> getTimeoutMessage( String timeoutName )
+    public synchronized Message<? extends MessageType> getTimeoutMessage( String timeoutName )
     {
         Timeout timeout = timeouts.get( timeoutName );
         if ( timeout != null )
@@ -110,46 +158,179 @@ public class Timeouts
 
     public void tick( long time )
     {
+        List<Timeout> triggeredTimeouts = new ArrayList<Timeout>();
         synchronized ( this )
         {
-            // Time has passed
-            now = time;
+            timeoutStrategy.tick( time );
 
-            timeoutStrategy.tick( now );
-
-            // Check if any timeouts needs to be triggered
-            triggeredTimeouts.clear();
-            for ( Map.Entry<Object, Timeout> timeout : timeouts.entrySet() )
+            // Time has passed, turn the wheel up to it
+            while ( now < time )
             {
-                if ( timeout.getValue().checkTimeout( now ) )
+                if ( timeouts.isEmpty() )
                 {
-                    triggeredTimeouts.add( timeout );
+                    now = time;
+                    break;
                 }
-            }
 
-            // Remove all timeouts that were triggered
-            for ( Map.Entry<Object, Timeout> triggeredTimeout : triggeredTimeouts )
-            {
-                timeouts.remove( triggeredTimeout.getKey() );
+                int level = lowestOccupiedLevel();
+                if ( level > 0 )
+                {
+                    // Nothing can expire before the next slot of that level is cascaded, so skip straight to it
+                    long next = (now | ((1L << (SLOT_BITS * level)) - 1)) + 1;
+                    if ( next > time )
+                    {
+                        now = time;
+                        break;
+                    }
+                    now = next - 1;
+                }
+
+                advance( triggeredTimeouts );
             }
         }
 
         // Trigger timeouts
         // This needs to be done outside of the synchronized block as it will trigger a message
-        // which will cause the statemachine to synchronize on Timeouts
-        for ( Map.Entry<Object, Timeout> triggeredTimeout : triggeredTimeouts )
+        // which may cause a state machine to set or cancel timeouts
+        for ( Timeout triggeredTimeout : triggeredTimeouts )
         {
-            triggeredTimeout.getValue().trigger( receiver );
+            triggeredTimeout.trigger( receiver );
         }
     }
 
+    private void advance( List<Timeout> triggeredTimeouts )
+    {
+        now++;
+
+        // Cascade the higher levels whose slot boundary we just crossed, highest first
+        int crossed = 0;
+        while ( crossed < LEVELS - 1 && ((now >>> (SLOT_BITS * (crossed + 1))) << (SLOT_BITS * (crossed + 1))) == now )
+        {
+            crossed++;
+        }
+        for ( int level = crossed; level > 0; level-- )
+        {
+            int slot = (int) ((now >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timeout timeout = detachSlot( level, slot );
+            while ( timeout != null )
+            {
+                Timeout next = timeout.next;
+                schedule( timeout );
+                timeout = next;
+            }
+        }
+
+        // Expire everything due in the current millisecond
+        Timeout timeout = detachSlot( 0, (int) (now & SLOT_MASK) );
+        while ( timeout != null )
+        {
+            Timeout next = timeout.next;
+            if ( timeout.checkTimeout( now ) )
+            {
+                timeouts.remove( timeout.key );
+                triggeredTimeouts.add( timeout );
+            }
+            else
+            {
+                schedule( timeout );
+            }
+            timeout = next;
+        }
+    }
+
+    private int lowestOccupiedLevel()
+    {
+        for ( int level = 0; level < LEVELS; level++ )
+        {
+            if ( levelCounts[level] > 0 )
+            {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    private void schedule( Timeout timeout )
+    {
+        // Anything already due fires on the next millisecond, anything too far away waits in the top level
+        long delay = Math.min( Math.max( timeout.timeout - now, 1 ), MAX_DELAY );
+        long at = now + delay;
+
+        int level = 0;
+        while ( level < LEVELS - 1 && (delay >>> (SLOT_BITS * (level + 1))) != 0 )
+        {
+            level++;
+        }
+        int slot = (int) ((at >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.previous = null;
+        timeout.next = wheel[level][slot];
+        if ( timeout.next != null )
+        {
+            timeout.next.previous = timeout;
+        }
+        wheel[level][slot] = timeout;
+        levelCounts[level]++;
+    }
+
+    private void unlink( Timeout timeout )
+    {
+        if ( timeout.level < 0 )
+        {
+            return;
+        }
+
+        if ( timeout.previous != null )
+        {
+            timeout.previous.next = timeout.next;
+        }
+        else
+        {
+            wheel[timeout.level][timeout.slot] = timeout.next;
+        }
+        if ( timeout.next != null )
+        {
+            timeout.next.previous = timeout.previous;
+        }
+        levelCounts[timeout.level]--;
+        timeout.level = -1;
+        timeout.previous = timeout.next = null;
+    }
+
+    private Timeout detachSlot( int level, int slot )
+    {
+        Timeout head = wheel[level][slot];
+        wheel[level][slot] = null;
+        for ( Timeout timeout = head; timeout != null; timeout = timeout.next )
+        {
+            timeout.level = -1;
+            levelCounts[level]--;
+        }
+        return head;
+    }
+
     public class Timeout
     {
+        private final Object key;
         private long timeout;
         private Message<? extends MessageType> timeoutMessage;
 
+        // Position in the wheel, level is -1 when not scheduled
+        private int level = -1;
+        private int slot;
+        private Timeout previous;
+        private Timeout next;
+
         public Timeout( long timeout, Message<? extends MessageType> timeoutMessage )
         {
+            this( null, timeout, timeoutMessage );
+        }
+
+        private Timeout( Object key, long timeout, Message<? extends MessageType> timeoutMessage )
+        {
+            this.key = key;
             this.timeout = timeout;
             this.timeoutMessage = timeoutMessage;
         }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageSource;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.statemachine.State;
+import org.neo4j.cluster.statemachine.StateMachine;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+
+public class ConnectedStateMachinesTest
+{
+    public enum SlowMessage implements MessageType
+    {
+        block, then
+    }
+
+    public enum FastMessage implements MessageType
+    {
+        ping
+    }
+
+    private static final List<String> handled = new CopyOnWriteArrayList<String>();
+    private static final CountDownLatch blocking = new CountDownLatch( 1 );
+    private static final CountDownLatch release = new CountDownLatch( 1 );
+
+    public enum SlowState implements State<Object, SlowMessage>
+    {
+        slow
+                {
+                    @Override
+                    public State<?, ?> handle( Object context, Message<SlowMessage> message,
+                                               MessageProcessor outgoing ) throws Throwable
+                    {
+                        if ( message.getMessageType() == SlowMessage.block )
+                        {
+                            blocking.countDown();
+                            release.await( 10, TimeUnit.SECONDS );
+                        }
+                        handled.add( message.getMessageType().name() );
+                        return this;
+                    }
+                }
+    }
+
+    public enum FastState implements State<Object, FastMessage>
+    {
+        fast
+                {
+                    @Override
+                    public State<?, ?> handle( Object context, Message<FastMessage> message,
+                                               MessageProcessor outgoing ) throws Throwable
+                    {
+                        handled.add( message.getMessageType().name() );
+                        return this;
+                    }
+                }
+    }
+
+    @Test
+    public void busyLaneDoesNotHoldUpOtherLanes() throws Exception
+    {
+        final ConnectedStateMachines stateMachines = new ConnectedStateMachines( new MessageSource()
+        {
+            @Override
+            public void addMessageProcessor( MessageProcessor messageProcessor )
+            {
+            }
+        }, new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+            }
+        }, new FixedTimeoutStrategy( 1000 ), new DelayedDirectExecutor() );
+        stateMachines.addStateMachine( new StateMachine( null, SlowMessage.class, SlowState.slow ) );
+        stateMachines.addStateMachine( new StateMachine( null, FastMessage.class, FastState.fast ) );
+
+        Thread slow = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                stateMachines.process( Message.internal( SlowMessage.block ) );
+            }
+        };
+        slow.start();
+        assertTrue( blocking.await( 10, TimeUnit.SECONDS ) );
+
+        // Queued behind the blocked message, handled by the thread keeping the lane busy
+        stateMachines.process( Message.internal( SlowMessage.then ) );
+        stateMachines.process( Message.internal( FastMessage.ping ) );
+        assertEquals( asList( "ping" ), handled );
+
+        release.countDown();
+        slow.join( 10000 );
+        assertEquals( asList( "ping", "block", "then" ), handled );
+    }
+}
@@ -100,8 +100,7 @@ public class NetworkMock
 
         Logging logging = new LogbackService( null, loggerContext );
 
-        ProtocolServerFactory protocolServerFactory = new MultiPaxosServerFactory( new ClusterConfiguration(
-                "default" ), logging );
+        ProtocolServerFactory protocolServerFactory = newProtocolServerFactory( logging );
 
         ServerIdElectionCredentialsProvider electionCredentialsProvider = new ServerIdElectionCredentialsProvider();
         electionCredentialsProvider.listeningAt( serverId );
@@ -111,6 +110,11 @@ public class NetworkMock
         return protocolServer;
     }
 
+    protected ProtocolServerFactory newProtocolServerFactory( Logging logging )
+    {
+        return new MultiPaxosServerFactory( new ClusterConfiguration( "default" ), logging );
+    }
+
     private void debug( String participant, String string )
     {
         logger.info( "=== " + participant + " " + string );
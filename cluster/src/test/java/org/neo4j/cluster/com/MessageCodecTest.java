@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.com;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AcceptorMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InstanceId;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ValueBatch;
+import org.neo4j.cluster.protocol.cluster.ClusterMessage;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
+import org.neo4j.cluster.protocol.snapshot.SnapshotMessage;
+
+public class MessageCodecTest
+{
+    public enum TestMessage
+            implements MessageType
+    {
+        hello
+    }
+
+    private final MessageCodec codec = new MessageCodec( getClass().getClassLoader() );
+
+    @Test
+    public void acceptWithPayloadSurvivesRoundTrip() throws Exception
+    {
+        byte[] bytes = {1, 2, 3, 4, 5};
+        Message<AcceptorMessage> message = Message.to( AcceptorMessage.accept, "cluster://127.0.0.1:5001",
+                new AcceptorMessage.AcceptState( 1234567, new Payload( bytes, 3 ) ) )
+                .setHeader( Message.FROM, "cluster://127.0.0.1:5002" )
+                .setHeader( InstanceId.INSTANCE, "42" );
+
+        Message<?> decoded = roundTrip( message );
+
+        assertEquals( AcceptorMessage.accept, decoded.getMessageType() );
+        assertEquals( message.getHeaders(), decoded.getHeaders() );
+        AcceptorMessage.AcceptState state = decoded.getPayload();
+        assertEquals( 1234567, state.getBallot() );
+        Payload payload = (Payload) state.getValue();
+        assertArrayEquals( new byte[]{1, 2, 3}, payload.getBuf() );
+        assertEquals( 3, payload.getLen() );
+    }
+
+    @Test
+    public void heartbeatPayloadsSurviveRoundTrip() throws Exception
+    {
+        URI server = new URI( "cluster://127.0.0.1:5001" );
+        HeartbeatMessage.IAmAliveState alive = roundTrip(
+                Message.internal( HeartbeatMessage.i_am_alive, new HeartbeatMessage.IAmAliveState( server ) ) )
+                .getPayload();
+        assertEquals( server, alive.getServer() );
+
+        HeartbeatMessage.SuspicionsState suspicions = roundTrip( Message.internal( HeartbeatMessage.suspicions,
+                new HeartbeatMessage.SuspicionsState( new HashSet<URI>( Collections.singleton( server ) ) ) ) )
+                .getPayload();
+        assertEquals( Collections.singleton( server ), suspicions.getSuspicions() );
+    }
+
+    @Test
+    public void nestedAndSimplePayloadsSurviveRoundTrip() throws Exception
+    {
+        LearnerMessage.LearnState learn = roundTrip( Message.internal( LearnerMessage.learn,
+                new LearnerMessage.LearnState( new InstanceId( 7 ) ) ) ).getPayload();
+        assertEquals( new InstanceId( 7 ), learn.getValue() );
+
+        assertEquals( "text", roundTrip( Message.internal( LearnerMessage.learn, "text" ) ).getPayload() );
+        assertEquals( Long.MIN_VALUE, roundTrip( Message.internal( LearnerMessage.learn, Long.MIN_VALUE ) )
+                .<Long>getPayload().longValue() );
+        assertNull( roundTrip( Message.internal( LearnerMessage.learnRequest ) ).getPayload() );
+    }
+
+    @Test
+    public void batchKeepsValuesAndConversationsInOrder() throws Exception
+    {
+        ValueBatch batch = new ValueBatch();
+        batch.add( new Payload( new byte[]{1}, 1 ), "conversation-1" );
+        batch.add( new Payload( new byte[]{2, 3}, 2 ), null );
+
+        LearnerMessage.LearnState learn = roundTrip( Message.internal( LearnerMessage.learn,
+                new LearnerMessage.LearnState( batch ) ) ).getPayload();
+
+        ValueBatch decoded = (ValueBatch) learn.getValue();
+        assertEquals( 2, decoded.size() );
+        assertArrayEquals( new byte[]{1}, ((Payload) decoded.getValue( 0 )).getBuf() );
+        assertEquals( "conversation-1", decoded.getConversationId( 0 ) );
+        assertArrayEquals( new byte[]{2, 3}, ((Payload) decoded.getValue( 1 )).getBuf() );
+        assertNull( decoded.getConversationId( 1 ) );
+    }
+
+    @Test
+    public void rangeLearningPayloadsSurviveRoundTrip() throws Exception
+    {
+        LearnerMessage.LearnRangeRequestState request = roundTrip( Message.internal( LearnerMessage
+                .learnRangeRequest, new LearnerMessage.LearnRangeRequestState( 5, 300 ) ) ).getPayload();
+        assertEquals( 5, request.getFrom() );
+        assertEquals( 300, request.getTo() );
+
+        ValueBatch batch = new ValueBatch();
+        batch.add( new Payload( new byte[]{4}, 1 ), null );
+        LearnerMessage.LearnRangeState range = roundTrip( Message.internal( LearnerMessage.learnRange,
+                new LearnerMessage.LearnRangeState( 5, Arrays.<Object>asList( new Payload( new byte[]{1, 2}, 2 ),
+                        batch ) ) ) ).getPayload();
+        assertEquals( 5, range.getFirstInstanceId() );
+        assertEquals( 2, range.getValues().size() );
+        assertArrayEquals( new byte[]{1, 2}, ((Payload) range.getValues().get( 0 )).getBuf() );
+        assertEquals( 1, ((ValueBatch) range.getValues().get( 1 )).size() );
+
+        LearnerMessage.LearnRangeFailedState failed = roundTrip( Message.internal( LearnerMessage
+                .learnRangeFailed, new LearnerMessage.LearnRangeFailedState( 7, 300, true ) ) ).getPayload();
+        assertEquals( 7, failed.getFrom() );
+        assertEquals( 300, failed.getTo() );
+        assertTrue( failed.isTruncated() );
+    }
+
+    @Test
+    public void snapshotChunksSurviveRoundTrip() throws Exception
+    {
+        SnapshotMessage.SnapshotRequestState request = roundTrip( Message.internal( SnapshotMessage.sendSnapshot,
+                new SnapshotMessage.SnapshotRequestState( -1 ) ) ).getPayload();
+        assertEquals( -1, request.getVersion() );
+
+        SnapshotMessage.SnapshotChunkState chunk = roundTrip( Message.internal( SnapshotMessage.snapshotChunk,
+                new SnapshotMessage.SnapshotChunkState( 42, 3, new byte[]{1, 2, 3}, true ) ) ).getPayload();
+        assertEquals( 42, chunk.getLastDeliveredInstanceId() );
+        assertEquals( 3, chunk.getSequence() );
+        assertArrayEquals( new byte[]{1, 2, 3}, chunk.getBytes() );
+        assertTrue( chunk.isLast() );
+    }
+
+    @Test
+    public void gossipPayloadsSurviveRoundTrip() throws Exception
+    {
+        URI server1 = URI.create( "cluster://server1" );
+        URI server2 = URI.create( "cluster://server2" );
+        HeartbeatMessage.GossipState gossip = roundTrip( Message.to( HeartbeatMessage.ack, server1,
+                new HeartbeatMessage.GossipState( server2, 7, server1, Arrays.asList(
+                        new HeartbeatMessage.SuspicionsUpdate( server1, 3,
+                                new HashSet<URI>( Arrays.asList( server2 ) ) ) ) ) ) ).getPayload();
+        assertEquals( server2, gossip.getTarget() );
+        assertEquals( 7, gossip.getSequence() );
+        assertEquals( server1, gossip.getRequester() );
+        assertEquals( 1, gossip.getUpdates().size() );
+        assertEquals( server1, gossip.getUpdates().get( 0 ).getOrigin() );
+        assertEquals( 3, gossip.getUpdates().get( 0 ).getVersion() );
+        assertEquals( Collections.singleton( server2 ), gossip.getUpdates().get( 0 ).getSuspicions() );
+
+        HeartbeatMessage.GossipState direct = roundTrip( Message.to( HeartbeatMessage.ping, server2,
+                new HeartbeatMessage.GossipState( server2, 8, null,
+                        Collections.<HeartbeatMessage.SuspicionsUpdate>emptyList() ) ) ).getPayload();
+        assertNull( direct.getRequester() );
+        assertTrue( direct.getUpdates().isEmpty() );
+    }
+
+    @Test
+    public void otherPayloadsAndMessageTypesFallBackToNames() throws Exception
+    {
+        ClusterMessage.ConfigurationChangeState change = new ClusterMessage.ConfigurationChangeState();
+        change.join( new URI( "cluster://127.0.0.1:5003" ) );
+        ClusterMessage.ConfigurationChangeState decodedChange =
+                roundTrip( Message.internal( ClusterMessage.configurationChanged, change ) ).getPayload();
+        assertEquals( change.getJoin(), decodedChange.getJoin() );
+
+        Message<?> decoded = roundTrip( Message.internal( TestMessage.hello )
+                .setHeader( "custom-header", "value" ) );
+        assertEquals( TestMessage.hello, decoded.getMessageType() );
+        assertEquals( "value", decoded.getHeader( "custom-header" ) );
+    }
+
+    @Test
+    public void varLongsUseOneByteForSmallValues() throws Exception
+    {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        MessageCodec.writeVarLong( 127, buffer );
+        assertEquals( 1, buffer.readableBytes() );
+        MessageCodec.writeVarLong( -1, buffer );
+        assertEquals( 127, MessageCodec.readVarLong( buffer ) );
+        assertEquals( -1, MessageCodec.readVarLong( buffer ) );
+    }
+
+    private Message<?> roundTrip( Message<?> message ) throws Exception
+    {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        codec.encode( message, buffer );
+        Message<?> decoded = codec.decode( buffer );
+        assertEquals( 0, buffer.readableBytes() );
+        return decoded;
+    }
+}
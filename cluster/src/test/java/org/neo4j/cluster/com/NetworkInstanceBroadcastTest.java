@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.com;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.kernel.lifecycle.LifeSupport;
+
+public class NetworkInstanceBroadcastTest
+{
+    public enum TestMessage
+            implements MessageType
+    {
+        hello
+    }
+
+    private final LifeSupport life = new LifeSupport();
+
+    @After
+    public void shutdown()
+    {
+        life.shutdown();
+    }
+
+    @Test
+    public void broadcastReachesEveryOtherMemberOnce() throws Exception
+    {
+        NetworkInstance sender = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance member1 = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance member2 = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        CountDownLatch latch = new CountDownLatch( 2 );
+        Counter toSender = counter( sender, latch );
+        Counter toMember1 = counter( member1, latch );
+        Counter toMember2 = counter( member2, latch );
+        life.start();
+        sender.enteredCluster( new ClusterConfiguration( "default", Arrays.asList( sender.getMe(),
+                member1.getMe(), member2.getMe() ) ) );
+
+        sender.process( Message.broadcast( TestMessage.hello, "world" ) );
+
+        assertTrue( latch.await( 10, SECONDS ) );
+        Thread.sleep( 200 );
+        assertEquals( 0, toSender.count.get() );
+        assertEquals( 1, toMember1.count.get() );
+        assertEquals( 1, toMember2.count.get() );
+    }
+
+    @Test
+    public void broadcastSkipsSenderListedByHostName() throws Exception
+    {
+        NetworkInstance sender = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance member = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        Counter toSender = counter( sender, latch );
+        Counter toMember = counter( member, latch );
+        life.start();
+        URI senderByName = new URI( "cluster://localhost:" + sender.getMe().getPort() );
+        sender.enteredCluster( new ClusterConfiguration( "default", Arrays.asList( senderByName,
+                member.getMe() ) ) );
+
+        sender.process( Message.broadcast( TestMessage.hello, "world" ) );
+
+        assertTrue( latch.await( 10, SECONDS ) );
+        Thread.sleep( 200 );
+        assertEquals( 0, toSender.count.get() );
+        assertEquals( 1, toMember.count.get() );
+    }
+
+    @Test
+    public void broadcastFollowsMembershipChanges() throws Exception
+    {
+        NetworkInstance sender = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance member = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance leaving = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        Counter toMember = counter( member, latch );
+        Counter toLeaving = counter( leaving, latch );
+        life.start();
+        sender.enteredCluster( new ClusterConfiguration( "default", Arrays.asList( sender.getMe() ) ) );
+        sender.joinedCluster( member.getMe() );
+        sender.joinedCluster( leaving.getMe() );
+        sender.leftCluster( leaving.getMe() );
+
+        sender.process( Message.broadcast( TestMessage.hello, "world" ) );
+
+        assertTrue( latch.await( 10, SECONDS ) );
+        Thread.sleep( 200 );
+        assertEquals( 1, toMember.count.get() );
+        assertEquals( 0, toLeaving.count.get() );
+    }
+
+    private Counter counter( NetworkInstance instance, CountDownLatch latch )
+    {
+        Counter counter = new Counter( latch );
+        instance.addMessageProcessor( counter );
+        return counter;
+    }
+
+    private static class Counter
+            implements MessageProcessor
+    {
+        private final AtomicInteger count = new AtomicInteger();
+        private final CountDownLatch latch;
+
+        Counter( CountDownLatch latch )
+        {
+            this.latch = latch;
+        }
+
+        @Override
+        public void process( Message<? extends MessageType> message )
+        {
+            count.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    private static NetworkInstance.Configuration localhost()
+    {
+        return new NetworkInstance.Configuration()
+        {
+            @Override
+            public int[] getPorts()
+            {
+                return new int[]{0};
+            }
+
+            @Override
+            public String getAddress()
+            {
+                return "127.0.0.1";
+            }
+        };
+    }
+}
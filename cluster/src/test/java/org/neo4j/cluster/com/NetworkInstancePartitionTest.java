@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.com;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.kernel.lifecycle.LifeSupport;
+
+/**
+ * Simulates a network partition by never completing connection attempts to partitioned instances, and checks
+ * how much that holds up messages to the instances that are still reachable.
+ */
+public class NetworkInstancePartitionTest
+{
+    public enum TestMessage
+            implements MessageType
+    {
+        ping
+    }
+
+    private final LifeSupport life = new LifeSupport();
+
+    @After
+    public void shutdown()
+    {
+        life.shutdown();
+    }
+
+    @Test
+    public void unreachableInstanceDoesNotHoldUpMessagesToOthers() throws Exception
+    {
+        int messages = 100;
+        PartitionableNetworkInstance sender = life.add( new PartitionableNetworkInstance(
+                NetworkInstance.DEFAULT_MAX_QUEUED_MESSAGES ) );
+        NetworkInstance unreachable = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        NetworkInstance reachable = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        final CountDownLatch received = new CountDownLatch( messages );
+        reachable.addMessageProcessor( new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+                received.countDown();
+            }
+        } );
+        life.start();
+        sender.partition( unreachable.getMe() );
+
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < messages; i++ )
+        {
+            sender.process( Message.to( TestMessage.ping, unreachable.getMe(), i ) );
+            sender.process( Message.to( TestMessage.ping, reachable.getMe(), i ) );
+        }
+        assertTrue( received.await( 10, SECONDS ) );
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Waiting for the connection used to cost up to the connect timeout for every message to the partition
+        assertTrue( "Messages to reachable instance took " + elapsed + "ms",
+                elapsed < NetworkInstance.CONNECT_TIMEOUT_MILLIS );
+    }
+
+    @Test
+    public void messagesQueuedDuringPartitionAreBoundedAndDeliveredOnceHealed() throws Exception
+    {
+        int maxQueued = 10;
+        PartitionableNetworkInstance sender = life.add( new PartitionableNetworkInstance( maxQueued ) );
+        NetworkInstance other = life.add( new NetworkInstance( localhost(), StringLogger.DEV_NULL ) );
+        final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+        final CountDownLatch latch = new CountDownLatch( maxQueued );
+        other.addMessageProcessor( new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+                received.add( message.<Integer>getPayload() );
+                latch.countDown();
+            }
+        } );
+        life.start();
+        sender.partition( other.getMe() );
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            sender.process( Message.to( TestMessage.ping, other.getMe(), i ) );
+        }
+        sender.heal();
+        sender.process( Message.to( TestMessage.ping, other.getMe(), 25 ) );
+
+        assertTrue( latch.await( 10, SECONDS ) );
+        // Messages are handed to the processors by a thread pool, so may arrive in any order
+        List<Integer> sorted = new ArrayList<Integer>( received );
+        Collections.sort( sorted );
+        List<Integer> expected = new ArrayList<Integer>();
+        for ( int i = 16; i <= 25; i++ )
+        {
+            expected.add( i );
+        }
+        assertEquals( expected, sorted );
+    }
+
+    private static NetworkInstance.Configuration localhost()
+    {
+        return new NetworkInstance.Configuration()
+        {
+            @Override
+            public int[] getPorts()
+            {
+                return new int[]{0};
+            }
+
+            @Override
+            public String getAddress()
+            {
+                return "127.0.0.1";
+            }
+        };
+    }
+
+    private static class PartitionableNetworkInstance
+            extends NetworkInstance
+    {
+        private final Set<Integer> partitionedPorts = new CopyOnWriteArraySet<Integer>();
+        private final List<ChannelFuture> hanging = new CopyOnWriteArrayList<ChannelFuture>();
+
+        PartitionableNetworkInstance( int maxQueuedMessages )
+        {
+            super( localhost(), StringLogger.DEV_NULL, maxQueuedMessages );
+        }
+
+        void partition( URI instance )
+        {
+            partitionedPorts.add( instance.getPort() );
+        }
+
+        void heal()
+        {
+            partitionedPorts.clear();
+            for ( ChannelFuture future : hanging )
+            {
+                future.setFailure( new ConnectException( "Partition healed, try again" ) );
+            }
+        }
+
+        @Override
+        protected ChannelFuture connect( SocketAddress address )
+        {
+            if ( partitionedPorts.contains( ((InetSocketAddress) address).getPort() ) )
+            {
+                // Like a connection attempt whose packets are dropped, it never completes
+                ChannelFuture future = Channels.future( null );
+                hanging.add( future );
+                return future;
+            }
+            return super.connect( address );
+        }
+    }
+}
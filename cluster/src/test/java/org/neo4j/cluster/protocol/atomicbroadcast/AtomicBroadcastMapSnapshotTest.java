@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.atomicbroadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.snapshot.IncrementalSnapshotProvider;
+import org.neo4j.cluster.protocol.snapshot.Snapshot;
+import org.neo4j.cluster.protocol.snapshot.SnapshotChunkOutputStream;
+import org.neo4j.cluster.protocol.snapshot.SnapshotMessage;
+import org.neo4j.cluster.protocol.snapshot.SnapshotProvider;
+
+public class AtomicBroadcastMapSnapshotTest
+{
+    private final List<Member> members = new ArrayList<Member>();
+
+    @Test
+    public void membersThatMissedBroadcastsOnlyGetWhatChanged() throws Exception
+    {
+        Member up = new Member();
+        Member behind = new Member();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            up.map.put( "key" + i, "value" + i );
+        }
+        byte[] all = snapshot( up, -1 );
+        restore( behind, all );
+
+        behind.online = false;
+        long version = behind.provider.getVersion();
+        up.map.put( "key1", "changed" );
+        up.map.remove( "key2" );
+        up.map.put( "new", "value" );
+        byte[] changes = snapshot( up, version );
+        restore( behind, changes );
+
+        assertEquals( new HashMap<String, String>( up.map ), new HashMap<String, String>( behind.map ) );
+        assertEquals( up.provider.getVersion(), behind.provider.getVersion() );
+        assertTrue( changes.length * 10 < all.length );
+    }
+
+    @Test
+    public void membersOlderThanAClearGetTheWholeMap() throws Exception
+    {
+        Member up = new Member();
+        Member behind = new Member();
+        up.map.put( "before", "clear" );
+        restore( behind, snapshot( up, -1 ) );
+
+        behind.online = false;
+        long version = behind.provider.getVersion();
+        up.map.clear();
+        up.map.put( "after", "clear" );
+        restore( behind, snapshot( up, version ) );
+
+        assertEquals( new HashMap<String, String>( up.map ), new HashMap<String, String>( behind.map ) );
+    }
+
+    @Test
+    public void snapshotsAreStreamedInBoundedChunks() throws Exception
+    {
+        Member up = new Member();
+        for ( int i = 0; i < 10000; i++ )
+        {
+            up.map.put( "key" + i, "a value that takes up some room " + i );
+        }
+        final List<Message<? extends MessageType>> sent = new ArrayList<Message<? extends MessageType>>();
+        MessageProcessor outgoing = new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+                sent.add( message );
+            }
+        };
+
+        ObjectOutputStream output = new ObjectOutputStream( new SnapshotChunkOutputStream( outgoing, Message.to(
+                SnapshotMessage.sendSnapshot, "cluster://up" ).setHeader( Message.FROM, "cluster://behind" ), 42,
+                16 * 1024 ) );
+        up.provider.getStateSince( -1, output );
+        output.close();
+
+        assertTrue( sent.size() > 1 );
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        for ( int i = 0; i < sent.size(); i++ )
+        {
+            SnapshotMessage.SnapshotChunkState chunk = sent.get( i ).getPayload();
+            assertEquals( "cluster://behind", sent.get( i ).getHeader( Message.TO ) );
+            assertEquals( i, chunk.getSequence() );
+            assertEquals( i == sent.size() - 1, chunk.isLast() );
+            assertEquals( 42, chunk.getLastDeliveredInstanceId() );
+            assertTrue( chunk.getBytes().length <= 16 * 1024 );
+            snapshot.write( chunk.getBytes() );
+        }
+
+        Member behind = new Member();
+        behind.online = false;
+        restore( behind, snapshot.toByteArray() );
+        assertEquals( new HashMap<String, String>( up.map ), new HashMap<String, String>( behind.map ) );
+    }
+
+    private byte[] snapshot( Member member, long since ) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream( bytes );
+        member.provider.getStateSince( since, output );
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private void restore( Member member, byte[] snapshot ) throws Exception
+    {
+        ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream( snapshot ) );
+        member.provider.setState( input );
+        input.close();
+        member.online = true;
+    }
+
+    /**
+     * Member that delivers broadcasts right away, to all members that are online.
+     */
+    private class Member
+            implements AtomicBroadcast, Snapshot
+    {
+        private final List<AtomicBroadcastListener> listeners = new ArrayList<AtomicBroadcastListener>();
+        private final AtomicBroadcastMap<String, String> map;
+        private IncrementalSnapshotProvider provider;
+        private boolean online = true;
+
+        Member()
+        {
+            members.add( this );
+            map = new AtomicBroadcastMap<String, String>( this, this );
+        }
+
+        @Override
+        public void broadcast( Payload payload )
+        {
+            for ( Member member : members )
+            {
+                if ( member.online )
+                {
+                    for ( AtomicBroadcastListener listener : member.listeners )
+                    {
+                        listener.receive( payload );
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void addAtomicBroadcastListener( AtomicBroadcastListener listener )
+        {
+            listeners.add( listener );
+        }
+
+        @Override
+        public void removeAtomicBroadcastListener( AtomicBroadcastListener listener )
+        {
+            listeners.remove( listener );
+        }
+
+        @Override
+        public void setSnapshotProvider( SnapshotProvider snapshotProvider )
+        {
+            provider = (IncrementalSnapshotProvider) snapshotProvider;
+        }
+
+        @Override
+        public void refreshSnapshot()
+        {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InMemoryAcceptorInstanceStoreTest
+{
+    @Test
+    public void keepsStateOfOpenInstances()
+    {
+        InMemoryAcceptorInstanceStore store = new InMemoryAcceptorInstanceStore( 4 );
+        AcceptorInstance instance = store.getAcceptorInstance( new InstanceId( 1 ) );
+        store.promise( instance, 1001 );
+        store.accept( instance, "value" );
+
+        AcceptorInstance same = store.getAcceptorInstance( new InstanceId( 1 ) );
+        assertSame( instance, same );
+        assertEquals( 1001, same.getBallot() );
+        assertEquals( "value", same.getValue() );
+    }
+
+    @Test
+    public void deliveredInstancesKeepTheirStateUntilTheirSlotIsNeeded()
+    {
+        InMemoryAcceptorInstanceStore store = new InMemoryAcceptorInstanceStore( 4 );
+        AcceptorInstance instance = store.getAcceptorInstance( new InstanceId( 1 ) );
+        store.promise( instance, 1001 );
+        store.accept( instance, "value" );
+
+        store.lastDelivered( new InstanceId( 1 ) );
+
+        AcceptorInstance same = store.getAcceptorInstance( new InstanceId( 1 ) );
+        assertSame( instance, same );
+        assertEquals( 1001, same.getBallot() );
+        assertEquals( "value", same.getValue() );
+    }
+
+    @Test
+    public void slotsOfDeliveredInstancesAreReusedAndTheOldInstanceIsClosed()
+    {
+        InMemoryAcceptorInstanceStore store = new InMemoryAcceptorInstanceStore( 4 );
+        AcceptorInstance old = store.getAcceptorInstance( new InstanceId( 2 ) );
+        store.promise( old, 1001 );
+        store.lastDelivered( new InstanceId( 2 ) );
+
+        AcceptorInstance later = store.getAcceptorInstance( new InstanceId( 6 ) );
+        assertSame( old, later );
+        assertEquals( -1, later.getBallot() );
+
+        AcceptorInstance gone = store.getAcceptorInstance( new InstanceId( 2 ) );
+        assertNotSame( later, gone );
+        assertEquals( AcceptorInstance.CLOSED_BALLOT, gone.getBallot() );
+    }
+
+    @Test
+    public void undeliveredInstancesAreNotOverwritten()
+    {
+        InMemoryAcceptorInstanceStore store = new InMemoryAcceptorInstanceStore( 4 );
+        AcceptorInstance old = store.getAcceptorInstance( new InstanceId( 2 ) );
+        store.promise( old, 1001 );
+        store.accept( old, "value" );
+
+        AcceptorInstance later = store.getAcceptorInstance( new InstanceId( 6 ) );
+        assertNotSame( old, later );
+        assertEquals( AcceptorInstance.CLOSED_BALLOT, later.getBallot() );
+
+        AcceptorInstance same = store.getAcceptorInstance( new InstanceId( 2 ) );
+        assertSame( old, same );
+        assertEquals( 1001, same.getBallot() );
+        assertEquals( "value", same.getValue() );
+    }
+
+    @Test
+    public void competingProposerCanNotGetAnotherValueChosenForADecidedInstance()
+    {
+        List<InMemoryAcceptorInstanceStore> acceptors = new ArrayList<InMemoryAcceptorInstanceStore>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            acceptors.add( new InMemoryAcceptorInstanceStore( 4 ) );
+        }
+        InstanceId instance = new InstanceId( 5 );
+
+        // The first proposer gets its value chosen by all acceptors
+        for ( InMemoryAcceptorInstanceStore acceptor : acceptors )
+        {
+            assertTrue( prepare( acceptor, instance, 1001 ) );
+            assertTrue( accept( acceptor, instance, 1001, "first" ) );
+        }
+
+        // Two of them deliver it and move on a full ring
+        for ( InMemoryAcceptorInstanceStore acceptor : acceptors.subList( 0, 2 ) )
+        {
+            acceptor.lastDelivered( new InstanceId( 8 ) );
+            for ( long id = 6; id <= 9; id++ )
+            {
+                acceptor.getAcceptorInstance( new InstanceId( id ) );
+            }
+        }
+
+        // A second proposer that missed all that retries phase 1 with a higher ballot
+        int promises = 0;
+        for ( InMemoryAcceptorInstanceStore acceptor : acceptors )
+        {
+            AcceptorInstance state = acceptor.getAcceptorInstance( instance );
+            if ( prepare( acceptor, instance, 2001 ) )
+            {
+                // Promises always tell about the value that was accepted
+                assertEquals( "first", state.getValue() );
+                promises++;
+            }
+            else
+            {
+                assertEquals( AcceptorInstance.CLOSED_BALLOT, state.getBallot() );
+                assertFalse( accept( acceptor, instance, 2001, "second" ) );
+            }
+        }
+        assertEquals( 1, promises );
+    }
+
+    // Same rules as AcceptorState
+    private boolean prepare( AcceptorInstanceStore store, InstanceId instanceId, long ballot )
+    {
+        AcceptorInstance instance = store.getAcceptorInstance( instanceId );
+        if ( ballot >= instance.getBallot() )
+        {
+            store.promise( instance, ballot );
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept( AcceptorInstanceStore store, InstanceId instanceId, long ballot, Object value )
+    {
+        AcceptorInstance instance = store.getAcceptorInstance( instanceId );
+        if ( ballot == instance.getBallot() )
+        {
+            store.accept( instance, value );
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PaxosInstanceStoreTest
+{
+    @Test
+    public void returnsTheSameInstanceForTheSameId()
+    {
+        PaxosInstanceStore store = new PaxosInstanceStore( 4 );
+        PaxosInstance instance = store.getPaxosInstance( new InstanceId( 3 ) );
+        instance.closed( "value" );
+
+        assertSame( instance, store.getPaxosInstance( new InstanceId( 3 ) ) );
+        assertTrue( instance.isState( PaxosInstance.State.closed ) );
+    }
+
+    @Test
+    public void laterInstancesReuseTheSlotOfEarlierOnes()
+    {
+        PaxosInstanceStore store = new PaxosInstanceStore( 4 );
+        PaxosInstance instance = store.getPaxosInstance( new InstanceId( 3 ) );
+        instance.closed( "value" );
+        instance.delivered();
+
+        PaxosInstance later = store.getPaxosInstance( new InstanceId( 7 ) );
+
+        assertSame( instance, later );
+        assertEquals( 7, later.id.getId() );
+        assertTrue( later.isState( PaxosInstance.State.empty ) );
+        assertNull( later.value_2 );
+    }
+
+    @Test
+    public void laterInstancesDoNotReuseTheSlotOfUndeliveredOnes()
+    {
+        PaxosInstanceStore store = new PaxosInstanceStore( 4 );
+        PaxosInstance instance = store.getPaxosInstance( new InstanceId( 3 ) );
+        instance.closed( "value" );
+
+        PaxosInstance later = store.getPaxosInstance( new InstanceId( 7 ) );
+        later.closed( "later value" );
+
+        assertNotSame( instance, later );
+        PaxosInstance stored = store.getPaxosInstance( new InstanceId( 3 ) );
+        assertSame( instance, stored );
+        assertTrue( stored.isState( PaxosInstance.State.closed ) );
+        assertEquals( "value", stored.value_2 );
+        assertFalse( store.isLearned( new InstanceId( 7 ) ) );
+    }
+
+    @Test
+    public void instancesPushedOutOfTheRingComeBackEmpty()
+    {
+        PaxosInstanceStore store = new PaxosInstanceStore( 4 );
+        PaxosInstance later = store.getPaxosInstance( new InstanceId( 7 ) );
+        later.closed( "value" );
+
+        PaxosInstance earlier = store.getPaxosInstance( new InstanceId( 3 ) );
+
+        assertNotSame( later, earlier );
+        assertTrue( earlier.isState( PaxosInstance.State.empty ) );
+        assertTrue( store.getPaxosInstance( new InstanceId( 7 ) ).isState( PaxosInstance.State.closed ) );
+    }
+
+    @Test
+    public void tellsLearnedAndPushedOutInstancesApartWithoutOpeningThem()
+    {
+        PaxosInstanceStore store = new PaxosInstanceStore( 4 );
+        store.getPaxosInstance( new InstanceId( 5 ) ).closed( "value" );
+        store.getPaxosInstance( new InstanceId( 6 ) );
+
+        assertTrue( store.isLearned( new InstanceId( 5 ) ) );
+        assertFalse( store.isLearned( new InstanceId( 6 ) ) );
+        assertFalse( store.isLearned( new InstanceId( 9 ) ) );
+        assertTrue( store.isPushedOut( new InstanceId( 1 ) ) );
+        assertFalse( store.isPushedOut( new InstanceId( 9 ) ) );
+
+        // Asking about instance 9 did not push instance 5 out
+        assertTrue( store.isLearned( new InstanceId( 5 ) ) );
+    }
+}
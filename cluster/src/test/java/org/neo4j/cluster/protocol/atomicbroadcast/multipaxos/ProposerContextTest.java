@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.atomicbroadcast.multipaxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+
+public class ProposerContextTest
+{
+    @Test
+    public void pendingPayloadsAreBatchedInOrderWithTheirConversations()
+    {
+        ProposerContext context = new ProposerContext( 10, 1000, 10, 100 );
+        Payload first = payload( 10 ), second = payload( 10 );
+        context.pendingValue( propose( first ).setHeader( Message.CONVERSATION_ID, "1" ) );
+        context.pendingValue( propose( second ) );
+
+        ValueBatch batch = (ValueBatch) context.nextPendingValue();
+
+        assertEquals( 2, batch.size() );
+        assertSame( first, batch.getValue( 0 ) );
+        assertEquals( "1", batch.getConversationId( 0 ) );
+        assertSame( second, batch.getValue( 1 ) );
+        assertNull( batch.getConversationId( 1 ) );
+        assertFalse( context.hasPendingValues() );
+    }
+
+    @Test
+    public void batchesStopAtValueAndByteLimits()
+    {
+        ProposerContext context = new ProposerContext( 2, 25, 10, 100 );
+        for ( int i = 0; i < 3; i++ )
+        {
+            context.pendingValue( propose( payload( 10 ) ) );
+        }
+        context.pendingValue( propose( payload( 20 ) ) );
+
+        assertEquals( 2, ((ValueBatch) context.nextPendingValue()).size() );
+        assertEquals( 1, ((ValueBatch) context.nextPendingValue()).size() );
+        assertEquals( 1, ((ValueBatch) context.nextPendingValue()).size() );
+        assertFalse( context.hasPendingValues() );
+    }
+
+    @Test
+    public void otherValuesAreNotBatched()
+    {
+        ProposerContext context = new ProposerContext();
+        context.pendingValue( propose( payload( 1 ) ) );
+        context.pendingValue( propose( "other" ) );
+        context.pendingValueFirst( "retry" );
+
+        assertEquals( "retry", context.nextPendingValue() );
+        assertEquals( 1, ((ValueBatch) context.nextPendingValue()).size() );
+        assertEquals( "other", context.nextPendingValue() );
+        assertFalse( context.hasPendingValues() );
+    }
+
+    @Test
+    public void everyMessageTakenIntoABatchIsReported()
+    {
+        ProposerContext context = new ProposerContext( 2, 1000, 10, 100 );
+        Message<ProposerMessage> first = propose( payload( 1 ) ), second = propose( payload( 1 ) ),
+                third = propose( payload( 1 ) );
+        context.pendingValue( first );
+        context.pendingValue( second );
+        context.pendingValue( third );
+
+        List<Message<ProposerMessage>> taken = new ArrayList<Message<ProposerMessage>>();
+        context.nextPendingValue( taken );
+
+        assertEquals( 2, taken.size() );
+        assertSame( first, taken.get( 0 ) );
+        assertSame( second, taken.get( 1 ) );
+        context.nextPendingValue( taken );
+        assertSame( third, taken.get( 2 ) );
+    }
+
+    @Test
+    public void valuesAreRejectedWhenTheBacklogIsFull()
+    {
+        ProposerContext context = new ProposerContext( 10, 1000, 10, 2 );
+
+        assertTrue( context.pendingValue( propose( payload( 1 ) ) ) );
+        assertTrue( context.pendingValue( propose( payload( 1 ) ) ) );
+        assertFalse( context.pendingValue( propose( payload( 1 ) ) ) );
+
+        context.nextPendingValue();
+        assertTrue( context.pendingValue( propose( payload( 1 ) ) ) );
+    }
+
+    @Test
+    public void windowLimitsBookedInstances()
+    {
+        ProposerContext context = new ProposerContext( 10, 1000, 2, 100 );
+
+        context.bookedInstances.put( context.newInstanceId( 0 ), "a" );
+        assertTrue( context.canBookInstance() );
+        context.bookedInstances.put( context.newInstanceId( 0 ), "b" );
+        assertFalse( context.canBookInstance() );
+    }
+
+    private Message<ProposerMessage> propose( Object value )
+    {
+        return Message.internal( ProposerMessage.propose, value );
+    }
+
+    private Payload payload( int length )
+    {
+        return new Payload( new byte[length], length );
+    }
+}
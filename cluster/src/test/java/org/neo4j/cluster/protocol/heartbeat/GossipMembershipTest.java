@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.heartbeat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class GossipMembershipTest
+{
+    private final URI me = URI.create( "cluster://server1" );
+
+    @Test
+    public void probesEveryOtherMemberOncePerRound()
+    {
+        List<URI> members = members( 5 );
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            Set<URI> probed = new HashSet<URI>();
+            for ( int i = 0; i < 4; i++ )
+            {
+                URI target = gossip.nextProbe( me, members );
+                assertFalse( target.equals( me ) );
+                assertTrue( probed.add( target ) );
+                gossip.acknowledged( target, gossip.getProbeSequence() );
+            }
+            assertEquals( 4, probed.size() );
+        }
+    }
+
+    @Test
+    public void unacknowledgedProbeIsReportedUntilTheRightAckArrives()
+    {
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+        URI target = gossip.nextProbe( me, members( 3 ) );
+
+        assertEquals( target, gossip.getUnacknowledgedProbe() );
+        assertFalse( gossip.acknowledged( target, gossip.getProbeSequence() - 1 ) );
+        assertEquals( target, gossip.getUnacknowledgedProbe() );
+        assertTrue( gossip.acknowledged( target, gossip.getProbeSequence() ) );
+        assertNull( gossip.getUnacknowledgedProbe() );
+    }
+
+    @Test
+    public void urgentProbesGoFirst()
+    {
+        List<URI> members = members( 10 );
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+        gossip.probeUrgently( members.get( 7 ) );
+
+        assertEquals( members.get( 7 ), gossip.nextProbe( me, members ) );
+    }
+
+    @Test
+    public void noOneToProbeInAClusterOfOne()
+    {
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+
+        assertNull( gossip.nextProbe( me, Collections.singletonList( me ) ) );
+        assertNull( gossip.getUnacknowledgedProbe() );
+    }
+
+    @Test
+    public void indirectProbersExcludeUsAndTheTarget()
+    {
+        List<URI> members = members( 10 );
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+
+        List<URI> probers = gossip.indirectProbers( me, members.get( 1 ), members );
+        assertEquals( GossipMembership.INDIRECT_PROBES, probers.size() );
+        assertFalse( probers.contains( me ) );
+        assertFalse( probers.contains( members.get( 1 ) ) );
+    }
+
+    @Test
+    public void onlyNewerUpdatesAreAccepted()
+    {
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+        URI other = URI.create( "cluster://server2" );
+
+        assertTrue( gossip.update( update( other, 2 ) ) );
+        assertFalse( gossip.update( update( other, 2 ) ) );
+        assertFalse( gossip.update( update( other, 1 ) ) );
+        assertTrue( gossip.update( update( other, 3 ) ) );
+    }
+
+    @Test
+    public void updatesOfARestartedMemberSupersedeThoseOfItsPreviousIncarnation()
+    {
+        URI other = URI.create( "cluster://server2" );
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+
+        GossipMembership before = new GossipMembership( new Random( 2 ), 1000 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            before.suspicionsChanged( other, Collections.singleton( me ) );
+        }
+        for ( HeartbeatMessage.SuspicionsUpdate update : before.piggyback( 2 ) )
+        {
+            assertTrue( gossip.update( update ) );
+        }
+
+        // Restarted a second later, with nothing to suspect
+        GossipMembership after = new GossipMembership( new Random( 2 ), 2000 );
+        after.suspicionsChanged( other, Collections.<URI>emptySet() );
+        List<HeartbeatMessage.SuspicionsUpdate> updates = after.piggyback( 2 );
+        assertEquals( 1, updates.size() );
+        assertTrue( gossip.update( updates.get( 0 ) ) );
+
+        assertTrue( gossip.piggyback( 2 ).get( 0 ).getSuspicions().isEmpty() );
+    }
+
+    @Test
+    public void updatesArePiggybackedALimitedNumberOfTimes()
+    {
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+        gossip.suspicionsChanged( me, Collections.singleton( URI.create( "cluster://server2" ) ) );
+
+        int transmissions = 0;
+        while ( !gossip.piggyback( 8 ).isEmpty() )
+        {
+            transmissions++;
+            assertTrue( transmissions < 100 );
+        }
+
+        // Three times the number of bits in the cluster size
+        assertEquals( 12, transmissions );
+    }
+
+    @Test
+    public void piggybacksAtMostALimitedNumberOfUpdatesLeastTransmittedFirst()
+    {
+        GossipMembership gossip = new GossipMembership( new Random( 1 ), 0 );
+        List<URI> members = members( 10 );
+        for ( URI member : members )
+        {
+            gossip.update( update( member, 1 ) );
+        }
+
+        List<HeartbeatMessage.SuspicionsUpdate> first = gossip.piggyback( 10 );
+        List<HeartbeatMessage.SuspicionsUpdate> second = gossip.piggyback( 10 );
+        assertEquals( GossipMembership.MAX_PIGGYBACKED_UPDATES, first.size() );
+
+        Set<URI> origins = new HashSet<URI>();
+        for ( HeartbeatMessage.SuspicionsUpdate update : first )
+        {
+            origins.add( update.getOrigin() );
+        }
+        int notYetSent = members.size() - GossipMembership.MAX_PIGGYBACKED_UPDATES;
+        for ( HeartbeatMessage.SuspicionsUpdate update : second.subList( 0, notYetSent ) )
+        {
+            assertFalse( origins.contains( update.getOrigin() ) );
+        }
+    }
+
+    private HeartbeatMessage.SuspicionsUpdate update( URI origin, long version )
+    {
+        return new HeartbeatMessage.SuspicionsUpdate( origin, version, new HashSet<URI>( Arrays.asList( me ) ) );
+    }
+
+    private List<URI> members( int count )
+    {
+        List<URI> members = new ArrayList<URI>();
+        for ( int i = 1; i <= count; i++ )
+        {
+            members.add( URI.create( "cluster://server" + i ) );
+        }
+        return members;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.heartbeat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class PhiAccrualFailureDetectorTest
+{
+    private final URI member = URI.create( "cluster://server1" );
+
+    @Test
+    public void phiGrowsWithTimeSinceLastHeartbeat()
+    {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector( 1000 );
+        long now = heartbeats( detector, 0, 1000, 20 );
+
+        double early = detector.phi( member, now + 500 );
+        double onTime = detector.phi( member, now + 1000 );
+        double late = detector.phi( member, now + 1500 );
+
+        assertTrue( early < onTime );
+        assertTrue( onTime < late );
+        assertEquals( 0.3, onTime, 0.05 );
+    }
+
+    @Test
+    public void unknownMembersAreNotSuspected()
+    {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector( 1000 );
+
+        assertEquals( 0, detector.phi( member, 100000 ), 0 );
+        assertEquals( -1, detector.timeUntilSuspected( member, 100000 ) );
+    }
+
+    @Test
+    public void regularHeartbeatsAreSuspectedSoonerThanJitteryOnes()
+    {
+        PhiAccrualFailureDetector regular = new PhiAccrualFailureDetector( 1000 );
+        long now = heartbeats( regular, 0, 1000, 50 );
+        long regularSuspectedAfter = regular.timeUntilSuspected( member, now );
+
+        PhiAccrualFailureDetector jittery = new PhiAccrualFailureDetector( 1000 );
+        now = 0;
+        for ( int i = 0; i < 50; i++ )
+        {
+            now += i % 2 == 0 ? 500 : 1500;
+            jittery.heartbeat( member, now );
+        }
+        long jitterySuspectedAfter = jittery.timeUntilSuspected( member, now );
+
+        assertTrue( regularSuspectedAfter < 2000 );
+        assertTrue( jitterySuspectedAfter > regularSuspectedAfter );
+    }
+
+    @Test
+    public void timeUntilSuspectedIsWhenPhiReachesTheThreshold()
+    {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector( 1000 );
+        long now = heartbeats( detector, 0, 1000, 20 );
+
+        long suspectedAfter = detector.timeUntilSuspected( member, now );
+
+        assertFalse( detector.isSuspected( member, now + suspectedAfter - 1 ) );
+        assertTrue( detector.isSuspected( member, now + suspectedAfter ) );
+        assertEquals( suspectedAfter - 300, detector.timeUntilSuspected( member, now + 300 ) );
+    }
+
+    @Test
+    public void otherMessagesRestartTheClockWithoutChangingTheHistory()
+    {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector( 1000 );
+        long now = heartbeats( detector, 0, 1000, 20 );
+        long suspectedAfter = detector.timeUntilSuspected( member, now );
+
+        // Lots of traffic, which does not make the member look like it sends heartbeats more often
+        for ( int i = 0; i < 100; i++ )
+        {
+            now += 10;
+            detector.signOfLife( member, now );
+        }
+
+        assertEquals( suspectedAfter, detector.timeUntilSuspected( member, now ) );
+    }
+
+    private long heartbeats( PhiAccrualFailureDetector detector, long now, long interval, int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            now += interval;
+            detector.heartbeat( member, now );
+        }
+        return now;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.protocol.snapshot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerContext;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.protocol.cluster.ClusterContext;
+
+public class SnapshotContextTest
+{
+    private static final URI ONE = URI.create( "cluster://server1" );
+    private static final URI TWO = URI.create( "cluster://server2" );
+    private static final URI THREE = URI.create( "cluster://server3" );
+    private static final URI FOUR = URI.create( "cluster://server4" );
+
+    private LearnerContext learnerContext;
+    private SnapshotContext context;
+
+    @Before
+    public void setup()
+    {
+        learnerContext = new LearnerContext();
+        ClusterContext clusterContext = new ClusterContext( new ProposerContext(), learnerContext,
+                new ClusterConfiguration( "default", ONE.toString(), TWO.toString(), THREE.toString(),
+                        FOUR.toString() ), null, null, null );
+        clusterContext.setMe( TWO );
+        context = new SnapshotContext( clusterContext, learnerContext );
+    }
+
+    @Test
+    public void mostUpToDateMemberIsAskedFirst()
+    {
+        learnerContext.memberLearned( THREE, 10 );
+        learnerContext.memberLearned( ONE, 20 );
+
+        assertEquals( ONE, context.nextSnapshotSource() );
+        assertEquals( THREE, context.nextSnapshotSource() );
+        assertEquals( FOUR, context.nextSnapshotSource() );
+    }
+
+    @Test
+    public void membersNotHeardFromAreAskedInConfigurationOrderAfterMe()
+    {
+        assertEquals( THREE, context.nextSnapshotSource() );
+        assertEquals( FOUR, context.nextSnapshotSource() );
+        assertEquals( ONE, context.nextSnapshotSource() );
+        // All have been tried, so start over
+        assertEquals( THREE, context.nextSnapshotSource() );
+    }
+
+    @Test
+    public void aCompletedRefreshStartsOverWithTheMostUpToDateMember()
+    {
+        learnerContext.memberLearned( FOUR, 5 );
+        assertEquals( FOUR, context.nextSnapshotSource() );
+        context.refreshed();
+
+        learnerContext.memberLearned( ONE, 6 );
+        assertEquals( ONE, context.nextSnapshotSource() );
+    }
+}
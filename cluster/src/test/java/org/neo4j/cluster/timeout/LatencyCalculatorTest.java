@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.neo4j.cluster.ConnectedStateMachines;
+import org.neo4j.cluster.DelayedDirectExecutor;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageSource;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.statemachine.State;
+import org.neo4j.cluster.statemachine.StateMachine;
+
+public class LatencyCalculatorTest
+{
+    private static final int MESSAGES_PER_LANE = 100000;
+    private static final CountDownLatch start = new CountDownLatch( 1 );
+
+    public enum FirstMessage implements MessageType
+    {
+        send, remote
+    }
+
+    public enum SecondMessage implements MessageType
+    {
+        send, remote
+    }
+
+    public enum FirstState implements State<Object, FirstMessage>
+    {
+        sending
+                {
+                    @Override
+                    public State<?, ?> handle( Object context, Message<FirstMessage> message,
+                                               MessageProcessor outgoing ) throws Throwable
+                    {
+                        send( "first", FirstMessage.remote, outgoing );
+                        return this;
+                    }
+                }
+    }
+
+    public enum SecondState implements State<Object, SecondMessage>
+    {
+        sending
+                {
+                    @Override
+                    public State<?, ?> handle( Object context, Message<SecondMessage> message,
+                                               MessageProcessor outgoing ) throws Throwable
+                    {
+                        send( "second", SecondMessage.remote, outgoing );
+                        return this;
+                    }
+                }
+    }
+
+    @Test
+    public void recordsConversationsSentFromSeveralLanesAtOnce() throws Exception
+    {
+        LatencyCalculator latencyCalculator = new LatencyCalculator( new FixedTimeoutStrategy( 1000 ),
+                new MessageSource()
+                {
+                    @Override
+                    public void addMessageProcessor( MessageProcessor messageProcessor )
+                    {
+                    }
+                } );
+        final ConnectedStateMachines stateMachines = new ConnectedStateMachines( new MessageSource()
+        {
+            @Override
+            public void addMessageProcessor( MessageProcessor messageProcessor )
+            {
+            }
+        }, new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+            }
+        }, latencyCalculator, new DelayedDirectExecutor() );
+        stateMachines.addMessageProcessor( latencyCalculator );
+        stateMachines.addStateMachine( new StateMachine( null, FirstMessage.class, FirstState.sending ) );
+        stateMachines.addStateMachine( new StateMachine( null, SecondMessage.class, SecondState.sending ) );
+
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                stateMachines.process( Message.internal( FirstMessage.send ) );
+            }
+        };
+        Thread second = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                stateMachines.process( Message.internal( SecondMessage.send ) );
+            }
+        };
+        first.start();
+        second.start();
+        start.countDown();
+        first.join( 60000 );
+        second.join( 60000 );
+
+        assertEquals( MESSAGES_PER_LANE * 2, latencyCalculator.conversations.size() );
+    }
+
+    @Test
+    public void ignoresMessagesThatAreNotPartOfAConversation()
+    {
+        final MessageProcessor[] incoming = new MessageProcessor[1];
+        LatencyCalculator latencyCalculator = new LatencyCalculator( new FixedTimeoutStrategy( 1000 ),
+                new MessageSource()
+                {
+                    @Override
+                    public void addMessageProcessor( MessageProcessor messageProcessor )
+                    {
+                        incoming[0] = messageProcessor;
+                    }
+                } );
+
+        // Like the heartbeats listeners send when they are notified, outside of any cascade
+        latencyCalculator.process( Message.to( FirstMessage.remote, "cluster://other", null ) );
+        incoming[0].process( Message.to( FirstMessage.remote, "cluster://me", null )
+                .setHeader( Message.FROM, "cluster://other" ) );
+
+        assertEquals( 0, latencyCalculator.conversations.size() );
+    }
+
+    private static <T extends MessageType> void send( String lane, T type, MessageProcessor outgoing )
+            throws InterruptedException
+    {
+        assertTrue( start.await( 10, TimeUnit.SECONDS ) );
+        for ( int i = 0; i < MESSAGES_PER_LANE; i++ )
+        {
+            outgoing.process( Message.to( type, "cluster://other", null )
+                    .setHeader( Message.CREATED_BY, "cluster://me" )
+                    .setHeader( Message.CONVERSATION_ID, lane + "/" + i ) );
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cluster.timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageType;
+
+public class TimeoutsTest
+{
+    private final List<Object> triggered = new ArrayList<Object>();
+    private final Timeouts timeouts = new Timeouts( new MessageProcessor()
+    {
+        @Override
+        public void process( Message<? extends MessageType> message )
+        {
+            triggered.add( message.getPayload() );
+        }
+    }, new PayloadTimeoutStrategy() );
+
+    @Test
+    public void triggersOnlyOnceTheTimeoutHasPassed()
+    {
+        timeouts.setTimeout( "a", timeout( 100 ) );
+
+        timeouts.tick( 99 );
+        assertTrue( triggered.isEmpty() );
+
+        timeouts.tick( 100 );
+        assertEquals( list( 100L ), triggered );
+        assertTrue( timeouts.getTimeouts().isEmpty() );
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotTrigger()
+    {
+        timeouts.setTimeout( "a", timeout( 10 ) );
+        timeouts.setTimeout( "b", timeout( 20 ) );
+        timeouts.cancelTimeout( "a" );
+
+        timeouts.tick( 50 );
+
+        assertEquals( list( 20L ), triggered );
+    }
+
+    @Test
+    public void settingTheSameKeyAgainReplacesTheTimeout()
+    {
+        timeouts.setTimeout( "a", timeout( 10 ) );
+        timeouts.setTimeout( "a", timeout( 30 ) );
+
+        timeouts.tick( 20 );
+        assertTrue( triggered.isEmpty() );
+
+        timeouts.tick( 30 );
+        assertEquals( list( 30L ), triggered );
+    }
+
+    @Test
+    public void triggersInOrderOfExpiryAcrossWheelLevels()
+    {
+        timeouts.setTimeout( "c", timeout( 5000000 ) );
+        timeouts.setTimeout( "b", timeout( 70000 ) );
+        timeouts.setTimeout( "a", timeout( 300 ) );
+
+        for ( long now = 10; now < 5000000; now += 10 )
+        {
+            timeouts.tick( now );
+        }
+        assertEquals( list( 300L, 70000L ), triggered );
+
+        timeouts.tick( 5000000 );
+        assertEquals( list( 300L, 70000L, 5000000L ), triggered );
+    }
+
+    @Test
+    public void largeJumpsInTimeTriggerEverythingThatIsDue()
+    {
+        timeouts.setTimeout( "a", timeout( 1000 ) );
+        timeouts.setTimeout( "b", timeout( 100000 ) );
+
+        timeouts.tick( System.currentTimeMillis() );
+
+        assertEquals( list( 1000L, 100000L ), triggered );
+    }
+
+    @Test
+    public void timeoutsAreRelativeToTheLastTick()
+    {
+        long start = System.currentTimeMillis();
+        timeouts.tick( start );
+        timeouts.setTimeout( "a", timeout( 500 ) );
+
+        timeouts.tick( start + 499 );
+        assertTrue( triggered.isEmpty() );
+
+        timeouts.tick( start + 500 );
+        assertEquals( list( 500L ), triggered );
+    }
+
+    private Message<TimeoutMessage> timeout( long timeout )
+    {
+        return Message.internal( TimeoutMessage.timeout, timeout );
+    }
+
+    private List<Object> list( Object... values )
+    {
+        List<Object> list = new ArrayList<Object>();
+        for ( Object value : values )
+        {
+            list.add( value );
+        }
+        return list;
+    }
+
+    private enum TimeoutMessage implements MessageType
+    {
+        timeout
+    }
+
+    private static class PayloadTimeoutStrategy extends FixedTimeoutStrategy
+    {
+        PayloadTimeoutStrategy()
+        {
+            super( 0 );
+        }
+
+        @Override
+        public long timeoutFor( Message message )
+        {
+            return (Long) message.getPayload();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+import org.neo4j.com.StoreChecksums.Digest;
+
+/**
+ * Decorates another {@link StoreWriter}, typically a {@link ToNetworkStoreWriter},
+ * and encodes each file, or segment of a file, as a delta against the
+ * {@link StoreChecksums} of the receiving side. Blocks whose checksum matches what
+ * the receiver already has are sent as a reference only, the rest are sent in full.
+ * Each file ends with an MD5 of its complete contents so that the receiver can
+ * verify what it assembled. {@link DeltaToFileStoreWriter} decodes the stream.
+ *
+ * The encoding per file is a series of entries:
+ * <ul>
+ * <li>{@link #BLOCK_UNCHANGED}, int length</li>
+ * <li>{@link #BLOCK_DATA}, int length, length bytes</li>
+ * <li>{@link #END_OF_FILE}, MD5 of the whole file</li>
+ * </ul>
+ */
+public class DeltaStoreWriter implements StoreWriter
+{
+    static final byte BLOCK_UNCHANGED = 0;
+    static final byte BLOCK_DATA = 1;
+    static final byte END_OF_FILE = 2;
+
+    private final StoreWriter delegate;
+    private final StoreChecksums checksums;
+    private long totalBytes;
+    private long transferredBytes;
+
+    public DeltaStoreWriter( StoreWriter delegate, StoreChecksums checksums )
+    {
+        this.delegate = delegate;
+        this.checksums = checksums;
+    }
+
+    public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
+            boolean hasData ) throws IOException
+    {
+        // An encoded file always has data, at least its end marker
+        delegate.write( path, new DeltaEncodingChannel( hasData ? data : null, checksums.blocksOf( path ) ),
+                temporaryBuffer, true );
+    }
+
+    public void done()
+    {
+        delegate.done();
+    }
+
+    /**
+     * @return the number of store file bytes which have been read so far.
+     */
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of store file bytes which actually had to be sent
+     * so far, i.e. excluding the blocks the receiver already had.
+     */
+    public long getTransferredBytes()
+    {
+        return transferredBytes;
+    }
+
+    private class DeltaEncodingChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel source;
+        private final long[] receiverBlocks;
+        private final byte[] block = new byte[checksums.blockSize()];
+        private final ByteBuffer blockBuffer = ByteBuffer.wrap( block );
+        private final ByteBuffer pending = ByteBuffer.allocate( 1 + 4 + block.length );
+        private final MessageDigest fileDigest = StoreChecksums.contentDigest();
+        private final Digest blockDigest = new Digest();
+        private int blockIndex;
+        private boolean finished;
+
+        DeltaEncodingChannel( ReadableByteChannel source, long[] receiverBlocks )
+        {
+            this.source = source;
+            this.receiverBlocks = receiverBlocks;
+            pending.limit( 0 );
+        }
+
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            if ( !pending.hasRemaining() )
+            {
+                if ( finished )
+                {
+                    return -1;
+                }
+                encodeNextBlock();
+            }
+            int count = Math.min( dst.remaining(), pending.remaining() );
+            int limit = pending.limit();
+            pending.limit( pending.position() + count );
+            dst.put( pending );
+            pending.limit( limit );
+            return count;
+        }
+
+        private void encodeNextBlock() throws IOException
+        {
+            int length = readBlock();
+            pending.clear();
+            if ( length == 0 )
+            {
+                pending.put( END_OF_FILE ).put( fileDigest.digest() );
+                finished = true;
+            }
+            else
+            {
+                fileDigest.update( block, 0, length );
+                blockDigest.reset();
+                blockDigest.update( block, 0, length );
+                totalBytes += length;
+                if ( receiverBlocks != null && blockIndex < receiverBlocks.length &&
+                        receiverBlocks[blockIndex] == blockDigest.value() )
+                {
+                    pending.put( BLOCK_UNCHANGED ).putInt( length );
+                }
+                else
+                {
+                    pending.put( BLOCK_DATA ).putInt( length ).put( block, 0, length );
+                    transferredBytes += length;
+                }
+                blockIndex++;
+            }
+            pending.flip();
+        }
+
+        private int readBlock() throws IOException
+        {
+            if ( source == null )
+            {
+                return 0;
+            }
+            blockBuffer.clear();
+            while ( blockBuffer.hasRemaining() && source.read( blockBuffer ) >= 0 )
+            {
+                // Keep reading until the block is full or the file ends
+            }
+            return blockBuffer.position();
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close() throws IOException
+        {
+            // The source channel is owned by the caller
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.com.DeltaStoreWriter.BLOCK_DATA;
+import static org.neo4j.com.DeltaStoreWriter.BLOCK_UNCHANGED;
+import static org.neo4j.com.DeltaStoreWriter.END_OF_FILE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Receiving end of a {@link DeltaStoreWriter}. Writes the store files into
+ * {@code basePath}, starting at {@code offset} for receiving a segment, taking the
+ * unchanged blocks from the same range of the files with the same name in
+ * {@code basisPath}, which is the directory the {@link StoreChecksums} for the
+ * request were calculated from. Everything received is verified against the MD5
+ * the sender calculated over it, and an {@link IOException} is thrown on mismatch,
+ * in which case the caller should fall back to a full copy.
+ */
+public class DeltaToFileStoreWriter implements StoreWriter
+{
+    private final File basePath;
+    private final File basisPath;
+    private final long offset;
+    private final byte[] block;
+    private final ByteBuffer blockBuffer;
+    private final ByteBuffer header = ByteBuffer.allocate( 8 );
+    private long reusedBytes;
+    private long receivedBytes;
+
+    public DeltaToFileStoreWriter( File graphDbStoreDir, File basisStoreDir, int blockSize )
+    {
+        this( graphDbStoreDir, basisStoreDir, blockSize, 0 );
+    }
+
+    public DeltaToFileStoreWriter( File graphDbStoreDir, File basisStoreDir, int blockSize, long offset )
+    {
+        this.basePath = graphDbStoreDir;
+        this.basisPath = basisStoreDir;
+        this.offset = offset;
+        this.block = new byte[blockSize];
+        this.blockBuffer = ByteBuffer.wrap( block );
+    }
+
+    public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
+            boolean hasData ) throws IOException
+    {
+        if ( !hasData )
+        {
+            throw new IOException( "Expected a delta encoded stream for " + path );
+        }
+        File file = new File( basePath, path );
+        File basisFile = new File( basisPath, path );
+        file.getParentFile().mkdirs();
+        RandomAccessFile target = new RandomAccessFile( file, "rw" );
+        RandomAccessFile basis = basisFile.isFile() ? new RandomAccessFile( basisFile, "r" ) : null;
+        try
+        {
+            FileChannel targetChannel = target.getChannel();
+            targetChannel.position( offset );
+            MessageDigest digest = StoreChecksums.contentDigest();
+            long position = offset;
+            while ( true )
+            {
+                byte operation = readFully( data, header, 1 ).get( 0 );
+                if ( operation == END_OF_FILE )
+                {
+                    byte[] expected = new byte[StoreChecksums.CONTENT_DIGEST_LENGTH];
+                    readFully( data, ByteBuffer.wrap( expected ), expected.length );
+                    if ( !MessageDigest.isEqual( expected, digest.digest() ) )
+                    {
+                        throw new IOException( "Checksum mismatch for " + path + " after applying delta" );
+                    }
+                    targetChannel.force( false );
+                    return;
+                }
+                int length = readFully( data, header, 4 ).getInt( 0 );
+                if ( length <= 0 || length > block.length )
+                {
+                    throw new IOException( "Invalid block length " + length + " for " + path );
+                }
+                if ( operation == BLOCK_UNCHANGED )
+                {
+                    if ( basis == null )
+                    {
+                        throw new IOException( "Block of " + path + " referenced, but no such file in " + basisPath );
+                    }
+                    readBasisBlock( basis.getChannel(), position, length, path );
+                    reusedBytes += length;
+                }
+                else if ( operation == BLOCK_DATA )
+                {
+                    readFully( data, blockBuffer, length );
+                    receivedBytes += length;
+                }
+                else
+                {
+                    throw new IOException( "Unknown delta operation " + operation + " for " + path );
+                }
+                digest.update( block, 0, length );
+                blockBuffer.clear().limit( length );
+                while ( blockBuffer.hasRemaining() )
+                {
+                    targetChannel.write( blockBuffer );
+                }
+                position += length;
+            }
+        }
+        finally
+        {
+            target.close();
+            if ( basis != null )
+            {
+                basis.close();
+            }
+        }
+    }
+
+    private void readBasisBlock( FileChannel basis, long position, int length, String path ) throws IOException
+    {
+        blockBuffer.clear().limit( length );
+        while ( blockBuffer.hasRemaining() )
+        {
+            if ( basis.read( blockBuffer, position + blockBuffer.position() ) < 0 )
+            {
+                throw new IOException( "Block at " + position + " of " + path + " referenced, but " +
+                        "the file in " + basisPath + " is shorter" );
+            }
+        }
+    }
+
+    private static ByteBuffer readFully( ReadableByteChannel channel, ByteBuffer buffer, int length )
+            throws IOException
+    {
+        buffer.clear().limit( length );
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer ) < 0 )
+            {
+                throw new IOException( "Premature end of delta stream" );
+            }
+        }
+        return buffer;
+    }
+
+    public void done()
+    {
+        // Do nothing
+    }
+
+    /**
+     * @return the number of bytes taken from the basis store.
+     */
+    public long getReusedBytes()
+    {
+        return reusedBytes;
+    }
+
+    /**
+     * @return the number of bytes that had to be received.
+     */
+    public long getReceivedBytes()
+    {
+        return receivedBytes;
+    }
+}
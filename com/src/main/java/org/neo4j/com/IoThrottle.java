@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket limiting the rate of bytes flowing through it, used for keeping
+ * store copies and backups from saturating the disk or network of a live
+ * instance. The bucket holds at most one second worth of tokens. Callers that
+ * take more than what's available go into debt and sleep until it's paid off.
+ *
+ * The rate can be changed at any time. A rate of 0 means unlimited. The
+ * effective rate is the rate multiplied by a scale, between 0 and 1, which is
+ * there for backing off temporarily without losing the configured rate.
+ */
+public class IoThrottle
+{
+    private volatile long bytesPerSecond;
+    private volatile double scale = 1.0;
+    private double available;
+    private long lastRefill = System.nanoTime();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public IoThrottle( long bytesPerSecond )
+    {
+        setBytesPerSecond( bytesPerSecond );
+    }
+
+    public long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond( long bytesPerSecond )
+    {
+        if ( bytesPerSecond < 0 )
+        {
+            throw new IllegalArgumentException( "Negative rate " + bytesPerSecond );
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public double getScale()
+    {
+        return scale;
+    }
+
+    public void setScale( double scale )
+    {
+        if ( scale <= 0 || scale > 1 )
+        {
+            throw new IllegalArgumentException( "Scale must be in (0,1], was " + scale );
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * @return the rate currently applied, or 0 if unlimited.
+     */
+    public long getEffectiveBytesPerSecond()
+    {
+        long rate = bytesPerSecond;
+        return rate == 0 ? 0 : Math.max( 1, (long) (rate * scale) );
+    }
+
+    /**
+     * @return the total time callers have been held back.
+     */
+    public long getThrottledMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( throttledNanos.get() );
+    }
+
+    /**
+     * Takes {@code bytes} tokens from the bucket, sleeping if there weren't
+     * enough of them.
+     */
+    public void acquire( int bytes ) throws InterruptedIOException
+    {
+        long sleepNanos;
+        synchronized ( this )
+        {
+            long rate = getEffectiveBytesPerSecond();
+            long now = System.nanoTime();
+            if ( rate == 0 )
+            {
+                lastRefill = now;
+                return;
+            }
+            available = Math.min( rate, available + (now - lastRefill) * (rate / 1E9) );
+            lastRefill = now;
+            available -= bytes;
+            if ( available >= 0 )
+            {
+                return;
+            }
+            sleepNanos = (long) (-available / rate * 1E9);
+        }
+        throttledNanos.addAndGet( sleepNanos );
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep( sleepNanos );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while throttled" );
+        }
+    }
+
+    public ReadableByteChannel throttle( final ReadableByteChannel channel )
+    {
+        return new ReadableByteChannel()
+        {
+            public int read( ByteBuffer dst ) throws IOException
+            {
+                int read = channel.read( dst );
+                if ( read > 0 )
+                {
+                    acquire( read );
+                }
+                return read;
+            }
+
+            public boolean isOpen()
+            {
+                return channel.isOpen();
+            }
+
+            public void close() throws IOException
+            {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * @return a {@link StoreWriter} handing the file data it gets on to {@code writer}
+     * no faster than this throttle allows.
+     */
+    public StoreWriter throttle( final StoreWriter writer )
+    {
+        return new StoreWriter()
+        {
+            public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer, boolean hasData )
+                    throws IOException
+            {
+                writer.write( path, hasData ? throttle( data ) : data, temporaryBuffer, hasData );
+            }
+
+            public void done()
+            {
+                writer.done();
+            }
+        };
+    }
+}
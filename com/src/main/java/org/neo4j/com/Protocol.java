@@ -49,6 +49,13 @@ public abstract class Protocol
             result.writeLong( responseObject );
         }
     };
+    public static final ObjectSerializer<Boolean> BOOLEAN_SERIALIZER = new ObjectSerializer<Boolean>()
+    {
+        public void write( Boolean responseObject, ChannelBuffer result ) throws IOException
+        {
+            result.writeByte( responseObject.booleanValue() ? 1 : 0 );
+        }
+    };
     public static final ObjectSerializer<Void> VOID_SERIALIZER = new ObjectSerializer<Void>()
     {
         public void write( Void responseObject, ChannelBuffer result ) throws IOException
@@ -58,7 +58,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 
 public class ServerUtil
 {
-    private static File getBaseDir( GraphDatabaseAPI graphDb )
+    static File getBaseDir( GraphDatabaseAPI graphDb )
     {
         File file = new File( graphDb.getStoreDir() );
         try
@@ -82,7 +82,7 @@ public class ServerUtil
      *         <code>baseDir</code>
      * @throws IOException As per {@link File#getCanonicalPath()}
      */
-    private static String relativePath( File baseDir, File storeFile )
+    static String relativePath( File baseDir, File storeFile )
             throws IOException
     {
         String prefix = baseDir.getCanonicalPath();
@@ -125,6 +125,16 @@ public class ServerUtil
 
     public static RequestContext rotateLogsAndStreamStoreFiles( GraphDatabaseAPI graphDb,
             boolean includeLogicalLogs, StoreWriter writer )
+    {
+        return rotateLogsAndStreamStoreFiles( graphDb, includeLogicalLogs, writer, new IoThrottle( 0 ) );
+    }
+
+    /**
+     * Like {@link #rotateLogsAndStreamStoreFiles(GraphDatabaseAPI, boolean, StoreWriter)},
+     * but reads the store files no faster than {@code throttle} allows.
+     */
+    public static RequestContext rotateLogsAndStreamStoreFiles( GraphDatabaseAPI graphDb,
+            boolean includeLogicalLogs, StoreWriter writer, IoThrottle throttle )
     {
         File baseDir = getBaseDir( graphDb );
         XaDataSourceManager dsManager =
@@ -143,7 +153,8 @@ public class ServerUtil
                         FileInputStream stream = new FileInputStream( storefile );
                         try
                         {
-                            writer.write( relativePath( baseDir, storefile ), stream.getChannel(), temporaryBuffer,
+                            writer.write( relativePath( baseDir, storefile ),
+                                    throttle.throttle( stream.getChannel() ), temporaryBuffer,
                                     storefile.length() > 0 );
                         }
                         finally
@@ -394,22 +405,7 @@ public class ServerUtil
     {
         try
         {
-            for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
-            {
-                String resourceName = tx.first();
-                XaDataSource dataSource = xaDsm.getXaDataSource( resourceName );
-                txHandler.accept( tx, dataSource );
-                ReadableByteChannel txStream = tx.third().extract();
-                try
-                {
-                    dataSource.applyCommittedTransaction( tx.second(), txStream );
-                }
-                finally
-                {
-                    txStream.close();
-                }
-            }
-            txHandler.done();
+            applyReceivedTransactions( IteratorUtil.asIterable( response.transactions() ), xaDsm, txHandler );
         }
         finally
         {
@@ -417,6 +413,27 @@ public class ServerUtil
         }
     }
 
+    public static void applyReceivedTransactions( Iterable<Triplet<String, Long, TxExtractor>> transactions,
+            XaDataSourceManager xaDsm, TxHandler txHandler ) throws IOException
+    {
+        for ( Triplet<String, Long, TxExtractor> tx : transactions )
+        {
+            String resourceName = tx.first();
+            XaDataSource dataSource = xaDsm.getXaDataSource( resourceName );
+            txHandler.accept( tx, dataSource );
+            ReadableByteChannel txStream = tx.third().extract();
+            try
+            {
+                dataSource.applyCommittedTransaction( tx.second(), txStream );
+            }
+            finally
+            {
+                txStream.close();
+            }
+        }
+        txHandler.done();
+    }
+
     public static RequestContext onlyIncludeResource( RequestContext context, XaDataSourceManager dataSources, String resource )
     {
         return onlyIncludeResource( context, dataSources.getXaDataSource( resource ) );
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource.LOGICAL_LOG_DEFAULT_NAME;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.transaction.xa.Xid;
+
+import org.neo4j.helpers.Triplet;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.DefaultIdGeneratorFactory;
+import org.neo4j.kernel.DefaultTxHook;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.nioneo.store.DefaultWindowPoolFactory;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
+import org.neo4j.kernel.impl.nioneo.xa.Command;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Applies the transactions of a {@link Response} directly to the record stores of a copied store, without
+ * starting a database on it. Used after a store copy, where the transactions committed while the files were
+ * being copied need to be applied on top of them.
+ *
+ * Only transactions for the {@link Config#DEFAULT_DATA_SOURCE_NAME neo store} are applied. They are also
+ * written to a new logical log version, so that the copy can serve them to others later on. Transactions for
+ * other data sources need a running data source to be applied and are handed back to the caller.
+ */
+public class StandaloneTransactionApplier
+{
+    private final File storeDir;
+    private final Config config;
+    private final StringLogger logger;
+
+    public StandaloneTransactionApplier( File storeDir, Config config, StringLogger logger )
+    {
+        this.storeDir = storeDir;
+        this.config = config;
+        this.logger = logger;
+    }
+
+    /**
+     * Applies the neo store transactions of the response and closes it.
+     *
+     * @return transactions for other data sources, read into memory, in the order they were received.
+     */
+    public List<Triplet<String, Long, TxExtractor>> applyTransactions( Response<?> response ) throws IOException
+    {
+        List<Triplet<String, Long, TxExtractor>> others = new ArrayList<Triplet<String, Long, TxExtractor>>();
+        NeoStore neoStore = null;
+        FileChannel log = null;
+        ByteBuffer scratch = ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 );
+        long lastAppliedTx = -1;
+        try
+        {
+            for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
+            {
+                byte[] data = readFully( tx.third().extract() );
+                if ( !Config.DEFAULT_DATA_SOURCE_NAME.equals( tx.first() ) )
+                {
+                    others.add( Triplet.of( tx.first(), tx.second(), TxExtractor.create(
+                            Channels.newChannel( new ByteArrayInputStream( data ) ) ) ) );
+                    continue;
+                }
+
+                if ( neoStore == null )
+                {
+                    neoStore = openNeoStore();
+                    log = createLogicalLog( neoStore, tx.second() - 1, scratch );
+                }
+                log.write( ByteBuffer.wrap( data ) );
+                applyCommands( neoStore, data, scratch );
+                lastAppliedTx = tx.second();
+            }
+        }
+        finally
+        {
+            // Whatever fails in here, the store still has to be closed
+            try
+            {
+                response.close();
+                if ( log != null )
+                {
+                    try
+                    {
+                        log.force( false );
+                    }
+                    finally
+                    {
+                        log.close();
+                    }
+                }
+            }
+            finally
+            {
+                if ( neoStore != null )
+                {
+                    try
+                    {
+                        if ( lastAppliedTx != -1 )
+                        {
+                            neoStore.setLastCommittedTx( lastAppliedTx );
+                        }
+                        // Rebuilds the id generators, since the high ids have moved
+                        neoStore.makeStoreOk();
+                    }
+                    finally
+                    {
+                        neoStore.close();
+                    }
+                }
+            }
+        }
+        if ( lastAppliedTx != -1 )
+        {
+            logger.logMessage( "Applied transactions up to " + lastAppliedTx + " directly to " + storeDir );
+        }
+        return others;
+    }
+
+    private NeoStore openNeoStore()
+    {
+        StoreFactory factory = new StoreFactory( config, new DefaultIdGeneratorFactory(),
+                new DefaultWindowPoolFactory(), new DefaultFileSystemAbstraction(), logger, new DefaultTxHook() );
+        NeoStore neoStore = factory.newNeoStore( new File( storeDir, NeoStore.DEFAULT_NAME ).getAbsolutePath() );
+        // Makes the stores keep track of high ids as records are written, just like during recovery
+        neoStore.setRecoveredStatus( true );
+        return neoStore;
+    }
+
+    /**
+     * Creates the logical log for the current log version of the store, as an archived log, and moves
+     * the store on to the next log version.
+     */
+    private FileChannel createLogicalLog( NeoStore neoStore, long previousTxId, ByteBuffer scratch )
+            throws IOException
+    {
+        long version = neoStore.getVersion();
+        FileChannel log = new RandomAccessFile( new File( storeDir, LOGICAL_LOG_DEFAULT_NAME + ".v" + version ),
+                "rw" ).getChannel();
+        log.truncate( 0 );
+        scratch.clear();
+        // scratch buffer is flipped by writeLogHeader
+        log.write( LogIoUtils.writeLogHeader( scratch, version, previousTxId ) );
+        neoStore.setVersion( version + 1 );
+        return log;
+    }
+
+    private void applyCommands( final NeoStore neoStore, byte[] data, ByteBuffer scratch ) throws IOException
+    {
+        ReadableByteChannel channel = Channels.newChannel( new ByteArrayInputStream( data ) );
+        XaCommandFactory commandFactory = new XaCommandFactory()
+        {
+            @Override
+            public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
+            {
+                return Command.readCommand( neoStore, byteChannel, buffer );
+            }
+        };
+        for ( LogEntry entry; (entry = LogIoUtils.readEntry( scratch, channel, commandFactory )) != null; )
+        {
+            if ( entry instanceof LogEntry.Command )
+            {
+                ((LogEntry.Command) entry).getXaCommand().execute();
+            }
+        }
+    }
+
+    private static byte[] readFully( ReadableByteChannel channel ) throws IOException
+    {
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( 8 * 1024 );
+            while ( channel.read( buffer ) >= 0 )
+            {
+                if ( !buffer.hasRemaining() )
+                {
+                    ByteBuffer bigger = ByteBuffer.allocate( buffer.capacity() * 2 );
+                    buffer.flip();
+                    bigger.put( buffer );
+                    buffer = bigger;
+                }
+            }
+            return Arrays.copyOf( buffer.array(), buffer.position() );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.com.Protocol.readString;
+import static org.neo4j.com.Protocol.writeString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Per block checksums of a store segment an instance already has. Sent along
+ * with a request for that segment so that the serving side can leave out the
+ * blocks which are already present on the receiving side, see {@link DeltaStoreWriter}
+ * and {@link DeltaToFileStoreWriter}. Checksums are sent one segment at a time,
+ * so that a request stays small however large the store is.
+ */
+public class StoreChecksums
+{
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    static final int CONTENT_DIGEST_LENGTH = 16;
+
+    private final int blockSize;
+    private final Map<String, long[]> files;
+
+    private StoreChecksums( int blockSize, Map<String, long[]> files )
+    {
+        this.blockSize = blockSize;
+        this.files = files;
+    }
+
+    public static StoreChecksums empty( int blockSize )
+    {
+        return new StoreChecksums( blockSize, Collections.<String, long[]>emptyMap() );
+    }
+
+    /**
+     * Calculates the block checksums of the range of {@code segment} in the file
+     * with the same path in {@code directory}. Blocks are counted from the start of
+     * the segment. There are checksums for fewer blocks, or none, if the file is
+     * shorter than the segment or doesn't exist.
+     */
+    public static StoreChecksums forSegment( File directory, StoreCopyManifest.Segment segment, int blockSize )
+            throws IOException
+    {
+        File file = new File( directory, segment.getPath() );
+        long available = Math.min( segment.getLength(), file.length() - segment.getOffset() );
+        if ( !file.isFile() || available <= 0 )
+        {
+            return empty( blockSize );
+        }
+        long[] blocks = new long[(int) ((available + blockSize - 1) / blockSize)];
+        byte[] block = new byte[blockSize];
+        Digest digest = new Digest();
+        FileInputStream input = new FileInputStream( file );
+        try
+        {
+            input.getChannel().position( segment.getOffset() );
+            for ( int i = 0; i < blocks.length; i++ )
+            {
+                int length = readBlock( input, block, (int) Math.min( blockSize, available - (long) i * blockSize ) );
+                digest.reset();
+                digest.update( block, 0, length );
+                blocks[i] = digest.value();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        return new StoreChecksums( blockSize, Collections.singletonMap( segment.getPath(), blocks ) );
+    }
+
+    /**
+     * @return a new digest for verifying a whole file, or segment, after it has been
+     * assembled from blocks. Unlike the block checksums it's a cryptographic hash, so
+     * that blocks which were wrongly taken to be unchanged are detected.
+     */
+    static MessageDigest contentDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "MD5 is supported by every JVM", e );
+        }
+    }
+
+    private static int readBlock( InputStream input, byte[] block, int max ) throws IOException
+    {
+        int length = 0;
+        int read;
+        while ( length < max && (read = input.read( block, length, max - length )) >= 0 )
+        {
+            length += read;
+        }
+        return length;
+    }
+
+    public int blockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * @return the block checksums of the file at {@code path}, or {@code null}
+     * if the file isn't present.
+     */
+    public long[] blocksOf( String path )
+    {
+        return files.get( path );
+    }
+
+    public boolean isEmpty()
+    {
+        return files.isEmpty();
+    }
+
+    public void write( ChannelBuffer buffer )
+    {
+        buffer.writeInt( blockSize );
+        buffer.writeInt( files.size() );
+        for ( Map.Entry<String, long[]> file : files.entrySet() )
+        {
+            writeString( buffer, file.getKey() );
+            long[] blocks = file.getValue();
+            buffer.writeInt( blocks.length );
+            for ( long block : blocks )
+            {
+                buffer.writeLong( block );
+            }
+        }
+    }
+
+    public static StoreChecksums read( ChannelBuffer buffer )
+    {
+        int blockSize = buffer.readInt();
+        int fileCount = buffer.readInt();
+        Map<String, long[]> files = new HashMap<String, long[]>();
+        for ( int i = 0; i < fileCount; i++ )
+        {
+            String path = readString( buffer );
+            long[] blocks = new long[buffer.readInt()];
+            for ( int j = 0; j < blocks.length; j++ )
+            {
+                blocks[j] = buffer.readLong();
+            }
+            files.put( path, blocks );
+        }
+        return new StoreChecksums( blockSize, files );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StoreChecksums[blockSize:" + blockSize + ", files:" + files.size() + "]";
+    }
+
+    /**
+     * A 64 bit checksum made up of a CRC32 and an Adler32, used for finding the
+     * blocks which are likely unchanged. It's cheap to calculate, but not strong
+     * enough to be trusted on its own, see {@link #contentDigest()}.
+     */
+    public static class Digest
+    {
+        private final CRC32 crc = new CRC32();
+        private final Adler32 adler = new Adler32();
+
+        public void update( byte[] data, int offset, int length )
+        {
+            crc.update( data, offset, length );
+            adler.update( data, offset, length );
+        }
+
+        public long value()
+        {
+            return (crc.getValue() << 32) | adler.getValue();
+        }
+
+        public void reset()
+        {
+            crc.reset();
+            adler.reset();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.com.Protocol.readString;
+import static org.neo4j.com.Protocol.writeString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+
+/**
+ * Lists the segments, i.e. file ranges, that make up a store copy served by
+ * {@link StoreCopySessions}. Segments can be fetched independently of each
+ * other, over several channels at once. The receiving side keeps the manifest
+ * on disk together with a log of completed segments so that an interrupted
+ * copy can be resumed from where it was, see {@link #writeTo(File)} and
+ * {@link #segmentCompleted(File, int)}. The manifest records the id of the
+ * store it was made from, so that a resumed copy can tell whether the segments
+ * it already has still belong to the store being served.
+ */
+public class StoreCopyManifest
+{
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final long sessionId;
+    private final StoreId storeId;
+    private final List<Segment> segments;
+
+    public StoreCopyManifest( long sessionId, StoreId storeId, List<Segment> segments )
+    {
+        this.sessionId = sessionId;
+        this.storeId = storeId;
+        this.segments = Collections.unmodifiableList( segments );
+    }
+
+    public long getSessionId()
+    {
+        return sessionId;
+    }
+
+    public StoreId getStoreId()
+    {
+        return storeId;
+    }
+
+    public List<Segment> getSegments()
+    {
+        return segments;
+    }
+
+    public long getTotalBytes()
+    {
+        long result = 0;
+        for ( Segment segment : segments )
+        {
+            result += segment.getLength();
+        }
+        return result;
+    }
+
+    public void write( ChannelBuffer buffer )
+    {
+        buffer.writeLong( sessionId );
+        buffer.writeLong( storeId.getCreationTime() );
+        buffer.writeLong( storeId.getRandomId() );
+        buffer.writeLong( storeId.getStoreVersion() );
+        buffer.writeInt( segments.size() );
+        for ( Segment segment : segments )
+        {
+            writeString( buffer, segment.getPath() );
+            buffer.writeLong( segment.getOffset() );
+            buffer.writeLong( segment.getLength() );
+        }
+    }
+
+    public static StoreCopyManifest read( ChannelBuffer buffer )
+    {
+        long sessionId = buffer.readLong();
+        StoreId storeId = new StoreId( buffer.readLong(), buffer.readLong(), buffer.readLong() );
+        int count = buffer.readInt();
+        List<Segment> segments = new ArrayList<Segment>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            segments.add( new Segment( readString( buffer ), buffer.readLong(), buffer.readLong() ) );
+        }
+        return new StoreCopyManifest( sessionId, storeId, segments );
+    }
+
+    public void writeTo( File file ) throws IOException
+    {
+        File tempFile = new File( file.getPath() + ".tmp" );
+        DataOutputStream output = new DataOutputStream( new FileOutputStream( tempFile ) );
+        try
+        {
+            output.writeLong( sessionId );
+            output.writeLong( storeId.getCreationTime() );
+            output.writeLong( storeId.getRandomId() );
+            output.writeLong( storeId.getStoreVersion() );
+            output.writeInt( segments.size() );
+            for ( Segment segment : segments )
+            {
+                output.writeUTF( segment.getPath() );
+                output.writeLong( segment.getOffset() );
+                output.writeLong( segment.getLength() );
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+        if ( !tempFile.renameTo( file ) )
+        {
+            throw new IOException( "Couldn't rename " + tempFile + " to " + file );
+        }
+    }
+
+    public static StoreCopyManifest readFrom( File file ) throws IOException
+    {
+        DataInputStream input = new DataInputStream( new FileInputStream( file ) );
+        try
+        {
+            long sessionId = input.readLong();
+            StoreId storeId = new StoreId( input.readLong(), input.readLong(), input.readLong() );
+            int count = input.readInt();
+            List<Segment> segments = new ArrayList<Segment>( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                segments.add( new Segment( input.readUTF(), input.readLong(), input.readLong() ) );
+            }
+            return new StoreCopyManifest( sessionId, storeId, segments );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Records that the segment with the given index has been completely written,
+     * by appending it to the progress log {@code file}.
+     */
+    public static synchronized void segmentCompleted( File file, int index ) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream( new FileOutputStream( file, true ) );
+        try
+        {
+            output.writeInt( index );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * @return the indexes of the segments recorded in the progress log {@code file}.
+     * A partially written trailing entry is ignored.
+     */
+    public static BitSet completedSegments( File file ) throws IOException
+    {
+        BitSet result = new BitSet();
+        if ( !file.exists() )
+        {
+            return result;
+        }
+        DataInputStream input = new DataInputStream( new FileInputStream( file ) );
+        try
+        {
+            while ( true )
+            {
+                result.set( input.readInt() );
+            }
+        }
+        catch ( EOFException e )
+        {
+            return result;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StoreCopyManifest[session:" + sessionId + ", store:" + storeId + ", segments:" + segments.size() + "]";
+    }
+
+    public static class Segment
+    {
+        private final String path;
+        private final long offset;
+        private final long length;
+
+        public Segment( String path, long offset, long length )
+        {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return path + "[" + offset + "+" + length + "]";
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.com.StoreCopyManifest.Segment;
+import org.neo4j.helpers.collection.ClosableIterable;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * The serving side of a segmented store copy. {@link #open(GraphDatabaseAPI, boolean, long)}
+ * rotates the logs, like {@link ServerUtil#rotateLogsAndStreamStoreFiles(GraphDatabaseAPI, boolean, StoreWriter)}
+ * does, and keeps the store file listings open until the session is finished or
+ * has been idle for too long. That keeps files which a data source would otherwise
+ * remove, f.ex. merged lucene segments, around while the segments are fetched.
+ * Finishing a session hands back the context of the log rotation, from which the
+ * transactions committed during the copy should be sent.
+ */
+public class StoreCopySessions
+{
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+    private final AtomicLong nextSessionId = new AtomicLong( System.currentTimeMillis() );
+    private final IoThrottle throttle;
+
+    public StoreCopySessions()
+    {
+        this( new IoThrottle( 0 ) );
+    }
+
+    /**
+     * @param throttle limits the rate at which store files are read when serving segments.
+     */
+    public StoreCopySessions( IoThrottle throttle )
+    {
+        this.throttle = throttle;
+    }
+
+    public StoreCopyManifest open( GraphDatabaseAPI graphDb, boolean includeLogicalLogs, long segmentSize )
+    {
+        File baseDir = ServerUtil.getBaseDir( graphDb );
+        Session session = new Session( RequestContext.anonymous( ServerUtil.rotateLogs( graphDb ) ) );
+        List<Segment> segments = new ArrayList<Segment>();
+        try
+        {
+            for ( XaDataSource ds : graphDb.getXaDataSourceManager().getAllRegisteredDataSources() )
+            {
+                ClosableIterable<File> files = ds.listStoreFiles( includeLogicalLogs );
+                session.listings.add( files );
+                for ( File file : files )
+                {
+                    String path = ServerUtil.relativePath( baseDir, file );
+                    session.files.put( path, file );
+                    long length = file.length();
+                    long offset = 0;
+                    do
+                    {
+                        segments.add( new Segment( path, offset, Math.min( segmentSize, length - offset ) ) );
+                        offset += segmentSize;
+                    }
+                    while ( offset < length );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            session.close();
+            throw new ServerFailureException( e );
+        }
+        long sessionId = nextSessionId.incrementAndGet();
+        sessions.put( sessionId, session );
+        return new StoreCopyManifest( sessionId, graphDb.getStoreId(), segments );
+    }
+
+    /**
+     * Streams one segment of a store copy session to {@code writer}.
+     *
+     * @return {@code false} if there's no such session, f.ex. if it has expired.
+     */
+    public boolean streamSegment( long sessionId, Segment segment, StoreWriter writer )
+    {
+        Session session = sessions.get( sessionId );
+        if ( session == null )
+        {
+            // End the (empty) file stream so that the response can still be read
+            writer.done();
+            return false;
+        }
+        session.touch();
+        File file = session.files.get( segment.getPath() );
+        if ( file == null )
+        {
+            throw new IllegalArgumentException( segment.getPath() + " isn't part of store copy session " +
+                    sessionId );
+        }
+        try
+        {
+            FileInputStream stream = new FileInputStream( file );
+            try
+            {
+                FileChannel channel = stream.getChannel();
+                channel.position( segment.getOffset() );
+                writer.write( segment.getPath(),
+                        throttle.throttle( new RangeChannel( channel, segment.getLength() ) ),
+                        ByteBuffer.allocate( 64 * 1024 ), segment.getLength() > 0 );
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new ServerFailureException( e );
+        }
+        writer.done();
+        session.touch();
+        return true;
+    }
+
+    /**
+     * Ends a session and releases the store file listings it held.
+     *
+     * @return the context of the log rotation done when the session was opened,
+     * or {@code null} if there's no such session.
+     */
+    public RequestContext finish( long sessionId )
+    {
+        Session session = sessions.remove( sessionId );
+        if ( session == null )
+        {
+            return null;
+        }
+        session.close();
+        return session.context;
+    }
+
+    public void closeIdle( long maxIdleMillis )
+    {
+        long now = System.currentTimeMillis();
+        for ( Map.Entry<Long, Session> entry : sessions.entrySet() )
+        {
+            if ( now - entry.getValue().lastActivity > maxIdleMillis )
+            {
+                finish( entry.getKey() );
+            }
+        }
+    }
+
+    public void closeAll()
+    {
+        for ( Long sessionId : sessions.keySet() )
+        {
+            finish( sessionId );
+        }
+    }
+
+    public int getOpenSessions()
+    {
+        return sessions.size();
+    }
+
+    private static class Session
+    {
+        private final RequestContext context;
+        private final List<ClosableIterable<File>> listings = new ArrayList<ClosableIterable<File>>();
+        private final Map<String, File> files = new HashMap<String, File>();
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        Session( RequestContext context )
+        {
+            this.context = context;
+        }
+
+        void touch()
+        {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        void close()
+        {
+            for ( ClosableIterable<File> listing : listings )
+            {
+                listing.close();
+            }
+        }
+    }
+
+    /**
+     * Exposes at most {@code length} bytes from the current position of a channel.
+     */
+    private static class RangeChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel source;
+        private long remaining;
+
+        RangeChannel( ReadableByteChannel source, long length )
+        {
+            this.source = source;
+            this.remaining = length;
+        }
+
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                return -1;
+            }
+            int limit = dst.limit();
+            dst.limit( dst.position() + (int) Math.min( dst.remaining(), remaining ) );
+            try
+            {
+                int read = source.read( dst );
+                if ( read > 0 )
+                {
+                    remaining -= read;
+                }
+                return read;
+            }
+            finally
+            {
+                dst.limit( limit );
+            }
+        }
+
+        public boolean isOpen()
+        {
+            return source.isOpen();
+        }
+
+        public void close() throws IOException
+        {
+            // The source channel is owned by the caller
+        }
+    }
+}
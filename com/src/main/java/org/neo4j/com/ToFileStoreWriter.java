@@ -29,10 +29,30 @@ import java.nio.channels.ReadableByteChannel;
 public class ToFileStoreWriter implements StoreWriter
 {
     private final File basePath;
+    private final long offset;
+    private final boolean force;
 
     public ToFileStoreWriter( File graphDbStoreDir )
+    {
+        this( graphDbStoreDir, 0, false );
+    }
+
+    /**
+     * Writes the received data starting at {@code offset} into the files,
+     * for receiving a {@link StoreCopyManifest.Segment}. The data is forced to
+     * disk before {@link #write(String, ReadableByteChannel, ByteBuffer, boolean)}
+     * returns, so that the segment can be recorded as completed afterwards.
+     */
+    public ToFileStoreWriter( File graphDbStoreDir, long offset )
+    {
+        this( graphDbStoreDir, offset, true );
+    }
+
+    private ToFileStoreWriter( File graphDbStoreDir, long offset, boolean force )
     {
         this.basePath = graphDbStoreDir;
+        this.offset = offset;
+        this.force = force;
     }
 
     public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
@@ -50,12 +70,17 @@ public class ToFileStoreWriter implements StoreWriter
                 if ( hasData )
                 {
                     FileChannel channel = randomAccessFile.getChannel();
+                    channel.position( offset );
                     while ( data.read( temporaryBuffer ) >= 0 )
                     {
                         temporaryBuffer.flip();
                         channel.write( temporaryBuffer );
                         temporaryBuffer.clear();
                     }
+                    if ( force )
+                    {
+                        channel.force( false );
+                    }
                 }
             }
             finally
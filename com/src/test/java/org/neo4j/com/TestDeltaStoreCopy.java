@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestDeltaStoreCopy
+{
+    private static final int BLOCK_SIZE = 1024;
+    private File source;
+    private File basis;
+    private File target;
+
+    @Before
+    public void createDirectories() throws IOException
+    {
+        File root = new File( "target/test-data/delta-store-copy" );
+        FileUtils.deleteRecursively( root );
+        source = new File( root, "source" );
+        basis = new File( root, "basis" );
+        target = new File( root, "target" );
+        source.mkdirs();
+        basis.mkdirs();
+        target.mkdirs();
+    }
+
+    @Test
+    public void onlyChangedBlocksAreTransferred() throws Exception
+    {
+        byte[] data = randomBytes( BLOCK_SIZE * 10 + 100 );
+        writeFile( new File( basis, "neostore" ), data );
+        data[BLOCK_SIZE * 3 + 5]++;
+        byte[] grown = new byte[data.length + BLOCK_SIZE];
+        System.arraycopy( data, 0, grown, 0, data.length );
+        writeFile( new File( source, "neostore" ), grown );
+        writeFile( new File( source, "neostore.nodestore.db" ), new byte[0] );
+
+        StoreChecksums checksums = StoreChecksums.forSegment( basis,
+                new StoreCopyManifest.Segment( "neostore", 0, grown.length ), BLOCK_SIZE );
+        DeltaToFileStoreWriter receiver = new DeltaToFileStoreWriter( target, basis, checksums.blockSize() );
+        DeltaStoreWriter sender = new DeltaStoreWriter( receiver, checksums );
+        copy( sender, "neostore", "neostore.nodestore.db" );
+
+        assertArrayEquals( grown, readFile( new File( target, "neostore" ) ) );
+        assertEquals( 0, new File( target, "neostore.nodestore.db" ).length() );
+        // The changed block, the partial block which was extended and the new partial one
+        long changed = BLOCK_SIZE * 2 + 100;
+        assertEquals( changed, sender.getTransferredBytes() );
+        assertEquals( changed, receiver.getReceivedBytes() );
+        assertEquals( grown.length - changed, receiver.getReusedBytes() );
+    }
+
+    @Test
+    public void basisChangedAfterChecksummingFailsVerification() throws Exception
+    {
+        byte[] data = randomBytes( BLOCK_SIZE * 4 );
+        writeFile( new File( basis, "neostore" ), data );
+        writeFile( new File( source, "neostore" ), data );
+        StoreChecksums checksums = StoreChecksums.forSegment( basis,
+                new StoreCopyManifest.Segment( "neostore", 0, data.length ), BLOCK_SIZE );
+
+        RandomAccessFile file = new RandomAccessFile( new File( basis, "neostore" ), "rw" );
+        file.seek( BLOCK_SIZE );
+        file.write( data[BLOCK_SIZE] + 1 );
+        file.close();
+
+        try
+        {
+            copy( new DeltaStoreWriter( new DeltaToFileStoreWriter( target, basis, BLOCK_SIZE ), checksums ),
+                    "neostore" );
+            fail( "Should have detected the mismatch" );
+        }
+        catch ( IOException e )
+        {   // Good
+        }
+    }
+
+    @Test
+    public void segmentIsCopiedAsDeltaAgainstTheSameRangeOfTheBasis() throws Exception
+    {
+        byte[] data = randomBytes( BLOCK_SIZE * 10 );
+        writeFile( new File( basis, "neostore" ), data );
+        byte[] changed = data.clone();
+        changed[BLOCK_SIZE * 2 + 1]++;
+        changed[BLOCK_SIZE * 7 + 1]++;
+        StoreCopyManifest.Segment segment = new StoreCopyManifest.Segment( "neostore", BLOCK_SIZE * 5,
+                BLOCK_SIZE * 5 );
+        StoreChecksums checksums = StoreChecksums.forSegment( basis, segment, BLOCK_SIZE );
+        assertEquals( 5, checksums.blocksOf( "neostore" ).length );
+
+        DeltaToFileStoreWriter receiver = new DeltaToFileStoreWriter( target, basis, BLOCK_SIZE,
+                segment.getOffset() );
+        DeltaStoreWriter sender = new DeltaStoreWriter( receiver, checksums );
+        byte[] range = Arrays.copyOfRange( changed, (int) segment.getOffset(),
+                (int) (segment.getOffset() + segment.getLength()) );
+        sender.write( "neostore", Channels.newChannel( new ByteArrayInputStream( range ) ),
+                ByteBuffer.allocate( 1024 ), true );
+
+        byte[] written = readFile( new File( target, "neostore" ) );
+        assertEquals( segment.getOffset() + segment.getLength(), written.length );
+        assertArrayEquals( range, Arrays.copyOfRange( written, (int) segment.getOffset(), written.length ) );
+        // Only the changed block within the segment
+        assertEquals( BLOCK_SIZE, sender.getTransferredBytes() );
+        assertEquals( BLOCK_SIZE * 4, receiver.getReusedBytes() );
+    }
+
+    @Test
+    public void checksumsOfMissingFileOrRangeAreEmpty() throws Exception
+    {
+        writeFile( new File( basis, "neostore" ), randomBytes( BLOCK_SIZE ) );
+        assertNull( StoreChecksums.forSegment( basis,
+                new StoreCopyManifest.Segment( "neostore.nodestore.db", 0, BLOCK_SIZE ), BLOCK_SIZE )
+                .blocksOf( "neostore.nodestore.db" ) );
+        assertNull( StoreChecksums.forSegment( basis,
+                new StoreCopyManifest.Segment( "neostore", BLOCK_SIZE, BLOCK_SIZE ), BLOCK_SIZE )
+                .blocksOf( "neostore" ) );
+    }
+
+    private void copy( StoreWriter writer, String... paths ) throws IOException
+    {
+        ByteBuffer temporaryBuffer = ByteBuffer.allocate( 1024 );
+        for ( String path : paths )
+        {
+            File file = new File( source, path );
+            FileInputStream input = new FileInputStream( file );
+            try
+            {
+                ReadableByteChannel channel = input.getChannel();
+                writer.write( path, channel, temporaryBuffer, file.length() > 0 );
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        writer.done();
+    }
+
+    private static byte[] randomBytes( int length )
+    {
+        byte[] result = new byte[length];
+        new Random( 1234 ).nextBytes( result );
+        return result;
+    }
+
+    private static void writeFile( File file, byte[] data ) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream( file );
+        try
+        {
+            output.write( data );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    private static byte[] readFile( File file ) throws IOException
+    {
+        byte[] result = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream( file );
+        try
+        {
+            int offset = 0;
+            while ( offset < result.length )
+            {
+                offset += input.read( result, offset, result.length - offset );
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestIoThrottle
+{
+    @Test
+    public void unlimitedThrottleNeverHoldsBack() throws Exception
+    {
+        IoThrottle throttle = new IoThrottle( 0 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            throttle.acquire( 1024 * 1024 );
+        }
+        assertEquals( 0, throttle.getThrottledMillis() );
+    }
+
+    @Test
+    public void holdsBackCallersGoingFasterThanTheRate() throws Exception
+    {
+        IoThrottle throttle = new IoThrottle( 1000 );
+        long start = System.currentTimeMillis();
+        throttle.acquire( 500 );
+        long time = System.currentTimeMillis() - start;
+        assertTrue( "Took only " + time + " ms", time >= 400 );
+        assertTrue( throttle.getThrottledMillis() >= 400 );
+    }
+
+    @Test
+    public void scaleLowersTheEffectiveRateButKeepsTheConfiguredOne() throws Exception
+    {
+        IoThrottle throttle = new IoThrottle( 1000 );
+        throttle.setScale( 0.5 );
+        assertEquals( 1000, throttle.getBytesPerSecond() );
+        assertEquals( 500, throttle.getEffectiveBytesPerSecond() );
+
+        throttle.setBytesPerSecond( 0 );
+        assertEquals( 0, throttle.getEffectiveBytesPerSecond() );
+    }
+
+    @Test
+    public void rateChangedAtRuntimeAppliesToTheNextCaller() throws Exception
+    {
+        IoThrottle throttle = new IoThrottle( 1000 );
+        throttle.acquire( 1000 );
+        throttle.setBytesPerSecond( 0 );
+        long start = System.currentTimeMillis();
+        throttle.acquire( 1000 * 1000 );
+        long time = System.currentTimeMillis() - start;
+        assertTrue( "Took " + time + " ms", time < 100 );
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource.LOGICAL_LOG_DEFAULT_NAME;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.configuration.ConfigurationDefaults;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.DbRepresentation;
+import org.neo4j.test.TargetDirectory;
+
+public class TestStandaloneTransactionApplier
+{
+    private final TargetDirectory directory = TargetDirectory.forTest( TestStandaloneTransactionApplier.class );
+    private File sourceDir;
+    private File standaloneDir;
+    private File embeddedDir;
+    private long copiedTx;
+    private long lastTx;
+    private long copiedLogVersion;
+
+    /**
+     * Creates a store, copies it like a store copy would, and then commits a batch of transactions to the
+     * original, which is what gets streamed to the copies in the tests.
+     */
+    @Before
+    public void copyStoreAndCommitMore() throws Exception
+    {
+        sourceDir = directory.directory( "source", true );
+        standaloneDir = directory.directory( "standalone", true );
+        embeddedDir = directory.directory( "embedded", true );
+
+        GraphDatabaseAPI source = startDb( sourceDir );
+        Transaction tx = source.beginTx();
+        source.createNode().setProperty( "name", "first" );
+        tx.success();
+        tx.finish();
+        source.shutdown();
+        FileUtils.copyDirectory( sourceDir, standaloneDir );
+        FileUtils.copyDirectory( sourceDir, embeddedDir );
+        copiedLogVersion = XaLogicalLog.getHighestHistoryLogVersion( standaloneDir, LOGICAL_LOG_DEFAULT_NAME ) + 1;
+
+        source = startDb( sourceDir );
+        copiedTx = neoStoreDataSource( source ).getLastCommittedTxId();
+        tx = source.beginTx();
+        Node alice = source.createNode();
+        alice.setProperty( "name", "alice" );
+        alice.setProperty( "age", 42 );
+        Node bob = source.createNode();
+        bob.setProperty( "name", "bob" );
+        bob.setProperty( "scores", new int[] { 1, 2, 3 } );
+        Node carol = source.createNode();
+        alice.createRelationshipTo( bob, DynamicRelationshipType.withName( "KNOWS" ) ).setProperty( "since", 2001 );
+        bob.createRelationshipTo( carol, DynamicRelationshipType.withName( "LIKES" ) );
+        tx.success();
+        tx.finish();
+
+        tx = source.beginTx();
+        long carolId = carol.getId();
+        for ( Relationship relationship : carol.getRelationships() )
+        {
+            relationship.delete();
+        }
+        carol.delete();
+        alice.removeProperty( "age" );
+        bob.setProperty( "name", "robert" );
+        tx.success();
+        tx.finish();
+
+        // Freed ids are handed out again after a restart
+        source.shutdown();
+        source = startDb( sourceDir );
+        tx = source.beginTx();
+        Node dave = source.createNode();
+        dave.setProperty( "name", "dave" );
+        assertEquals( carolId, dave.getId() );
+        source.getNodeById( alice.getId() ).createRelationshipTo( dave, DynamicRelationshipType.withName( "OWES" ) );
+        tx.success();
+        tx.finish();
+        lastTx = neoStoreDataSource( source ).getLastCommittedTxId();
+        source.shutdown();
+    }
+
+    @Test
+    public void appliedStoreIsTheSameAsWhenAppliedThroughADatabase() throws Exception
+    {
+        List<Triplet<String, Long, TxExtractor>> others = applyStandalone();
+        assertEquals( 0, others.size() );
+
+        GraphDatabaseAPI embedded = startDb( embeddedDir );
+        GraphDatabaseAPI source = startDb( sourceDir );
+        try
+        {
+            ServerUtil.applyReceivedTransactions( streamFrom( source ), embedded.getXaDataSourceManager(),
+                    ServerUtil.NO_ACTION );
+        }
+        finally
+        {
+            source.shutdown();
+        }
+        DbRepresentation expected = DbRepresentation.of( embedded );
+        embedded.shutdown();
+
+        GraphDatabaseAPI standalone = startDb( standaloneDir );
+        try
+        {
+            assertEquals( expected, DbRepresentation.of( standalone ) );
+        }
+        finally
+        {
+            standalone.shutdown();
+        }
+    }
+
+    @Test
+    public void recoveryDoesNotApplyTheTransactionsAgain() throws Exception
+    {
+        applyStandalone();
+        DbRepresentation expected = representationOf( sourceDir );
+
+        GraphDatabaseAPI standalone = startDb( standaloneDir );
+        long nextNodeId;
+        try
+        {
+            assertEquals( lastTx, neoStoreDataSource( standalone ).getLastCommittedTxId() );
+            assertEquals( expected, DbRepresentation.of( standalone ) );
+            nextNodeId = createNode( standalone );
+            assertEquals( lastTx + 1, neoStoreDataSource( standalone ).getLastCommittedTxId() );
+        }
+        finally
+        {
+            standalone.shutdown();
+        }
+
+        // The id generators were rebuilt, so new records don't overwrite applied ones
+        GraphDatabaseAPI source = startDb( sourceDir );
+        try
+        {
+            assertEquals( nextNodeId, createNode( source ) );
+        }
+        finally
+        {
+            source.shutdown();
+        }
+
+        standalone = startDb( standaloneDir );
+        try
+        {
+            assertEquals( lastTx + 1, neoStoreDataSource( standalone ).getLastCommittedTxId() );
+        }
+        finally
+        {
+            standalone.shutdown();
+        }
+    }
+
+    @Test
+    public void transactionsAreWrittenToTheNextLogVersion() throws Exception
+    {
+        applyStandalone();
+
+        assertEquals( copiedLogVersion, XaLogicalLog.getHighestHistoryLogVersion( standaloneDir,
+                LOGICAL_LOG_DEFAULT_NAME ) );
+        assertArrayEquals( new long[] { copiedLogVersion, copiedTx }, readLogHeader(
+                new File( standaloneDir, LOGICAL_LOG_DEFAULT_NAME + ".v" + copiedLogVersion ) ) );
+
+        GraphDatabaseAPI standalone = startDb( standaloneDir );
+        try
+        {
+            XaDataSource dataSource = neoStoreDataSource( standalone );
+            assertEquals( lastTx, dataSource.getLastCommittedTxId() );
+            assertEquals( copiedLogVersion + 1, dataSource.getCurrentLogVersion() );
+
+            // The copy can serve the applied transactions to others
+            List<Long> served = new ArrayList<Long>();
+            Response<Void> response = ServerUtil.getTransactions( standalone, Config.DEFAULT_DATA_SOURCE_NAME,
+                    copiedTx + 1, lastTx );
+            try
+            {
+                for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
+                {
+                    served.add( tx.second() );
+                }
+            }
+            finally
+            {
+                response.close();
+            }
+            assertEquals( lastTx - copiedTx, served.size() );
+            assertEquals( (Long) (copiedTx + 1), served.get( 0 ) );
+            assertEquals( (Long) lastTx, served.get( served.size() - 1 ) );
+        }
+        finally
+        {
+            standalone.shutdown();
+        }
+    }
+
+    private List<Triplet<String, Long, TxExtractor>> applyStandalone() throws IOException
+    {
+        Config config = new Config( new ConfigurationDefaults( GraphDatabaseSettings.class ).apply( stringMap() ) );
+        GraphDatabaseAPI source = startDb( sourceDir );
+        try
+        {
+            return new StandaloneTransactionApplier( standaloneDir, config, StringLogger.DEV_NULL )
+                    .applyTransactions( streamFrom( source ) );
+        }
+        finally
+        {
+            source.shutdown();
+        }
+    }
+
+    private Response<Void> streamFrom( GraphDatabaseAPI source )
+    {
+        assertTrue( lastTx > copiedTx + 1 );
+        return ServerUtil.getTransactions( source, Config.DEFAULT_DATA_SOURCE_NAME, copiedTx + 1, lastTx );
+    }
+
+    private static GraphDatabaseAPI startDb( File dir )
+    {
+        return (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( dir.getAbsolutePath() )
+                .setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+    }
+
+    private static DbRepresentation representationOf( File dir )
+    {
+        GraphDatabaseAPI db = startDb( dir );
+        try
+        {
+            return DbRepresentation.of( db );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static XaDataSource neoStoreDataSource( GraphDatabaseAPI db )
+    {
+        return db.getXaDataSourceManager().getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+    }
+
+    private static long createNode( GraphDatabaseService db )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            long id = db.createNode().getId();
+            tx.success();
+            return id;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private static long[] readLogHeader( File file ) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+        try
+        {
+            return LogIoUtils.readLogHeader( ByteBuffer.allocate( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 ),
+                    channel, true );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
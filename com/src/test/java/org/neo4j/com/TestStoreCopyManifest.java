@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.com.StoreCopyManifest.Segment;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestStoreCopyManifest
+{
+    private File directory;
+    private final StoreCopyManifest manifest = new StoreCopyManifest( 42, new StoreId( 1, 2, 3 ), Arrays.asList(
+            new Segment( "neostore", 0, 0 ),
+            new Segment( "neostore.nodestore.db", 0, 100 ),
+            new Segment( "neostore.nodestore.db", 100, 50 ) ) );
+
+    @Before
+    public void createDirectory() throws Exception
+    {
+        directory = new File( "target/test-data/store-copy-manifest" );
+        FileUtils.deleteRecursively( directory );
+        directory.mkdirs();
+    }
+
+    @Test
+    public void manifestSurvivesTheNetwork() throws Exception
+    {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        manifest.write( buffer );
+        assertSameAsManifest( StoreCopyManifest.read( buffer ) );
+    }
+
+    @Test
+    public void manifestSurvivesARestart() throws Exception
+    {
+        File file = new File( directory, "manifest" );
+        manifest.writeTo( file );
+        assertSameAsManifest( StoreCopyManifest.readFrom( file ) );
+    }
+
+    @Test
+    public void partiallyWrittenProgressEntryIsIgnored() throws Exception
+    {
+        File progress = new File( directory, "progress" );
+        assertTrue( StoreCopyManifest.completedSegments( progress ).isEmpty() );
+
+        StoreCopyManifest.segmentCompleted( progress, 2 );
+        StoreCopyManifest.segmentCompleted( progress, 0 );
+        FileOutputStream output = new FileOutputStream( progress, true );
+        output.write( new byte[] { 0, 0 } );
+        output.close();
+
+        BitSet completed = StoreCopyManifest.completedSegments( progress );
+        assertEquals( 2, completed.cardinality() );
+        assertTrue( completed.get( 0 ) );
+        assertFalse( completed.get( 1 ) );
+        assertTrue( completed.get( 2 ) );
+    }
+
+    private void assertSameAsManifest( StoreCopyManifest read )
+    {
+        assertEquals( manifest.getSessionId(), read.getSessionId() );
+        assertEquals( manifest.getStoreId(), read.getStoreId() );
+        assertEquals( manifest.getSegments().size(), read.getSegments().size() );
+        for ( int i = 0; i < manifest.getSegments().size(); i++ )
+        {
+            Segment expected = manifest.getSegments().get( i );
+            Segment actual = read.getSegments().get( i );
+            assertEquals( expected.getPath(), actual.getPath() );
+            assertEquals( expected.getOffset(), actual.getOffset() );
+            assertEquals( expected.getLength(), actual.getLength() );
+        }
+        assertEquals( 150, read.getTotalBytes() );
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.lang.management.ManagementFactory;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.neo4j.cluster.com.MessageCodec;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InstanceId;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Measures the CPU time and garbage of getting a learn message ready to be written to every other member of
+ * clusters of growing size, when encoding it once and sharing the buffer compared to encoding one message per
+ * member as before. Relies on the HotSpot per thread allocation counter.
+ */
+public class BroadcastEncodingBenchmark
+{
+    static final Setting<Long> iterations = integerSetting( "iterations", 100000 );
+    static final Setting<Long> payload_size = integerSetting( "payload_size", 1024 );
+    static final Setting<Long> max_cluster_size = integerSetting( "max_cluster_size", 17 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.BroadcastEncodingBenchmark
+     *    -iterations 100000 -payload_size 4096
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( BroadcastEncodingBenchmark.class ) )
+                .convert( args ) );
+    }
+
+    private static void run( Configuration configuration ) throws Exception
+    {
+        int count = configuration.get( iterations ).intValue();
+        MessageCodec codec = new MessageCodec( BroadcastEncodingBenchmark.class.getClassLoader() );
+        LearnerMessage.LearnState learnState = new LearnerMessage.LearnState( new Payload( new byte[configuration
+                .get( payload_size ).intValue()], configuration.get( payload_size ).intValue() ) );
+
+        System.out.println( String.format( "%8s %14s %14s %16s %16s", "members", "once ns", "each ns",
+                "once bytes", "each bytes" ) );
+        for ( int members = 3; members <= configuration.get( max_cluster_size ); members = members * 2 - 1 )
+        {
+            // Warm up both
+            measure( codec, learnState, members, count / 10, true );
+            measure( codec, learnState, members, count / 10, false );
+
+            long[] once = measure( codec, learnState, members, count, true );
+            long[] each = measure( codec, learnState, members, count, false );
+            System.out.println( String.format( "%8d %14d %14d %16d %16d", members, once[0], each[0], once[1],
+                    each[1] ) );
+        }
+    }
+
+    /**
+     * @return nanoseconds and bytes allocated per broadcast
+     */
+    private static long[] measure( MessageCodec codec, LearnerMessage.LearnState learnState, int members,
+                                   int count, boolean encodeOnce ) throws Exception
+    {
+        long readable = 0;
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( encodeOnce )
+            {
+                ChannelBuffer encoded = encode( codec, Message.broadcast( LearnerMessage.learn, learnState ), i );
+                for ( int member = 1; member < members; member++ )
+                {
+                    readable += encoded.duplicate().readableBytes();
+                }
+            }
+            else
+            {
+                for ( int member = 1; member < members; member++ )
+                {
+                    readable += encode( codec, Message.to( LearnerMessage.learn, "cluster://127.0.0.1:" + (5000 +
+                            member), learnState ), i ).readableBytes();
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytesBefore;
+        if ( readable == 0 )
+        {
+            throw new IllegalStateException( "Nothing was encoded" );
+        }
+        return new long[]{nanos / count, bytes / count};
+    }
+
+    private static ChannelBuffer encode( MessageCodec codec, Message<LearnerMessage> message, long instance )
+            throws Exception
+    {
+        message.setHeader( InstanceId.INSTANCE, Long.toString( instance ) );
+        message.setHeader( Message.FROM, "cluster://127.0.0.1:5000" );
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( 256 );
+        codec.encode( message, buffer );
+        return buffer;
+    }
+
+    private static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        return threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+}
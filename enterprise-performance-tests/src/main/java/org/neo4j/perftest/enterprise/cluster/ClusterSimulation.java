@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.booleanSetting;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.cluster.MultiPaxosServerFactory;
+import org.neo4j.cluster.ProtocolServer;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcast;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastListener;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastSerializer;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
+import org.neo4j.cluster.protocol.cluster.Cluster;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.protocol.cluster.ClusterListener;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
+import org.neo4j.cluster.protocol.heartbeat.PhiAccrualFailureDetector;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+import org.neo4j.cluster.timeout.MessageTimeoutStrategy;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Forms a cluster of {@link ProtocolServer}s on a {@link SimulatedCluster}, broadcasts values from one member at a
+ * fixed rate and then cuts the coordinator off from the others. Reports the heartbeat traffic of an idle cluster,
+ * broadcast throughput, the latency from broadcasting a value until the sender learns it, how long it takes the
+ * survivors to elect a new coordinator and how many messages of each type that took. Failures are detected with
+ * heartbeats between all members, or by gossip with -heartbeat_gossip. All times are simulated milliseconds,
+ * so a run is repeatable with the same seed and does not depend on the machine it runs on.
+ */
+public class ClusterSimulation
+{
+    static final Setting<Long> members = integerSetting( "members", 5 );
+    static final Setting<Long> values = integerSetting( "values", 5000 );
+    static final Setting<Long> rate = integerSetting( "rate", 1000 );
+    static final Setting<Long> min_latency = integerSetting( "min_latency", 1 );
+    static final Setting<Long> max_latency = integerSetting( "max_latency", 5 );
+    static final Setting<Long> loss_per_mille = integerSetting( "loss_per_mille", 0 );
+    static final Setting<Long> timeout = integerSetting( "timeout", 2000 );
+    static final Setting<Long> heartbeat_interval = integerSetting( "heartbeat_interval", 1000 );
+    static final Setting<Boolean> heartbeat_gossip = booleanSetting( "heartbeat_gossip", false );
+    static final Setting<Long> max_time = integerSetting( "max_time", 600000 );
+    static final Setting<Long> seed = integerSetting( "seed", 1337 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.ClusterSimulation
+     *    -members 5 -values 5000 -rate 1000 -min_latency 1 -max_latency 5 -loss_per_mille 0
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( ClusterSimulation.class ) ).convert( args ) );
+    }
+
+    private static void run( Configuration configuration )
+    {
+        long interval = configuration.get( heartbeat_interval );
+        long maxTime = configuration.get( max_time );
+        MessageTimeoutStrategy timeoutStrategy = new MessageTimeoutStrategy(
+                new FixedTimeoutStrategy( configuration.get( timeout ) ) )
+                .timeout( HeartbeatMessage.sendHeartbeat, interval )
+                .relativeTimeout( HeartbeatMessage.timed_out, HeartbeatMessage.sendHeartbeat, interval );
+        SimulatedCluster cluster = new SimulatedCluster(
+                new MultiPaxosServerFactory( new ClusterConfiguration( "default" ), SimulatedCluster.quietLogging(),
+                        ProposerContext.DEFAULT_MAX_BATCH_VALUES, ProposerContext.DEFAULT_MAX_BATCH_BYTES,
+                        ProposerContext.DEFAULT_MAX_CONCURRENT_INSTANCES, ProposerContext.DEFAULT_MAX_PENDING_VALUES,
+                        PhiAccrualFailureDetector.DEFAULT_THRESHOLD, configuration.get( heartbeat_gossip ) ),
+                timeoutStrategy, configuration.get( seed ), configuration.get( min_latency ),
+                configuration.get( max_latency ), configuration.get( loss_per_mille ).intValue() );
+
+        int count = configuration.get( values ).intValue();
+        Map<URI, Member> trackers = new LinkedHashMap<URI, Member>();
+        for ( int i = 1; i <= configuration.get( members ); i++ )
+        {
+            URI uri = URI.create( "cluster://server" + i );
+            ProtocolServer server = cluster.addMember( uri );
+            Member member = new Member( cluster, count );
+            server.newClient( Cluster.class ).addClusterListener( member );
+            server.newClient( AtomicBroadcast.class ).addAtomicBroadcastListener( member );
+            trackers.put( uri, member );
+        }
+
+        form( cluster, trackers.size(), maxTime );
+        cluster.run( interval * 2 );
+        idle( cluster, trackers.size(), interval * 10 );
+        broadcast( cluster, trackers, configuration.get( rate ), count, maxTime );
+        elect( cluster, trackers, maxTime );
+    }
+
+    private static void form( SimulatedCluster cluster, int memberCount, long maxTime )
+    {
+        long start = cluster.getCurrentTime();
+        cluster.form( "default", maxTime );
+        System.out.println( String.format( "%d members formed a cluster in %d ms", memberCount,
+                cluster.getCurrentTime() - start ) );
+    }
+
+    private static void idle( SimulatedCluster cluster, int memberCount, long duration )
+    {
+        cluster.resetCounts();
+        cluster.run( duration );
+        System.out.println();
+        System.out.println( String.format( "Idle for %d ms, %d messages per member and second", duration,
+                cluster.getSentMessages() * 1000 / (memberCount * duration) ) );
+        cluster.printMessageCounts( System.out );
+    }
+
+    private static void broadcast( SimulatedCluster cluster, Map<URI, Member> trackers, long rate, int count,
+                                   long maxTime )
+    {
+        cluster.resetCounts();
+        Member sender = trackers.values().iterator().next();
+        AtomicBroadcast broadcast = cluster.getMember( trackers.keySet().iterator().next() )
+                .newClient( AtomicBroadcast.class );
+        AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+
+        long start = cluster.getCurrentTime();
+        int next = 0;
+        while ( !allDelivered( trackers, count ) )
+        {
+            long elapsed = cluster.getCurrentTime() - start;
+            if ( elapsed > maxTime )
+            {
+                throw new IllegalStateException( "Not all values were delivered in " + maxTime + "ms" );
+            }
+            long due = rate == 0 ? count : Math.min( count, elapsed * rate / 1000 + 1 );
+            for ( ; next < due; next++ )
+            {
+                sender.sentAt[next] = cluster.getCurrentTime();
+                try
+                {
+                    broadcast.broadcast( serializer.broadcast( next ) );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+            cluster.tick();
+        }
+
+        long duration = Math.max( 1, cluster.getCurrentTime() - start );
+        long[] latencies = Arrays.copyOf( sender.latencies, count );
+        Arrays.sort( latencies );
+        System.out.println();
+        System.out.println( String.format( "%8s %12s %10s %8s %8s %8s %8s", "values", "duration ms", "values/s",
+                "p50 ms", "p90 ms", "p99 ms", "max ms" ) );
+        System.out.println( String.format( "%8d %12d %10d %8d %8d %8d %8d", count, duration, count * 1000L / duration,
+                percentile( latencies, 50 ), percentile( latencies, 90 ), percentile( latencies, 99 ),
+                latencies[count - 1] ) );
+        cluster.printMessageCounts( System.out );
+    }
+
+    private static void elect( SimulatedCluster cluster, Map<URI, Member> trackers, long maxTime )
+    {
+        cluster.resetCounts();
+        final URI failed = trackers.values().iterator().next().coordinator;
+        if ( failed == null )
+        {
+            throw new IllegalStateException( "The cluster has no coordinator to fail" );
+        }
+        final List<Member> survivors = new ArrayList<Member>();
+        for ( Map.Entry<URI, Member> tracker : trackers.entrySet() )
+        {
+            if ( !tracker.getKey().equals( failed ) )
+            {
+                survivors.add( tracker.getValue() );
+            }
+        }
+
+        long start = cluster.getCurrentTime();
+        cluster.partition( Collections.singleton( failed ) );
+        if ( !cluster.runUntil( new Predicate<SimulatedCluster>()
+        {
+            @Override
+            public boolean accept( SimulatedCluster item )
+            {
+                for ( Member survivor : survivors )
+                {
+                    if ( survivor.coordinator == null || survivor.coordinator.equals( failed ) )
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, maxTime ) )
+        {
+            throw new IllegalStateException( "No new coordinator was elected in " + maxTime + "ms" );
+        }
+
+        long elected = 0;
+        for ( Member survivor : survivors )
+        {
+            elected = Math.max( elected, survivor.electedAt );
+        }
+        System.out.println();
+        System.out.println( String.format( "Coordinator %s failed, %s was elected by all survivors in %d ms", failed,
+                survivors.get( 0 ).coordinator, elected - start ) );
+        cluster.printMessageCounts( System.out );
+    }
+
+    private static boolean allDelivered( Map<URI, Member> trackers, int count )
+    {
+        for ( Member member : trackers.values() )
+        {
+            if ( member.delivered < count )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long percentile( long[] sorted, int percentile )
+    {
+        int index = (int) Math.ceil( sorted.length * percentile / 100.0 ) - 1;
+        return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+    }
+
+    /**
+     * Tracks what one member has seen: the coordinator it knows of and the values delivered to it, and for the
+     * member that broadcasts, how long each value took.
+     */
+    private static class Member extends ClusterListener.Adapter implements AtomicBroadcastListener
+    {
+        private final SimulatedCluster cluster;
+        private final AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+        private final long[] sentAt;
+        private final long[] latencies;
+        private int delivered;
+        private URI coordinator;
+        private long electedAt;
+
+        Member( SimulatedCluster cluster, int count )
+        {
+            this.cluster = cluster;
+            this.sentAt = new long[count];
+            this.latencies = new long[count];
+        }
+
+        @Override
+        public void enteredCluster( ClusterConfiguration clusterConfiguration )
+        {
+            coordinator = clusterConfiguration.getElected( ClusterConfiguration.COORDINATOR );
+            electedAt = cluster.getCurrentTime();
+        }
+
+        @Override
+        public void elected( String role, URI electedMember )
+        {
+            if ( ClusterConfiguration.COORDINATOR.equals( role ) )
+            {
+                coordinator = electedMember;
+                electedAt = cluster.getCurrentTime();
+            }
+        }
+
+        @Override
+        public void receive( Payload payload )
+        {
+            Object value;
+            try
+            {
+                value = serializer.receive( payload );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+
+            // Cluster configuration changes are broadcast too, only count our own values
+            if ( value instanceof Integer )
+            {
+                int id = (Integer) value;
+                latencies[id] = cluster.getCurrentTime() - sentAt[id];
+                delivered++;
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.neo4j.cluster.MultiPaxosServerFactory;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.protocol.heartbeat.Heartbeat;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatListener;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
+import org.neo4j.cluster.protocol.heartbeat.PhiAccrualFailureDetector;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+import org.neo4j.cluster.timeout.MessageTimeoutStrategy;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Runs a cluster on a {@link SimulatedCluster}, once on a quiet network and once on a loaded one where latency
+ * varies more and members now and then stop for a GC pause, and compares the {@link PhiAccrualFailureDetector}
+ * with the fixed timeout of twice the heartbeat interval it replaces. Counts how often members that were only late
+ * were reported as failed, and then cuts one member off and measures how long it takes until every other member
+ * reports it as failed. All times are simulated milliseconds.
+ */
+public class FailureDetectionSimulation
+{
+    static final Setting<Long> members = integerSetting( "members", 5 );
+    static final Setting<Long> duration = integerSetting( "duration", 600000 );
+    static final Setting<Long> heartbeat_interval = integerSetting( "heartbeat_interval", 1000 );
+    static final Setting<Long> pause_per_mille = integerSetting( "pause_per_mille", 20 );
+    static final Setting<Long> max_pause = integerSetting( "max_pause", 1500 );
+    static final Setting<Long> max_time = integerSetting( "max_time", 600000 );
+    static final Setting<Long> seed = integerSetting( "seed", 1337 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.FailureDetectionSimulation
+     *    -members 5 -duration 600000 -pause_per_mille 20 -max_pause 1500
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( FailureDetectionSimulation.class ) )
+                .convert( args ) );
+    }
+
+    private static void run( Configuration configuration )
+    {
+        long interval = configuration.get( heartbeat_interval );
+        int pausePerMille = configuration.get( pause_per_mille ).intValue();
+
+        System.out.println( String.format( "%-8s %-6s %16s %14s", "network", "detect", "false failures",
+                "detection ms" ) );
+        simulate( configuration, "quiet", "fixed", 0, interval / 50, 0 );
+        simulate( configuration, "quiet", "phi", PhiAccrualFailureDetector.DEFAULT_THRESHOLD, interval / 50, 0 );
+        simulate( configuration, "loaded", "fixed", 0, interval / 5, pausePerMille );
+        simulate( configuration, "loaded", "phi", PhiAccrualFailureDetector.DEFAULT_THRESHOLD, interval / 5,
+                pausePerMille );
+    }
+
+    private static void simulate( Configuration configuration, String network, String detect, double phiThreshold,
+                                  long maxLatency, int pausePerMille )
+    {
+        long interval = configuration.get( heartbeat_interval );
+        long maxTime = configuration.get( max_time );
+        int maxPause = configuration.get( max_pause ).intValue();
+        // With fixed timeouts a member is suspected after twice the heartbeat interval
+        MessageTimeoutStrategy timeoutStrategy = new MessageTimeoutStrategy( new FixedTimeoutStrategy( interval * 2 ) )
+                .timeout( HeartbeatMessage.sendHeartbeat, interval )
+                .relativeTimeout( HeartbeatMessage.timed_out, HeartbeatMessage.sendHeartbeat, interval );
+        SimulatedCluster cluster = new SimulatedCluster(
+                new MultiPaxosServerFactory( new ClusterConfiguration( "default" ), SimulatedCluster.quietLogging(),
+                        ProposerContext.DEFAULT_MAX_BATCH_VALUES, ProposerContext.DEFAULT_MAX_BATCH_BYTES,
+                        ProposerContext.DEFAULT_MAX_CONCURRENT_INSTANCES, ProposerContext.DEFAULT_MAX_PENDING_VALUES,
+                        phiThreshold ),
+                timeoutStrategy, configuration.get( seed ), 1, maxLatency, 0 );
+
+        final List<Observer> observers = new ArrayList<Observer>();
+        for ( int i = 1; i <= configuration.get( members ); i++ )
+        {
+            Observer observer = new Observer( cluster );
+            cluster.addMember( URI.create( "cluster://server" + i ) ).newClient( Heartbeat.class )
+                    .addHeartbeatListener( observer );
+            observers.add( observer );
+        }
+        cluster.form( "default", maxTime );
+        cluster.run( interval * 10 );
+
+        // Only failures reported from here on are counted
+        for ( Observer observer : observers )
+        {
+            observer.falseFailures = 0;
+        }
+        Random random = new Random( configuration.get( seed ) );
+        List<URI> uris = new ArrayList<URI>( cluster.getMembers() );
+        long end = cluster.getCurrentTime() + configuration.get( duration );
+        while ( cluster.getCurrentTime() < end )
+        {
+            for ( URI uri : uris )
+            {
+                if ( random.nextInt( (int) (1000 * interval) ) < pausePerMille )
+                {
+                    // A GC pause or an overloaded host stops this member for a while
+                    cluster.pause( uri, random.nextInt( maxPause ) );
+                }
+            }
+            cluster.tick();
+        }
+        long falseFailures = 0;
+        for ( Observer observer : observers )
+        {
+            falseFailures += observer.falseFailures;
+        }
+
+        // Now a member dies, and everyone else has to find out
+        final URI dead = uris.get( uris.size() - 1 );
+        final List<Observer> survivors = observers.subList( 0, observers.size() - 1 );
+        for ( Observer survivor : survivors )
+        {
+            survivor.dead = dead;
+        }
+        long start = cluster.getCurrentTime();
+        cluster.partition( Collections.singleton( dead ) );
+        boolean detected = cluster.runUntil( new Predicate<SimulatedCluster>()
+        {
+            @Override
+            public boolean accept( SimulatedCluster item )
+            {
+                for ( Observer survivor : survivors )
+                {
+                    if ( survivor.deadFailedAt == -1 )
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, maxTime );
+
+        System.out.println( String.format( "%-8s %-6s %16d %14s", network, detect, falseFailures,
+                detected ? String.valueOf( cluster.getCurrentTime() - start ) : "(not detected)" ) );
+    }
+
+    /**
+     * Tells the failures one member reports of members that were alive apart from when the member that really
+     * died was reported.
+     */
+    private static class Observer implements HeartbeatListener
+    {
+        private final SimulatedCluster cluster;
+        private long falseFailures;
+        private URI dead;
+        private long deadFailedAt = -1;
+
+        Observer( SimulatedCluster cluster )
+        {
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void failed( URI server )
+        {
+            if ( server.equals( dead ) )
+            {
+                if ( deadFailedAt == -1 )
+                {
+                    deadFailedAt = cluster.getCurrentTime();
+                }
+            }
+            else
+            {
+                falseFailures++;
+            }
+        }
+
+        @Override
+        public void alive( URI server )
+        {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static java.util.Arrays.asList;
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+import static org.neo4j.perftest.enterprise.util.Setting.listSetting;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.cluster.MultiPaxosServerFactory;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcast;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastListener;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastSerializer;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AtomicBroadcastMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+import org.neo4j.cluster.timeout.MessageTimeoutStrategy;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Cuts the last member of a cluster on a {@link SimulatedCluster} off from the others, broadcasts values through
+ * the rest, heals the partition and reports how long, in simulated milliseconds, the member takes to deliver what it
+ * missed, and how many learner messages that takes. Catch-up time is split into detecting that values were missed,
+ * which ends with the first learner message sent after healing, and transferring them. Batching is turned off, so
+ * that every value gets an instance of its own. Gaps are kept within what the instance store retains, since
+ * snapshots are not simulated.
+ */
+public class LearnerCatchUpBenchmark
+{
+    static final Setting<Long> members = integerSetting( "members", 3 );
+    static final Setting<Long> latency = integerSetting( "latency", 50 );
+    static final Setting<List<Long>> missed = listSetting( integerSetting( "missed", 10 ), asList( 10L, 50L, 100L ) );
+    static final Setting<Long> max_time = integerSetting( "max_time", 600000 );
+    static final Setting<Long> seed = integerSetting( "seed", 1337 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.LearnerCatchUpBenchmark
+     *    -members 3 -latency 50 -missed 10,50,100
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( LearnerCatchUpBenchmark.class ) )
+                .convert( args ) );
+    }
+
+    private static void run( Configuration configuration )
+    {
+        System.out.println( String.format( "%d ms latency", configuration.get( latency ) ) );
+        System.out.println( String.format( "%8s %12s %12s %12s %18s", "missed", "catch up ms", "detect ms",
+                "transfer ms", "learner messages" ) );
+        for ( Long gap : configuration.get( missed ) )
+        {
+            run( configuration, gap.intValue() );
+        }
+    }
+
+    private static void run( Configuration configuration, final int gap )
+    {
+        long maxTime = configuration.get( max_time );
+        // Values are only measured once, never proposed again
+        MessageTimeoutStrategy timeoutStrategy = new MessageTimeoutStrategy( new FixedTimeoutStrategy( 1000 ) )
+                .timeout( AtomicBroadcastMessage.broadcastTimeout, Long.MAX_VALUE / 2 );
+        SimulatedCluster cluster = new SimulatedCluster(
+                new MultiPaxosServerFactory( new ClusterConfiguration( "default" ), SimulatedCluster.quietLogging(),
+                        1, ProposerContext.DEFAULT_MAX_BATCH_BYTES, ProposerContext.DEFAULT_MAX_CONCURRENT_INSTANCES,
+                        Integer.MAX_VALUE ),
+                timeoutStrategy, configuration.get( seed ), configuration.get( latency ),
+                configuration.get( latency ), 0 );
+        for ( int i = 1; i <= configuration.get( members ); i++ )
+        {
+            cluster.addMember( URI.create( "cluster://server" + i ) );
+        }
+        cluster.form( "default", maxTime );
+
+        List<URI> uris = new ArrayList<URI>( cluster.getMembers() );
+        URI first = uris.get( 0 );
+        URI lagging = uris.get( uris.size() - 1 );
+        final Counter sender = new Counter();
+        final Counter behind = new Counter();
+        AtomicBroadcast broadcast = cluster.getMember( first ).newClient( AtomicBroadcast.class );
+        broadcast.addAtomicBroadcastListener( sender );
+        cluster.getMember( lagging ).newClient( AtomicBroadcast.class ).addAtomicBroadcastListener( behind );
+
+        // Values broadcast while the member is cut off
+        cluster.partition( Collections.singleton( lagging ) );
+        AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+        for ( int i = 0; i < gap; i++ )
+        {
+            try
+            {
+                broadcast.broadcast( serializer.broadcast( i ) );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+        // Heal only once every value is decided and the others have given up on the member, so that what is
+        // measured is catching up, and not the broadcasts still going on
+        cluster.runUntil( new Predicate<SimulatedCluster>()
+        {
+            @Override
+            public boolean accept( SimulatedCluster item )
+            {
+                return sender.delivered >= gap;
+            }
+        }, maxTime );
+        cluster.run( 5000 );
+
+        cluster.heal();
+        cluster.resetCounts();
+        long start = cluster.getCurrentTime();
+        long detected = -1;
+        while ( behind.delivered < gap && cluster.getCurrentTime() - start < maxTime )
+        {
+            cluster.tick();
+            if ( detected == -1 && learnerMessages( cluster ) > 0 )
+            {
+                detected = cluster.getCurrentTime();
+            }
+        }
+
+        long end = cluster.getCurrentTime();
+        if ( behind.delivered < gap )
+        {
+            System.out.println( String.format( "%8d %16s", gap, "(" + behind.delivered + " delivered)" ) );
+        }
+        else
+        {
+            System.out.println( String.format( "%8d %12d %12d %12d %18d", gap, end - start, detected - start,
+                    end - detected, learnerMessages( cluster ) ) );
+        }
+    }
+
+    private static long learnerMessages( SimulatedCluster cluster )
+    {
+        long count = 0;
+        for ( Map.Entry<String, Long> messages : cluster.getMessageCounts().entrySet() )
+        {
+            if ( messages.getKey().startsWith( LearnerMessage.class.getSimpleName() + "." ) )
+            {
+                count += messages.getValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the values delivered to a member.
+     */
+    private static class Counter implements AtomicBroadcastListener
+    {
+        private final AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+        private int delivered;
+
+        @Override
+        public void receive( Payload payload )
+        {
+            try
+            {
+                // Cluster configuration changes are broadcast too, only count our own values
+                if ( serializer.receive( payload ) instanceof Integer )
+                {
+                    delivered++;
+                }
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+    }
+}
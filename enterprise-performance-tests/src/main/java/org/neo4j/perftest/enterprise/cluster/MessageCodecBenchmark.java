@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.neo4j.cluster.com.MessageCodec;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AcceptorMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InstanceId;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.LearnerMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerMessage;
+import org.neo4j.cluster.protocol.heartbeat.HeartbeatMessage;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Compares the size and the encode/decode time of typical cluster messages
+ * between Java serialization, which the cluster used to send messages with,
+ * and {@link MessageCodec}.
+ */
+public class MessageCodecBenchmark
+{
+    static final Setting<Long> iterations = integerSetting( "iterations", 200000 );
+    static final Setting<Long> warmup_iterations = integerSetting( "warmup_iterations", 50000 );
+    static final Setting<Long> payload_size = integerSetting( "payload_size", 64 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.MessageCodecBenchmark
+     *    -iterations 1000000
+     *    -payload_size 256
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( MessageCodecBenchmark.class ) )
+                .convert( args ) );
+    }
+
+    private static void run( Configuration configuration ) throws Exception
+    {
+        List<Message<?>> messages = typicalMessages( configuration.get( payload_size ).intValue() );
+        MessageCodec codec = new MessageCodec( MessageCodecBenchmark.class.getClassLoader() );
+        int warmup = configuration.get( warmup_iterations ).intValue();
+        int count = configuration.get( iterations ).intValue();
+
+        System.out.println( String.format( "%-20s %12s %12s %14s %14s", "message", "java bytes", "codec bytes",
+                "java ns/op", "codec ns/op" ) );
+        for ( Message<?> message : messages )
+        {
+            serializeAndDeserialize( message, warmup );
+            encodeAndDecode( codec, message, warmup );
+
+            long start = System.nanoTime();
+            int javaSize = serializeAndDeserialize( message, count );
+            long javaNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int codecSize = encodeAndDecode( codec, message, count );
+            long codecNanos = System.nanoTime() - start;
+
+            System.out.println( String.format( "%-20s %12d %12d %14d %14d", message.getMessageType().name(),
+                    javaSize, codecSize, javaNanos / count, codecNanos / count ) );
+        }
+    }
+
+    private static int serializeAndDeserialize( Message<?> message, int count ) throws Exception
+    {
+        int size = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( bytes );
+            out.writeObject( message );
+            out.close();
+            size = bytes.size();
+            new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ).readObject();
+        }
+        return size;
+    }
+
+    private static int encodeAndDecode( MessageCodec codec, Message<?> message, int count ) throws Exception
+    {
+        int size = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( 256 );
+            codec.encode( message, buffer );
+            size = buffer.readableBytes();
+            codec.decode( buffer );
+        }
+        return size;
+    }
+
+    private static List<Message<?>> typicalMessages( int payloadSize ) throws Exception
+    {
+        String from = "cluster://192.168.1.11:5001";
+        String to = "cluster://192.168.1.12:5001";
+        Payload payload = new Payload( new byte[payloadSize], payloadSize );
+        URI server = new URI( from );
+        return Arrays.<Message<?>>asList(
+                Message.to( AcceptorMessage.prepare, to, new AcceptorMessage.PrepareState( 10001 ) )
+                        .setHeader( Message.FROM, from ).setHeader( InstanceId.INSTANCE, "4711" ),
+                Message.to( ProposerMessage.promise, to, new ProposerMessage.PromiseState( 10001, null ) )
+                        .setHeader( Message.FROM, from ).setHeader( InstanceId.INSTANCE, "4711" ),
+                Message.to( AcceptorMessage.accept, to, new AcceptorMessage.AcceptState( 10001, payload ) )
+                        .setHeader( Message.FROM, from ).setHeader( InstanceId.INSTANCE, "4711" ),
+                Message.to( ProposerMessage.accepted, to, new ProposerMessage.AcceptedState() )
+                        .setHeader( Message.FROM, from ).setHeader( InstanceId.INSTANCE, "4711" ),
+                Message.to( LearnerMessage.learn, to, new LearnerMessage.LearnState( payload ) )
+                        .setHeader( Message.FROM, from ).setHeader( InstanceId.INSTANCE, "4711" ),
+                Message.to( HeartbeatMessage.i_am_alive, to, new HeartbeatMessage.IAmAliveState( server ) )
+                        .setHeader( Message.FROM, from ),
+                Message.to( HeartbeatMessage.suspicions, to,
+                        new HeartbeatMessage.SuspicionsState( new HashSet<URI>( Arrays.asList( new URI( to ) ) ) ) )
+                        .setHeader( Message.FROM, from ) );
+    }
+}
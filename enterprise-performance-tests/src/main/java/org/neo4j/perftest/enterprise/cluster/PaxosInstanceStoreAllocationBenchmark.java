@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InstanceId;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.PaxosInstance;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.PaxosInstanceStore;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Measures the garbage {@link PaxosInstanceStore} creates per broadcast in
+ * steady state, next to the map and eviction queue based store it replaced.
+ * Instance ids are created up front, since they come with the messages
+ * anyway. Relies on the HotSpot per thread allocation counter.
+ */
+public class PaxosInstanceStoreAllocationBenchmark
+{
+    static final Setting<Long> iterations = integerSetting( "iterations", 1000000 );
+    static final Setting<Long> warmup_iterations = integerSetting( "warmup_iterations", 200000 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.PaxosInstanceStoreAllocationBenchmark
+     *    -iterations 1000000
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( PaxosInstanceStoreAllocationBenchmark.class ) )
+                .convert( args ) );
+    }
+
+    interface Store
+    {
+        PaxosInstance get( InstanceId instanceId );
+
+        void delivered( InstanceId instanceId );
+    }
+
+    private static void run( Configuration configuration ) throws Exception
+    {
+        int warmup = configuration.get( warmup_iterations ).intValue();
+        int count = configuration.get( iterations ).intValue();
+        InstanceId[] ids = new InstanceId[warmup + count];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = new InstanceId( i );
+        }
+        List<URI> acceptors = Arrays.asList( new URI( "cluster://server1" ), new URI( "cluster://server2" ),
+                new URI( "cluster://server3" ) );
+
+        final PaxosInstanceStore ring = new PaxosInstanceStore();
+        Store[] stores = {new HashMapStore(), new Store()
+        {
+            @Override
+            public PaxosInstance get( InstanceId instanceId )
+            {
+                return ring.getPaxosInstance( instanceId );
+            }
+
+            @Override
+            public void delivered( InstanceId instanceId )
+            {
+            }
+        }};
+        String[] names = {"map and queue", "ring"};
+
+        System.out.println( String.format( "%-16s %16s %12s", "store", "bytes/broadcast", "ns/broadcast" ) );
+        for ( int s = 0; s < stores.length; s++ )
+        {
+            broadcast( stores[s], ids, 0, warmup, acceptors );
+
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            broadcast( stores[s], ids, warmup, ids.length, acceptors );
+            long nanos = System.nanoTime() - start;
+            long bytes = allocatedBytes() - bytesBefore;
+
+            System.out.println( String.format( "%-16s %16.1f %12d", names[s], (double) bytes / count,
+                    nanos / count ) );
+        }
+    }
+
+    /**
+     * Takes each instance through the states it goes through on the proposer of a successful broadcast.
+     */
+    private static void broadcast( Store store, InstanceId[] ids, int from, int to, List<URI> acceptors )
+    {
+        Object value = "value";
+        for ( int i = from; i < to; i++ )
+        {
+            PaxosInstance instance = store.get( ids[i] );
+            instance.propose( 1001, acceptors );
+            instance.ready( value, true );
+            instance.pending();
+            instance.closed( value );
+            instance.delivered();
+            store.delivered( ids[i] );
+        }
+    }
+
+    private static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        return threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+
+    /**
+     * What the store used to look like.
+     */
+    private static class HashMapStore implements Store
+    {
+        private static final int MAX_STORED = 100;
+
+        private final Queue<InstanceId> delivered = new LinkedList<InstanceId>();
+        private final Map<InstanceId, PaxosInstance> instances = new HashMap<InstanceId, PaxosInstance>();
+
+        @Override
+        public PaxosInstance get( InstanceId instanceId )
+        {
+            PaxosInstance instance = instances.get( instanceId );
+            if ( instance == null )
+            {
+                instance = new PaxosInstance( null, instanceId );
+                instances.put( instanceId, instance );
+            }
+            return instance;
+        }
+
+        @Override
+        public void delivered( InstanceId instanceId )
+        {
+            delivered.offer( instanceId );
+            if ( delivered.size() > MAX_STORED )
+            {
+                instances.remove( delivered.poll() );
+            }
+        }
+    }
+}
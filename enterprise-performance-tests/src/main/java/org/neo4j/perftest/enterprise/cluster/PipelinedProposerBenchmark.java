@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static java.util.Arrays.asList;
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+import static org.neo4j.perftest.enterprise.util.Setting.listSetting;
+
+import java.net.URI;
+import java.util.List;
+
+import org.neo4j.cluster.MultiPaxosServerFactory;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcast;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastListener;
+import org.neo4j.cluster.protocol.atomicbroadcast.AtomicBroadcastSerializer;
+import org.neo4j.cluster.protocol.atomicbroadcast.Payload;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.AtomicBroadcastMessage;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.ProposerContext;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+import org.neo4j.cluster.timeout.MessageTimeoutStrategy;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Broadcasts a burst of values from one member of a cluster on a {@link SimulatedCluster} and reports throughput and
+ * latency, in simulated milliseconds, for a range of proposer window sizes, i.e. how many Paxos instances the
+ * proposer may have open at once. Batching is turned off, so that every value gets an instance of its own, and the
+ * network latency is fixed.
+ */
+public class PipelinedProposerBenchmark
+{
+    static final Setting<Long> members = integerSetting( "members", 3 );
+    static final Setting<Long> values = integerSetting( "values", 200 );
+    static final Setting<Long> latency = integerSetting( "latency", 50 );
+    static final Setting<List<Long>> windows = listSetting( integerSetting( "windows", 1 ),
+            asList( 1L, 2L, 5L, 10L, 20L, 50L ) );
+    static final Setting<Long> max_time = integerSetting( "max_time", 600000 );
+    static final Setting<Long> seed = integerSetting( "seed", 1337 );
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.PipelinedProposerBenchmark
+     *    -members 3 -values 200 -latency 50 -windows 1,2,5,10,20,50
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( PipelinedProposerBenchmark.class ) )
+                .convert( args ) );
+    }
+
+    private static void run( Configuration configuration )
+    {
+        System.out.println( String.format( "%d values, %d ms latency", configuration.get( values ),
+                configuration.get( latency ) ) );
+        System.out.println( String.format( "%8s %12s %16s", "window", "values/s", "mean latency ms" ) );
+        for ( Long window : configuration.get( windows ) )
+        {
+            run( configuration, window.intValue() );
+        }
+    }
+
+    private static void run( Configuration configuration, int window )
+    {
+        int count = configuration.get( values ).intValue();
+        long maxTime = configuration.get( max_time );
+        // Values are only measured once, never proposed again
+        MessageTimeoutStrategy timeoutStrategy = new MessageTimeoutStrategy( new FixedTimeoutStrategy( 1000 ) )
+                .timeout( AtomicBroadcastMessage.broadcastTimeout, Long.MAX_VALUE / 2 );
+        SimulatedCluster cluster = new SimulatedCluster(
+                new MultiPaxosServerFactory( new ClusterConfiguration( "default" ), SimulatedCluster.quietLogging(),
+                        1, ProposerContext.DEFAULT_MAX_BATCH_BYTES, window, Integer.MAX_VALUE ),
+                timeoutStrategy, configuration.get( seed ), configuration.get( latency ),
+                configuration.get( latency ), 0 );
+        for ( int i = 1; i <= configuration.get( members ); i++ )
+        {
+            cluster.addMember( URI.create( "cluster://server" + i ) );
+        }
+        cluster.form( "default", maxTime );
+
+        AtomicBroadcast broadcast = cluster.getMember( cluster.getMembers().iterator().next() )
+                .newClient( AtomicBroadcast.class );
+        final Receiver receiver = new Receiver( cluster );
+        broadcast.addAtomicBroadcastListener( receiver );
+
+        AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+        long start = cluster.getCurrentTime();
+        for ( int i = 0; i < count; i++ )
+        {
+            try
+            {
+                broadcast.broadcast( serializer.broadcast( i ) );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+        final int expected = count;
+        cluster.runUntil( new Predicate<SimulatedCluster>()
+        {
+            @Override
+            public boolean accept( SimulatedCluster item )
+            {
+                return receiver.delivered >= expected;
+            }
+        }, maxTime );
+
+        long elapsed = Math.max( 1, cluster.getCurrentTime() - start );
+        System.out.println( String.format( "%8d %12d %16d%s", window, receiver.delivered * 1000L / elapsed,
+                receiver.delivered == 0 ? 0 : receiver.totalLatency( start ) / receiver.delivered,
+                receiver.delivered < count ? " (" + (count - receiver.delivered) + " values not delivered)" : "" ) );
+    }
+
+    /**
+     * Counts the values delivered to the broadcasting member, and when they were delivered.
+     */
+    private static class Receiver implements AtomicBroadcastListener
+    {
+        private final SimulatedCluster cluster;
+        private final AtomicBroadcastSerializer serializer = new AtomicBroadcastSerializer();
+        private int delivered;
+        private long deliveredAtSum;
+
+        Receiver( SimulatedCluster cluster )
+        {
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void receive( Payload payload )
+        {
+            Object value;
+            try
+            {
+                value = serializer.receive( payload );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+
+            // Cluster configuration changes are broadcast too, only count our own values
+            if ( value instanceof Integer )
+            {
+                delivered++;
+                deliveredAtSum += cluster.getCurrentTime();
+            }
+        }
+
+        /**
+         * @return the sum of the latencies of the delivered values, all of which were broadcast at the given time
+         */
+        long totalLatency( long broadcastAt )
+        {
+            return deliveredAtSum - delivered * broadcastAt;
+        }
+    }
+}
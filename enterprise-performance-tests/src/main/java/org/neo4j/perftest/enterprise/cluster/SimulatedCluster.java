@@ -0,0 +1,428 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+
+import org.neo4j.cluster.ProtocolServer;
+import org.neo4j.cluster.ProtocolServerFactory;
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageSource;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.protocol.atomicbroadcast.multipaxos.InMemoryAcceptorInstanceStore;
+import org.neo4j.cluster.protocol.cluster.Cluster;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.cluster.protocol.election.ServerIdElectionCredentialsProvider;
+import org.neo4j.cluster.timeout.TimeoutStrategy;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.kernel.logging.LogbackService;
+import org.neo4j.kernel.logging.Logging;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a number of {@link ProtocolServer}s in the calling thread, connected through a simulated network instead of
+ * {@link org.neo4j.cluster.com.NetworkInstance}. Time is virtual and only moves when {@link #tick()} is called, and
+ * latency and message loss are drawn from a seeded {@link Random}, so the same seed and the same sequence of calls
+ * always gives the same run.
+ * <p/>
+ * Messages are delivered after a latency between the configured minimum and maximum, unless they are lost or the
+ * sender and receiver are in different partitions. Messages a server sends to itself are delivered on the next tick
+ * and never lost. A {@link #pause(URI, long) paused} server neither receives messages nor sees its timeouts trigger
+ * until it resumes, like a process stopped by a GC pause. Every message sent is counted by type.
+ */
+public class SimulatedCluster
+{
+    private final ProtocolServerFactory factory;
+    private final TimeoutStrategy timeoutStrategy;
+    private final Random random;
+    private final long minLatency;
+    private final long maxLatency;
+    private final int lossPerMille;
+
+    private final Map<String, Member> members = new LinkedHashMap<String, Member>();
+    private final Map<String, Integer> partitions = new HashMap<String, Integer>();
+    private final PriorityQueue<Delivery> inFlight = new PriorityQueue<Delivery>();
+    private final Map<String, Long> messageCounts = new TreeMap<String, Long>();
+
+    private long now = 0;
+    private long sequence = 0;
+    private int lastPartition = 0;
+    private long sent = 0;
+    private long lost = 0;
+
+    public SimulatedCluster( ProtocolServerFactory factory, TimeoutStrategy timeoutStrategy, long seed,
+                             long minLatency, long maxLatency, int lossPerMille )
+    {
+        this.factory = factory;
+        this.timeoutStrategy = timeoutStrategy;
+        this.random = new Random( seed );
+        this.minLatency = minLatency;
+        this.maxLatency = Math.max( minLatency, maxLatency );
+        this.lossPerMille = lossPerMille;
+    }
+
+    public ProtocolServer addMember( URI uri )
+    {
+        Member member = new Member( uri );
+        ServerIdElectionCredentialsProvider credentials = new ServerIdElectionCredentialsProvider();
+        credentials.listeningAt( uri );
+        member.server = factory.newProtocolServer( timeoutStrategy, member, member,
+                new InMemoryAcceptorInstanceStore(), credentials );
+        member.server.listeningAt( uri );
+        // Bring the new server up to the current time, so that the timeouts it sets are relative to it
+        member.server.getTimeouts().tick( now );
+        members.put( uri.toString(), member );
+        return member.server;
+    }
+
+    /**
+     * Create a cluster on the first member added and have the others join it one at a time.
+     *
+     * @throws IllegalStateException if a member has not joined within the given number of milliseconds
+     */
+    public void form( String name, long maxMillis )
+    {
+        Iterator<Member> iterator = members.values().iterator();
+        URI first = iterator.next().uri;
+        getMember( first ).newClient( Cluster.class ).create( name );
+        while ( iterator.hasNext() )
+        {
+            URI uri = iterator.next().uri;
+            final Future<ClusterConfiguration> joined = getMember( uri ).newClient( Cluster.class ).join( first );
+            if ( !runUntil( new Predicate<SimulatedCluster>()
+            {
+                @Override
+                public boolean accept( SimulatedCluster item )
+                {
+                    return joined.isDone();
+                }
+            }, maxMillis ) )
+            {
+                throw new IllegalStateException( uri + " did not join the cluster in " + maxMillis + "ms" );
+            }
+        }
+    }
+
+    public ProtocolServer getMember( URI uri )
+    {
+        Member member = members.get( uri.toString() );
+        return member == null ? null : member.server;
+    }
+
+    public Collection<URI> getMembers()
+    {
+        List<URI> uris = new ArrayList<URI>();
+        for ( Member member : members.values() )
+        {
+            uris.add( member.uri );
+        }
+        return uris;
+    }
+
+    /**
+     * Cut the given members off from everyone else. Messages between members on different sides of a partition
+     * are lost, including the ones already in flight.
+     */
+    public void partition( Collection<URI> side )
+    {
+        int partition = ++lastPartition;
+        for ( URI uri : side )
+        {
+            partitions.put( uri.toString(), partition );
+        }
+    }
+
+    public void heal()
+    {
+        partitions.clear();
+    }
+
+    /**
+     * Stop the given member for a while. Messages to it are held back and its timeouts are not triggered until the
+     * pause is over.
+     */
+    public void pause( URI uri, long millis )
+    {
+        Member member = members.get( uri.toString() );
+        member.pausedUntil = Math.max( member.pausedUntil, now + millis );
+    }
+
+    public long getCurrentTime()
+    {
+        return now;
+    }
+
+    /**
+     * Move time forward one millisecond: deliver the messages that are due, trigger the timeouts of every server
+     * and put what they sent in return on the network.
+     */
+    public void tick()
+    {
+        now++;
+
+        while ( !inFlight.isEmpty() && inFlight.peek().at <= now )
+        {
+            Delivery delivery = inFlight.poll();
+            Member to = members.get( delivery.to );
+            if ( !reachable( delivery.from, delivery.to ) )
+            {
+                lost++;
+            }
+            else if ( to.pausedUntil > now )
+            {
+                inFlight.add( new Delivery( to.pausedUntil, sequence++, delivery.from, delivery.to,
+                        delivery.message ) );
+            }
+            else
+            {
+                to.receive( delivery.message );
+            }
+        }
+
+        for ( Member member : members.values() )
+        {
+            if ( member.pausedUntil <= now )
+            {
+                member.server.getTimeouts().tick( now );
+            }
+        }
+
+        for ( Member member : members.values() )
+        {
+            member.send();
+        }
+    }
+
+    /**
+     * Tick until the condition holds, or until the given number of milliseconds have passed.
+     *
+     * @return whether the condition holds
+     */
+    public boolean runUntil( Predicate<SimulatedCluster> condition, long maxMillis )
+    {
+        long until = now + maxMillis;
+        while ( !condition.accept( this ) )
+        {
+            if ( now >= until )
+            {
+                return false;
+            }
+            tick();
+        }
+        return true;
+    }
+
+    public void run( long millis )
+    {
+        for ( long i = 0; i < millis; i++ )
+        {
+            tick();
+        }
+    }
+
+    /**
+     * @return the number of messages sent since the last reset, by message type
+     */
+    public Map<String, Long> getMessageCounts()
+    {
+        return messageCounts;
+    }
+
+    public long getSentMessages()
+    {
+        return sent;
+    }
+
+    public long getLostMessages()
+    {
+        return lost;
+    }
+
+    public void resetCounts()
+    {
+        messageCounts.clear();
+        sent = 0;
+        lost = 0;
+    }
+
+    public void printMessageCounts( PrintStream out )
+    {
+        out.println( String.format( "%-50s %10d", "messages sent", sent ) );
+        out.println( String.format( "%-50s %10d", "messages lost", lost ) );
+        for ( Map.Entry<String, Long> count : messageCounts.entrySet() )
+        {
+            out.println( String.format( "  %-48s %10d", count.getKey(), count.getValue() ) );
+        }
+    }
+
+    /**
+     * @return logging for the servers of a simulation, which only lets warnings through so that the output of
+     * the simulation is not drowned
+     */
+    public static Logging quietLogging()
+    {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.getLogger( org.slf4j.Logger.ROOT_LOGGER_NAME ).setLevel( Level.WARN );
+        return new LogbackService( null, loggerContext );
+    }
+
+    private void route( String from, Message<? extends MessageType> message )
+    {
+        String to = message.getHeader( Message.TO );
+        if ( to.equals( Message.BROADCAST ) )
+        {
+            for ( String member : members.keySet() )
+            {
+                if ( !member.equals( from ) )
+                {
+                    transmit( from, member, message );
+                }
+            }
+        }
+        else
+        {
+            transmit( from, to, message );
+        }
+    }
+
+    private void transmit( String from, String to, Message<? extends MessageType> message )
+    {
+        sent++;
+        String type = message.getMessageType().getClass().getSimpleName() + "." + message.getMessageType().name();
+        Long count = messageCounts.get( type );
+        messageCounts.put( type, count == null ? 1 : count + 1 );
+
+        if ( !members.containsKey( to ) )
+        {
+            lost++;
+            return;
+        }
+
+        long latency = 1;
+        if ( !from.equals( to ) )
+        {
+            if ( random.nextInt( 1000 ) < lossPerMille )
+            {
+                lost++;
+                return;
+            }
+            latency = minLatency + (long) random.nextInt( (int) (maxLatency - minLatency) + 1 );
+        }
+        inFlight.add( new Delivery( now + Math.max( 1, latency ), sequence++, from, to, message ) );
+    }
+
+    private boolean reachable( String from, String to )
+    {
+        Integer fromPartition = partitions.get( from );
+        Integer toPartition = partitions.get( to );
+        return fromPartition == null ? toPartition == null : fromPartition.equals( toPartition );
+    }
+
+    private class Member
+            implements MessageSource, MessageProcessor
+    {
+        private final URI uri;
+        private ProtocolServer server;
+        private long pausedUntil;
+        private final List<MessageProcessor> processors = new ArrayList<MessageProcessor>();
+        private final List<Message<? extends MessageType>> outgoing = new ArrayList<Message<? extends MessageType>>();
+
+        Member( URI uri )
+        {
+            this.uri = uri;
+        }
+
+        @Override
+        public void addMessageProcessor( MessageProcessor processor )
+        {
+            processors.add( processor );
+        }
+
+        void receive( Message<? extends MessageType> message )
+        {
+            for ( MessageProcessor processor : processors )
+            {
+                processor.process( message );
+            }
+        }
+
+        @Override
+        public void process( Message<? extends MessageType> message )
+        {
+            outgoing.add( message );
+        }
+
+        void send()
+        {
+            // Routing never delivers, but take a copy so the list can be added to while we go through it
+            List<Message<? extends MessageType>> messages = new ArrayList<Message<? extends MessageType>>( outgoing );
+            outgoing.clear();
+            for ( Message<? extends MessageType> message : messages )
+            {
+                route( uri.toString(), message );
+            }
+        }
+    }
+
+    private static class Delivery
+            implements Comparable<Delivery>
+    {
+        private final long at;
+        private final long sequence;
+        private final String from;
+        private final String to;
+        private final Message<? extends MessageType> message;
+
+        Delivery( long at, long sequence, String from, String to, Message<? extends MessageType> message )
+        {
+            this.at = at;
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo( Delivery other )
+        {
+            if ( at != other.at )
+            {
+                return at < other.at ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
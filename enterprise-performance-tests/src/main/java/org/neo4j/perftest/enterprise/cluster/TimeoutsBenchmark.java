@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.perftest.enterprise.cluster;
+
+import static org.neo4j.perftest.enterprise.util.Configuration.SYSTEM_PROPERTIES;
+import static org.neo4j.perftest.enterprise.util.Configuration.settingsOf;
+import static org.neo4j.perftest.enterprise.util.Setting.integerSetting;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.neo4j.cluster.com.message.Message;
+import org.neo4j.cluster.com.message.MessageProcessor;
+import org.neo4j.cluster.com.message.MessageType;
+import org.neo4j.cluster.timeout.FixedTimeoutStrategy;
+import org.neo4j.cluster.timeout.Timeouts;
+import org.neo4j.perftest.enterprise.util.Configuration;
+import org.neo4j.perftest.enterprise.util.Parameters;
+import org.neo4j.perftest.enterprise.util.Setting;
+
+/**
+ * Measures the cost of a {@link Timeouts#tick(long) tick} as the number of pending timeouts grows,
+ * next to the scan over all timeouts that it replaced. Timeouts are spread over the next hour and
+ * are set again as soon as they trigger, and a few are reset every tick the way heartbeats are,
+ * so the number pending stays constant.
+ */
+public class TimeoutsBenchmark
+{
+    static final Setting<Long> min_pending = integerSetting( "min_pending", 100 );
+    static final Setting<Long> max_pending = integerSetting( "max_pending", 51200 );
+    static final Setting<Long> ticks = integerSetting( "ticks", 20000 );
+    static final Setting<Long> tick_millis = integerSetting( "tick_millis", 10 );
+    static final Setting<Long> resets_per_tick = integerSetting( "resets_per_tick", 10 );
+
+    private static final long MAX_TIMEOUT = 60 * 60 * 1000;
+
+    /**
+     * Sample execution:
+     * java -cp ... org.neo4j.perftest.enterprise.cluster.TimeoutsBenchmark
+     *    -max_pending 102400 -ticks 20000
+     */
+    public static void main( String... args ) throws Exception
+    {
+        run( Parameters.configuration( SYSTEM_PROPERTIES, settingsOf( TimeoutsBenchmark.class ) ).convert( args ) );
+    }
+
+    private enum BenchmarkMessage implements MessageType
+    {
+        timeout
+    }
+
+    interface Wheel
+    {
+        void setTimeout( Object key, Message<? extends MessageType> message );
+
+        void tick( long now );
+    }
+
+    private static void run( Configuration configuration )
+    {
+        int tickCount = configuration.get( ticks ).intValue();
+        long millis = configuration.get( tick_millis );
+        int resets = configuration.get( resets_per_tick ).intValue();
+
+        System.out.println( String.format( "%10s %16s %16s", "pending", "wheel ns/tick", "scan ns/tick" ) );
+        for ( long pending = configuration.get( min_pending ); pending <= configuration.get( max_pending );
+              pending *= 2 )
+        {
+            long wheel = measure( new TimingWheel(), (int) pending, tickCount, millis, resets );
+            long scan = measure( new Scan(), (int) pending, tickCount, millis, resets );
+            System.out.println( String.format( "%10d %16d %16d", pending, wheel, scan ) );
+        }
+    }
+
+    private static long measure( final Wheel wheel, int pending, int tickCount, long millis, int resets )
+    {
+        final Random random = new Random( 1337 );
+        long now = System.currentTimeMillis();
+        wheel.tick( now );
+        for ( int i = 0; i < pending; i++ )
+        {
+            wheel.setTimeout( i, timeout( random, i ) );
+        }
+
+        // Once to warm up, once to measure
+        long nanos = 0;
+        for ( int round = 0; round < 2; round++ )
+        {
+            long start = System.nanoTime();
+            for ( int i = 0; i < tickCount; i++ )
+            {
+                now += millis;
+                wheel.tick( now );
+                for ( int j = 0; j < resets; j++ )
+                {
+                    int key = random.nextInt( pending );
+                    wheel.setTimeout( key, timeout( random, key ) );
+                }
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / tickCount;
+    }
+
+    private static Message<BenchmarkMessage> timeout( Random random, int key )
+    {
+        return Message.internal( BenchmarkMessage.timeout, new long[]{key, 1 + (long) (random.nextDouble() *
+                MAX_TIMEOUT)} );
+    }
+
+    private static long delayOf( Message message )
+    {
+        return ((long[]) message.getPayload())[1];
+    }
+
+    /**
+     * Expired timeouts are set again, so that the number pending stays the same.
+     */
+    private static class TimingWheel implements Wheel
+    {
+        private final Random random = new Random( 4711 );
+        private final Timeouts timeouts = new Timeouts( new MessageProcessor()
+        {
+            @Override
+            public void process( Message<? extends MessageType> message )
+            {
+                int key = (int) ((long[]) message.getPayload())[0];
+                timeouts.setTimeout( key, timeout( random, key ) );
+            }
+        }, new FixedTimeoutStrategy( 0 )
+        {
+            @Override
+            public long timeoutFor( Message message )
+            {
+                return delayOf( message );
+            }
+        } );
+
+        @Override
+        public void setTimeout( Object key, Message<? extends MessageType> message )
+        {
+            timeouts.setTimeout( key, message );
+        }
+
+        @Override
+        public void tick( long now )
+        {
+            timeouts.tick( now );
+        }
+    }
+
+    /**
+     * What the timeouts used to look like, checking every pending timeout on each tick.
+     */
+    private static class Scan implements Wheel
+    {
+        private final Random random = new Random( 4711 );
+        private final Map<Object, Long> timeouts = new HashMap<Object, Long>();
+        private long now;
+
+        @Override
+        public void setTimeout( Object key, Message<? extends MessageType> message )
+        {
+            timeouts.put( key, now + delayOf( message ) );
+        }
+
+        @Override
+        public void tick( long time )
+        {
+            now = time;
+            for ( Iterator<Map.Entry<Object, Long>> iterator = timeouts.entrySet().iterator(); iterator.hasNext(); )
+            {
+                Map.Entry<Object, Long> timeout = iterator.next();
+                if ( now >= timeout.getValue() )
+                {
+                    timeout.setValue( now + 1 + (long) (random.nextDouble() * MAX_TIMEOUT) );
+                }
+            }
+        }
+    }
+}
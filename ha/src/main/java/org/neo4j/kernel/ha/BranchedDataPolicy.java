@@ -96,7 +96,10 @@ public enum BranchedDataPolicy
             @Override
             public boolean accept( File file )
             {
-                return !file.getName().equals( StringLogger.DEFAULT_NAME ) && !isBranchedDataRootDirectory( file );
+                // An interrupted store copy is left in place so that it can be resumed
+                return !file.getName().equals( StringLogger.DEFAULT_NAME ) && !isBranchedDataRootDirectory( file ) &&
+                        !file.getName().equals( SlaveStoreWriter.COPY_FROM_MASTER_TEMP ) &&
+                        !file.getName().equals( SlaveStoreWriter.COPY_FROM_MASTER_DELTA_TEMP );
             }
         } );
     }
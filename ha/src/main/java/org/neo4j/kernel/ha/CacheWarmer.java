@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.InternalAbstractGraphDatabase;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.ha.cluster.ClusterMemberChangeEvent;
+import org.neo4j.kernel.ha.cluster.ClusterMemberListener;
+import org.neo4j.kernel.ha.cluster.ClusterMemberState;
+import org.neo4j.kernel.ha.cluster.ClusterMemberStateMachine;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+
+/**
+ * Periodically writes the ids of the entities in the node and relationship caches to a file in the store
+ * directory. When the instance first becomes available as master or slave after a restart those entities,
+ * and their properties, are loaded into the caches again, in the background. Ids are sorted and split into contiguous ranges,
+ * one per warm up thread, so that every thread reads the store sequentially.
+ */
+public class CacheWarmer extends LifecycleAdapter implements ClusterMemberListener
+{
+    public static final String SNAPSHOT_FILE_NAME = "cache.warmup";
+    private static final int FORMAT_VERSION = 1;
+
+    private final GraphDatabaseAPI graphDb;
+    private final HaCaches caches;
+    private final ClusterMemberStateMachine memberStateMachine;
+    private final Config config;
+    private final StringLogger msgLog;
+    private final File snapshotFile;
+    private ScheduledExecutorService executor;
+    private volatile boolean warmedUp;
+
+    public CacheWarmer( GraphDatabaseAPI graphDb, HaCaches caches, ClusterMemberStateMachine memberStateMachine,
+                        Config config, StringLogger msgLog )
+    {
+        this.graphDb = graphDb;
+        this.caches = caches;
+        this.memberStateMachine = memberStateMachine;
+        this.config = config;
+        this.msgLog = msgLog;
+        this.snapshotFile = new File( config.get( InternalAbstractGraphDatabase.Configuration.store_dir ),
+                SNAPSHOT_FILE_NAME );
+        memberStateMachine.addClusterMemberListener( this );
+    }
+
+    @Override
+    public void start() throws Throwable
+    {
+        long interval = config.get( HaSettings.cache_warmup_snapshot_interval );
+        if ( interval <= 0 )
+        {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor( new NamedThreadFactory( "Cache warmer" ) );
+        executor.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ClusterMemberState state = memberStateMachine.getCurrentState();
+                if ( !warmedUp || (state != ClusterMemberState.MASTER && state != ClusterMemberState.SLAVE) )
+                {
+                    // Don't overwrite a snapshot with the contents of caches not yet warmed up
+                    return;
+                }
+                try
+                {
+                    writeSnapshot();
+                }
+                catch ( IOException e )
+                {
+                    msgLog.logMessage( "Unable to write cache warm up snapshot", e );
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public void stop() throws Throwable
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+            executor.awaitTermination( 5, TimeUnit.SECONDS );
+            executor = null;
+        }
+    }
+
+    @Override
+    public void masterIsElected( ClusterMemberChangeEvent event )
+    {
+    }
+
+    @Override
+    public void masterIsAvailable( ClusterMemberChangeEvent event )
+    {
+        if ( event.getOldState().equals( ClusterMemberState.TO_MASTER ) &&
+                event.getNewState().equals( ClusterMemberState.MASTER ) )
+        {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void slaveIsAvailable( ClusterMemberChangeEvent event )
+    {
+        if ( event.getOldState().equals( ClusterMemberState.TO_SLAVE ) &&
+                event.getNewState().equals( ClusterMemberState.SLAVE ) )
+        {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void instanceStops( ClusterMemberChangeEvent event )
+    {
+    }
+
+    private void warmUp()
+    {
+        if ( warmedUp )
+        {
+            return;
+        }
+        warmedUp = true;
+        if ( executor == null || !snapshotFile.exists() )
+        {
+            return;
+        }
+        executor.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    long startTime = System.currentTimeMillis();
+                    long[][] ids = readSnapshot();
+                    int threads = config.get( HaSettings.cache_warmup_threads );
+                    int nodes = load( ids[0], true, threads );
+                    int relationships = load( ids[1], false, threads );
+                    msgLog.logMessage( "Warmed up caches with " + nodes + " nodes and " + relationships +
+                            " relationships in " + (System.currentTimeMillis() - startTime) + "ms" );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                catch ( Exception e )
+                {
+                    msgLog.logMessage( "Unable to warm up caches", e );
+                }
+            }
+        } );
+    }
+
+    void writeSnapshot() throws IOException
+    {
+        int maxIds = config.get( HaSettings.cache_warmup_max_ids );
+        long[] nodeIds = caches.cachedNodeIds( maxIds );
+        long[] relationshipIds = caches.cachedRelationshipIds( maxIds );
+        Arrays.sort( nodeIds );
+        Arrays.sort( relationshipIds );
+
+        File tempFile = new File( snapshotFile.getParentFile(), SNAPSHOT_FILE_NAME + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+        try
+        {
+            out.writeInt( FORMAT_VERSION );
+            writeIds( out, nodeIds );
+            writeIds( out, relationshipIds );
+        }
+        finally
+        {
+            out.close();
+        }
+        snapshotFile.delete();
+        if ( !tempFile.renameTo( snapshotFile ) )
+        {
+            throw new IOException( "Unable to move " + tempFile + " to " + snapshotFile );
+        }
+    }
+
+    private static void writeIds( DataOutputStream out, long[] ids ) throws IOException
+    {
+        out.writeInt( ids.length );
+        for ( long id : ids )
+        {
+            out.writeLong( id );
+        }
+    }
+
+    long[][] readSnapshot() throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( snapshotFile ) ) );
+        try
+        {
+            int version = in.readInt();
+            if ( version != FORMAT_VERSION )
+            {
+                throw new IOException( "Unknown cache warm up snapshot version " + version );
+            }
+            return new long[][] { readIds( in ), readIds( in ) };
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static long[] readIds( DataInputStream in ) throws IOException
+    {
+        long[] ids = new long[in.readInt()];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = in.readLong();
+        }
+        return ids;
+    }
+
+    /**
+     * Loads the entities with the given, sorted, ids and their properties into the cache, splitting them into one contiguous
+     * range per thread.
+     *
+     * @return the number of entities loaded.
+     */
+    private int load( final long[] ids, final boolean nodes, int threads ) throws Exception
+    {
+        if ( ids.length == 0 )
+        {
+            return 0;
+        }
+        ExecutorService loaders = Executors.newFixedThreadPool( threads, new NamedThreadFactory( "Cache warm up" ) );
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            int rangeSize = (ids.length + threads - 1) / threads;
+            for ( int start = 0; start < ids.length; start += rangeSize )
+            {
+                final int from = start;
+                final int to = Math.min( ids.length, start + rangeSize );
+                results.add( loaders.submit( new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                    {
+                        int loaded = 0;
+                        for ( int i = from; i < to && !Thread.currentThread().isInterrupted(); i++ )
+                        {
+                            try
+                            {
+                                PropertyContainer entity = nodes ? graphDb.getNodeById( ids[i] ) :
+                                        graphDb.getRelationshipById( ids[i] );
+                                // Reading the properties caches them along with the entity
+                                for ( String key : entity.getPropertyKeys() )
+                                {
+                                    entity.getProperty( key, null );
+                                }
+                                loaded++;
+                            }
+                            catch ( NotFoundException e )
+                            {
+                                // Deleted since the snapshot was written, that's fine
+                            }
+                        }
+                        return loaded;
+                    }
+                } ) );
+            }
+            int loaded = 0;
+            for ( Future<Integer> result : results )
+            {
+                loaded += result.get();
+            }
+            return loaded;
+        }
+        finally
+        {
+            loaders.shutdownNow();
+        }
+    }
+}
@@ -19,21 +19,32 @@
  */
 package org.neo4j.kernel.ha;
 
+import static java.lang.reflect.Modifier.isStatic;
 import static org.neo4j.graphdb.factory.GraphDatabaseSettings.node_cache_array_fraction;
 import static org.neo4j.graphdb.factory.GraphDatabaseSettings.node_cache_size;
 import static org.neo4j.graphdb.factory.GraphDatabaseSettings.relationship_cache_array_fraction;
 import static org.neo4j.graphdb.factory.GraphDatabaseSettings.relationship_cache_size;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.impl.cache.Cache;
 import org.neo4j.kernel.impl.cache.CacheProvider;
-import org.neo4j.kernel.impl.cache.GCResistantCacheProvider;
+import org.neo4j.kernel.impl.cache.IdListingCache;
 import org.neo4j.kernel.impl.core.Caches;
 import org.neo4j.kernel.impl.core.NodeImpl;
 import org.neo4j.kernel.impl.core.RelationshipImpl;
 import org.neo4j.kernel.impl.util.StringLogger;
 
+/**
+ * Keeps the node and relationship caches across role switches. Caches are only recreated if the cache
+ * type, the cache sizes or any setting of the {@link CacheProvider} changes, and only cleared if the store
+ * has been replaced, see {@link #storeReplaced()}. Otherwise they stay warm, since entries touched by
+ * transactions applied while switching are evicted one by one as those transactions are applied.
+ */
 public class HaCaches implements Caches
 {
     private CacheProvider type;
@@ -41,6 +52,9 @@ public class HaCaches implements Caches
     private Cache<NodeImpl> node;
     private Cache<RelationshipImpl> relationship;
     private final StringLogger logger;
+    private volatile boolean storeReplaced;
+
+    private long nodeHitsAtSwitch, nodeMissesAtSwitch, relationshipHitsAtSwitch, relationshipMissesAtSwitch;
 
     public HaCaches( StringLogger logger )
     {
@@ -55,34 +69,137 @@ public class HaCaches implements Caches
             node = newType.newNodeCache( logger, config );
             relationship = newType.newRelationshipCache( logger, config );
         }
-        else
+        else if ( storeReplaced )
         {
+            logger.logMessage( "Store has been replaced, clearing caches" );
             node.clear();
             relationship.clear();
         }
+        else
+        {
+            logger.logMessage( "Keeping caches across switch, hit ratio since last switch was node:" +
+                    hitRatio( node.hitCount() - nodeHitsAtSwitch, node.missCount() - nodeMissesAtSwitch ) +
+                    " relationship:" + hitRatio( relationship.hitCount() - relationshipHitsAtSwitch,
+                    relationship.missCount() - relationshipMissesAtSwitch ) + ", size node:" + node.size() +
+                    " relationship:" + relationship.size() );
+        }
+        storeReplaced = false;
+        nodeHitsAtSwitch = node.hitCount();
+        nodeMissesAtSwitch = node.missCount();
+        relationshipHitsAtSwitch = relationship.hitCount();
+        relationshipMissesAtSwitch = relationship.missCount();
         this.type = newType;
         this.config = config;
     }
 
+    /**
+     * Called when the store files have been replaced or branched away, e.g. after a store copy from the
+     * master. Cached entries can't be trusted after that, so the caches will be cleared the next time
+     * they're configured.
+     */
+    public void storeReplaced()
+    {
+        storeReplaced = true;
+    }
+
+    /**
+     * @return the fraction of node cache lookups which were hits since the caches were last configured,
+     * i.e. since the last role switch. Useful for seeing how quickly the caches recover after a switch.
+     */
+    public float nodeHitRatioSinceSwitch()
+    {
+        return hitRatio( node.hitCount() - nodeHitsAtSwitch, node.missCount() - nodeMissesAtSwitch );
+    }
+
+    /**
+     * @return the fraction of relationship cache lookups which were hits since the caches were last configured.
+     */
+    public float relationshipHitRatioSinceSwitch()
+    {
+        return hitRatio( relationship.hitCount() - relationshipHitsAtSwitch,
+                relationship.missCount() - relationshipMissesAtSwitch );
+    }
+
+    /**
+     * @return ids of up to {@code max} nodes currently in the node cache, or none if the cache can't list them.
+     */
+    public long[] cachedNodeIds( int max )
+    {
+        return cachedIds( node, max );
+    }
+
+    /**
+     * @return ids of up to {@code max} relationships currently in the relationship cache, or none if the cache
+     * can't list them.
+     */
+    public long[] cachedRelationshipIds( int max )
+    {
+        return cachedIds( relationship, max );
+    }
+
+    private static long[] cachedIds( Cache<?> cache, int max )
+    {
+        return cache instanceof IdListingCache ? ((IdListingCache) cache).cachedIds( max ) : new long[0];
+    }
+
+    private static float hitRatio( long hits, long misses )
+    {
+        return hits + misses == 0 ? 0f : (float) hits / (hits + misses);
+    }
+
     private boolean cacheConfigSame( CacheProvider type, Config config )
     {
-        return
-                this.type != null && this.type.getName().equals( type.getName() ) &&
-                
-                // Only reuse array caches, since the other ones are cheap to recreate
-                GCResistantCacheProvider.NAME.equals( this.type.getName() ) &&
-                
-                mySettingIsSameAs(config, node_cache_array_fraction ) &&
-                mySettingIsSameAs(config, relationship_cache_array_fraction ) &&
-                mySettingIsSameAs(config, node_cache_size) &&
-        		mySettingIsSameAs(config, relationship_cache_size);
+        if ( this.type == null || !this.type.getName().equals( type.getName() ) )
+        {
+            return false;
+        }
+
+        if ( !(mySettingIsSameAs( config, node_cache_array_fraction ) &&
+                mySettingIsSameAs( config, relationship_cache_array_fraction ) &&
+                mySettingIsSameAs( config, node_cache_size ) &&
+                mySettingIsSameAs( config, relationship_cache_size )) )
+        {
+            return false;
+        }
+        for ( GraphDatabaseSetting<?> setting : settingsOf( type.getSettingsClass() ) )
+        {
+            if ( !mySettingIsSameAs( config, setting ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<GraphDatabaseSetting<?>> settingsOf( Class<?> settingsClass )
+    {
+        List<GraphDatabaseSetting<?>> result = new ArrayList<GraphDatabaseSetting<?>>();
+        if ( settingsClass == null )
+        {
+            return result;
+        }
+        for ( Field field : settingsClass.getFields() )
+        {
+            if ( isStatic( field.getModifiers() ) && GraphDatabaseSetting.class.isAssignableFrom( field.getType() ) )
+            {
+                try
+                {
+                    result.add( (GraphDatabaseSetting<?>) field.get( null ) );
+                }
+                catch ( IllegalAccessException e )
+                {
+                    throw new IllegalStateException( "Public field " + field + " isn't accessible", e );
+                }
+            }
+        }
+        return result;
     }
 
     private boolean mySettingIsSameAs(Config otherConfig, GraphDatabaseSetting<?> setting) {
 		Object myValue = config.get(setting);
 		Object otherValue = otherConfig.get(setting);
 		
-		return myValue.equals(otherValue);
+		return myValue == null ? otherValue == null : myValue.equals(otherValue);
 	}
 
 	@Override
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.ha;
 
+import static org.neo4j.com.Protocol.BOOLEAN_SERIALIZER;
 import static org.neo4j.com.Protocol.INTEGER_SERIALIZER;
 import static org.neo4j.com.Protocol.LONG_SERIALIZER;
 import static org.neo4j.com.Protocol.VOID_SERIALIZER;
@@ -35,6 +36,8 @@ import org.neo4j.com.ObjectSerializer;
 import org.neo4j.com.RequestContext;
 import org.neo4j.com.RequestType;
 import org.neo4j.com.Response;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.TargetCaller;
 import org.neo4j.com.ToNetworkStoreWriter;
 import org.neo4j.com.TxExtractor;
@@ -215,7 +218,14 @@ public enum HaRequestType18 implements RequestType<Master>
             return master.copyStore( context, new ToNetworkStoreWriter( target ) );
         }
 
-    }, VOID_SERIALIZER, true ),
+    }, VOID_SERIALIZER, true )
+    {
+        @Override
+        public boolean isStoreCopy()
+        {
+            return true;
+        }
+    },
 
     // ====
     COPY_TRANSACTIONS( new TargetCaller<Master, Void>()
@@ -323,7 +333,93 @@ public enum HaRequestType18 implements RequestType<Master>
         {
             return master.pushTransaction( context, readString( input ), input.readLong() );
         }
-    }, VOID_SERIALIZER, true );
+    }, VOID_SERIALIZER, true ),
+
+    // ====
+    COPY_STORE_SEGMENT_DELTA( new TargetCaller<Master, Boolean>()
+    {
+        @Override
+        public Response<Boolean> call( Master master, RequestContext context, ChannelBuffer input,
+                final ChannelBuffer target )
+        {
+            long sessionId = input.readLong();
+            StoreCopyManifest.Segment segment = new StoreCopyManifest.Segment( readString( input ),
+                    input.readLong(), input.readLong() );
+            return master.copyStoreSegmentDelta( context, sessionId, segment, StoreChecksums.read( input ),
+                    new ToNetworkStoreWriter( target ) );
+        }
+    }, BOOLEAN_SERIALIZER, true )
+    {
+        @Override
+        public boolean isStoreCopy()
+        {
+            return true;
+        }
+    },
+
+    // ====
+    OPEN_STORE_COPY( new TargetCaller<Master, StoreCopyManifest>()
+    {
+        @Override
+        public Response<StoreCopyManifest> call( Master master, RequestContext context, ChannelBuffer input,
+                ChannelBuffer target )
+        {
+            return master.openStoreCopy( context );
+        }
+    }, new ObjectSerializer<StoreCopyManifest>()
+    {
+        @Override
+        public void write( StoreCopyManifest responseObject, ChannelBuffer result ) throws IOException
+        {
+            responseObject.write( result );
+        }
+    }, true )
+    {
+        @Override
+        public boolean isStoreCopy()
+        {
+            return true;
+        }
+    },
+
+    // ====
+    COPY_STORE_SEGMENT( new TargetCaller<Master, Boolean>()
+    {
+        @Override
+        public Response<Boolean> call( Master master, RequestContext context, ChannelBuffer input,
+                final ChannelBuffer target )
+        {
+            long sessionId = input.readLong();
+            StoreCopyManifest.Segment segment = new StoreCopyManifest.Segment( readString( input ),
+                    input.readLong(), input.readLong() );
+            return master.copyStoreSegment( context, sessionId, segment, new ToNetworkStoreWriter( target ) );
+        }
+    }, BOOLEAN_SERIALIZER, true )
+    {
+        @Override
+        public boolean isStoreCopy()
+        {
+            return true;
+        }
+    },
+
+    // ====
+    FINISH_STORE_COPY( new TargetCaller<Master, Boolean>()
+    {
+        @Override
+        public Response<Boolean> call( Master master, RequestContext context, ChannelBuffer input,
+                ChannelBuffer target )
+        {
+            return master.finishStoreCopy( context, input.readLong() );
+        }
+    }, BOOLEAN_SERIALIZER, true )
+    {
+        @Override
+        public boolean isStoreCopy()
+        {
+            return true;
+        }
+    };
 
     @SuppressWarnings( "rawtypes" )
     final TargetCaller caller;
@@ -365,4 +461,9 @@ public enum HaRequestType18 implements RequestType<Master>
     {
         return false;
     }
+
+    public boolean isStoreCopy()
+    {
+        return false;
+    }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ package org.neo4j.kernel.ha;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.ANY;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.FALSE;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.HostnamePortSetting;
+import static org.neo4j.graphdb.factory.GraphDatabaseSetting.NumberOfBytesSetting;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.TRUE;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.TimeSpanSetting;
 
@@ -29,6 +30,7 @@ import org.neo4j.graphdb.factory.Default;
 import org.neo4j.graphdb.factory.Description;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.BooleanSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting.FloatSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.IntegerSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.OptionsSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting.StringSetting;
@@ -87,6 +89,53 @@ public class HaSettings
     @Default("0")
     public static final TimeSpanSetting pull_interval = new TimeSpanSetting( "ha.pull_interval" );
 
+    @Description("How often the ids of the entities in the node and relationship caches are written to disk, " +
+            "so that the caches can be warmed up again after a restart. 0 disables cache warm up.")
+    @Default("0")
+    public static final TimeSpanSetting cache_warmup_snapshot_interval =
+            new TimeSpanSetting( "ha.cache_warmup_snapshot_interval" );
+
+    @Description("The maximum number of node ids, and relationship ids, kept in a cache warm up snapshot. " +
+            "The most recently used entities are kept.")
+    @Default("1000000")
+    public static final IntegerSetting cache_warmup_max_ids = new IntegerSetting( "ha.cache_warmup_max_ids",
+            "Must be a valid number of ids", 0, null );
+
+    @Description("The number of threads loading entities into the caches during warm up")
+    @Default("4")
+    public static final IntegerSetting cache_warmup_threads = new IntegerSetting( "ha.cache_warmup_threads",
+            "Must be a valid number of threads", 1, null );
+
+    @Description("The number of store segments a slave fetches at the same time when copying the store " +
+            "from the master")
+    @Default("4")
+    public static final IntegerSetting store_copy_parallelism = new IntegerSetting( "ha.store_copy_parallelism",
+            "Must be a valid number of segments", 1, null );
+
+    @Description("The largest fraction of the store which may have changed since a branched away copy of it " +
+            "for a slave to only fetch the changed blocks. A slave further behind copies the whole store")
+    @Default("0.5")
+    public static final FloatSetting store_copy_delta_max_changed_fraction = new FloatSetting(
+            "ha.store_copy_delta_max_changed_fraction", "Must be a valid fraction", 0.0f, 1.0f );
+
+    @Description("How long the master keeps an idle store copy session around, so that a slave can resume " +
+            "an interrupted store copy")
+    @Default("10m")
+    public static final TimeSpanSetting store_copy_session_timeout =
+            new TimeSpanSetting( "ha.store_copy_session_timeout" );
+
+    @Description("The maximum rate, in bytes per second, at which the master reads store files and sends them " +
+            "to slaves copying the store. 0 means unlimited. Examples: 20M or 500k")
+    @Default("0")
+    public static final GraphDatabaseSetting<Long> store_copy_max_bytes_per_second =
+            new NumberOfBytesSetting( "ha.store_copy_max_bytes_per_second" );
+
+    @Description("Commit latency above which the master temporarily lowers the store copy rate limit. " +
+            "0 disables this back off")
+    @Default("0")
+    public static final TimeSpanSetting store_copy_backoff_commit_latency =
+            new TimeSpanSetting( "ha.store_copy_backoff_commit_latency" );
+
     @Description("The amount of slaves the master will ask to replicate a committed transaction. " +
             "The master will not throw an exception on commit if the replication failed.")
     @Default("1")
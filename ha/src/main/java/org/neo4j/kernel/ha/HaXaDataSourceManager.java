@@ -32,6 +32,9 @@ import org.neo4j.kernel.impl.util.StringLogger;
 
 public class HaXaDataSourceManager extends XaDataSourceManager
 {
+    private final Object applied = new Object();
+    private volatile long upToDateAsOf;
+
     public HaXaDataSourceManager( StringLogger msgLog )
     {
         super( msgLog );
@@ -70,7 +73,89 @@ public class HaXaDataSourceManager extends XaDataSourceManager
         finally
         {
             response.close();
+            transactionsApplied();
         }
         return response.response();
     }
+
+    /**
+     * Marks this instance as having all transactions the master had committed at
+     * {@code time}, i.e. the time a pull which has now been applied was started.
+     */
+    public void upToDateAsOf( long time )
+    {
+        synchronized ( applied )
+        {
+            upToDateAsOf = Math.max( upToDateAsOf, time );
+            applied.notifyAll();
+        }
+    }
+
+    public long getUpToDateAsOf()
+    {
+        return upToDateAsOf;
+    }
+
+    /**
+     * Waits for transaction {@code txId} of the neo store data source to be
+     * applied, without asking the master for it.
+     *
+     * @return {@code true} if it was applied within {@code timeoutMillis}.
+     */
+    public boolean awaitTxId( long txId, long timeoutMillis ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized ( applied )
+        {
+            while ( lastAppliedTxId() < txId )
+            {
+                long wait = deadline - System.currentTimeMillis();
+                if ( wait <= 0 )
+                {
+                    return false;
+                }
+                applied.wait( wait );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until this instance is up to date with the master as of at least
+     * {@code time}, without asking the master for updates.
+     *
+     * @return {@code true} if it was within {@code timeoutMillis}.
+     */
+    public boolean awaitUpToDateAsOf( long time, long timeoutMillis ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized ( applied )
+        {
+            while ( upToDateAsOf < time )
+            {
+                long wait = deadline - System.currentTimeMillis();
+                if ( wait <= 0 )
+                {
+                    return false;
+                }
+                applied.wait( wait );
+            }
+        }
+        return true;
+    }
+
+    private void transactionsApplied()
+    {
+        synchronized ( applied )
+        {
+            applied.notifyAll();
+        }
+    }
+
+    private long lastAppliedTxId()
+    {
+        XaDataSource dataSource = getNeoStoreDataSource();
+        // Not there while switching roles, nothing is being applied then anyway
+        return dataSource == null ? -1 : dataSource.getLastCommittedTxId();
+    }
 }
@@ -24,6 +24,7 @@ import java.io.File;
 import java.lang.reflect.Proxy;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.neo4j.cluster.ClusterSettings;
 import org.neo4j.cluster.client.ClusterClient;
@@ -78,6 +79,9 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
     private UpdatePuller updatePuller;
     private ClusterMemberContext memberContext;
     private ClusterClient clusterClient;
+    private HaCaches haCaches;
+    private StoreCopyThrottle storeCopyThrottle;
+    private final ReplicationMonitor replicationMonitor = new ReplicationMonitor();
 
     public HighlyAvailableGraphDatabase( String storeDir, Map<String, String> params,
             List<IndexProvider> indexProviders, List<KernelExtensionFactory<?>> kernelExtensions,
@@ -103,7 +107,9 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
         transactionSupport.setLockReleaser( lockReleaser );
         life.add( memberStateMachine );
         life.add( updatePuller = new UpdatePuller( (HaXaDataSourceManager) xaDataSourceManager, master,
-                requestContextFactory, txManager, accessGuard, config, msgLog ) );
+                requestContextFactory, txManager, accessGuard, replicationMonitor, config, msgLog ) );
+        life.add( new CacheWarmer( this, haCaches, memberStateMachine, config, msgLog ) );
+        storeCopyThrottle = life.add( new StoreCopyThrottle( this, config, msgLog ) );
 
         // Add this just before cluster join to ensure that it is up and running as late as possible
         // and is shut down as early as possible
@@ -207,7 +213,8 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
                         new Class[]{TxIdGenerator.class}, txIdGeneratorDelegate );
         slaves = life.add( new ClusterSlaves( memberStateMachine, msgLog, config, xaDataSourceManager ) );
         new TxIdGeneratorModeSwitcher( memberStateMachine, txIdGeneratorDelegate,
-                (HaXaDataSourceManager) xaDataSourceManager, master, requestContextFactory, msgLog, config, slaves );
+                (HaXaDataSourceManager) xaDataSourceManager, master, requestContextFactory, msgLog, config, slaves,
+                replicationMonitor );
         return txIdGenerator;
     }
 
@@ -228,7 +235,8 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
                 (LockManager) Proxy.newProxyInstance( LockManager.class.getClassLoader(),
                         new Class[]{LockManager.class}, lockManagerDelegate );
         new LockManagerModeSwitcher( memberStateMachine, lockManagerDelegate, txManager, txHook,
-                (HaXaDataSourceManager) xaDataSourceManager, master, requestContextFactory, transactionSupport );
+                (HaXaDataSourceManager) xaDataSourceManager, master, requestContextFactory, transactionSupport,
+                replicationMonitor );
         return lockManager;
     }
 
@@ -248,7 +256,7 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
     @Override
     protected Caches createCaches()
     {
-        return new HaCaches( msgLog );
+        return haCaches = new HaCaches( msgLog );
     }
 
     @Override
@@ -353,6 +361,39 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
         return memberStateMachine.getCurrentState() == ClusterMemberState.MASTER;
     }
 
+    /**
+     * Waits until transaction {@code txId}, typically one a client committed
+     * elsewhere in the cluster, has been applied on this instance. Unlike
+     * {@link UpdatePuller#pullUpdates()} it doesn't ask the master for it, but
+     * waits for the periodic pull or a push from the master to bring it in.
+     * Returns immediately on the master.
+     *
+     * @return {@code true} if reads from this instance will see {@code txId}.
+     */
+    public boolean awaitTransaction( long txId, long timeout, TimeUnit unit ) throws InterruptedException
+    {
+        return isMaster() || ((HaXaDataSourceManager) xaDataSourceManager).awaitTxId( txId, unit.toMillis( timeout ) );
+    }
+
+    /**
+     * Waits until this instance is at most {@code maxStaleness} behind the master,
+     * that is until it has applied everything the master had committed that long
+     * ago. Like {@link #awaitTransaction(long, long, TimeUnit)} it doesn't ask
+     * the master for updates and returns immediately on the master.
+     *
+     * @return {@code true} if reads from this instance are fresh enough.
+     */
+    public boolean awaitStaleness( long maxStaleness, long timeout, TimeUnit unit ) throws InterruptedException
+    {
+        if ( isMaster() )
+        {
+            return true;
+        }
+        long upToDateAsOf = System.currentTimeMillis() - unit.toMillis( maxStaleness );
+        return ((HaXaDataSourceManager) xaDataSourceManager).awaitUpToDateAsOf( upToDateAsOf,
+                unit.toMillis( timeout ) );
+    }
+
     @Override
     public DependencyResolver getDependencyResolver()
     {
@@ -380,6 +421,18 @@ public class HighlyAvailableGraphDatabase extends InternalAbstractGraphDatabase
                     {
                         result = (T) slaves;
                     }
+                    else if ( HaCaches.class.isAssignableFrom( type ) )
+                    {
+                        result = (T) haCaches;
+                    }
+                    else if ( StoreCopyThrottle.class.isAssignableFrom( type ) )
+                    {
+                        result = (T) storeCopyThrottle;
+                    }
+                    else if ( ReplicationMonitor.class.isAssignableFrom( type ) )
+                    {
+                        result = (T) replicationMonitor;
+                    }
                     else
                     {
                         throw e;
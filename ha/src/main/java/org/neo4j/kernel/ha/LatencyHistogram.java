@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.management.LatencyDistribution;
+
+/**
+ * Counts latencies in buckets of powers of two milliseconds, bucket {@code i}
+ * holding those below {@code 2^i} ms. Cheap enough to record every round trip.
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKETS = 24;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record( long nanos )
+    {
+        long millis = TimeUnit.NANOSECONDS.toMillis( nanos );
+        int bucket = 64 - Long.numberOfLeadingZeros( millis );
+        buckets[Math.min( bucket, BUCKETS - 1 )]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max( maxNanos, nanos );
+    }
+
+    public synchronized void clear()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            buckets[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized LatencyDistribution snapshot()
+    {
+        double mean = count == 0 ? 0 : totalNanos / (double) count / 1000000;
+        return new LatencyDistribution( count, mean, percentile( 0.5 ), percentile( 0.99 ),
+                TimeUnit.NANOSECONDS.toMillis( maxNanos ) );
+    }
+
+    private long percentile( double fraction )
+    {
+        long wanted = (long) Math.ceil( count * fraction );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += buckets[i];
+            if ( seen >= wanted && seen > 0 )
+            {
+                return Math.min( 1L << i, TimeUnit.NANOSECONDS.toMillis( maxNanos ) );
+            }
+        }
+        return 0;
+    }
+}
@@ -37,12 +37,14 @@ public class LockManagerModeSwitcher extends AbstractModeSwitcher<LockManager>
     private final Master master;
     private final RequestContextFactory requestContextFactory;
     private TransactionSupport transactionSupport;
+    private final ReplicationMonitor replicationMonitor;
 
     public LockManagerModeSwitcher( ClusterMemberStateMachine stateMachine,
                                     DelegateInvocationHandler<LockManager> delegate,
                                     AbstractTransactionManager txManager,
                                     TxHook txHook, HaXaDataSourceManager xaDsm, Master master,
-                                    RequestContextFactory requestContextFactory, TransactionSupport transactionSupport )
+                                    RequestContextFactory requestContextFactory, TransactionSupport transactionSupport,
+                                    ReplicationMonitor replicationMonitor )
     {
         super( stateMachine, delegate );
         this.txManager = txManager;
@@ -51,6 +53,7 @@ public class LockManagerModeSwitcher extends AbstractModeSwitcher<LockManager>
         this.master = master;
         this.requestContextFactory = requestContextFactory;
         this.transactionSupport = transactionSupport;
+        this.replicationMonitor = replicationMonitor;
     }
 
     @Override
@@ -62,6 +65,7 @@ public class LockManagerModeSwitcher extends AbstractModeSwitcher<LockManager>
     @Override
     protected LockManager getSlaveImpl( URI serverHaUri )
     {
-        return new SlaveLockManager( transactionSupport, new RagManager( txManager ), requestContextFactory, master, xaDsm );
+        return new SlaveLockManager( transactionSupport, new RagManager( txManager ), requestContextFactory, master, xaDsm,
+                replicationMonitor );
     }
 }
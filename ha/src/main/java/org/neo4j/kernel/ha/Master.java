@@ -21,6 +21,8 @@ package org.neo4j.kernel.ha;
 
 import org.neo4j.com.RequestContext;
 import org.neo4j.com.Response;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TxExtractor;
 import org.neo4j.helpers.Pair;
@@ -78,6 +80,36 @@ public interface Master
 
     Response<Void> copyStore( RequestContext context, StoreWriter writer );
 
+    /**
+     * Starts a store copy which is fetched in segments, possibly several at a time,
+     * using {@link #copyStoreSegment(RequestContext, long, StoreCopyManifest.Segment, StoreWriter)}
+     * and ended with {@link #finishStoreCopy(RequestContext, long)}.
+     */
+    Response<StoreCopyManifest> openStoreCopy( RequestContext context );
+
+    /**
+     * @return {@code false} if the store copy session isn't known by the master (any longer),
+     * in which case the store copy has to be started over.
+     */
+    Response<Boolean> copyStoreSegment( RequestContext context, long sessionId, StoreCopyManifest.Segment segment,
+                                        StoreWriter writer );
+
+    /**
+     * Like {@link #copyStoreSegment(RequestContext, long, StoreCopyManifest.Segment, StoreWriter)},
+     * but only streams the blocks of the segment which differ from what the caller already has,
+     * as described by {@code checksums}. The segment is encoded as by {@link org.neo4j.com.DeltaStoreWriter}.
+     */
+    Response<Boolean> copyStoreSegmentDelta( RequestContext context, long sessionId,
+                                             StoreCopyManifest.Segment segment, StoreChecksums checksums,
+                                             StoreWriter writer );
+
+    /**
+     * Ends a store copy session. The response carries the transactions committed since
+     * the session was opened. {@code false} means that the session isn't known by the
+     * master (any longer), in which case the store copy has to be started over.
+     */
+    Response<Boolean> finishStoreCopy( RequestContext context, long sessionId );
+
     Response<Void> copyTransactions( RequestContext context, String dsName,
                                      long startTxId, long endTxId );
 }
@@ -38,6 +38,8 @@ import org.neo4j.com.RequestType;
 import org.neo4j.com.ResourceReleaser;
 import org.neo4j.com.Response;
 import org.neo4j.com.Serializer;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TargetCaller;
 import org.neo4j.com.TransactionStream;
@@ -272,6 +274,28 @@ public class MasterClient153 extends Client<Master> implements Master, MasterCli
                 writer ) );
     }
 
+    public Response<StoreCopyManifest> openStoreCopy( RequestContext context )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.5.3 masters" );
+    }
+
+    public Response<Boolean> copyStoreSegment( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreWriter writer )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.5.3 masters" );
+    }
+
+    public Response<Boolean> copyStoreSegmentDelta( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreChecksums checksums, StoreWriter writer )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.5.3 masters" );
+    }
+
+    public Response<Boolean> finishStoreCopy( RequestContext context, long sessionId )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.5.3 masters" );
+    }
+
     private RequestContext stripFromTransactions( RequestContext context )
     {
         return new RequestContext( context.getSessionId(), context.machineId(), context.getEventIdentifier(),
@@ -36,6 +36,8 @@ import org.neo4j.com.RequestType;
 import org.neo4j.com.ResourceReleaser;
 import org.neo4j.com.Response;
 import org.neo4j.com.Serializer;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TargetCaller;
 import org.neo4j.com.TransactionStream;
@@ -278,6 +280,32 @@ public class MasterClient17 extends Client<Master> implements MasterClient
                 new Protocol.FileStreamsDeserializer( writer ) );
     }
 
+    @Override
+    public Response<StoreCopyManifest> openStoreCopy( RequestContext context )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.7 masters" );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegment( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreWriter writer )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.7 masters" );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegmentDelta( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreChecksums checksums, StoreWriter writer )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.7 masters" );
+    }
+
+    @Override
+    public Response<Boolean> finishStoreCopy( RequestContext context, long sessionId )
+    {
+        throw new UnsupportedOperationException( "Segmented store copy is not supported by 1.7 masters" );
+    }
+
     private RequestContext stripFromTransactions( RequestContext context )
     {
         return new RequestContext( context.getSessionId(), context.machineId(), context.getEventIdentifier(),
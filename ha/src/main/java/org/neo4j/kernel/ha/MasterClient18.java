@@ -21,6 +21,7 @@ package org.neo4j.kernel.ha;
 
 import static org.neo4j.com.Protocol.EMPTY_SERIALIZER;
 import static org.neo4j.com.Protocol.VOID_DESERIALIZER;
+import static org.neo4j.com.Protocol.readBoolean;
 import static org.neo4j.com.Protocol.writeString;
 
 import java.io.IOException;
@@ -38,6 +39,8 @@ import org.neo4j.com.RequestType;
 import org.neo4j.com.ResourceReleaser;
 import org.neo4j.com.Response;
 import org.neo4j.com.Serializer;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TargetCaller;
 import org.neo4j.com.TransactionStream;
@@ -63,15 +66,32 @@ public class MasterClient18 extends Client<Master> implements MasterClient
      * Version 4 since 2012-07-05 */
     public static final byte PROTOCOL_VERSION = 4;
 
+    /**
+     * Query parameter which a master puts in its HA URI if it serves delta and segmented
+     * store copy. Those came without a protocol version change, so that slaves and masters
+     * can still be upgraded one at a time. Masters without it only serve full store copies.
+     */
+    public static final String SEGMENTED_STORE_COPY = "storeCopy=segmented";
+
+    private final boolean segmentedStoreCopySupported;
     private final long lockReadTimeout;
     private Config config;
 
     public MasterClient18( String hostNameOrIp, int port, StringLogger stringLogger, StoreId storeId,
             long readTimeoutSeconds, long lockReadTimeout, int maxConcurrentChannels, int chunkSize )
+    {
+        this( hostNameOrIp, port, stringLogger, storeId, readTimeoutSeconds, lockReadTimeout, maxConcurrentChannels,
+                chunkSize, false );
+    }
+
+    public MasterClient18( String hostNameOrIp, int port, StringLogger stringLogger, StoreId storeId,
+            long readTimeoutSeconds, long lockReadTimeout, int maxConcurrentChannels, int chunkSize,
+            boolean segmentedStoreCopySupported )
     {
         super( hostNameOrIp, port, stringLogger, storeId, MasterServer.FRAME_LENGTH, PROTOCOL_VERSION,
                 readTimeoutSeconds, maxConcurrentChannels, Math.min( maxConcurrentChannels,
                         DEFAULT_MAX_NUMBER_OF_CONCURRENT_CHANNELS_PER_CLIENT ), chunkSize );
+        this.segmentedStoreCopySupported = segmentedStoreCopySupported;
         this.lockReadTimeout = lockReadTimeout;
     }
 
@@ -82,17 +102,36 @@ public class MasterClient18 extends Client<Master> implements MasterClient
                 config.get( HaSettings.lock_read_timeout )
                 : config.get( HaSettings.read_timeout ),
                 config.get( HaSettings.max_concurrent_channels_per_slave ),
-                config.get( ComSettings.com_chunk_size ) );
+                config.get( ComSettings.com_chunk_size ), supportsSegmentedStoreCopy( masterUri ) );
         this.config = config;
     }
 
+    /**
+     * @return whether the master with the given HA URI advertises {@link #SEGMENTED_STORE_COPY}.
+     */
+    public static boolean supportsSegmentedStoreCopy( URI masterUri )
+    {
+        String query = masterUri.getQuery();
+        if ( query != null )
+        {
+            for ( String param : query.split( "&" ) )
+            {
+                if ( param.equals( SEGMENTED_STORE_COPY ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     protected long getReadTimeout( RequestType<Master> type, long readTimeout )
     {
         HaRequestType18 specificType = (HaRequestType18) type;
         if ( specificType.isLock() )
             return lockReadTimeout;
-        if ( specificType == HaRequestType18.COPY_STORE )
+        if ( specificType.isStoreCopy() )
             return readTimeout*2;
         return readTimeout;
     }
@@ -100,7 +139,7 @@ public class MasterClient18 extends Client<Master> implements MasterClient
     @Override
     protected boolean shouldCheckStoreId( RequestType<Master> type )
     {
-        return type != HaRequestType18.COPY_STORE;
+        return !((HaRequestType18) type).isStoreCopy();
     }
 
     @Override
@@ -299,6 +338,105 @@ public class MasterClient18 extends Client<Master> implements MasterClient
                 new Protocol.FileStreamsDeserializer( writer ) );
     }
 
+    @Override
+    public Response<StoreCopyManifest> openStoreCopy( RequestContext context )
+    {
+        assertSegmentedStoreCopySupported();
+        context = stripFromTransactions( context );
+        return sendRequest( HaRequestType18.OPEN_STORE_COPY, context, EMPTY_SERIALIZER,
+                new Deserializer<StoreCopyManifest>()
+                {
+                    @Override
+                    public StoreCopyManifest read( ChannelBuffer buffer, ByteBuffer temporaryBuffer )
+                            throws IOException
+                    {
+                        return StoreCopyManifest.read( buffer );
+                    }
+                } );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegment( RequestContext context, final long sessionId,
+            final StoreCopyManifest.Segment segment, final StoreWriter writer )
+    {
+        assertSegmentedStoreCopySupported();
+        context = stripFromTransactions( context );
+        return sendRequest( HaRequestType18.COPY_STORE_SEGMENT, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeLong( sessionId );
+                writeString( buffer, segment.getPath() );
+                buffer.writeLong( segment.getOffset() );
+                buffer.writeLong( segment.getLength() );
+            }
+        }, new Deserializer<Boolean>()
+        {
+            @Override
+            public Boolean read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+            {
+                new Protocol.FileStreamsDeserializer( writer ).read( buffer, temporaryBuffer );
+                return readBoolean( buffer );
+            }
+        } );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegmentDelta( RequestContext context, final long sessionId,
+            final StoreCopyManifest.Segment segment, final StoreChecksums checksums, final StoreWriter writer )
+    {
+        assertSegmentedStoreCopySupported();
+        context = stripFromTransactions( context );
+        return sendRequest( HaRequestType18.COPY_STORE_SEGMENT_DELTA, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeLong( sessionId );
+                writeString( buffer, segment.getPath() );
+                buffer.writeLong( segment.getOffset() );
+                buffer.writeLong( segment.getLength() );
+                checksums.write( buffer );
+            }
+        }, new Deserializer<Boolean>()
+        {
+            @Override
+            public Boolean read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+            {
+                new Protocol.FileStreamsDeserializer( writer ).read( buffer, temporaryBuffer );
+                return readBoolean( buffer );
+            }
+        } );
+    }
+
+    @Override
+    public Response<Boolean> finishStoreCopy( RequestContext context, final long sessionId )
+    {
+        assertSegmentedStoreCopySupported();
+        context = stripFromTransactions( context );
+        return sendRequest( HaRequestType18.FINISH_STORE_COPY, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeLong( sessionId );
+            }
+        }, new Deserializer<Boolean>()
+        {
+            @Override
+            public Boolean read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+            {
+                return readBoolean( buffer );
+            }
+        } );
+    }
+
+    private void assertSegmentedStoreCopySupported()
+    {
+        if ( !segmentedStoreCopySupported )
+        {
+            throw new UnsupportedOperationException( "Segmented store copy is not supported by the master" );
+        }
+    }
+
     private RequestContext stripFromTransactions( RequestContext context )
     {
         return new RequestContext( context.getSessionId(), context.machineId(), context.getEventIdentifier(),
@@ -35,10 +35,14 @@ import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
+import org.neo4j.com.DeltaStoreWriter;
 import org.neo4j.com.RequestContext;
 import org.neo4j.com.ResourceReleaser;
 import org.neo4j.com.Response;
 import org.neo4j.com.ServerUtil;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
+import org.neo4j.com.StoreCopySessions;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TransactionStream;
 import org.neo4j.com.TxExtractor;
@@ -87,6 +91,10 @@ public class MasterImpl extends LifecycleAdapter implements Master
     private final LockManager lockManager;
     private final LockReleaser lockReleaser;
     private final TransactionManager txManager;
+    private final StoreCopyThrottle storeCopyThrottle;
+    private final StoreCopySessions storeCopySessions;
+    private final ReplicationMonitor replicationMonitor;
+    private long storeCopySessionTimeoutMillis;
 
     public MasterImpl( GraphDatabaseAPI db, StringLogger logger, Config config )
     {
@@ -97,6 +105,9 @@ public class MasterImpl extends LifecycleAdapter implements Master
         lockManager = graphDb.getDependencyResolver().resolveDependency( LockManager.class );
         lockReleaser = graphDb.getDependencyResolver().resolveDependency( LockReleaser.class );
         txManager = graphDb.getDependencyResolver().resolveDependency( TransactionManager.class );
+        storeCopyThrottle = graphDb.getDependencyResolver().resolveDependency( StoreCopyThrottle.class );
+        storeCopySessions = new StoreCopySessions( storeCopyThrottle.getThrottle() );
+        replicationMonitor = graphDb.getDependencyResolver().resolveDependency( ReplicationMonitor.class );
     }
 
     @Override
@@ -104,6 +115,7 @@ public class MasterImpl extends LifecycleAdapter implements Master
     {
         this.unfinishedTransactionThresholdMillis = config.isSet( HaSettings.lock_read_timeout ) ?
                 config.get( HaSettings.lock_read_timeout ) : config.get( HaSettings.read_timeout );
+        this.storeCopySessionTimeoutMillis = config.get( HaSettings.store_copy_session_timeout );
         this.unfinishedTransactionsExecutor =
                 Executors.newSingleThreadScheduledExecutor( new NamedThreadFactory( "Unfinished transaction reaper" ) );
         this.unfinishedTransactionsExecutor.scheduleWithFixedDelay( new Runnable()
@@ -113,6 +125,9 @@ public class MasterImpl extends LifecycleAdapter implements Master
             {
                 try
                 {
+                    storeCopySessions.closeIdle( storeCopySessionTimeoutMillis );
+                    storeCopyThrottle.maybeAdjust();
+
                     Map<RequestContext, MasterTransaction> safeTransactions = null;
                     synchronized ( transactions )
                     {
@@ -159,6 +174,7 @@ public class MasterImpl extends LifecycleAdapter implements Master
     public void stop()
     {
         unfinishedTransactionsExecutor.shutdown();
+        storeCopySessions.closeAll();
     }
 
     @Override
@@ -419,7 +435,9 @@ public class MasterImpl extends LifecycleAdapter implements Master
         {
             XaDataSource dataSource = graphDb.getXaDataSourceManager()
                     .getXaDataSource( resource );
+            long startTime = System.nanoTime();
             final long txId = dataSource.applyPreparedTransaction( txGetter.extract() );
+            storeCopyThrottle.commitCompleted( System.nanoTime() - startTime );
             Predicate<Long> upUntilThisTx = new Predicate<Long>()
             {
                 public boolean accept( Long item )
@@ -466,6 +484,13 @@ public class MasterImpl extends LifecycleAdapter implements Master
 
     public Response<Void> pullUpdates( RequestContext context )
     {
+        for ( RequestContext.Tx tx : context.lastAppliedTransactions() )
+        {
+            if ( Config.DEFAULT_DATA_SOURCE_NAME.equals( tx.getDataSourceName() ) )
+            {
+                replicationMonitor.slaveApplied( context.machineId(), tx.getTxId() );
+            }
+        }
         return packResponse( context, null );
     }
 
@@ -486,11 +511,55 @@ public class MasterImpl extends LifecycleAdapter implements Master
 
     public Response<Void> copyStore( RequestContext context, StoreWriter writer )
     {
-        context = ServerUtil.rotateLogsAndStreamStoreFiles( graphDb, true, writer );
+        context = ServerUtil.rotateLogsAndStreamStoreFiles( graphDb, true, writer,
+                storeCopyThrottle.getThrottle() );
         writer.done();
         return packResponse( context, null );
     }
 
+    @Override
+    public Response<StoreCopyManifest> openStoreCopy( RequestContext context )
+    {
+        StoreCopyManifest manifest = storeCopySessions.open( graphDb, true, StoreCopyManifest.DEFAULT_SEGMENT_SIZE );
+        msgLog.logMessage( "Opened store copy session " + manifest.getSessionId() + " for " + context.machineId() +
+                ", " + manifest.getSegments().size() + " segments, " + manifest.getTotalBytes() + " bytes" );
+        return ServerUtil.packResponseWithoutTransactionStream( graphDb.getStoreId(), manifest );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegment( RequestContext context, long sessionId,
+                                               StoreCopyManifest.Segment segment, StoreWriter writer )
+    {
+        return ServerUtil.packResponseWithoutTransactionStream( graphDb.getStoreId(),
+                storeCopySessions.streamSegment( sessionId, segment, writer ) );
+    }
+
+    @Override
+    public Response<Boolean> copyStoreSegmentDelta( RequestContext context, long sessionId,
+                                                    StoreCopyManifest.Segment segment, StoreChecksums checksums,
+                                                    StoreWriter writer )
+    {
+        DeltaStoreWriter deltaWriter = new DeltaStoreWriter( writer, checksums );
+        boolean known = storeCopySessions.streamSegment( sessionId, segment, deltaWriter );
+        if ( known )
+        {
+            msgLog.logMessage( "Streamed delta of " + segment + " to " + context.machineId() + ", sent " +
+                    deltaWriter.getTransferredBytes() + " of " + deltaWriter.getTotalBytes() + " bytes" );
+        }
+        return ServerUtil.packResponseWithoutTransactionStream( graphDb.getStoreId(), known );
+    }
+
+    @Override
+    public Response<Boolean> finishStoreCopy( RequestContext context, long sessionId )
+    {
+        RequestContext streamContext = storeCopySessions.finish( sessionId );
+        if ( streamContext == null )
+        {
+            return ServerUtil.packResponseWithoutTransactionStream( graphDb.getStoreId(), false );
+        }
+        return packResponse( streamContext, true );
+    }
+
     @Override
     public Response<Void> copyTransactions( RequestContext context,
                                             String dsName, long startTxId, long endTxId )
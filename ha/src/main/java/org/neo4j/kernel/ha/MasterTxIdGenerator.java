@@ -117,12 +117,20 @@ public class MasterTxIdGenerator implements TxIdGenerator, Lifecycle
     private final StringLogger log;
     private final Configuration config;
     private final Slaves slaves;
+    private final ReplicationMonitor replicationMonitor;
 
     public MasterTxIdGenerator( Configuration config, StringLogger log, Slaves slaves )
+    {
+        this( config, log, slaves, new ReplicationMonitor() );
+    }
+
+    public MasterTxIdGenerator( Configuration config, StringLogger log, Slaves slaves,
+                                ReplicationMonitor replicationMonitor )
     {
         this.config = config;
         this.log = log;
         this.slaves = slaves;
+        this.replicationMonitor = replicationMonitor;
     }
 
     @Override
@@ -142,6 +150,7 @@ public class MasterTxIdGenerator implements TxIdGenerator, Lifecycle
     public void stop() throws Throwable
     {
         this.slaveCommitters.shutdown();
+        replicationMonitor.forgetSlaves();
     }
 
     @Override
@@ -157,6 +166,11 @@ public class MasterTxIdGenerator implements TxIdGenerator, Lifecycle
     @Override
     public void committed( XaDataSource dataSource, int identifier, long txId, Integer externalAuthorServerId )
     {
+        if ( isNeoStore( dataSource ) )
+        {
+            replicationMonitor.committed( txId );
+        }
+
         int replicationFactor = desiredReplicationFactor;
         if ( externalAuthorServerId != null )
         {
@@ -354,8 +368,18 @@ public class MasterTxIdGenerator implements TxIdGenerator, Lifecycle
     private void commitAtSlave( final XaDataSource dataSource, final int identifier, Slave slave, final long txId )
     {
         // Go for plain ping-the-slave-to-pull-updates
+        long startTime = System.nanoTime();
         Response<Void> response = slave.pullUpdates( dataSource.getName(), txId );
         response.close();
+        if ( isNeoStore( dataSource ) )
+        {
+            replicationMonitor.pushed( slave.getServerId(), txId, System.nanoTime() - startTime );
+        }
+    }
+
+    private static boolean isNeoStore( XaDataSource dataSource )
+    {
+        return Config.DEFAULT_DATA_SOURCE_NAME.equals( dataSource.getName() );
     }
 
     public int getCurrentMasterId()
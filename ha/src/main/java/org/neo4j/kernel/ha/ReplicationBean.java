@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.management.LatencyDistribution;
+import org.neo4j.management.Replication;
+import org.neo4j.management.SlaveReplicationInfo;
+
+@Service.Implementation(ManagementBeanProvider.class)
+public final class ReplicationBean extends ManagementBeanProvider
+{
+    public ReplicationBean()
+    {
+        super( Replication.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) )
+        {
+            return null;
+        }
+        return new ReplicationImpl( management, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) )
+        {
+            return null;
+        }
+        return new ReplicationImpl( management );
+    }
+
+    private static boolean isHA( ManagementData management )
+    {
+        return management.getKernelData().graphDatabase() instanceof HighlyAvailableGraphDatabase;
+    }
+
+    private static class ReplicationImpl extends Neo4jMBean implements Replication
+    {
+        private final ReplicationMonitor monitor;
+
+        ReplicationImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            monitor = monitor( management );
+        }
+
+        ReplicationImpl( ManagementData management, boolean isMXBean )
+        {
+            super( management, isMXBean );
+            monitor = monitor( management );
+        }
+
+        private static ReplicationMonitor monitor( ManagementData management )
+        {
+            return management.getKernelData().graphDatabase().getDependencyResolver()
+                    .resolveDependency( ReplicationMonitor.class );
+        }
+
+        @Override
+        public long getLastCommittedTxId()
+        {
+            return monitor.getLastCommittedTxId();
+        }
+
+        @Override
+        public SlaveReplicationInfo[] getSlaves()
+        {
+            return monitor.getSlaves();
+        }
+
+        @Override
+        public LatencyDistribution getPushLatency()
+        {
+            return monitor.getPushLatency();
+        }
+
+        @Override
+        public LatencyDistribution getPullLatency()
+        {
+            return monitor.getPullLatency();
+        }
+
+        @Override
+        public LatencyDistribution getLockLatency()
+        {
+            return monitor.getLockLatency();
+        }
+
+        @Override
+        public LatencyDistribution getCommitLatency()
+        {
+            return monitor.getCommitLatency();
+        }
+
+        @Override
+        public long getLastPullTransactions()
+        {
+            return monitor.getLastPullTransactions();
+        }
+
+        @Override
+        public long getMillisSinceLastPull()
+        {
+            return monitor.getMillisSinceLastPull();
+        }
+
+        @Override
+        public void reset()
+        {
+            monitor.reset();
+        }
+    }
+}
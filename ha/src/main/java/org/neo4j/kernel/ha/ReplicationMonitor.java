@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.management.LatencyDistribution;
+import org.neo4j.management.SlaveReplicationInfo;
+
+/**
+ * Keeps track of how far behind the master each slave is and of how long
+ * pushes and pulls of transactions take. The master side is fed by
+ * {@link MasterTxIdGenerator} and {@link MasterImpl}, the slave side by
+ * {@link UpdatePuller} and {@link SlaveImpl}. Slaves also time the round
+ * trips to the master for locks, in {@link SlaveLockManager}, and for
+ * commits, in {@link SlaveTxIdGenerator}. Only transactions of the neo
+ * store data source are tracked.
+ */
+public class ReplicationMonitor
+{
+    private static final int COMMIT_TIMES = 4096;
+
+    private final long[] commitTxIds = new long[COMMIT_TIMES];
+    private final long[] commitTimes = new long[COMMIT_TIMES];
+    private final ConcurrentMap<Integer, SlaveState> slaves = new ConcurrentHashMap<Integer, SlaveState>();
+    private final LatencyHistogram pushLatency = new LatencyHistogram();
+    private final LatencyHistogram pullLatency = new LatencyHistogram();
+    private final LatencyHistogram lockLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private volatile long lastCommittedTxId;
+    private volatile long lastPullTransactions;
+    private volatile long lastPullTime;
+
+    public synchronized void committed( long txId )
+    {
+        int index = (int) (txId % COMMIT_TIMES);
+        commitTxIds[index] = txId;
+        commitTimes[index] = System.currentTimeMillis();
+        lastCommittedTxId = txId;
+    }
+
+    /**
+     * A slave acknowledged a push of {@code txId}, which took {@code nanos}.
+     */
+    public void pushed( int serverId, long txId, long nanos )
+    {
+        pushLatency.record( nanos );
+        SlaveState slave = slave( serverId );
+        slave.pushLatency.record( nanos );
+        slave.applied( txId );
+    }
+
+    /**
+     * A slave told the master, by asking it for updates, that it has applied
+     * transactions up to {@code txId}.
+     */
+    public void slaveApplied( int serverId, long txId )
+    {
+        slave( serverId ).applied( txId );
+    }
+
+    /**
+     * This instance, as a slave, pulled {@code transactions} transactions from the
+     * master, which took {@code nanos}, and is now at {@code txId}.
+     */
+    public void pulled( long nanos, long transactions, long txId )
+    {
+        pullLatency.record( nanos );
+        lastPullTransactions = transactions;
+        lastPullTime = System.currentTimeMillis();
+        lastCommittedTxId = txId;
+    }
+
+    /**
+     * This instance, as a slave, got a lock from the master, which took {@code nanos}
+     * including applying the transactions that came with the response.
+     */
+    public void lockedOnMaster( long nanos )
+    {
+        lockLatency.record( nanos );
+    }
+
+    /**
+     * This instance, as a slave, committed a transaction through the master, which
+     * took {@code nanos} including applying the transactions that came with the response.
+     */
+    public void committedOnMaster( long nanos )
+    {
+        commitLatency.record( nanos );
+    }
+
+    public void forgetSlaves()
+    {
+        slaves.clear();
+    }
+
+    public void reset()
+    {
+        pushLatency.clear();
+        pullLatency.clear();
+        lockLatency.clear();
+        commitLatency.clear();
+        for ( SlaveState slave : slaves.values() )
+        {
+            slave.pushLatency.clear();
+        }
+    }
+
+    public long getLastCommittedTxId()
+    {
+        return lastCommittedTxId;
+    }
+
+    public SlaveReplicationInfo[] getSlaves()
+    {
+        long lastTxId = lastCommittedTxId;
+        List<SlaveReplicationInfo> result = new ArrayList<SlaveReplicationInfo>();
+        for ( Map.Entry<Integer, SlaveState> entry : slaves.entrySet() )
+        {
+            long acknowledged = entry.getValue().lastAppliedTxId;
+            long lag = Math.max( 0, lastTxId - acknowledged );
+            result.add( new SlaveReplicationInfo( entry.getKey(), acknowledged, lag,
+                    lag == 0 ? 0 : millisSinceCommitOf( acknowledged + 1 ),
+                    entry.getValue().pushLatency.snapshot() ) );
+        }
+        return result.toArray( new SlaveReplicationInfo[result.size()] );
+    }
+
+    public LatencyDistribution getPushLatency()
+    {
+        return pushLatency.snapshot();
+    }
+
+    public LatencyDistribution getPullLatency()
+    {
+        return pullLatency.snapshot();
+    }
+
+    public LatencyDistribution getLockLatency()
+    {
+        return lockLatency.snapshot();
+    }
+
+    public LatencyDistribution getCommitLatency()
+    {
+        return commitLatency.snapshot();
+    }
+
+    public long getLastPullTransactions()
+    {
+        return lastPullTransactions;
+    }
+
+    public long getMillisSinceLastPull()
+    {
+        long time = lastPullTime;
+        return time == 0 ? -1 : System.currentTimeMillis() - time;
+    }
+
+    private synchronized long millisSinceCommitOf( long txId )
+    {
+        int index = (int) (txId % COMMIT_TIMES);
+        if ( commitTxIds[index] != txId )
+        {
+            // Committed too long ago to be remembered, the oldest one we have is a lower bound
+            index = (int) ((lastCommittedTxId + 1) % COMMIT_TIMES);
+        }
+        long time = commitTimes[index];
+        return time == 0 ? 0 : System.currentTimeMillis() - time;
+    }
+
+    private SlaveState slave( int serverId )
+    {
+        SlaveState slave = slaves.get( serverId );
+        if ( slave == null )
+        {
+            SlaveState existing = slaves.putIfAbsent( serverId, slave = new SlaveState() );
+            slave = existing != null ? existing : slave;
+        }
+        return slave;
+    }
+
+    private static class SlaveState
+    {
+        private final LatencyHistogram pushLatency = new LatencyHistogram();
+        private volatile long lastAppliedTxId;
+
+        synchronized void applied( long txId )
+        {
+            lastAppliedTxId = Math.max( lastAppliedTxId, txId );
+        }
+    }
+}
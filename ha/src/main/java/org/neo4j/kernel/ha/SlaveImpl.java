@@ -29,21 +29,29 @@ public class SlaveImpl implements Slave
     private final RequestContextFactory requestContextFactory;
     private final StoreId storeId;
     private final HaXaDataSourceManager xaDsm;
+    private final ReplicationMonitor replicationMonitor;
 
     public SlaveImpl( StoreId storeId, Master master, RequestContextFactory requestContextFactory,
-                      HaXaDataSourceManager xaDsm )
+                      HaXaDataSourceManager xaDsm, ReplicationMonitor replicationMonitor )
     {
         this.storeId = storeId;
         this.master = master;
         this.requestContextFactory = requestContextFactory;
         this.xaDsm = xaDsm;
+        this.replicationMonitor = replicationMonitor;
     }
 
     @Override
     public Response<Void> pullUpdates( String resource, long upToAndIncludingTxId )
     {
         // Pull updates from the master
+        long startTime = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        long txIdBefore = xaDsm.getNeoStoreDataSource().getLastCommittedTxId();
         xaDsm.applyTransactions( master.pullUpdates( requestContextFactory.newRequestContext( 0 ) ), ServerUtil.NO_ACTION );
+        long txIdAfter = xaDsm.getNeoStoreDataSource().getLastCommittedTxId();
+        replicationMonitor.pulled( System.nanoTime() - startTime, txIdAfter - txIdBefore, txIdAfter );
+        xaDsm.upToDateAsOf( startMillis );
         return ServerUtil.packResponseWithoutTransactionStream( storeId, null );
     }
 
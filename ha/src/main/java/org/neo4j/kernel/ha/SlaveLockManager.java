@@ -42,14 +42,16 @@ public class SlaveLockManager implements LockManager
     private final Master master;
     private final TransactionSupport transactionSupport;
     private final HaXaDataSourceManager xaDsm;
+    private final ReplicationMonitor replicationMonitor;
 
     public SlaveLockManager( TransactionSupport transactionSupport,
                              RagManager ragManager, RequestContextFactory requestContextFactory, Master master,
-                             HaXaDataSourceManager xaDsm )
+                             HaXaDataSourceManager xaDsm, ReplicationMonitor replicationMonitor )
     {
         this.requestContextFactory = requestContextFactory;
         this.transactionSupport = transactionSupport;
         this.xaDsm = xaDsm;
+        this.replicationMonitor = replicationMonitor;
         this.local = new LockManagerImpl( ragManager );
         this.master = master;
     }
@@ -80,6 +82,7 @@ public class SlaveLockManager implements LockManager
 
     private boolean getReadLockOnMaster( Object resource )
     {
+        long startTime = System.nanoTime();
         Response<LockResult> response = null;
         if ( resource instanceof Node )
         {
@@ -100,12 +103,13 @@ public class SlaveLockManager implements LockManager
         {
             return true;
         }
-        return receiveLockResponse( response );
+        return receiveLockResponse( response, startTime );
     }
 
-    private boolean receiveLockResponse( Response<LockResult> response )
+    private boolean receiveLockResponse( Response<LockResult> response, long startTime )
     {
         LockResult result = xaDsm.applyTransactions( response );
+        replicationMonitor.lockedOnMaster( System.nanoTime() - startTime );
         switch ( result.getStatus() )
         {
         case DEAD_LOCKED:
@@ -141,6 +145,7 @@ public class SlaveLockManager implements LockManager
 
     private boolean getWriteLockOnMaster( Object resource )
     {
+        long startTime = System.nanoTime();
         Response<LockResult> response = null;
         if ( resource instanceof Node )
         {
@@ -162,7 +167,7 @@ public class SlaveLockManager implements LockManager
             return true;
         }
         
-        return receiveLockResponse( response );
+        return receiveLockResponse( response, startTime );
     }
     
     @Override
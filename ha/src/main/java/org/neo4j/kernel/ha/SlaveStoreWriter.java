@@ -24,14 +24,31 @@ import static org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource.LOGICAL_LOG_D
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.neo4j.com.ComException;
+import org.neo4j.com.DeltaToFileStoreWriter;
 import org.neo4j.com.RequestContext;
 import org.neo4j.com.Response;
 import org.neo4j.com.ServerUtil;
+import org.neo4j.com.StandaloneTransactionApplier;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.ToFileStoreWriter;
+import org.neo4j.com.TxExtractor;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.InternalAbstractGraphDatabase;
 import org.neo4j.kernel.configuration.Config;
@@ -45,55 +62,101 @@ import org.neo4j.kernel.impl.util.StringLogger;
 public class SlaveStoreWriter
 {
     public static final String COPY_FROM_MASTER_TEMP = "temp-copy";
+    public static final String COPY_FROM_MASTER_DELTA_TEMP = "temp-copy-delta";
+    static final String STORE_COPY_MANIFEST = "store-copy.manifest";
+    static final String STORE_COPY_PROGRESS = "store-copy.progress";
+    private static final int MAX_STORE_COPY_SESSIONS = 3;
     private final Config config;
+    private final StringLogger logger;
 
     public SlaveStoreWriter( Config config )
+    {
+        this( config, StringLogger.DEV_NULL );
+    }
+
+    public SlaveStoreWriter( Config config, StringLogger logger )
     {
         this.config = config;
+        this.logger = logger;
     }
 
     public void copyStore( Master master ) throws IOException
     {
-        // Clear up the current temp directory if there
         File storeDir = new File( config.get( InternalAbstractGraphDatabase.Configuration.store_dir ) );
         File tempStore = new File( storeDir, COPY_FROM_MASTER_TEMP );
-        if ( !tempStore.mkdir() )
+
+        // Get the response, deserialise to disk. If there's a previous version of the store around,
+        // only the blocks which differ from it are streamed. Otherwise the store is fetched in segments,
+        // resuming an interrupted copy if there is one in the temp directory. The delta copy goes into
+        // a directory of its own so that it doesn't disturb such an interrupted copy.
+        RequestContext context = new RequestContext( 0, config.get( HaSettings.server_id ), 0,
+                new RequestContext.Tx[0], 0, 0 );
+        Response response = null;
+        File copy = tempStore;
+        File basis = findDeltaBasis( storeDir );
+        if ( basis != null )
+        {
+            File deltaStore = new File( storeDir, COPY_FROM_MASTER_DELTA_TEMP );
+            clearDirectory( deltaStore );
+            response = copyStoreDelta( master, context, basis, deltaStore );
+            if ( response != null )
+            {
+                copy = deltaStore;
+            }
+            else
+            {
+                FileUtils.deleteRecursively( deltaStore );
+            }
+        }
+        if ( response == null )
         {
-            FileUtils.deleteRecursively( tempStore );
-            tempStore.mkdir();
+            response = copyStoreInSegments( master, context, tempStore );
         }
-
-        // Get the response, deserialise to disk
-        Response response = master.copyStore( new RequestContext( 0,
-                config.get( HaSettings.server_id ), 0, new RequestContext.Tx[0], 0,
-                0 ), new ToFileStoreWriter( tempStore ) );
-        long highestLogVersion = XaLogicalLog.getHighestHistoryLogVersion( tempStore, LOGICAL_LOG_DEFAULT_NAME );
+        if ( response == null )
+        {
+            clearDirectory( tempStore );
+            response = master.copyStore( context, new ToFileStoreWriter( tempStore ) );
+        }
+        long highestLogVersion = XaLogicalLog.getHighestHistoryLogVersion( copy, LOGICAL_LOG_DEFAULT_NAME );
         if ( highestLogVersion > -1 )
         {
-            NeoStore.setVersion( tempStore, highestLogVersion + 1 );
+            NeoStore.setVersion( copy, highestLogVersion + 1 );
         }
-        GraphDatabaseAPI copiedDb = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
-                tempStore.getAbsolutePath() ).setConfig(
-                GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).setConfig(
-                GraphDatabaseSettings.allow_store_upgrade,
-                config.get( GraphDatabaseSettings.allow_store_upgrade ).toString() ).
-
-                newGraphDatabase();
-
-        // Apply pending transactions
+        // Apply pending transactions. Those for the neo store are written straight into the copied store
+        // files, a temporary database is only started if there are transactions for other data sources.
+        StringLogger applierLogger = StringLogger.logger( new File( copy, StringLogger.DEFAULT_NAME ) );
+        List<Triplet<String, Long, TxExtractor>> otherTransactions;
         try
         {
-            ServerUtil.applyReceivedTransactions( response, copiedDb.getXaDataSourceManager(),
-                    ServerUtil.txHandlerForFullCopy() );
+            otherTransactions = new StandaloneTransactionApplier( copy, config, applierLogger )
+                    .applyTransactions( response );
         }
         finally
         {
-            copiedDb.shutdown();
-            response.close();
+            applierLogger.close();
+        }
+        if ( !otherTransactions.isEmpty() )
+        {
+            GraphDatabaseAPI copiedDb = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                    copy.getAbsolutePath() ).setConfig(
+                    GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).setConfig(
+                    GraphDatabaseSettings.allow_store_upgrade,
+                    config.get( GraphDatabaseSettings.allow_store_upgrade ).toString() ).
+
+                    newGraphDatabase();
+            try
+            {
+                ServerUtil.applyReceivedTransactions( otherTransactions, copiedDb.getXaDataSourceManager(),
+                        ServerUtil.txHandlerForFullCopy() );
+            }
+            finally
+            {
+                copiedDb.shutdown();
+            }
         }
 
         // All is well, move to the real store directory
-        for ( File candidate : tempStore.listFiles( new FileFilter()
+        for ( File candidate : copy.listFiles( new FileFilter()
         {
             @Override
             public boolean accept( File file )
@@ -107,4 +170,282 @@ public class SlaveStoreWriter
             FileUtils.moveFileToDirectory( candidate, storeDir );
         }
     }
+
+    /**
+     * Fetches the store segment by segment, several at a time. Completed segments are
+     * recorded in the temp directory so that an interrupted copy can pick up where it
+     * was, as long as the master still has the store copy session.
+     *
+     * @return the response carrying the transactions committed during the copy, or
+     * {@code null} if the master doesn't support segmented store copy, i.e. if it's of an older
+     * protocol version or can't be reached to open a store copy session.
+     */
+    private Response copyStoreInSegments( Master master, RequestContext context, File tempStore )
+            throws IOException
+    {
+        File manifestFile = new File( tempStore, STORE_COPY_MANIFEST );
+        File progressFile = new File( tempStore, STORE_COPY_PROGRESS );
+        StoreCopyManifest manifest = null;
+        if ( manifestFile.exists() )
+        {
+            try
+            {
+                manifest = StoreCopyManifest.readFrom( manifestFile );
+                logger.logMessage( "Resuming store copy session " + manifest.getSessionId() );
+            }
+            catch ( IOException e )
+            {
+                logger.logMessage( "Unable to read store copy manifest, starting over", e );
+            }
+        }
+
+        for ( int sessions = 0; sessions < MAX_STORE_COPY_SESSIONS; sessions++ )
+        {
+            if ( manifest == null )
+            {
+                clearDirectory( tempStore );
+                Response<StoreCopyManifest> opened;
+                try
+                {
+                    opened = master.openStoreCopy( context );
+                }
+                catch ( UnsupportedOperationException e )
+                {
+                    return null;
+                }
+                catch ( ComException e )
+                {
+                    logger.logMessage( "Unable to open store copy session, falling back to full copy", e );
+                    return null;
+                }
+                try
+                {
+                    manifest = opened.response();
+                }
+                finally
+                {
+                    opened.close();
+                }
+                manifest.writeTo( manifestFile );
+            }
+
+            boolean sessionKnown;
+            try
+            {
+                sessionKnown = fetchSegments( master, context, manifest, tempStore, progressFile );
+            }
+            catch ( UnsupportedOperationException e )
+            {
+                // Resuming a copy from a master which has since been replaced by one without segmented store copy
+                logger.logMessage( "Master doesn't support segmented store copy, falling back to full copy", e );
+                return null;
+            }
+            if ( sessionKnown )
+            {
+                Response<Boolean> finished = master.finishStoreCopy( context, manifest.getSessionId() );
+                if ( finished.response() && manifest.getStoreId().equals( finished.getStoreId() ) )
+                {
+                    manifestFile.delete();
+                    progressFile.delete();
+                    return finished;
+                }
+                finished.close();
+            }
+            logger.logMessage( "Store copy session " + manifest.getSessionId() + " of store " +
+                    manifest.getStoreId() + " is no longer known by the master, starting over" );
+            manifest = null;
+        }
+        throw new IOException( "Gave up copying store after " + MAX_STORE_COPY_SESSIONS + " expired sessions" );
+    }
+
+    /**
+     * @return {@code false} if the master doesn't know about the session of the manifest, or
+     * serves another store than the manifest was made from. Session ids are only unique per
+     * master, so a resumed copy could otherwise mix segments of different stores.
+     */
+    private boolean fetchSegments( final Master master, final RequestContext context,
+                                   final StoreCopyManifest manifest, final File tempStore,
+                                   final File progressFile ) throws IOException
+    {
+        BitSet completed = StoreCopyManifest.completedSegments( progressFile );
+        List<StoreCopyManifest.Segment> segments = manifest.getSegments();
+        ExecutorService executor = Executors.newFixedThreadPool( config.get( HaSettings.store_copy_parallelism ),
+                new NamedThreadFactory( "Store copy" ) );
+        final AtomicBoolean sessionLost = new AtomicBoolean();
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for ( int i = 0; i < segments.size(); i++ )
+            {
+                if ( completed.get( i ) )
+                {
+                    continue;
+                }
+                final int index = i;
+                final StoreCopyManifest.Segment segment = segments.get( i );
+                results.add( executor.submit( new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        if ( sessionLost.get() )
+                        {
+                            return false;
+                        }
+                        Response<Boolean> response = master.copyStoreSegment( context, manifest.getSessionId(),
+                                segment, new ToFileStoreWriter( tempStore, segment.getOffset() ) );
+                        try
+                        {
+                            if ( !response.response() || !manifest.getStoreId().equals( response.getStoreId() ) )
+                            {
+                                sessionLost.set( true );
+                                return false;
+                            }
+                        }
+                        finally
+                        {
+                            response.close();
+                        }
+                        StoreCopyManifest.segmentCompleted( progressFile, index );
+                        return true;
+                    }
+                } ) );
+            }
+
+            boolean sessionKnown = true;
+            for ( Future<Boolean> result : results )
+            {
+                sessionKnown &= result.get();
+            }
+            return sessionKnown;
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof UnsupportedOperationException )
+            {
+                throw (UnsupportedOperationException) e.getCause();
+            }
+            throw new IOException( "Failed to fetch store segment", e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while fetching store segments", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void clearDirectory( File directory )
+    {
+        if ( !directory.mkdir() )
+        {
+            FileUtils.deleteRecursively( directory );
+            directory.mkdir();
+        }
+    }
+
+    /**
+     * Fetches the store segment by segment, each only as the blocks which differ from the
+     * same range of the files in {@code basis}, so that no more than the checksums of one
+     * segment are sent at a time. The copy is abandoned as soon as more than
+     * {@link HaSettings#store_copy_delta_max_changed_fraction} of what has been fetched so
+     * far had to be received, since a full copy is cheaper for a store that far behind.
+     *
+     * @return the response carrying the transactions committed during the copy, or
+     * {@code null} if the caller should fall back to a full copy.
+     */
+    private Response copyStoreDelta( Master master, RequestContext context, File basis, File deltaStore )
+            throws IOException
+    {
+        float maxChangedFraction = config.get( HaSettings.store_copy_delta_max_changed_fraction );
+        long receivedBytes = 0;
+        long reusedBytes = 0;
+        try
+        {
+            Response<StoreCopyManifest> opened = master.openStoreCopy( context );
+            StoreCopyManifest manifest;
+            try
+            {
+                manifest = opened.response();
+            }
+            finally
+            {
+                opened.close();
+            }
+            for ( StoreCopyManifest.Segment segment : manifest.getSegments() )
+            {
+                StoreChecksums checksums = StoreChecksums.forSegment( basis, segment,
+                        StoreChecksums.DEFAULT_BLOCK_SIZE );
+                DeltaToFileStoreWriter writer = new DeltaToFileStoreWriter( deltaStore, basis,
+                        checksums.blockSize(), segment.getOffset() );
+                Response<Boolean> response = master.copyStoreSegmentDelta( context, manifest.getSessionId(),
+                        segment, checksums, writer );
+                try
+                {
+                    if ( !response.response() || !manifest.getStoreId().equals( response.getStoreId() ) )
+                    {
+                        logger.logMessage( "Store copy session " + manifest.getSessionId() +
+                                " was lost during delta store copy, falling back to full copy" );
+                        return null;
+                    }
+                }
+                finally
+                {
+                    response.close();
+                }
+                receivedBytes += writer.getReceivedBytes();
+                reusedBytes += writer.getReusedBytes();
+                long fetchedBytes = receivedBytes + reusedBytes;
+                if ( fetchedBytes >= StoreCopyManifest.DEFAULT_SEGMENT_SIZE &&
+                        receivedBytes > fetchedBytes * maxChangedFraction )
+                {
+                    logger.logMessage( "Store is too far behind " + basis + " for a delta store copy, received " +
+                            receivedBytes + " of " + fetchedBytes + " bytes, falling back to full copy" );
+                    master.finishStoreCopy( context, manifest.getSessionId() ).close();
+                    return null;
+                }
+            }
+            Response<Boolean> finished = master.finishStoreCopy( context, manifest.getSessionId() );
+            if ( !finished.response() || !manifest.getStoreId().equals( finished.getStoreId() ) )
+            {
+                finished.close();
+                logger.logMessage( "Store copy session " + manifest.getSessionId() +
+                        " was lost during delta store copy, falling back to full copy" );
+                return null;
+            }
+            logger.logMessage( "Copied store delta against " + basis + ", received " + receivedBytes +
+                    " bytes, reused " + reusedBytes + " bytes" );
+            return finished;
+        }
+        catch ( Exception e )
+        {
+            logger.logMessage( "Delta store copy against " + basis + " failed, falling back to full copy", e );
+            return null;
+        }
+    }
+
+    /**
+     * @return the most recent branched away store, which most likely shares most of its
+     * contents with the store of the master, or {@code null} if there's none.
+     */
+    private File findDeltaBasis( File storeDir )
+    {
+        File[] candidates = BranchedDataPolicy.listBranchedDataDirectories( storeDir );
+        File result = null;
+        if ( candidates != null )
+        {
+            for ( File candidate : candidates )
+            {
+                if ( new File( candidate, NeoStore.DEFAULT_NAME ).exists() && (result == null ||
+                        Long.parseLong( candidate.getName() ) > Long.parseLong( result.getName() )) )
+                {
+                    result = candidate;
+                }
+            }
+        }
+        return result;
+    }
 }
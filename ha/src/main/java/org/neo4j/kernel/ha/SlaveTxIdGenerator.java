@@ -39,14 +39,17 @@ public class SlaveTxIdGenerator implements TxIdGenerator
     private final int masterId;
     private final RequestContextFactory requestContextFactory;
     private final HaXaDataSourceManager xaDsm;
+    private final ReplicationMonitor replicationMonitor;
 
-    public SlaveTxIdGenerator( int serverId, Master master, int masterId, RequestContextFactory requestContextFactory, HaXaDataSourceManager xaDsm )
+    public SlaveTxIdGenerator( int serverId, Master master, int masterId, RequestContextFactory requestContextFactory,
+                               HaXaDataSourceManager xaDsm, ReplicationMonitor replicationMonitor )
     {
         this.serverId = serverId;
         this.masterId = masterId;
         this.requestContextFactory = requestContextFactory;
         this.master = master;
         this.xaDsm = xaDsm;
+        this.replicationMonitor = replicationMonitor;
     }
 
     @Override
@@ -54,10 +57,12 @@ public class SlaveTxIdGenerator implements TxIdGenerator
     {
         try
         {
+            long startTime = System.nanoTime();
             Response<Long> response = master.commitSingleResourceTransaction(
                     requestContextFactory.newRequestContext( dataSource ), dataSource.getName(),
                     myPreparedTransactionToCommit( dataSource, identifier ) );
             xaDsm.applyTransactions( response );
+            replicationMonitor.committedOnMaster( System.nanoTime() - startTime );
             return response.response().longValue();
         }
         catch ( ComException e )
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.management.StoreCopy;
+
+@Service.Implementation(ManagementBeanProvider.class)
+public final class StoreCopyBean extends ManagementBeanProvider
+{
+    public StoreCopyBean()
+    {
+        super( StoreCopy.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management )
+            throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) )
+        {
+            return null;
+        }
+        return new StoreCopyImpl( management, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management )
+            throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) )
+        {
+            return null;
+        }
+        return new StoreCopyImpl( management );
+    }
+
+    private static boolean isHA( ManagementData management )
+    {
+        return management.getKernelData().graphDatabase() instanceof HighlyAvailableGraphDatabase;
+    }
+
+    private static class StoreCopyImpl extends Neo4jMBean implements StoreCopy
+    {
+        private final StoreCopyThrottle throttle;
+
+        protected StoreCopyImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            throttle = throttle( management );
+        }
+
+        protected StoreCopyImpl( ManagementData management, boolean isMXBean )
+        {
+            super( management, isMXBean );
+            throttle = throttle( management );
+        }
+
+        private static StoreCopyThrottle throttle( ManagementData management )
+        {
+            return management.getKernelData().graphDatabase().getDependencyResolver()
+                    .resolveDependency( StoreCopyThrottle.class );
+        }
+
+        @Override
+        public long getMaxBytesPerSecond()
+        {
+            return throttle.getMaxBytesPerSecond();
+        }
+
+        @Override
+        public void setMaxBytesPerSecond( long bytesPerSecond )
+        {
+            throttle.setMaxBytesPerSecond( bytesPerSecond );
+        }
+
+        @Override
+        public long getBackoffCommitLatency()
+        {
+            return throttle.getBackoffCommitLatencyMillis();
+        }
+
+        @Override
+        public void setBackoffCommitLatency( long millis )
+        {
+            throttle.setBackoffCommitLatencyMillis( millis );
+        }
+
+        @Override
+        public long getCurrentBytesPerSecond()
+        {
+            return throttle.getCurrentBytesPerSecond();
+        }
+
+        @Override
+        public long getThrottledMillis()
+        {
+            return throttle.getThrottledMillis();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import org.neo4j.com.IoThrottle;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+
+/**
+ * Limits how fast this instance serves store copies when it is master, with one
+ * {@link IoThrottle} for reading the store files. Nothing is sent that wasn't read
+ * through it, so it bounds the network rate as well. If {@link HaSettings#store_copy_backoff_commit_latency} is set, the rate
+ * is halved each second while the average commit takes longer than that, down to
+ * {@link #MIN_SCALE} of the configured rate, and is restored gradually when commits
+ * are fast again. Both the rate and the latency are adjustable at runtime through
+ * the store copy management bean.
+ */
+public class StoreCopyThrottle extends LifecycleAdapter
+{
+    static final double MIN_SCALE = 1D / 16;
+    private static final double SCALE_INCREMENT = 0.1;
+    private static final long ADJUST_INTERVAL_MILLIS = 1000;
+
+    private final GraphDatabaseService graphDb;
+    private final StringLogger msgLog;
+    private final IoThrottle throttle;
+    private final TransactionEventHandler<Long> commitTimer = new TransactionEventHandler<Long>()
+    {
+        @Override
+        public Long beforeCommit( TransactionData data ) throws Exception
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void afterCommit( TransactionData data, Long startTime )
+        {
+            commitCompleted( System.nanoTime() - startTime );
+        }
+
+        @Override
+        public void afterRollback( TransactionData data, Long startTime )
+        {
+        }
+    };
+    private volatile long backoffCommitLatencyMillis;
+    private boolean commitTimerRegistered;
+    private long commits;
+    private long commitNanos;
+    private long lastAdjustment = System.currentTimeMillis();
+
+    public StoreCopyThrottle( GraphDatabaseService graphDb, Config config, StringLogger msgLog )
+    {
+        this.graphDb = graphDb;
+        this.msgLog = msgLog;
+        this.throttle = new IoThrottle( config.get( HaSettings.store_copy_max_bytes_per_second ) );
+        this.backoffCommitLatencyMillis = config.get( HaSettings.store_copy_backoff_commit_latency );
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        updateCommitTimer();
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if ( commitTimerRegistered )
+        {
+            graphDb.unregisterTransactionEventHandler( commitTimer );
+            commitTimerRegistered = false;
+        }
+    }
+
+    public IoThrottle getThrottle()
+    {
+        return throttle;
+    }
+
+    public long getMaxBytesPerSecond()
+    {
+        return throttle.getBytesPerSecond();
+    }
+
+    public void setMaxBytesPerSecond( long bytesPerSecond )
+    {
+        throttle.setBytesPerSecond( bytesPerSecond );
+        msgLog.logMessage( "Store copy rate limit set to " + bytesPerSecond + " bytes/s" );
+    }
+
+    public long getCurrentBytesPerSecond()
+    {
+        return throttle.getEffectiveBytesPerSecond();
+    }
+
+    public long getBackoffCommitLatencyMillis()
+    {
+        return backoffCommitLatencyMillis;
+    }
+
+    public synchronized void setBackoffCommitLatencyMillis( long millis )
+    {
+        backoffCommitLatencyMillis = millis;
+        if ( millis <= 0 )
+        {
+            setScale( 1.0 );
+        }
+        updateCommitTimer();
+    }
+
+    public long getThrottledMillis()
+    {
+        return throttle.getThrottledMillis();
+    }
+
+    /**
+     * Called with the duration of every commit on this instance, also those of
+     * transactions committed on behalf of slaves.
+     */
+    public void commitCompleted( long nanos )
+    {
+        if ( backoffCommitLatencyMillis <= 0 )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            commits++;
+            commitNanos += nanos;
+        }
+        maybeAdjust();
+    }
+
+    /**
+     * Adjusts the scale of the throttles if a second has passed since it was
+     * last done. Called on commit and periodically by the master.
+     */
+    public synchronized void maybeAdjust()
+    {
+        long now = System.currentTimeMillis();
+        long latency = backoffCommitLatencyMillis;
+        if ( latency <= 0 || now - lastAdjustment < ADJUST_INTERVAL_MILLIS )
+        {
+            return;
+        }
+        lastAdjustment = now;
+        double scale = throttle.getScale();
+        if ( commits > 0 && commitNanos / commits > latency * 1000000 )
+        {
+            scale = Math.max( MIN_SCALE, scale / 2 );
+        }
+        else
+        {
+            scale = Math.min( 1.0, scale + SCALE_INCREMENT );
+        }
+        commits = 0;
+        commitNanos = 0;
+        setScale( scale );
+    }
+
+    private void setScale( double scale )
+    {
+        throttle.setScale( scale );
+    }
+
+    private void updateCommitTimer()
+    {
+        // Only time commits when it's needed, a registered handler makes every commit more expensive
+        boolean needed = backoffCommitLatencyMillis > 0;
+        if ( needed && !commitTimerRegistered )
+        {
+            graphDb.registerTransactionEventHandler( commitTimer );
+        }
+        else if ( !needed && commitTimerRegistered )
+        {
+            graphDb.unregisterTransactionEventHandler( commitTimer );
+        }
+        commitTimerRegistered = needed;
+    }
+}
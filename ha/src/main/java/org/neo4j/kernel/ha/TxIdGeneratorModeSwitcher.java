@@ -36,11 +36,13 @@ public class TxIdGeneratorModeSwitcher extends AbstractModeSwitcher<TxIdGenerato
     private StringLogger msgLog;
     private Config config;
     private Slaves slaves;
+    private final ReplicationMonitor replicationMonitor;
 
     public TxIdGeneratorModeSwitcher( ClusterMemberStateMachine stateMachine,
                                       DelegateInvocationHandler<TxIdGenerator> delegate, HaXaDataSourceManager xaDsm,
                                       Master master, RequestContextFactory requestContextFactory,
-                                      StringLogger msgLog, Config config, Slaves slaves
+                                      StringLogger msgLog, Config config, Slaves slaves,
+                                      ReplicationMonitor replicationMonitor
     )
     {
         super( stateMachine, delegate );
@@ -50,18 +52,20 @@ public class TxIdGeneratorModeSwitcher extends AbstractModeSwitcher<TxIdGenerato
         this.msgLog = msgLog;
         this.config = config;
         this.slaves = slaves;
+        this.replicationMonitor = replicationMonitor;
     }
 
     @Override
     protected TxIdGenerator getMasterImpl()
     {
-        return new MasterTxIdGenerator( MasterTxIdGenerator.from( config ), msgLog, slaves );
+        return new MasterTxIdGenerator( MasterTxIdGenerator.from( config ), msgLog, slaves, replicationMonitor );
     }
 
     @Override
     protected TxIdGenerator getSlaveImpl( URI serverHaUri )
     {
         return new SlaveTxIdGenerator( config.get( HaSettings.server_id ), master,
-                ClusterMemberModeSwitcher.getServerId( serverHaUri ), requestContextFactory, xaDsm );
+                ClusterMemberModeSwitcher.getServerId( serverHaUri ), requestContextFactory, xaDsm,
+                replicationMonitor );
     }
 }
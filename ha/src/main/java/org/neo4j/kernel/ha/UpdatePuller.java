@@ -36,6 +36,7 @@ public class UpdatePuller implements Lifecycle
     private final RequestContextFactory requestContextFactory;
     private final AbstractTransactionManager txManager;
     private final InstanceAccessGuard accessGuard;
+    private final ReplicationMonitor replicationMonitor;
     private final Config config;
     private final StringLogger logger;
     private boolean pullUpdates = false;
@@ -43,13 +44,15 @@ public class UpdatePuller implements Lifecycle
 
     public UpdatePuller( HaXaDataSourceManager xaDataSourceManager, Master master,
                          RequestContextFactory requestContextFactory, AbstractTransactionManager txManager,
-                         InstanceAccessGuard accessGuard, Config config, StringLogger logger )
+                         InstanceAccessGuard accessGuard, ReplicationMonitor replicationMonitor, Config config,
+                         StringLogger logger )
     {
         this.xaDataSourceManager = xaDataSourceManager;
         this.master = master;
         this.requestContextFactory = requestContextFactory;
         this.txManager = txManager;
         this.accessGuard = accessGuard;
+        this.replicationMonitor = replicationMonitor;
         this.config = config;
         this.logger = logger;
     }
@@ -58,8 +61,14 @@ public class UpdatePuller implements Lifecycle
     {
         if ( accessGuard.await( 5000 ) )
         {
+            long startTime = System.nanoTime();
+            long startMillis = System.currentTimeMillis();
+            long txIdBefore = xaDataSourceManager.getNeoStoreDataSource().getLastCommittedTxId();
             xaDataSourceManager.applyTransactions(
                     master.pullUpdates( requestContextFactory.newRequestContext( txManager.getEventIdentifier() ) ) );
+            long txIdAfter = xaDataSourceManager.getNeoStoreDataSource().getLastCommittedTxId();
+            replicationMonitor.pulled( System.nanoTime() - startTime, txIdAfter - txIdBefore, txIdAfter );
+            xaDataSourceManager.upToDateAsOf( startMillis );
         }
     }
 
@@ -46,12 +46,14 @@ import org.neo4j.kernel.ha.BranchDetectingTxVerifier;
 import org.neo4j.kernel.ha.BranchedDataException;
 import org.neo4j.kernel.ha.BranchedDataPolicy;
 import org.neo4j.kernel.ha.DelegateInvocationHandler;
+import org.neo4j.kernel.ha.HaCaches;
 import org.neo4j.kernel.ha.HaSettings;
 import org.neo4j.kernel.ha.HaXaDataSourceManager;
 import org.neo4j.kernel.ha.Master;
 import org.neo4j.kernel.ha.MasterClient18;
 import org.neo4j.kernel.ha.MasterImpl;
 import org.neo4j.kernel.ha.MasterServer;
+import org.neo4j.kernel.ha.ReplicationMonitor;
 import org.neo4j.kernel.ha.RequestContextFactory;
 import org.neo4j.kernel.ha.Slave;
 import org.neo4j.kernel.ha.SlaveImpl;
@@ -68,7 +70,6 @@ import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.TxManager;
 import org.neo4j.kernel.impl.transaction.xaframework.MissingLogDataException;
 import org.neo4j.kernel.impl.transaction.xaframework.NoSuchLogVersionException;
-import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaFactory;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.util.FileUtils;
@@ -106,6 +107,8 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
     private ScheduledExecutorService executor;
     private Future<?> toMasterTask;
     private Future<?> toSlaveTask;
+    private volatile long switchStartTime;
+    private volatile long lastSwitchDuration = -1;
 
     public ClusterMemberModeSwitcher( DelegateInvocationHandler delegateHandler, ClusterEvents clusterEvents,
                                       ClusterMemberStateMachine stateHandler, GraphDatabaseAPI graphDb,
@@ -180,11 +183,13 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
         switch ( event.getNewState() )
         {
             case TO_MASTER:
+                switchStartTime = System.currentTimeMillis();
                 life.shutdown();
                 life = new LifeSupport();
                 switchToMaster();
                 break;
             case TO_SLAVE:
+                switchStartTime = System.currentTimeMillis();
                 life.shutdown();
                 life = new LifeSupport();
                 switchToSlave();
@@ -262,26 +267,9 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
                     HaXaDataSourceManager xaDsm = resolver.resolveDependency( HaXaDataSourceManager.class );
                     synchronized ( xaDsm )
                     {
-                        XaDataSource nioneoDataSource = xaDsm.getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
-                        if ( nioneoDataSource == null )
+                        if ( openNeoDataSource( resolver, xaDsm ) == null )
                         {
-                            try
-                            {
-                                nioneoDataSource = new NeoStoreXaDataSource( config,
-                                        resolver.resolveDependency( StoreFactory.class ),
-                                        resolver.resolveDependency( LockManager.class ),
-                                        resolver.resolveDependency( LockReleaser.class ),
-                                        resolver.resolveDependency( StringLogger.class ),
-                                        resolver.resolveDependency( XaFactory.class ),
-                                        resolver.resolveDependency( TransactionInterceptorProviders.class ),
-                                        resolver );
-                                xaDsm.registerDataSource( nioneoDataSource );
-                            }
-                            catch ( IOException e )
-                            {
-                                msgLog.logMessage( "Failed while trying to create datasource", e );
-                                return;
-                            }
+                            return;
                         }
                     }
                     life.start();
@@ -292,6 +280,7 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
                     return;
                 }
                 clusterEvents.memberIsAvailable( ClusterConfiguration.COORDINATOR );
+                switchCompleted( "master" );
             }
         } );
     }
@@ -344,7 +333,8 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
 
                             // This will move the copied db to the graphdb location
                             msgLog.logMessage( "Copying store from master" );
-                            new SlaveStoreWriter( config ).copyStore( copyMaster );
+                            resolver.resolveDependency( HaCaches.class ).storeReplaced();
+                            new SlaveStoreWriter( config, msgLog ).copyStore( copyMaster );
 
 //                            startOtherDataSources();
                             xaDataSourceManager.start();
@@ -362,41 +352,27 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
                             life.stop();
                         }
                     }
-                    NeoStoreXaDataSource nioneoDataSource = (NeoStoreXaDataSource) resolver.resolveDependency(
-                            HaXaDataSourceManager.class ).getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+                    NeoStoreXaDataSource nioneoDataSource = openNeoDataSource( resolver, xaDataSourceManager );
                     if ( nioneoDataSource == null )
                     {
-                        try
-                        {
-                            nioneoDataSource = new NeoStoreXaDataSource( config,
-                                    resolver.resolveDependency( StoreFactory.class ),
-                                    resolver.resolveDependency( LockManager.class ),
-                                    resolver.resolveDependency( LockReleaser.class ),
-                                    resolver.resolveDependency( StringLogger.class ),
-                                    resolver.resolveDependency( XaFactory.class ),
-                                    resolver.resolveDependency( TransactionInterceptorProviders.class ),
-                                    resolver );
-                            xaDataSourceManager.registerDataSource( nioneoDataSource );
-                        }
-                        catch ( IOException e )
-                        {
-                            msgLog.logMessage( "Failed while trying to create datasource", e );
-                            return;
-                        }
+                        return;
                     }
 
-                    LifeSupport checkConsistencyLife = new LifeSupport();
+                    // The same client is used for checking consistency and then serves as the master of this
+                    // slave, so that an in-place switch doesn't connect to the master twice
+                    MasterClient18 master = new MasterClient18( masterUri, graphDb.getMessageLog(),
+                            nioneoDataSource.getStoreId(), config );
+                    life.add( master );
                     try
                     {
-                        MasterClient18 checkConsistencyMaster = new MasterClient18( masterUri,
-                                graphDb.getMessageLog(), nioneoDataSource.getStoreId(), config );
-                        checkConsistencyLife.add( checkConsistencyMaster );
-                        checkConsistencyLife.start();
-                        checkDataConsistencyWithMaster( checkConsistencyMaster, nioneoDataSource );
+                        life.start();
+                        checkDataConsistencyWithMaster( master, nioneoDataSource );
                     }
                     catch ( StoreUnableToParticipateInClusterException upe )
                     {
                         msgLog.logMessage( "Current store is unable to participate in the cluster", upe );
+                        life.shutdown();
+                        life = new LifeSupport();
                         try
                         {
                             // Unregistering from a running DSManager stops the datasource
@@ -405,6 +381,7 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
 //                            stopOtherDataSources();
                             xaDataSourceManager.stop();
                             txManager.stop();
+                            resolver.resolveDependency( HaCaches.class ).storeReplaced();
                             config.get( HaSettings.branched_data_policy ).handle( new File( config.get(
                                     InternalAbstractGraphDatabase.Configuration.store_dir ) ) );
 //                            startOtherDataSource(); ?
@@ -420,20 +397,14 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
                     {
                         msgLog.warn( "Consistency checker failed", throwable );
                     }
-                    finally
-                    {
-                        checkConsistencyLife.shutdown();
-                    }
 
                     try
                     {
-                        MasterClient18 master = new MasterClient18( masterUri, graphDb.getMessageLog(),
-                                nioneoDataSource.getStoreId(), config );
-
                         Slave slaveImpl = new SlaveImpl( nioneoDataSource.getStoreId(), master,
                                 new RequestContextFactory(
                                         getServerId( masterUri ), xaDataSourceManager,
-                                        graphDb.getDependencyResolver() ), xaDataSourceManager );
+                                        graphDb.getDependencyResolver() ), xaDataSourceManager,
+                                graphDb.getDependencyResolver().resolveDependency( ReplicationMonitor.class ) );
                         Server.Configuration serverConfig = new Server.Configuration()
                         {
                             @Override
@@ -479,7 +450,6 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
                         };
                         SlaveServer server = new SlaveServer( slaveImpl, serverConfig, msgLog );
                         delegateHandler.setDelegate( master );
-                        life.add( master );
                         life.add( slaveImpl );
                         life.add( server );
                         life.start();
@@ -487,13 +457,15 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
 
                         msgLog.logMessage( "I am " + config.get( HaSettings.server_id ) +
                                 ", successfully moved to slave for master " + masterUri );
+                        switchCompleted( "slave" );
                         return; // finally, it's over
                     }
                     catch ( Throwable t )
                     {
+                        // Only the role specific services are torn down, the data source stays open so that the
+                        // retry doesn't have to go through a store close, open and recovery cycle
                         life.shutdown();
                         life = new LifeSupport();
-                        nioneoDataSource.stop();
                         msgLog.logMessage( "Got exception while trying to verify consistency with master", t );
 
                         retryLater( true );
@@ -539,6 +511,57 @@ public class ClusterMemberModeSwitcher implements ClusterMemberListener, Lifecyc
         } );
     }
 
+    /**
+     * @return the neo store data source, which is only created if there's none registered yet, i.e. on the first
+     * switch or after the store has been copied or branched away. On any other switch the data source, and with
+     * it the store files, mappings, indexes and caches, is kept as it is and only the role specific services are
+     * swapped. Returns {@code null} if the data source couldn't be created.
+     */
+    private NeoStoreXaDataSource openNeoDataSource( DependencyResolver resolver, HaXaDataSourceManager xaDsm )
+    {
+        NeoStoreXaDataSource nioneoDataSource = (NeoStoreXaDataSource) xaDsm.getXaDataSource(
+                Config.DEFAULT_DATA_SOURCE_NAME );
+        if ( nioneoDataSource != null )
+        {
+            msgLog.logMessage( "Switching role in place, keeping the open data source" );
+            return nioneoDataSource;
+        }
+        try
+        {
+            nioneoDataSource = new NeoStoreXaDataSource( config,
+                    resolver.resolveDependency( StoreFactory.class ),
+                    resolver.resolveDependency( LockManager.class ),
+                    resolver.resolveDependency( LockReleaser.class ),
+                    resolver.resolveDependency( StringLogger.class ),
+                    resolver.resolveDependency( XaFactory.class ),
+                    resolver.resolveDependency( TransactionInterceptorProviders.class ),
+                    resolver );
+            xaDsm.registerDataSource( nioneoDataSource );
+            return nioneoDataSource;
+        }
+        catch ( IOException e )
+        {
+            msgLog.logMessage( "Failed while trying to create datasource", e );
+            return null;
+        }
+    }
+
+    private void switchCompleted( String role )
+    {
+        lastSwitchDuration = System.currentTimeMillis() - switchStartTime;
+        msgLog.logMessage( "Switch to " + role + " completed, instance was unavailable for " +
+                lastSwitchDuration + "ms" );
+    }
+
+    /**
+     * @return the time in milliseconds between the start of the last switch to master or slave and this
+     * instance announcing itself as available in its new role, or -1 if no switch has completed yet.
+     */
+    public long getLastSwitchDuration()
+    {
+        return lastSwitchDuration;
+    }
+
     private void checkDataConsistencyWithMaster( Master master, NeoStoreXaDataSource nioneoDataSource )
     {
         long myLastCommittedTx = nioneoDataSource.getLastCommittedTxId();
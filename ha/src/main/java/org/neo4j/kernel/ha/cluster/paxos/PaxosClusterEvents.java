@@ -36,6 +36,7 @@ import org.neo4j.helpers.Listeners;
 import org.neo4j.helpers.collection.Iterables;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.ha.HaSettings;
+import org.neo4j.kernel.ha.MasterClient18;
 import org.neo4j.kernel.ha.cluster.AbstractClusterEvents;
 import org.neo4j.kernel.ha.cluster.ClusterEventListener;
 import org.neo4j.kernel.impl.util.StringLogger;
@@ -241,7 +242,7 @@ public class PaxosClusterEvents
             // logic to the (default) Configuration implementation?
             String host = getConfiguredHaAddress( clusterUri );
             return new URI( "ha", null, host, portOf( config.getHaServer() ), null,
-                    "serverId=" + config.getServerId(), null );
+                    "serverId=" + config.getServerId() + "&" + MasterClient18.SEGMENTED_STORE_COPY, null );
         }
         catch ( URISyntaxException e )
         {
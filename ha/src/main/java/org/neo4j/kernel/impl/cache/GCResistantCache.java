@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.cache;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -29,10 +30,14 @@ import org.neo4j.kernel.impl.util.StringLogger;
 import org.neo4j.kernel.info.DiagnosticsPhase;
 import org.neo4j.kernel.info.DiagnosticsProvider;
 
-public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, DiagnosticsProvider
+public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, IdListingCache, DiagnosticsProvider
 {
     public static final long MIN_SIZE = 1;
     private final AtomicReferenceArray<E> cache;
+    // When each slot was last used, in listings of the cached ids, see cachedIds
+    private final byte[] recency;
+    // Bumped by listings while puts and gets stamp slots with it from other threads
+    private volatile int epoch;
     private final long maxSize;
     private long closeToMaxSize;
     private long purgeStopSize;
@@ -56,13 +61,42 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
     private final AtomicInteger forcedPurgeWaits = new AtomicInteger();
     private long purgeTime;
 
+    // Number of slots the purger visits before yielding, and the number of slots a caller above the hard limit
+    // visits before returning.
+    static final int PURGE_BATCH_SLOTS = 1024;
+    static final int CALLER_PURGE_SLOTS = 256;
+    static final long PURGER_IDLE_TIMEOUT = 10000;
+    static final int MAX_AGE = 200;
+
+    private final AtomicLong purgeHand = new AtomicLong();
+    private final Object purgeSignal = new Object();
+    // Set while holding purgeSignal, read without it so that callers can skip asking again
+    private volatile boolean purgeRequested;
+    private Thread purgeThread; // guarded by purgeSignal
+    private final boolean purgeInBackground;
+
     GCResistantCache( AtomicReferenceArray<E> cache )
+    {
+        this( cache, 1024l*1024*1024 );
+    }
+
+    GCResistantCache( AtomicReferenceArray<E> cache, long maxSize )
+    {
+        this( cache, maxSize, true );
+    }
+
+    /**
+     * @param purgeInBackground whether to start a purger thread, or leave it to {@link #purgeIfRequested()}
+     */
+    GCResistantCache( AtomicReferenceArray<E> cache, long maxSize, boolean purgeInBackground )
     {
         this.cache = cache;
+        this.recency = new byte[cache.length()];
         this.minLogInterval = Long.MAX_VALUE;
-        this.maxSize = 1024l*1024*1024;
+        this.maxSize = maxSize;
         this.name = "test cache";
         this.logger = null;
+        this.purgeInBackground = purgeInBackground;
         calculateSizes();
     }
     
@@ -87,9 +121,11 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         }
 
         this.cache = new AtomicReferenceArray<E>( (int) maxElementCount );
+        this.recency = new byte[(int) maxElementCount];
         this.maxSize = maxSizeInBytes;
         this.name = name == null ? super.toString() : name;
         this.logger = logger == null ? StringLogger.SYSTEM : logger;
+        this.purgeInBackground = true;
         calculateSizes();
     }
 
@@ -127,6 +163,7 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
             int objectSize = obj.size();
             if ( cache.compareAndSet( pos, oldObj, obj ) )
             {
+                recency[pos] = (byte) epoch;
                 setHighest( pos );
                 int oldObjSize = 0;
                 if ( oldObj != null )
@@ -142,7 +179,7 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
                 totalPuts++;
                 if ( size > closeToMaxSize )
                 {
-                    purgeFrom( pos );
+                    purgeIfNeeded();
                 }
             }
         }
@@ -189,6 +226,7 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         if ( obj != null && obj.getId() == id )
         {
             hitCount++;
+            recency[pos] = (byte) epoch;
             return obj;
         }
         missCount++;
@@ -197,80 +235,108 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
 
     private long lastPurgeLogTimestamp = 0;
 
-    private void purgeFrom( int pos )
+    /**
+     * Called when the cache has grown past its purge watermark. Normally this only wakes up the background
+     * purger, but if the cache has grown past the hard limit the calling thread also evicts a bounded number
+     * of slots itself, so that callers never wait for a full purge to complete.
+     */
+    private void purgeIfNeeded()
     {
         long myCurrentSize = currentSize.get();
         if ( myCurrentSize <= closeToMaxSize )
             return;
-        
-        // if we're within 0.95 < size < 1.05 and someone else is purging then just return and let
-        // the other one purge for us. if we're above 1.05 then wait for the purger to finish before returning.
-        if ( purging.compareAndSet( false, true ) )
-        {   // We're going to do the purge
-            try
-            {
-                doPurge( pos );
-            }
-            finally
-            {
-                purging.set( false );
+
+        if ( myCurrentSize < purgeHandoffSize )
+        {
+            if ( purging.get() )
+            {   // The purger is already at it, it's safe to just return and let it do its thing
+                avertedPurgeWaits.incrementAndGet();
+                return;
             }
+            requestPurge();
         }
         else
-        {   // Someone else is currently doing a purge
-            if ( myCurrentSize < purgeHandoffSize )
-            {   // It's safe to just return and let the purger do its thing
-                avertedPurgeWaits.incrementAndGet();
+        {
+            // The purger can't keep up, help out a bit. The amount of work done here is bounded
+            // so that the latency of a single put stays predictable.
+            forcedPurgeWaits.incrementAndGet();
+            requestPurge();
+            evict( CALLER_PURGE_SLOTS, purgeHandoffSize );
+        }
+    }
+
+    private void requestPurge()
+    {
+        if ( purgeRequested )
+        {   // Already asked for, no need to take the lock
+            return;
+        }
+        synchronized ( purgeSignal )
+        {
+            purgeRequested = true;
+            if ( !purgeInBackground )
+            {
                 return;
             }
+            if ( purgeThread == null )
+            {
+                purgeThread = new Thread( new Purger(), "GCR purger [" + name + "]" );
+                purgeThread.setDaemon( true );
+                purgeThread.setPriority( Thread.MIN_PRIORITY );
+                purgeThread.start();
+            }
             else
             {
-                // Wait for the current purge to complete. Some threads might slip through here before
-                // A thread just entering doPurge above, but that's fine
-                forcedPurgeWaits.incrementAndGet();
-                waitForCurrentPurgeToComplete();
+                purgeSignal.notifyAll();
             }
         }
     }
 
-    private synchronized void waitForCurrentPurgeToComplete()
+    /**
+     * Evicts entries by sweeping the purge hand over the array, visiting at most {@code maxSlots} slots
+     * and stopping as soon as the cache size is at or below {@code targetSize}.
+     *
+     * @return the number of slots visited.
+     */
+    private int evict( int maxSlots, long targetSize )
     {
-        // Just a nice way of saying "wait for the monitor on this object currently held by the thread doing a purge"
+        int length = cache.length();
+        int visited = 0;
+        while ( visited < maxSlots && currentSize.get() > targetSize )
+        {
+            int pos = (int) ( purgeHand.getAndIncrement() % length );
+            if ( cache.get( pos ) != null )
+            {
+                remove( pos );
+            }
+            visited++;
+        }
+        return visited;
     }
 
-    private synchronized void doPurge( int pos )
+    /**
+     * Evicts, in small batches, until the cache size is back down to the lower end of the target band.
+     * Runs on the purge thread only.
+     */
+    private void doPurge()
     {
         long myCurrentSize = currentSize.get();
-        if ( myCurrentSize <= closeToMaxSize )
+        if ( myCurrentSize <= purgeStopSize )
             return;
-        
+
         long startTime = System.currentTimeMillis();
         purgeCount++;
-        long sizeBefore = currentSize.get();
+        long sizeBefore = myCurrentSize;
         try
         {
-            int index = 1;
-            do
+            long visited = 0;
+            // A full sweep without reaching the target means that the registered sizes are off,
+            // don't spin on that.
+            while ( currentSize.get() > purgeStopSize && visited < cache.length() )
             {
-                if ( ( pos - index ) >= 0 )
-                {
-                    int minusPos = pos - index;
-                    remove( minusPos );
-                    if ( currentSize.get() <= purgeStopSize )
-                        return;
-                }
-                if ( ( pos + index ) < cache.length() )
-                {
-                    int plusPos = pos + index;
-                    remove( plusPos );
-                    if ( currentSize.get() <= purgeStopSize )
-                        return;
-                }
-                index++;
+                visited += evict( PURGE_BATCH_SLOTS, purgeStopSize );
+                Thread.yield();
             }
-            while ( ( pos - index ) >= 0 || ( pos + index ) < cache.length() );
-            // current object larger than max size, clear it
-            remove( pos ); 
         }
         finally
         {
@@ -295,6 +361,74 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         }
     }
 
+    /**
+     * Runs a requested purge, if there is one, in the calling thread. This is what the purger does for every
+     * request, and lets a cache that doesn't purge in the background be purged at a time of choosing.
+     *
+     * @return whether a purge had been requested.
+     */
+    boolean purgeIfRequested()
+    {
+        synchronized ( purgeSignal )
+        {
+            if ( !purgeRequested )
+            {
+                return false;
+            }
+            purgeRequested = false;
+            purging.set( true );
+        }
+        try
+        {
+            doPurge();
+        }
+        finally
+        {
+            purging.set( false );
+        }
+        return true;
+    }
+
+    /**
+     * Background purger, started on demand. Stays around while there are purge requests coming in and
+     * exits after having been idle for {@link #PURGER_IDLE_TIMEOUT} milliseconds, so that a cache that is
+     * thrown away doesn't keep a thread alive.
+     */
+    private class Purger implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                while ( true )
+                {
+                    synchronized ( purgeSignal )
+                    {
+                        if ( !purgeRequested )
+                        {
+                            purgeSignal.wait( PURGER_IDLE_TIMEOUT );
+                        }
+                        if ( !purgeRequested )
+                        {
+                            purgeThread = null;
+                            return;
+                        }
+                    }
+                    purgeIfRequested();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+                synchronized ( purgeSignal )
+                {
+                    purgeThread = null;
+                }
+            }
+        }
+    }
+
     private void printAccurateStatistics()
     {
         int elementCount = 0;
@@ -352,8 +486,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         String colPercentage = ((float) collisions / (float) totalPuts * 100.0f) + "%";
         
         return name + " array:" + cache.length() + " purge:" + purgeCount + " size:" + currentSizeStr +
-                " misses:" + missPercentage + " collisions:" + colPercentage + " (" + collisions + ") av.purge waits:" +
-                avertedPurgeWaits.get() + " purge waits:" + forcedPurgeWaits.get() + " avg. purge time:" + (purgeCount > 0 ? (purgeTime/purgeCount) + "ms" : "N/A");
+                " misses:" + missPercentage + " collisions:" + colPercentage + " (" + collisions + ") handed off purges:" +
+                avertedPurgeWaits.get() + " caller purges:" + forcedPurgeWaits.get() + " avg. purge time:" + (purgeCount > 0 ? (purgeTime/purgeCount) + "ms" : "N/A");
     }
 
     private String getSize( long size )
@@ -386,6 +520,62 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         highestIdSet.set( 0 );
     }
 
+    /**
+     * Lists the most recently used ids first. Every listing starts a new epoch, and slots are stamped with the
+     * epoch whenever they are put or hit, so the age of an entry is the number of listings since it was last
+     * used. Ages are capped at {@link #MAX_AGE}, which keeps the one byte stamps from wrapping around.
+     */
+    @Override
+    public synchronized long[] cachedIds( int max )
+    {
+        int now = ++epoch & 0xFF;
+        long highest = Math.min( highestIdSet.get(), cache.length() - 1 );
+
+        int[] entriesOfAge = new int[MAX_AGE + 1];
+        for ( int i = 0; i <= highest; i++ )
+        {
+            if ( cache.get( i ) != null )
+            {
+                entriesOfAge[age( i, now )]++;
+            }
+        }
+
+        // All entries younger than the cutoff age are listed, and as many of that age as there is room for
+        int cutoff = 0;
+        long younger = 0;
+        while ( cutoff < MAX_AGE && younger + entriesOfAge[cutoff] < max )
+        {
+            younger += entriesOfAge[cutoff++];
+        }
+        long[] ids = new long[(int) Math.min( max, younger + entriesOfAge[cutoff] )];
+        long roomAtCutoff = ids.length - younger;
+        int count = 0;
+        for ( int i = 0; i <= highest && count < ids.length; i++ )
+        {
+            E obj = cache.get( i );
+            if ( obj != null )
+            {
+                int age = age( i, now );
+                if ( age < cutoff || (age == cutoff && roomAtCutoff-- > 0) )
+                {
+                    ids[count++] = obj.getId();
+                }
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf( ids, count );
+    }
+
+    private int age( int pos, int now )
+    {
+        int age = (now - recency[pos]) & 0xFF;
+        if ( age > MAX_AGE )
+        {
+            recency[pos] = (byte) (now - MAX_AGE);
+            age = MAX_AGE;
+        }
+        return age;
+    }
+
     public void putAll( Collection<E> objects )
     {
         for ( E obj : objects )
@@ -431,7 +621,7 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         obj.setRegisteredSize( newSize );
         if ( size > closeToMaxSize )
         {
-            purgeFrom( pos );
+            purgeIfNeeded();
         }
     }
 }
\ No newline at end of file
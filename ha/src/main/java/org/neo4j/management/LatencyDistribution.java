@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * A snapshot of how long some kind of round trip has taken, in milliseconds.
+ * Percentiles are approximate, they are the upper bound of the power of two
+ * sized bucket the percentile falls in.
+ */
+public final class LatencyDistribution implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final long count;
+    private final double mean;
+    private final long median;
+    private final long percentile99;
+    private final long max;
+
+    @ConstructorProperties( { "count", "mean", "median", "percentile99", "max" } )
+    public LatencyDistribution( long count, double mean, long median, long percentile99, long max )
+    {
+        this.count = count;
+        this.mean = mean;
+        this.median = median;
+        this.percentile99 = percentile99;
+        this.max = max;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMean()
+    {
+        return mean;
+    }
+
+    public long getMedian()
+    {
+        return median;
+    }
+
+    public long getPercentile99()
+    {
+        return percentile99;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencyDistribution[count:" + count + ", mean:" + mean + "ms, median:" + median + "ms, 99%:" +
+               percentile99 + "ms, max:" + max + "ms]";
+    }
+}
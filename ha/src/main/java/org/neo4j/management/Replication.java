@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = Replication.NAME )
+@Description( "How far slaves lag behind the master and how long replication round trips take" )
+public interface Replication
+{
+    final String NAME = "Replication";
+
+    @Description( "The latest transaction committed on this instance" )
+    long getLastCommittedTxId();
+
+    @Description( "Lag and push latency of each slave, as seen by this instance when it is master" )
+    SlaveReplicationInfo[] getSlaves();
+
+    @Description( "Latency of pushing transactions to slaves, all slaves together" )
+    LatencyDistribution getPushLatency();
+
+    @Description( "Latency of pulling and applying updates from the master, when this instance is a slave" )
+    LatencyDistribution getPullLatency();
+
+    @Description( "Latency of acquiring locks on the master, when this instance is a slave" )
+    LatencyDistribution getLockLatency();
+
+    @Description( "Latency of committing transactions through the master, when this instance is a slave" )
+    LatencyDistribution getCommitLatency();
+
+    @Description( "The number of transactions the last pull from the master brought in" )
+    long getLastPullTransactions();
+
+    @Description( "Time, in milliseconds, since this instance last pulled updates from the master" )
+    long getMillisSinceLastPull();
+
+    @Description( "Clear the latency distributions" )
+    void reset();
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * How far a slave is behind the master, as seen from the master.
+ */
+public final class SlaveReplicationInfo implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int serverId;
+    private final long lastAcknowledgedTxId;
+    private final long lagTransactions;
+    private final long lagMillis;
+    private final LatencyDistribution pushLatency;
+
+    @ConstructorProperties( { "serverId", "lastAcknowledgedTxId", "lagTransactions", "lagMillis", "pushLatency" } )
+    public SlaveReplicationInfo( int serverId, long lastAcknowledgedTxId, long lagTransactions, long lagMillis,
+                                 LatencyDistribution pushLatency )
+    {
+        this.serverId = serverId;
+        this.lastAcknowledgedTxId = lastAcknowledgedTxId;
+        this.lagTransactions = lagTransactions;
+        this.lagMillis = lagMillis;
+        this.pushLatency = pushLatency;
+    }
+
+    public int getServerId()
+    {
+        return serverId;
+    }
+
+    /**
+     * @return the latest transaction the slave is known to have applied, either
+     * from a push it acknowledged or from the last pull it made.
+     */
+    public long getLastAcknowledgedTxId()
+    {
+        return lastAcknowledgedTxId;
+    }
+
+    public long getLagTransactions()
+    {
+        return lagTransactions;
+    }
+
+    /**
+     * @return time since the master committed the oldest transaction the slave
+     * hasn't acknowledged, or 0 if it's up to date.
+     */
+    public long getLagMillis()
+    {
+        return lagMillis;
+    }
+
+    public LatencyDistribution getPushLatency()
+    {
+        return pushLatency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SlaveReplicationInfo[server:" + serverId + ", acknowledged:" + lastAcknowledgedTxId + ", lag:" +
+               lagTransactions + " txs/" + lagMillis + "ms, push:" + pushLatency + "]";
+    }
+}
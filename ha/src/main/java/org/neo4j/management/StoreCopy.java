@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = StoreCopy.NAME )
+@Description( "Rate limiting of store copies served by this instance when it is master" )
+public interface StoreCopy
+{
+    final String NAME = "Store Copy";
+
+    @Description( "The maximum rate, in bytes per second, at which store files are read and sent. 0 means unlimited" )
+    long getMaxBytesPerSecond();
+
+    void setMaxBytesPerSecond( long bytesPerSecond );
+
+    @Description( "Commit latency, in milliseconds, above which the store copy rate is lowered. 0 disables it" )
+    long getBackoffCommitLatency();
+
+    void setBackoffCommitLatency( long millis );
+
+    @Description( "The rate currently applied, lower than the maximum while backing off. 0 means unlimited" )
+    long getCurrentBytesPerSecond();
+
+    @Description( "Total time, in milliseconds, store copies have been held back by the rate limit" )
+    long getThrottledMillis();
+}
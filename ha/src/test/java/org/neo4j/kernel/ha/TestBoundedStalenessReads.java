@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.neo4j.com.Response;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestBoundedStalenessReads
+{
+    private final AtomicLong lastCommittedTxId = new AtomicLong( 1 );
+    private final NeoStoreXaDataSource neoStore = neoStore( lastCommittedTxId );
+    private final HaXaDataSourceManager xaDsm = new HaXaDataSourceManager( StringLogger.DEV_NULL )
+    {
+        @Override
+        public NeoStoreXaDataSource getNeoStoreDataSource()
+        {
+            return neoStore;
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void shutDownExecutor()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readerIsWokenWhenAPullMakesItFreshEnough() throws Exception
+    {
+        final long wantedAsOf = System.currentTimeMillis();
+        Future<Boolean> reader = executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return xaDsm.awaitUpToDateAsOf( wantedAsOf, 10000 );
+            }
+        } );
+
+        Thread.sleep( 100 );
+        assertFalse( reader.isDone() );
+        xaDsm.upToDateAsOf( wantedAsOf - 1 );
+        Thread.sleep( 100 );
+        assertFalse( reader.isDone() );
+        xaDsm.upToDateAsOf( wantedAsOf + 1 );
+        assertTrue( reader.get( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void readerGivesUpAfterTimeout() throws Exception
+    {
+        assertFalse( xaDsm.awaitUpToDateAsOf( System.currentTimeMillis(), 50 ) );
+    }
+
+    @Test
+    public void freshnessNeverMovesBackwards() throws Exception
+    {
+        xaDsm.upToDateAsOf( 10 );
+        xaDsm.upToDateAsOf( 5 );
+        assertTrue( xaDsm.awaitUpToDateAsOf( 10, 0 ) );
+    }
+
+    @Test
+    public void txIdReaderIsWokenWhenTheTransactionIsApplied() throws Exception
+    {
+        Future<Boolean> reader = executor.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return xaDsm.awaitTxId( 5, 10000 );
+            }
+        } );
+
+        Thread.sleep( 100 );
+        assertFalse( reader.isDone() );
+        lastCommittedTxId.set( 4 );
+        xaDsm.applyTransactions( Response.EMPTY );
+        Thread.sleep( 100 );
+        assertFalse( reader.isDone() );
+        lastCommittedTxId.set( 5 );
+        xaDsm.applyTransactions( Response.EMPTY );
+        assertTrue( reader.get( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void txIdReaderGivesUpAfterTimeout() throws Exception
+    {
+        lastCommittedTxId.set( 4 );
+        long start = System.currentTimeMillis();
+        assertFalse( xaDsm.awaitTxId( 5, 50 ) );
+        assertTrue( System.currentTimeMillis() - start >= 50 );
+    }
+
+    @Test
+    public void txIdAlreadyAppliedIsNotWaitedFor() throws Exception
+    {
+        lastCommittedTxId.set( 5 );
+        assertTrue( xaDsm.awaitTxId( 5, 0 ) );
+        assertTrue( xaDsm.awaitTxId( 3, 0 ) );
+    }
+
+    private static NeoStoreXaDataSource neoStore( final AtomicLong lastCommittedTxId )
+    {
+        NeoStoreXaDataSource neoStore = mock( NeoStoreXaDataSource.class );
+        when( neoStore.getLastCommittedTxId() ).thenAnswer( new Answer<Long>()
+        {
+            @Override
+            public Long answer( InvocationOnMock invocation ) throws Throwable
+            {
+                return lastCommittedTxId.get();
+            }
+        } );
+        return neoStore;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.InternalAbstractGraphDatabase;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.ha.cluster.ClusterMemberChangeEvent;
+import org.neo4j.kernel.ha.cluster.ClusterMemberState;
+import org.neo4j.kernel.ha.cluster.ClusterMemberStateMachine;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TargetDirectory;
+
+public class TestCacheWarmer
+{
+    private final File storeDir = TargetDirectory.forTest( TestCacheWarmer.class ).directory( "db", true );
+    private final Config config = new Config( stringMap(
+            InternalAbstractGraphDatabase.Configuration.store_dir.name(), storeDir.getAbsolutePath(),
+            HaSettings.cache_warmup_snapshot_interval.name(), "1h" ) );
+
+    @Test
+    public void snapshotHoldsTheSortedIdsOfTheCachedEntities() throws Exception
+    {
+        HaCaches caches = cachesHolding( new long[] { 5, 1, 3 }, new long[] { 7, 2 } );
+        CacheWarmer warmer = new CacheWarmer( mock( GraphDatabaseAPI.class ), caches,
+                mock( ClusterMemberStateMachine.class ), config, StringLogger.DEV_NULL );
+
+        warmer.writeSnapshot();
+        long[][] ids = warmer.readSnapshot();
+
+        assertArrayEquals( new long[] { 1, 3, 5 }, ids[0] );
+        assertArrayEquals( new long[] { 2, 7 }, ids[1] );
+        assertFalse( new File( storeDir, CacheWarmer.SNAPSHOT_FILE_NAME + ".tmp" ).exists() );
+    }
+
+    @Test
+    public void entitiesInTheSnapshotAreLoadedWhenBecomingAvailableAfterRestart() throws Exception
+    {
+        new CacheWarmer( mock( GraphDatabaseAPI.class ), cachesHolding( new long[] { 1, 3, 5 }, new long[] { 7 } ),
+                mock( ClusterMemberStateMachine.class ), config, StringLogger.DEV_NULL ).writeSnapshot();
+
+        // Restart with empty caches, one of the snapshotted nodes was deleted in the meantime
+        GraphDatabaseAPI graphDb = mock( GraphDatabaseAPI.class );
+        when( graphDb.getNodeById( 3 ) ).thenThrow( new NotFoundException() );
+        CacheWarmer warmer = new CacheWarmer( graphDb, cachesHolding( new long[0], new long[0] ),
+                mock( ClusterMemberStateMachine.class ), config, StringLogger.DEV_NULL );
+        warmer.start();
+        try
+        {
+            warmer.slaveIsAvailable( new ClusterMemberChangeEvent( ClusterMemberState.TO_SLAVE,
+                    ClusterMemberState.SLAVE, null, null ) );
+
+            verify( graphDb, timeout( 10000 ) ).getNodeById( 1 );
+            verify( graphDb, timeout( 10000 ) ).getNodeById( 3 );
+            verify( graphDb, timeout( 10000 ) ).getNodeById( 5 );
+            verify( graphDb, timeout( 10000 ) ).getRelationshipById( 7 );
+        }
+        finally
+        {
+            warmer.stop();
+        }
+    }
+
+    private static HaCaches cachesHolding( long[] nodeIds, long[] relationshipIds )
+    {
+        HaCaches caches = mock( HaCaches.class );
+        when( caches.cachedNodeIds( anyInt() ) ).thenReturn( nodeIds );
+        when( caches.cachedRelationshipIds( anyInt() ) ).thenReturn( relationshipIds );
+        return caches;
+    }
+}
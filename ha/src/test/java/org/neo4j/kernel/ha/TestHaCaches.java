@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.CacheProvider;
+import org.neo4j.kernel.impl.cache.GCResistantCacheProvider;
+import org.neo4j.kernel.impl.core.NodeImpl;
+import org.neo4j.kernel.impl.core.RelationshipImpl;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestHaCaches
+{
+    @Test
+    public void cachesAreKeptWarmAcrossSwitchWhenStoreIsUnchanged() throws Exception
+    {
+        HaCaches caches = new HaCaches( StringLogger.DEV_NULL );
+        MockCacheProvider provider = new MockCacheProvider();
+        Config config = new Config( MapUtil.stringMap() );
+
+        caches.configure( provider, config );
+        Cache<NodeImpl> nodeCache = caches.node();
+        caches.configure( provider, config );
+
+        assertSame( nodeCache, caches.node() );
+        verify( nodeCache, never() ).clear();
+        verify( caches.relationship(), never() ).clear();
+    }
+
+    @Test
+    public void cachesAreClearedOnSwitchAfterStoreHasBeenReplaced() throws Exception
+    {
+        HaCaches caches = new HaCaches( StringLogger.DEV_NULL );
+        MockCacheProvider provider = new MockCacheProvider();
+        Config config = new Config( MapUtil.stringMap() );
+
+        caches.configure( provider, config );
+        caches.storeReplaced();
+        caches.configure( provider, config );
+
+        verify( caches.node() ).clear();
+        verify( caches.relationship() ).clear();
+
+        // Only once though
+        caches.configure( provider, config );
+        verify( caches.node() ).clear();
+    }
+
+    @Test
+    public void cachesAreRecreatedWhenAnySettingOfTheCacheTypeChanges() throws Exception
+    {
+        HaCaches caches = new HaCaches( StringLogger.DEV_NULL );
+        CacheProvider provider = new GCResistantCacheProvider();
+
+        caches.configure( provider, gcrConfig( "60s" ) );
+        Cache<NodeImpl> nodeCache = caches.node();
+        caches.configure( provider, gcrConfig( "60s" ) );
+        assertSame( nodeCache, caches.node() );
+
+        caches.configure( provider, gcrConfig( "30s" ) );
+        assertNotSame( nodeCache, caches.node() );
+    }
+
+    private static Config gcrConfig( String logInterval )
+    {
+        return new Config( MapUtil.stringMap(
+                GCResistantCacheProvider.Configuration.node_cache_size.name(), "1M",
+                GCResistantCacheProvider.Configuration.relationship_cache_size.name(), "1M",
+                GCResistantCacheProvider.Configuration.node_cache_array_fraction.name(), "1.0",
+                GCResistantCacheProvider.Configuration.relationship_cache_array_fraction.name(), "1.0",
+                GCResistantCacheProvider.Configuration.log_interval.name(), logInterval ) );
+    }
+
+    private static class MockCacheProvider extends CacheProvider
+    {
+        MockCacheProvider()
+        {
+            super( "mock", "Mock cache" );
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        public Cache<NodeImpl> newNodeCache( StringLogger logger, Config config )
+        {
+            return mock( Cache.class );
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        public Cache<RelationshipImpl> newRelationshipCache( StringLogger logger, Config config )
+        {
+            return mock( Cache.class );
+        }
+
+        @Override
+        public Class getSettingsClass()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.cluster.protocol.cluster.ClusterConfiguration;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.HighlyAvailableGraphDatabaseFactory;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.ha.cluster.ClusterEventListener;
+import org.neo4j.kernel.ha.cluster.ClusterEvents;
+import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.test.TargetDirectory;
+
+/**
+ * Switches instances of a running cluster between roles and checks that they keep their open store and
+ * warm caches, i.e. that only the role specific services are swapped.
+ */
+public class TestInPlaceRoleSwitch
+{
+    private final File path = TargetDirectory.forTest( getClass() ).graphDbDir( true );
+    private final HighlyAvailableGraphDatabase[] dbs = new HighlyAvailableGraphDatabase[3];
+
+    @After
+    public void shutdownCluster()
+    {
+        for ( HighlyAvailableGraphDatabase db : dbs )
+        {
+            if ( db != null )
+            {
+                db.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void storeAndCachesSurviveFailover() throws Exception
+    {
+        for ( int i = 0; i < dbs.length; i++ )
+        {
+            dbs[i] = startDb( i );
+        }
+        assertTrue( dbs[0].isMaster() );
+        long nodeId = createNode( dbs[0] );
+
+        // Bring the node into the caches of both slaves
+        XaDataSource[] dataSources = new XaDataSource[dbs.length];
+        Cache<?>[] nodeCaches = new Cache<?>[dbs.length];
+        for ( int i = 1; i < dbs.length; i++ )
+        {
+            awaitNode( dbs[i], nodeId );
+            dataSources[i] = neoDataSource( dbs[i] );
+            nodeCaches[i] = dbs[i].getDependencyResolver().resolveDependency( HaCaches.class ).node();
+            assertNotNull( nodeCaches[i].get( nodeId ) );
+        }
+
+        // One slave switches to master, the other to slave of the new master
+        CountDownLatch newMasterAvailable = awaitNewMaster( dbs[1] );
+        dbs[0].shutdown();
+        dbs[0] = null;
+        assertTrue( newMasterAvailable.await( 60, TimeUnit.SECONDS ) );
+        int master = dbs[1].isMaster() ? 1 : 2;
+        int slave = master == 1 ? 2 : 1;
+        assertTrue( dbs[master].isMaster() );
+        awaitNode( dbs[slave], createNode( dbs[master] ) );
+
+        for ( int i = 1; i < dbs.length; i++ )
+        {
+            assertSame( dataSources[i], neoDataSource( dbs[i] ) );
+            HaCaches caches = dbs[i].getDependencyResolver().resolveDependency( HaCaches.class );
+            assertSame( nodeCaches[i], caches.node() );
+            assertNotNull( "Node evicted from the cache of instance " + i, caches.node().get( nodeId ) );
+            assertEquals( "value", dbs[i].getNodeById( nodeId ).getProperty( "key" ) );
+        }
+    }
+
+    @Test
+    public void entityChangedDuringSwitchIsEvictedWhileOthersStayCached() throws Exception
+    {
+        for ( int i = 0; i < dbs.length; i++ )
+        {
+            dbs[i] = startDb( i );
+        }
+        long changed = createNode( dbs[0] );
+        long unchanged = createNode( dbs[0] );
+        for ( int i = 1; i < dbs.length; i++ )
+        {
+            awaitNode( dbs[i], unchanged );
+            dbs[i].getNodeById( changed );
+        }
+
+        CountDownLatch newMasterAvailable = awaitNewMaster( dbs[1] );
+        dbs[0].shutdown();
+        dbs[0] = null;
+        assertTrue( newMasterAvailable.await( 60, TimeUnit.SECONDS ) );
+        int master = dbs[1].isMaster() ? 1 : 2;
+        int slave = master == 1 ? 2 : 1;
+
+        // Committed on the new master while the other instance switches to slave of it
+        Transaction tx = dbs[master].beginTx();
+        try
+        {
+            dbs[master].getNodeById( changed ).setProperty( "key", "changed" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        awaitTx( dbs[slave], neoDataSource( dbs[master] ).getLastCommittedTxId() );
+
+        Cache<?> nodeCache = dbs[slave].getDependencyResolver().resolveDependency( HaCaches.class ).node();
+        assertNull( nodeCache.get( changed ) );
+        assertNotNull( nodeCache.get( unchanged ) );
+        assertEquals( "changed", dbs[slave].getNodeById( changed ).getProperty( "key" ) );
+    }
+
+    private void awaitTx( HighlyAvailableGraphDatabase slave, long txId ) throws Exception
+    {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( 60 );
+        while ( neoDataSource( slave ).getLastCommittedTxId() < txId )
+        {
+            if ( System.currentTimeMillis() > end )
+            {
+                fail( "Slave didn't get transaction " + txId );
+            }
+            try
+            {
+                slave.getDependencyResolver().resolveDependency( UpdatePuller.class ).pullUpdates();
+            }
+            catch ( RuntimeException e )
+            {
+                // The slave may not have switched to the new master yet
+                Thread.sleep( 100 );
+            }
+        }
+    }
+
+    private long createNode( HighlyAvailableGraphDatabase db )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.setProperty( "key", "value" );
+            tx.success();
+            return node.getId();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void awaitNode( HighlyAvailableGraphDatabase slave, long nodeId ) throws Exception
+    {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( 60 );
+        while ( true )
+        {
+            try
+            {
+                slave.getDependencyResolver().resolveDependency( UpdatePuller.class ).pullUpdates();
+                assertEquals( "value", slave.getNodeById( nodeId ).getProperty( "key" ) );
+                return;
+            }
+            catch ( RuntimeException e )
+            {
+                // The slave may not have switched to the new master yet
+                if ( System.currentTimeMillis() > end )
+                {
+                    throw e;
+                }
+                Thread.sleep( 100 );
+            }
+        }
+    }
+
+    private static XaDataSource neoDataSource( HighlyAvailableGraphDatabase db )
+    {
+        return db.getXaDataSourceManager().getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+    }
+
+    private static CountDownLatch awaitNewMaster( HighlyAvailableGraphDatabase db )
+    {
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        final ClusterEvents events = db.getDependencyResolver().resolveDependency( ClusterEvents.class );
+        events.addClusterEventListener( new ClusterEventListener.Adapter()
+        {
+            @Override
+            public void memberIsAvailable( String role, URI instanceClusterUri, Iterable<URI> instanceUris )
+            {
+                if ( role.equals( ClusterConfiguration.COORDINATOR ) )
+                {
+                    latch.countDown();
+                    events.removeClusterEventListener( this );
+                }
+            }
+        } );
+        return latch;
+    }
+
+    private HighlyAvailableGraphDatabase startDb( int serverId )
+    {
+        HighlyAvailableGraphDatabase db = (HighlyAvailableGraphDatabase) new HighlyAvailableGraphDatabaseFactory()
+                .newHighlyAvailableDatabaseBuilder( new File( path, "" + serverId ).getAbsolutePath() )
+                .setConfig( HaSettings.server_id, "" + serverId )
+                .setConfig( HaSettings.ha_server, ":" + (8011 + serverId) )
+                .setConfig( HaSettings.initial_hosts, "127.0.0.1:5011,127.0.0.1:5012,127.0.0.1:5013" )
+                .setConfig( HaSettings.cluster_server, "127.0.0.1:" + (5011 + serverId) )
+                .setConfig( HaSettings.tx_push_factor, "0" )
+                .newGraphDatabase();
+        // Wait for the instance to have joined the cluster in its role
+        Transaction tx = db.beginTx();
+        tx.finish();
+        return db;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.neo4j.management.LatencyDistribution;
+import org.neo4j.management.SlaveReplicationInfo;
+
+public class TestReplicationMonitor
+{
+    @Test
+    public void slaveLagIsCountedFromWhatItLastAcknowledged() throws Exception
+    {
+        ReplicationMonitor monitor = new ReplicationMonitor();
+        for ( long txId = 2; txId <= 10; txId++ )
+        {
+            monitor.committed( txId );
+        }
+        monitor.pushed( 2, 10, TimeUnit.MILLISECONDS.toNanos( 3 ) );
+        monitor.slaveApplied( 3, 7 );
+
+        SlaveReplicationInfo[] slaves = monitor.getSlaves();
+        assertEquals( 2, slaves.length );
+        for ( SlaveReplicationInfo slave : slaves )
+        {
+            if ( slave.getServerId() == 2 )
+            {
+                assertEquals( 10, slave.getLastAcknowledgedTxId() );
+                assertEquals( 0, slave.getLagTransactions() );
+                assertEquals( 0, slave.getLagMillis() );
+                assertEquals( 1, slave.getPushLatency().getCount() );
+            }
+            else
+            {
+                assertEquals( 7, slave.getLastAcknowledgedTxId() );
+                assertEquals( 3, slave.getLagTransactions() );
+                assertEquals( 0, slave.getPushLatency().getCount() );
+            }
+        }
+    }
+
+    @Test
+    public void acknowledgementsNeverMoveBackwards() throws Exception
+    {
+        ReplicationMonitor monitor = new ReplicationMonitor();
+        monitor.committed( 5 );
+        monitor.pushed( 2, 5, 0 );
+        monitor.slaveApplied( 2, 4 );
+        assertEquals( 5, monitor.getSlaves()[0].getLastAcknowledgedTxId() );
+    }
+
+    @Test
+    public void lockAndCommitRoundTripsAreTrackedApartAndReset() throws Exception
+    {
+        ReplicationMonitor monitor = new ReplicationMonitor();
+        monitor.lockedOnMaster( TimeUnit.MILLISECONDS.toNanos( 1 ) );
+        monitor.lockedOnMaster( TimeUnit.MILLISECONDS.toNanos( 2 ) );
+        monitor.committedOnMaster( TimeUnit.MILLISECONDS.toNanos( 20 ) );
+
+        assertEquals( 2, monitor.getLockLatency().getCount() );
+        assertEquals( 2, monitor.getLockLatency().getMax() );
+        assertEquals( 1, monitor.getCommitLatency().getCount() );
+        assertEquals( 20, monitor.getCommitLatency().getMax() );
+        assertEquals( 0, monitor.getPullLatency().getCount() );
+
+        monitor.reset();
+        assertEquals( 0, monitor.getLockLatency().getCount() );
+        assertEquals( 0, monitor.getCommitLatency().getCount() );
+    }
+
+    @Test
+    public void latencyPercentilesAreBoundedByTheBuckets() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( int i = 0; i < 99; i++ )
+        {
+            histogram.record( TimeUnit.MILLISECONDS.toNanos( 3 ) );
+        }
+        histogram.record( TimeUnit.MILLISECONDS.toNanos( 100 ) );
+
+        LatencyDistribution distribution = histogram.snapshot();
+        assertEquals( 100, distribution.getCount() );
+        assertEquals( 4, distribution.getMedian() );
+        assertEquals( 4, distribution.getPercentile99() );
+        assertEquals( 100, distribution.getMax() );
+        assertTrue( distribution.getMean() > 3 );
+
+        histogram.clear();
+        assertEquals( 0, histogram.snapshot().getCount() );
+    }
+}
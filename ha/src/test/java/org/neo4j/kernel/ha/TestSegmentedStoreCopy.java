@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.neo4j.com.Client;
+import org.neo4j.com.ComException;
+import org.neo4j.com.RequestContext;
+import org.neo4j.com.Response;
+import org.neo4j.com.Server;
+import org.neo4j.com.ServerUtil;
+import org.neo4j.com.StoreCopyManifest;
+import org.neo4j.com.StoreCopySessions;
+import org.neo4j.com.StoreWriter;
+import org.neo4j.com.TxChecksumVerifier;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.InternalAbstractGraphDatabase;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.configuration.ConfigurationDefaults;
+import org.neo4j.kernel.ha.cluster.ClusterMemberModeSwitcher;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.kernel.lifecycle.LifeSupport;
+import org.neo4j.test.DbRepresentation;
+import org.neo4j.test.TargetDirectory;
+
+/**
+ * Copies a store from a master over the network, with a {@link MasterClient18} talking to a master server in
+ * front of a database which serves the store copy requests.
+ */
+public class TestSegmentedStoreCopy
+{
+    private static final int PORT = 8791;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long SEGMENT_SIZE = 4 * 1024;
+
+    private final TargetDirectory directory = TargetDirectory.forTest( TestSegmentedStoreCopy.class );
+    private final LifeSupport life = new LifeSupport();
+    private final StoreCopySessions sessions = new StoreCopySessions();
+    private final AtomicInteger openedSessions = new AtomicInteger();
+    private final AtomicInteger segmentsToServeBeforeFailing = new AtomicInteger( Integer.MAX_VALUE );
+    private final Set<String> servedSegments = Collections.synchronizedSet( new HashSet<String>() );
+    private final List<String> servedTwice = Collections.synchronizedList( new ArrayList<String>() );
+    private GraphDatabaseAPI masterDb;
+    private File slaveDir;
+
+    @Before
+    public void startMasterDb() throws Exception
+    {
+        masterDb = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                directory.directory( "master", true ).getAbsolutePath() ).setConfig(
+                GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+        createNodes( 1000 );
+        slaveDir = directory.directory( "slave", true );
+    }
+
+    @After
+    public void shutDown()
+    {
+        life.shutdown();
+        masterDb.shutdown();
+    }
+
+    @Test
+    public void interruptedCopyResumesFromTheManifest() throws Exception
+    {
+        life.add( new MasterServer( storeCopyingMaster(), StringLogger.DEV_NULL, serverConfiguration(),
+                TxChecksumVerifier.ALWAYS_MATCH ) );
+        MasterClient18 client = life.add( newClient( true ) );
+        life.start();
+        SlaveStoreWriter writer = new SlaveStoreWriter( slaveConfig() );
+
+        // The connection is lost after a few segments, and stays so until the copy has failed
+        segmentsToServeBeforeFailing.set( 5 );
+        try
+        {
+            writer.copyStore( client );
+            fail( "Store copy should have failed" );
+        }
+        catch ( IOException e )
+        {   // Good
+        }
+        File tempStore = new File( slaveDir, SlaveStoreWriter.COPY_FROM_MASTER_TEMP );
+        assertTrue( new File( tempStore, SlaveStoreWriter.STORE_COPY_MANIFEST ).exists() );
+        assertEquals( 5, servedSegments.size() );
+
+        // Transactions committed in the meantime come along when the copy is finished
+        createNodes( 10 );
+        segmentsToServeBeforeFailing.set( Integer.MAX_VALUE );
+        writer.copyStore( client );
+
+        assertEquals( 1, openedSessions.get() );
+        assertEquals( Collections.<String>emptyList(), servedTwice );
+        assertFalse( new File( tempStore, SlaveStoreWriter.STORE_COPY_MANIFEST ).exists() );
+        assertCopyIsTheSameAsMaster();
+    }
+
+    @Test
+    public void resumedCopyStartsOverIfTheMasterServesAnotherStore() throws Exception
+    {
+        life.add( new MasterServer( storeCopyingMaster(), StringLogger.DEV_NULL, serverConfiguration(),
+                TxChecksumVerifier.ALWAYS_MATCH ) );
+        MasterClient18 client = life.add( newClient( true ) );
+        life.start();
+        SlaveStoreWriter writer = new SlaveStoreWriter( slaveConfig() );
+
+        segmentsToServeBeforeFailing.set( 5 );
+        try
+        {
+            writer.copyStore( client );
+            fail( "Store copy should have failed" );
+        }
+        catch ( IOException e )
+        {   // Good
+        }
+
+        // Pretend that the interrupted copy came from another store, which happened to use the same session id
+        File manifestFile = new File( new File( slaveDir, SlaveStoreWriter.COPY_FROM_MASTER_TEMP ),
+                SlaveStoreWriter.STORE_COPY_MANIFEST );
+        StoreCopyManifest manifest = StoreCopyManifest.readFrom( manifestFile );
+        new StoreCopyManifest( manifest.getSessionId(), new StoreId(), manifest.getSegments() ).writeTo(
+                manifestFile );
+        segmentsToServeBeforeFailing.set( Integer.MAX_VALUE );
+        writer.copyStore( client );
+
+        assertEquals( 2, openedSessions.get() );
+        assertCopyIsTheSameAsMaster();
+    }
+
+    @Test
+    public void copiesTheFullStoreFromMastersWithoutSegmentedStoreCopy() throws Exception
+    {
+        life.add( new MasterServer( storeCopyingMaster(), StringLogger.DEV_NULL, serverConfiguration(),
+                TxChecksumVerifier.ALWAYS_MATCH ) );
+        MasterClient18 client = life.add( newClient( false ) );
+        life.start();
+
+        new SlaveStoreWriter( slaveConfig() ).copyStore( client );
+
+        assertEquals( 0, openedSessions.get() );
+        assertCopyIsTheSameAsMaster();
+    }
+
+    @Test
+    public void segmentedStoreCopyIsOnlyUsedWithMastersAdvertisingIt() throws Exception
+    {
+        URI advertising = new URI( "ha://localhost:6001?serverId=1&" + MasterClient18.SEGMENTED_STORE_COPY );
+        assertTrue( MasterClient18.supportsSegmentedStoreCopy( advertising ) );
+        assertEquals( 1, ClusterMemberModeSwitcher.getServerId( advertising ) );
+        assertFalse( MasterClient18.supportsSegmentedStoreCopy( new URI( "ha://localhost:6001?serverId=1" ) ) );
+    }
+
+    private void assertCopyIsTheSameAsMaster()
+    {
+        GraphDatabaseService copy = new GraphDatabaseFactory().newEmbeddedDatabase( slaveDir.getAbsolutePath() );
+        try
+        {
+            assertEquals( DbRepresentation.of( masterDb ), DbRepresentation.of( copy ) );
+        }
+        finally
+        {
+            copy.shutdown();
+        }
+    }
+
+    private Master storeCopyingMaster()
+    {
+        Master master = mock( Master.class );
+        when( master.copyStore( any( RequestContext.class ), any( StoreWriter.class ) ) ).thenAnswer(
+                new Answer<Response<Void>>()
+                {
+                    @Override
+                    public Response<Void> answer( InvocationOnMock invocation ) throws Throwable
+                    {
+                        StoreWriter writer = (StoreWriter) invocation.getArguments()[1];
+                        RequestContext context = ServerUtil.rotateLogsAndStreamStoreFiles( masterDb, true, writer );
+                        writer.done();
+                        return ServerUtil.packResponse( masterDb, context, null, ServerUtil.ALL );
+                    }
+                } );
+        when( master.openStoreCopy( any( RequestContext.class ) ) ).thenAnswer(
+                new Answer<Response<StoreCopyManifest>>()
+                {
+                    @Override
+                    public Response<StoreCopyManifest> answer( InvocationOnMock invocation ) throws Throwable
+                    {
+                        openedSessions.incrementAndGet();
+                        return ServerUtil.packResponseWithoutTransactionStream( masterDb.getStoreId(),
+                                sessions.open( masterDb, true, SEGMENT_SIZE ) );
+                    }
+                } );
+        when( master.copyStoreSegment( any( RequestContext.class ), anyLong(), any( StoreCopyManifest.Segment.class ),
+                any( StoreWriter.class ) ) ).thenAnswer( new Answer<Response<Boolean>>()
+        {
+            @Override
+            public Response<Boolean> answer( InvocationOnMock invocation ) throws Throwable
+            {
+                if ( segmentsToServeBeforeFailing.getAndDecrement() <= 0 )
+                {
+                    throw new ComException( "Connection lost" );
+                }
+                Object[] arguments = invocation.getArguments();
+                StoreCopyManifest.Segment segment = (StoreCopyManifest.Segment) arguments[2];
+                boolean sessionKnown = sessions.streamSegment( (Long) arguments[1], segment,
+                        (StoreWriter) arguments[3] );
+                String name = segment.getPath() + "@" + segment.getOffset();
+                if ( !servedSegments.add( name ) )
+                {
+                    servedTwice.add( name );
+                }
+                return ServerUtil.packResponseWithoutTransactionStream( masterDb.getStoreId(), sessionKnown );
+            }
+        } );
+        when( master.finishStoreCopy( any( RequestContext.class ), anyLong() ) ).thenAnswer(
+                new Answer<Response<Boolean>>()
+                {
+                    @Override
+                    public Response<Boolean> answer( InvocationOnMock invocation ) throws Throwable
+                    {
+                        RequestContext context = sessions.finish( (Long) invocation.getArguments()[1] );
+                        if ( context == null )
+                        {
+                            return ServerUtil.packResponseWithoutTransactionStream( masterDb.getStoreId(), false );
+                        }
+                        return ServerUtil.packResponse( masterDb, context, true, ServerUtil.ALL );
+                    }
+                } );
+        return master;
+    }
+
+    private static MasterClient18 newClient( boolean segmentedStoreCopySupported )
+    {
+        return new MasterClient18( "localhost", PORT, StringLogger.DEV_NULL, null,
+                Client.DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS, Client.DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS,
+                Client.DEFAULT_MAX_NUMBER_OF_CONCURRENT_CHANNELS_PER_CLIENT, CHUNK_SIZE, segmentedStoreCopySupported );
+    }
+
+    private static Server.Configuration serverConfiguration()
+    {
+        return new Server.Configuration()
+        {
+            @Override
+            public long getOldChannelThreshold()
+            {
+                return Client.DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS * 1000;
+            }
+
+            @Override
+            public int getMaxConcurrentTransactions()
+            {
+                return Server.DEFAULT_MAX_NUMBER_OF_CONCURRENT_TRANSACTIONS;
+            }
+
+            @Override
+            public int getPort()
+            {
+                return PORT;
+            }
+
+            @Override
+            public int getChunkSize()
+            {
+                return CHUNK_SIZE;
+            }
+
+            @Override
+            public String getServerAddress()
+            {
+                return null;
+            }
+        };
+    }
+
+    private Config slaveConfig()
+    {
+        // One segment at a time, so that exactly the segments served before the failure have been completed
+        return new Config( new ConfigurationDefaults( GraphDatabaseSettings.class, HaSettings.class ).apply( stringMap(
+                InternalAbstractGraphDatabase.Configuration.store_dir.name(), slaveDir.getAbsolutePath(),
+                HaSettings.server_id.name(), "2",
+                HaSettings.store_copy_parallelism.name(), "1" ) ) );
+    }
+
+    private void createNodes( int count )
+    {
+        Transaction tx = masterDb.beginTx();
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                masterDb.createNode().setProperty( "name", "node " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
@@ -19,8 +19,12 @@
  */
 package org.neo4j.kernel.impl.cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.junit.Before;
@@ -122,6 +126,68 @@ public class TestGCResistantCache
         cache.remove( -1l );
     }
     
+    @Test
+    public void assertThatCachedIdsListsEntriesInCache()
+    {
+        cache.put( new Entity( 2, 1 ) );
+        cache.put( new Entity( 7, 1 ) );
+        cache.put( new Entity( 17, 1 ) ); // replaces 7
+        long[] ids = cache.cachedIds( 10 );
+        Arrays.sort( ids );
+        assertArrayEquals( new long[] { 2, 17 }, ids );
+        assertEquals( 1, cache.cachedIds( 1 ).length );
+    }
+
+    @Test
+    public void assertThatCachedIdsListsMostRecentlyUsedEntriesFirst()
+    {
+        for ( int i = 1; i <= 5; i++ )
+        {
+            cache.put( new Entity( i, 1 ) );
+        }
+        cache.cachedIds( 10 );
+        cache.get( 4 );
+        cache.get( 2 );
+        long[] ids = cache.cachedIds( 2 );
+        Arrays.sort( ids );
+        assertArrayEquals( new long[] { 2, 4 }, ids );
+    }
+
+    @Test
+    public void assertThatEntriesUnusedForManyListingsStayOldest()
+    {
+        cache.put( new Entity( 1, 1 ) );
+        cache.put( new Entity( 2, 1 ) );
+        for ( int i = 0; i < 300; i++ )
+        {
+            if ( i == 150 )
+            {
+                cache.get( 2 );
+            }
+            cache.cachedIds( 10 );
+        }
+        assertArrayEquals( new long[] { 2 }, cache.cachedIds( 1 ) );
+        assertEquals( 2, cache.cachedIds( 10 ).length );
+    }
+
+    @Test
+    public void assertThatPurgingIsHandedOffAndKeepsSizeBelowHardLimit()
+    {
+        GCResistantCache<Entity> smallCache = new GCResistantCache<Entity>( new AtomicReferenceArray<Entity>( 1000 ),
+                100, false );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            smallCache.put( new Entity( i, 1 ) );
+            // Callers above the hard limit (105%) evict until they're back under it
+            assertTrue( "Size " + smallCache.size() + " above hard limit", smallCache.size() <= 106 );
+        }
+
+        // The purge the callers asked for is run here instead of in a purger thread
+        assertTrue( "No purge was requested", smallCache.purgeIfRequested() );
+        assertTrue( "Purge didn't bring size down, was " + smallCache.size(), smallCache.size() <= 90 );
+        assertFalse( "Purge was requested again", smallCache.purgeIfRequested() );
+    }
+
     private static class Entity implements EntityWithSize
     {
         private final long id;
@@ -22,6 +22,8 @@ package slavetest;
 import org.junit.Ignore;
 import org.neo4j.com.RequestContext;
 import org.neo4j.com.Response;
+import org.neo4j.com.StoreChecksums;
+import org.neo4j.com.StoreCopyManifest;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TxExtractor;
 import org.neo4j.helpers.Pair;
@@ -128,6 +130,28 @@ class TestMaster implements Master
         return actual.copyStore( context, writer );
     }
 
+    public Response<StoreCopyManifest> openStoreCopy( RequestContext context )
+    {
+        return actual.openStoreCopy( context );
+    }
+
+    public Response<Boolean> copyStoreSegment( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreWriter writer )
+    {
+        return actual.copyStoreSegment( context, sessionId, segment, writer );
+    }
+
+    public Response<Boolean> copyStoreSegmentDelta( RequestContext context, long sessionId,
+            StoreCopyManifest.Segment segment, StoreChecksums checksums, StoreWriter writer )
+    {
+        return actual.copyStoreSegmentDelta( context, sessionId, segment, checksums, writer );
+    }
+
+    public Response<Boolean> finishStoreCopy( RequestContext context, long sessionId )
+    {
+        return actual.finishStoreCopy( context, sessionId );
+    }
+
     public Response<LockResult> acquireIndexWriteLock( RequestContext context, String index,
             String key )
     {